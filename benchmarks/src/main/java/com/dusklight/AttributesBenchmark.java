@@ -0,0 +1,99 @@
+package com.dusklight;
+
+import org.keycloak.component.ComponentModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DusklightUserAdapterFederatedStorage.getAttributes as token mappers use it: several reads of the same user while
+ * one token is built.  memoized reads through one adapter, which merges the attributes once; newAdapterPerRead pays for
+ * the merge on every read, as the adapter did before it kept the merged map.
+ *
+ * Keycloak's federated storage is replaced by a stub that costs federatedStorageCost Blackhole tokens per read, since
+ * the real one needs a KeycloakSession.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AttributesBenchmark {
+
+    // Roughly the number of user attribute and property mappers in a typical client's token.
+    @Param({"1", "10"})
+    public int readsPerToken;
+
+    @Param({"0", "1000"})
+    public long federatedStorageCost;
+
+    private ComponentModel model;
+    private DusklightUserEntity entity;
+
+    @Setup
+    public void setUp() {
+        model = new ComponentModel();
+        model.setId("benchmark");
+
+        entity = new DusklightUserEntity();
+        entity.setUserId(1);
+        entity.setUsername(SyntheticUsersDatabase.usernameOf(0));
+        entity.setFirstName("First0");
+        entity.setLastName("Last0");
+        entity.setDepartment("Engineering");
+    }
+
+    @Benchmark
+    public void memoized(Blackhole blackhole) {
+        var user = new StubbedAdapter(model, entity, federatedStorageCost);
+
+        for (int i = 0; i < readsPerToken; i++) {
+            blackhole.consume(user.getAttributes());
+        }
+    }
+
+    @Benchmark
+    public void newAdapterPerRead(Blackhole blackhole) {
+        for (int i = 0; i < readsPerToken; i++) {
+            blackhole.consume(new StubbedAdapter(model, entity, federatedStorageCost).getAttributes());
+        }
+    }
+
+    @Benchmark
+    public void firstAttribute(Blackhole blackhole) {
+        var user = new StubbedAdapter(model, entity, federatedStorageCost);
+
+        for (int i = 0; i < readsPerToken; i++) {
+            blackhole.consume(user.getFirstAttribute(DusklightUserAdapterFederatedStorage.DEPARTMENT_ATTRIBUTE));
+        }
+    }
+
+    private static class StubbedAdapter extends DusklightUserAdapterFederatedStorage {
+        private final long federatedStorageCost;
+
+        StubbedAdapter(ComponentModel model, DusklightUserEntity entity, long federatedStorageCost) {
+            super(null, null, model, entity);
+            this.federatedStorageCost = federatedStorageCost;
+        }
+
+        @Override
+        protected Map<String, List<String>> loadFederatedAttributes() {
+            Blackhole.consumeCPU(federatedStorageCost);
+            return Map.of("employeeType", List.of("staff"));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.dusklight;
+
+import org.keycloak.common.util.MultivaluedHashMap;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.UserCredentialModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.dusklight.DusklightUserStorageProviderFactory.*;
+
+/**
+ * DusklightUserStorageProvider.isValid end-to-end for an adapter that was already looked up, as in a login after
+ * getUserByUsername: credential parsing, the verified-credential cache, the hashing executor and the hash itself.
+ *
+ * The provider is built without a KeycloakSession; isValid doesn't need one for an adapter of this provider.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IsValidBenchmark {
+
+    @Param({"false", "true"})
+    public String credentialCacheEnabled;
+
+    private SyntheticUsersDatabase database;
+    private DusklightComponentResources resources;
+    private DusklightUserStorageProvider provider;
+    private DusklightUserAdapterFederatedStorage user;
+    private UserCredentialModel correctPassword;
+    private UserCredentialModel wrongPassword;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new SyntheticUsersDatabase(100);
+
+        var model = new ComponentModel();
+        var config = new MultivaluedHashMap<String, String>();
+
+        config.putSingle(CONFIG_CREDENTIAL_CACHE_ENABLED, credentialCacheEnabled);
+        model.setId("benchmark");
+        model.setConfig(config);
+
+        resources = new DusklightComponentResources(model, database.getDataSource());
+        provider = new DusklightUserStorageProvider(null, model, resources);
+
+        var entity = resources.getRepository().findByUsername(SyntheticUsersDatabase.usernameOf(0));
+        user = new DusklightUserAdapterFederatedStorage(null, null, model, entity);
+
+        correctPassword = UserCredentialModel.password(SyntheticUsersDatabase.PASSWORD);
+        wrongPassword = UserCredentialModel.password("wrong-" + SyntheticUsersDatabase.PASSWORD);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        resources.close();
+        database.close();
+    }
+
+    @Benchmark
+    public boolean correctPassword() {
+        return provider.isValid(null, user, correctPassword);
+    }
+
+    @Benchmark
+    public boolean wrongPassword() {
+        return provider.isValid(null, user, wrongPassword);
+    }
+}
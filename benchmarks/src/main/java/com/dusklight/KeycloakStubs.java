@@ -0,0 +1,79 @@
+package com.dusklight;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Minimal stand-ins for the Keycloak interfaces the provider is given, for driving it outside of Keycloak.  Methods
+ * return the configured value, or null, 0 or false.
+ */
+public final class KeycloakStubs {
+
+    private KeycloakStubs() {}
+
+    /**
+     * A session without a transaction manager, so that profile changes are written straight away, and without
+     * federated storage or a context.
+     */
+    public static KeycloakSession session() {
+        return stub(KeycloakSession.class, Map.of());
+    }
+
+    public static RealmModel realm(String id) {
+        return stub(RealmModel.class, Map.of("getId", id, "getName", id));
+    }
+
+    /**
+     * Builds a stub of an interface.
+     *
+     * @param type Interface to implement
+     * @param returnValues Return values by method name
+     * @param <T> Interface type
+     * @return The stub
+     */
+    public static <T> T stub(Class<T> type, Map<String, Object> returnValues) {
+        Object stub = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + "Stub";
+            }
+
+            if (returnValues.containsKey(method.getName())) {
+                return returnValues.get(method.getName());
+            }
+
+            return defaultValue(method.getReturnType());
+        });
+
+        return type.cast(stub);
+    }
+
+    private static Object defaultValue(Class<?> returnType) {
+        if (returnType == boolean.class) {
+            return false;
+        } else if (returnType == int.class) {
+            return 0;
+        } else if (returnType == long.class) {
+            return 0L;
+        } else if (returnType == double.class) {
+            return 0.0;
+        } else if (returnType == float.class) {
+            return 0.0f;
+        } else if (returnType == short.class) {
+            return (short) 0;
+        } else if (returnType == byte.class) {
+            return (byte) 0;
+        } else if (returnType == char.class) {
+            return (char) 0;
+        }
+
+        return null;
+    }
+}
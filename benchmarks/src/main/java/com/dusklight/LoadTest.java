@@ -0,0 +1,382 @@
+package com.dusklight;
+
+import org.keycloak.common.util.MultivaluedHashMap;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserCredentialModel;
+import org.keycloak.storage.StorageId;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Drives DusklightUserStorageProvider with a mixed workload from many threads, the way Keycloak calls it, without
+ * Keycloak or SQL Server: the provider gets stubbed Keycloak objects (see KeycloakStubs) and an in-memory H2 database
+ * seeded with synthetic users (see SyntheticUsersDatabase).  As in Keycloak, every operation gets a new provider, and
+ * the node-wide resources are shared.
+ *
+ * Reports the throughput and the p50/p99/p99.9 latency of each operation, writes them to load-test-result.json, and
+ * exits with status 1 if a threshold is exceeded, so that it can fail a build (see the load-test profile of the
+ * benchmarks pom).
+ *
+ * Options, all optional, as --name=value:
+ * <ul>
+ *     <li>users: Number of synthetic users (default 1000000)</li>
+ *     <li>threads: Number of concurrent clients (default 32)</li>
+ *     <li>warmup: Seconds to run before measuring (default 15)</li>
+ *     <li>duration: Seconds to measure (default 60)</li>
+ *     <li>mix: Weight of each operation, e.g. "login:55,token-refresh:35,admin-search:4,admin-page:4,password-change:2"</li>
+ *     <li>thresholds: Properties file with thresholds, e.g. "login.p99.max-ms=500", "login.throughput.min=100",
+ *         "error-rate.max=0.01"</li>
+ *     <li>pool-size: Maximum number of pooled connections (default 20)</li>
+ *     <li>config.{name}: Component setting, e.g. --config.dusklight_credential_cache_enabled=true</li>
+ * </ul>
+ */
+public final class LoadTest {
+
+    /**
+     * Operations of the workload.
+     */
+    enum Operation {
+        // Username lookup and password check, as in a password grant or the login form.
+        LOGIN("login", 55),
+        // Lookup by Keycloak ID and reading the mapped attributes, as when a token is refreshed.
+        TOKEN_REFRESH("token-refresh", 35),
+        // Username search in the admin console.
+        ADMIN_SEARCH("admin-search", 4),
+        // A page of "View all users" in the admin console.
+        ADMIN_PAGE("admin-page", 4),
+        PASSWORD_CHANGE("password-change", 2);
+
+        final String label;
+        final int defaultWeight;
+
+        Operation(String label, int defaultWeight) {
+            this.label = label;
+            this.defaultWeight = defaultWeight;
+        }
+
+        static Operation ofLabel(String label) {
+            for (var operation : values()) {
+                if (operation.label.equals(label)) {
+                    return operation;
+                }
+            }
+
+            throw new IllegalArgumentException("Unknown operation: " + label);
+        }
+    }
+
+    private static final int PAGE_SIZE = 20;
+
+    private final Map<String, String> options;
+    private final int userCount;
+    private final Operation[] schedule;
+
+    private DusklightComponentResources resources;
+    private ComponentModel model;
+    private RealmModel realm;
+
+    private volatile boolean measuring;
+    private volatile boolean stopped;
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+        this.userCount = Integer.parseInt(options.getOrDefault("users", "1000000"));
+        this.schedule = buildSchedule(options.get("mix"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+
+        for (var arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        System.exit(new LoadTest(options).run());
+    }
+
+    private int run() throws Exception {
+        var threads = Integer.parseInt(options.getOrDefault("threads", "32"));
+        var warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "15"));
+        var durationSeconds = Integer.parseInt(options.getOrDefault("duration", "60"));
+
+        System.out.printf("Seeding %d users...%n", userCount);
+
+        try (var database = new SyntheticUsersDatabase(userCount, Integer.parseInt(options.getOrDefault("pool-size", "20")))) {
+            model = buildComponentModel();
+            realm = KeycloakStubs.realm("load-test");
+            resources = new DusklightComponentResources(model, database.getDataSource());
+
+            try {
+                System.out.printf("Running %d threads: %ds warmup, %ds measured%n", threads, warmupSeconds, durationSeconds);
+
+                var recorders = runWorkload(threads, warmupSeconds, durationSeconds);
+                var summaries = new ArrayList<LoadTestRecorder.Summary>();
+
+                for (var operation : Operation.values()) {
+                    summaries.add(LoadTestRecorder.summarize(recorders, operation, durationSeconds));
+                }
+
+                printReport(summaries);
+                writeResults(summaries);
+
+                var violations = checkThresholds(summaries);
+
+                violations.forEach(violation -> System.out.println("THRESHOLD EXCEEDED: " + violation));
+
+                return violations.isEmpty() ? 0 : 1;
+            } finally {
+                resources.close();
+            }
+        }
+    }
+
+    private ComponentModel buildComponentModel() {
+        var config = new MultivaluedHashMap<String, String>();
+
+        options.forEach((name, value) -> {
+            if (name.startsWith("config.")) {
+                config.putSingle(name.substring("config.".length()), value);
+            }
+        });
+
+        var componentModel = new ComponentModel();
+        componentModel.setId("load-test");
+        componentModel.setName("load-test");
+        componentModel.setProviderId(DusklightUserStorageProviderFactory.PROVIDER_NAME);
+        componentModel.setConfig(config);
+
+        return componentModel;
+    }
+
+    private List<LoadTestRecorder> runWorkload(int threads, int warmupSeconds, int durationSeconds) throws InterruptedException {
+        List<LoadTestRecorder> recorders = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, DusklightComponentResources.daemonThreadFactory("load-test"));
+
+        for (int i = 0; i < threads; i++) {
+            var recorder = new LoadTestRecorder();
+
+            recorders.add(recorder);
+            executor.execute(() -> runClient(recorder));
+        }
+
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        measuring = true;
+        TimeUnit.SECONDS.sleep(durationSeconds);
+        stopped = true;
+
+        executor.shutdown();
+
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Load-test threads didn't finish.");
+        }
+
+        return recorders;
+    }
+
+    private void runClient(LoadTestRecorder recorder) {
+        var random = ThreadLocalRandom.current();
+        var measured = false;
+
+        while (!stopped) {
+            if (!measured && measuring) {
+                // Drop what was recorded during the warmup.
+                recorder.reset();
+                measured = true;
+            }
+
+            var operation = schedule[random.nextInt(schedule.length)];
+            var username = SyntheticUsersDatabase.usernameOf(random.nextInt(userCount));
+            var start = System.nanoTime();
+            boolean succeeded;
+
+            try {
+                succeeded = runOperation(operation, username, random);
+            } catch (RuntimeException ex) {
+                succeeded = false;
+            }
+
+            recorder.record(operation, System.nanoTime() - start, succeeded);
+        }
+    }
+
+    private boolean runOperation(Operation operation, String username, ThreadLocalRandom random) {
+        // A new provider per operation, as Keycloak creates one per session.
+        var provider = new DusklightUserStorageProvider(KeycloakStubs.session(), model, resources);
+
+        switch (operation) {
+            case LOGIN: {
+                var user = provider.getUserByUsername(username, realm);
+
+                return user != null
+                        && provider.isValid(realm, user, UserCredentialModel.password(SyntheticUsersDatabase.PASSWORD));
+            }
+            case TOKEN_REFRESH: {
+                var user = provider.getUserById(StorageId.keycloakId(model, username), realm);
+
+                return user != null
+                        && user.getFirstName() != null
+                        && user.getLastName() != null
+                        && user.getFirstAttribute(DusklightUserAdapterFederatedStorage.DEPARTMENT_ATTRIBUTE) != null;
+            }
+            case ADMIN_SEARCH: {
+                // Usernames with up to three digits after "user" match many users, as partial searches do.
+                var search = username.substring(0, Math.min(username.length(), 4 + 1 + random.nextInt(3)));
+
+                try (var users = provider.searchForUserStream(realm, search, 0, PAGE_SIZE)) {
+                    return users.count() > 0;
+                }
+            }
+            case ADMIN_PAGE: {
+                var firstResult = random.nextInt(Math.max(1, userCount / PAGE_SIZE)) * PAGE_SIZE;
+
+                try (var users = provider.getUsersStream(realm, firstResult, PAGE_SIZE)) {
+                    return users.count() > 0;
+                }
+            }
+            case PASSWORD_CHANGE: {
+                var user = provider.getUserByUsername(username, realm);
+
+                // The same password, so that later logins of the user still succeed.
+                return user != null
+                        && provider.updateCredential(realm, user, UserCredentialModel.password(SyntheticUsersDatabase.PASSWORD));
+            }
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+    /**
+     * Builds a table of operations to pick from at random, each appearing as often as its weight.
+     */
+    private static Operation[] buildSchedule(String mix) {
+        Map<Operation, Integer> weights = new LinkedHashMap<>();
+
+        if (mix == null || mix.isBlank()) {
+            for (var operation : Operation.values()) {
+                weights.put(operation, operation.defaultWeight);
+            }
+        } else {
+            for (var entry : mix.split(",")) {
+                var parts = entry.trim().split(":");
+                weights.put(Operation.ofLabel(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+            }
+        }
+
+        List<Operation> schedule = new ArrayList<>();
+
+        weights.forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                schedule.add(operation);
+            }
+        });
+
+        if (schedule.isEmpty()) {
+            throw new IllegalArgumentException("The mix has no operations: " + mix);
+        }
+
+        return schedule.toArray(new Operation[0]);
+    }
+
+    private static void printReport(List<LoadTestRecorder.Summary> summaries) {
+        System.out.printf("%n%-16s %10s %8s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+
+        for (var summary : summaries) {
+            System.out.printf(Locale.ROOT, "%-16s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+                    summary.operation.label, summary.count, summary.errors, summary.throughput,
+                    millis(summary.p50Nanos), millis(summary.p99Nanos), millis(summary.p999Nanos), millis(summary.maxNanos));
+        }
+    }
+
+    private void writeResults(List<LoadTestRecorder.Summary> summaries) throws IOException {
+        var json = summaries.stream()
+                .map(summary -> String.format(Locale.ROOT,
+                        "  \"%s\": {\"count\": %d, \"errors\": %d, \"throughput\": %.1f, \"p50Ms\": %.3f, \"p99Ms\": %.3f, \"p999Ms\": %.3f, \"maxMs\": %.3f}",
+                        summary.operation.label, summary.count, summary.errors, summary.throughput,
+                        millis(summary.p50Nanos), millis(summary.p99Nanos), millis(summary.p999Nanos), millis(summary.maxNanos)))
+                .collect(Collectors.joining(",\n", "{\n", "\n}\n"));
+
+        Files.writeString(Path.of(options.getOrDefault("result-file", "load-test-result.json")), json, StandardCharsets.UTF_8);
+
+        // The provider's own view of the run, in the format of the metrics endpoint.
+        Files.writeString(Path.of("load-test-metrics.prom"), DusklightMetricsExporter.export(List.of(
+                new DusklightMetricsExporter.Component(model.getName(), resources.getMetrics(), resources.getCacheStatistics(),
+                        resources.getHashingExecutor()))),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks the results against the thresholds file, if one was given.
+     *
+     * @return Descriptions of the thresholds that were exceeded.
+     */
+    private List<String> checkThresholds(List<LoadTestRecorder.Summary> summaries) throws IOException {
+        List<String> violations = new ArrayList<>();
+        var thresholdsFile = options.get("thresholds");
+
+        if (thresholdsFile == null) {
+            return violations;
+        }
+
+        var thresholds = new Properties();
+
+        try (InputStream in = new FileInputStream(thresholdsFile)) {
+            thresholds.load(in);
+        }
+
+        var maxErrorRate = thresholds.getProperty("error-rate.max");
+
+        for (var summary : summaries) {
+            var prefix = summary.operation.label + ".";
+
+            checkMax(violations, thresholds, prefix + "p50.max-ms", millis(summary.p50Nanos));
+            checkMax(violations, thresholds, prefix + "p99.max-ms", millis(summary.p99Nanos));
+            checkMax(violations, thresholds, prefix + "p999.max-ms", millis(summary.p999Nanos));
+
+            var minThroughput = thresholds.getProperty(prefix + "throughput.min");
+
+            if (minThroughput != null && summary.throughput < Double.parseDouble(minThroughput)) {
+                violations.add(String.format(Locale.ROOT, "%sthroughput %.1f < %s", prefix, summary.throughput, minThroughput));
+            }
+
+            if (maxErrorRate != null && summary.errorRate() > Double.parseDouble(maxErrorRate)) {
+                violations.add(String.format(Locale.ROOT, "%serror-rate %.4f > %s", prefix, summary.errorRate(), maxErrorRate));
+            }
+        }
+
+        return violations;
+    }
+
+    private static void checkMax(List<String> violations, Properties thresholds, String name, double value) {
+        var max = thresholds.getProperty(name);
+
+        if (max != null && value > Double.parseDouble(max)) {
+            violations.add(String.format(Locale.ROOT, "%s: %.2f > %s", name, value, max));
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
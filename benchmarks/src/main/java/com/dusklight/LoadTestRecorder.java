@@ -0,0 +1,110 @@
+package com.dusklight;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Latencies and errors of the operations run by one load-test thread.  Every latency is kept, so that percentiles are
+ * exact; at a few million operations per run that is tens of megabytes.
+ */
+class LoadTestRecorder {
+    private final long[][] latencies = new long[LoadTest.Operation.values().length][];
+    private final int[] counts = new int[LoadTest.Operation.values().length];
+    private final long[] errors = new long[LoadTest.Operation.values().length];
+
+    LoadTestRecorder() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new long[1024];
+        }
+    }
+
+    void record(LoadTest.Operation operation, long latencyNanos, boolean succeeded) {
+        int index = operation.ordinal();
+
+        if (counts[index] == latencies[index].length) {
+            latencies[index] = Arrays.copyOf(latencies[index], counts[index] * 2);
+        }
+
+        latencies[index][counts[index]++] = latencyNanos;
+
+        if (!succeeded) {
+            errors[index]++;
+        }
+    }
+
+    void reset() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(errors, 0);
+    }
+
+    /**
+     * Statistics of one operation, merged across threads.
+     */
+    static final class Summary {
+        final LoadTest.Operation operation;
+        final long count;
+        final long errors;
+        final double throughput;
+        final long p50Nanos;
+        final long p99Nanos;
+        final long p999Nanos;
+        final long maxNanos;
+
+        private Summary(LoadTest.Operation operation, long[] sortedLatencies, long errors, double seconds) {
+            this.operation = operation;
+            this.count = sortedLatencies.length;
+            this.errors = errors;
+            this.throughput = count / seconds;
+            this.p50Nanos = percentile(sortedLatencies, 0.5);
+            this.p99Nanos = percentile(sortedLatencies, 0.99);
+            this.p999Nanos = percentile(sortedLatencies, 0.999);
+            this.maxNanos = sortedLatencies.length == 0 ? 0 : sortedLatencies[sortedLatencies.length - 1];
+        }
+
+        double errorRate() {
+            return count == 0 ? 0 : (double) errors / count;
+        }
+    }
+
+    /**
+     * Merges the recorders of all threads.
+     *
+     * @param recorders Recorders to merge
+     * @param operation Operation to summarize
+     * @param seconds Length of the measurement, for the throughput
+     * @return The operation's statistics
+     */
+    static Summary summarize(List<LoadTestRecorder> recorders, LoadTest.Operation operation, double seconds) {
+        int index = operation.ordinal();
+        int total = 0;
+        long errors = 0;
+
+        for (var recorder : recorders) {
+            total += recorder.counts[index];
+            errors += recorder.errors[index];
+        }
+
+        long[] merged = new long[total];
+        int position = 0;
+
+        for (var recorder : recorders) {
+            System.arraycopy(recorder.latencies[index], 0, merged, position, recorder.counts[index]);
+            position += recorder.counts[index];
+        }
+
+        Arrays.sort(merged);
+
+        return new Summary(operation, merged, errors, seconds);
+    }
+
+    // Nearest-rank percentile.
+    static long percentile(long[] sortedValues, double quantile) {
+        if (sortedValues.length == 0) {
+            return 0;
+        }
+
+        int rank = (int) Math.ceil(quantile * sortedValues.length);
+
+        return sortedValues[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,74 @@
+package com.dusklight;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Reading page N of the user list with each paging strategy, as the provider does: OFFSET/FETCH, whose cost grows with
+ * the number of rows skipped, and the keyset seek after the last UserId of the previous page, which the "keyset"
+ * Paging Mode uses when it remembers that UserId.  Page 0 is the same query for both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PagingBenchmark {
+
+    private static final int USER_COUNT = 100000;
+
+    @Param({"0", "10", "100", "1000", "4999"})
+    public int page;
+
+    @Param({"20"})
+    public int pageSize;
+
+    private SyntheticUsersDatabase database;
+    private DusklightUserRepository repository;
+    private int previousPageLastUserId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new SyntheticUsersDatabase(USER_COUNT);
+        repository = new DusklightUserRepository(database.getDataSource());
+
+        // UserIds are 1 to USER_COUNT, so the previous page ends at this one.
+        previousPageLastUserId = page * pageSize;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<DusklightUserEntity> offset() {
+        try (var users = repository.streamUsersPage(null, false, null, page * pageSize, pageSize)) {
+            return users.collect(Collectors.toList());
+        }
+    }
+
+    @Benchmark
+    public List<DusklightUserEntity> keyset() {
+        try (var users = repository.streamUsersPage(null, false, previousPageLastUserId, 0, pageSize)) {
+            return users.collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.dusklight;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of verifying and of creating a password hash with each algorithm the provider supports, at its default
+ * parameters.  Compare with the security each buys: PBKDF2 costs are comparable by iteration count and digest, Argon2
+ * adds its memory (19 MiB by default) to every guess.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHasherBenchmark {
+
+    @Param({Pbkdf2PasswordHasher.PBKDF2_SHA256, Pbkdf2PasswordHasher.PBKDF2_SHA512, Argon2PasswordHasher.ARGON2ID})
+    public String algorithm;
+
+    private PasswordHashers passwordHashers;
+    private PasswordCredential credential;
+
+    @Setup
+    public void setUp() {
+        PasswordHasher hasher = Argon2PasswordHasher.ARGON2ID.equals(algorithm)
+                ? new Argon2PasswordHasher(Argon2PasswordHasher.DEFAULT_ITERATIONS, Argon2PasswordHasher.DEFAULT_MEMORY_KIB,
+                        Argon2PasswordHasher.DEFAULT_PARALLELISM)
+                : new Pbkdf2PasswordHasher(algorithm, Pbkdf2PasswordHasher.DEFAULT_ITERATIONS);
+
+        passwordHashers = new PasswordHashers(hasher, List.of());
+        credential = passwordHashers.parse(passwordHashers.hash(SyntheticUsersDatabase.PASSWORD));
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return credential.matches(SyntheticUsersDatabase.PASSWORD);
+    }
+
+    @Benchmark
+    public String hash() {
+        return passwordHashers.hash(SyntheticUsersDatabase.PASSWORD);
+    }
+}
@@ -0,0 +1,56 @@
+package com.dusklight;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one password hash, which is what a login costs, across iteration counts and algorithms.
+ * generateHashBase64 is what the provider runs (Pbkdf2Engine where supported); jce is the JCE SecretKeyFactory it
+ * replaced, as the baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Pbkdf2Benchmark {
+
+    @Param({"PBKDF2WithHmacSHA1", "PBKDF2WithHmacSHA256", "PBKDF2WithHmacSHA512"})
+    public String algorithm;
+
+    // 27500 is the provider's and Keycloak's default.
+    @Param({"10000", "27500", "100000"})
+    public int iterations;
+
+    private String saltBase64;
+    private byte[] saltBytes;
+
+    @Setup
+    public void setUp() {
+        saltBase64 = Pbkdf2Provider.generateSaltBase64(16);
+        saltBytes = Base64.getDecoder().decode(saltBase64);
+    }
+
+    @Benchmark
+    public String generateHashBase64() {
+        return Pbkdf2Provider.generateHashBase64(SyntheticUsersDatabase.PASSWORD, saltBase64, iterations, 64, algorithm);
+    }
+
+    @Benchmark
+    public byte[] jce() {
+        return Pbkdf2Provider.generateHashJce(SyntheticUsersDatabase.PASSWORD, saltBytes, iterations, 64, algorithm);
+    }
+}
@@ -0,0 +1,90 @@
+package com.dusklight;
+
+import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.ResultSetHandler;
+import org.apache.commons.dbutils.handlers.BeanListHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Reading all users, as the original retrieveDusklightUsers did, with each way of mapping the rows: dbutils'
+ * BeanListHandler (reflection per row, the original implementation), DusklightUserRowMapper by column index, and the
+ * LIST projection that leaves out PasswordHash.  streamUsersPage reads the same rows the way the provider reads a
+ * page, mapping them as the stream is consumed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowMappingBenchmark {
+
+    private static final String SELECT_ALL = "SELECT " + DusklightUserRowMapper.USER_COLUMNS + " FROM Users";
+    private static final String SELECT_LIST = "SELECT " + DusklightUserProjection.LIST.getColumns() + " FROM Users";
+
+    @Param({"100", "1000", "10000"})
+    public int userCount;
+
+    private SyntheticUsersDatabase database;
+    private DusklightUserRepository repository;
+    private ResultSetHandler<List<DusklightUserEntity>> beanListHandler;
+    private ResultSetHandler<List<DusklightUserEntity>> listProjectionHandler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new SyntheticUsersDatabase(userCount);
+        repository = new DusklightUserRepository(database.getDataSource());
+        beanListHandler = new BeanListHandler<>(DusklightUserEntity.class);
+        listProjectionHandler = DusklightUserRowMapper.listHandler(DusklightUserProjection.LIST, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<DusklightUserEntity> beanListHandler() throws SQLException {
+        return query(SELECT_ALL, beanListHandler);
+    }
+
+    @Benchmark
+    public List<DusklightUserEntity> rowMapper() throws SQLException {
+        return query(SELECT_ALL, DusklightUserRowMapper.LIST_HANDLER);
+    }
+
+    @Benchmark
+    public List<DusklightUserEntity> listProjection() throws SQLException {
+        return query(SELECT_LIST, listProjectionHandler);
+    }
+
+    @Benchmark
+    public List<DusklightUserEntity> streamUsersPage() {
+        try (var users = repository.streamUsersPage(null, false, null, 0, userCount)) {
+            return users.collect(Collectors.toList());
+        }
+    }
+
+    private List<DusklightUserEntity> query(String sql, ResultSetHandler<List<DusklightUserEntity>> handler) throws SQLException {
+        try (var connection = database.getDataSource().getConnection()) {
+            return new QueryRunner().query(connection, sql, handler);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.dusklight;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory H2 database, in SQL Server compatibility mode, with a Users table shaped like the one in
+ * docker-scripts/init-mssql-db.sql and filled with synthetic users, so that the benchmarks exercise the real queries
+ * and row mapping without a SQL Server.
+ *
+ * H2 has no rowversion type, so the RowVersion column and the queries that read it (change polling and delta sync)
+ * are left out.
+ */
+public class SyntheticUsersDatabase implements AutoCloseable {
+
+    public static final String PASSWORD = "benchmark-password";
+    public static final int ITERATIONS = 27500;
+
+    private static final String[] DEPARTMENTS = {"Accounting", "Engineering", "Marketing", "Sales", "Support"};
+    private static final AtomicInteger databaseCounter = new AtomicInteger();
+
+    private final HikariDataSource dataSource;
+    private final String passwordHash;
+
+    /**
+     * Creates the database and inserts the users.
+     *
+     * @param userCount Number of users to insert, named "user0" to "user{userCount - 1}"
+     */
+    public SyntheticUsersDatabase(int userCount) throws SQLException {
+        this(userCount, Math.max(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Creates the database and inserts the users.
+     *
+     * @param userCount Number of users to insert, named "user0" to "user{userCount - 1}"
+     * @param poolSize Maximum number of pooled connections
+     */
+    public SyntheticUsersDatabase(int userCount, int poolSize) throws SQLException {
+        var config = new HikariConfig();
+
+        // Each instance gets its own database, kept until the pool is closed.  H2 would otherwise answer a repeated
+        // query on an unchanged table from its last result, which SQL Server doesn't, and no query would be measured.
+        config.setJdbcUrl("jdbc:h2:mem:dusklight" + databaseCounter.incrementAndGet()
+                + ";MODE=MSSQLServer;DB_CLOSE_DELAY=-1;OPTIMIZE_REUSE_RESULTS=FALSE");
+        config.setUsername("sa");
+        config.setPassword("");
+        config.setMaximumPoolSize(poolSize);
+
+        this.dataSource = new HikariDataSource(config);
+
+        // Hashing is what the credential benchmarks measure, so every user shares one precomputed hash.
+        var salt = Pbkdf2Provider.generateSaltBase64(16);
+        this.passwordHash = Pbkdf2Provider.generateHashBase64(PASSWORD, salt, ITERATIONS, 64, "PBKDF2WithHmacSHA256")
+                + "." + salt + "." + ITERATIONS;
+
+        createUsers(userCount);
+    }
+
+    private void createUsers(int userCount) throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            try (var statement = connection.createStatement()) {
+                statement.execute("" +
+                        "CREATE TABLE Users(\n" +
+                        "   UserId int IDENTITY(1,1) NOT NULL PRIMARY KEY,\n" +
+                        "   Username nvarchar(100) NOT NULL UNIQUE,\n" +
+                        "   PasswordHash nvarchar(256) NOT NULL,\n" +
+                        "   FirstName nvarchar(100) NOT NULL,\n" +
+                        "   LastName nvarchar(100) NOT NULL,\n" +
+                        "   Department nvarchar(100) NOT NULL\n" +
+                        ")");
+                statement.execute("CREATE INDEX IX_Users_Department ON Users(Department)");
+            }
+
+            var sql = "INSERT INTO Users (Username, PasswordHash, FirstName, LastName, Department) VALUES (?, ?, ?, ?, ?)";
+
+            try (var insert = connection.prepareStatement(sql)) {
+                for (int i = 0; i < userCount; i++) {
+                    insert.setString(1, usernameOf(i));
+                    insert.setString(2, passwordHash);
+                    insert.setString(3, "First" + i);
+                    insert.setString(4, "Last" + i);
+                    insert.setString(5, DEPARTMENTS[i % DEPARTMENTS.length]);
+                    insert.addBatch();
+
+                    if (i % 1000 == 999) {
+                        insert.executeBatch();
+                    }
+                }
+
+                insert.executeBatch();
+            }
+        }
+    }
+
+    public static String usernameOf(int index) {
+        return "user" + index;
+    }
+
+    public HikariDataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * The PasswordHash every user has, for PASSWORD.
+     */
+    public String getPasswordHash() {
+        return passwordHash;
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+}
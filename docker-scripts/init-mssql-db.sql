@@ -20,15 +20,27 @@ DROP TABLE IF EXISTS [dbo].[Users]
 CREATE TABLE [dbo].[Users](
 	[UserId] [int] IDENTITY(1,1) NOT NULL,
 	[Username] [nvarchar](100) NOT NULL,
-	[PasswordHash] [nvarchar](128) NOT NULL,
+	-- Wide enough for hashes with an algorithm prefix, e.g. "pbkdf2-sha512:hash.salt.iterations".
+	[PasswordHash] [nvarchar](256) NOT NULL,
 	[FirstName] [nvarchar](100) NOT NULL,
 	[LastName] [nvarchar](100) NOT NULL,
 	[Department] [nvarchar](100) NOT NULL,
+	-- Lets Keycloak poll for rows changed since its last poll.
+	[RowVersion] [rowversion] NOT NULL,
 
+	-- Paged queries are ordered by UserId, so it's the clustered key.
+	CONSTRAINT PK_Users PRIMARY KEY CLUSTERED([UserId]),
 	CONSTRAINT AK_Username UNIQUE([Username])
 ) ON [PRIMARY]
 GO
 
+CREATE NONCLUSTERED INDEX IX_Users_RowVersion ON [dbo].[Users]([RowVersion])
+GO
+
+-- Department group membership and attribute searches read only this index (it carries UserId as the clustered key).
+CREATE NONCLUSTERED INDEX IX_Users_Department ON [dbo].[Users]([Department])
+GO
+
 INSERT INTO [dbo].[Users]
 	([Username], [PasswordHash], [FirstName], [LastName], [Department])
 VALUES
@@ -0,0 +1,175 @@
+package com.dusklight;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Argon2id, a memory-hard algorithm, stored as "hash.salt.iterations.memoryKiB.parallelism" with the hash and salt in
+ * Base64.  Uses the BouncyCastle implementation that Keycloak ships.
+ *
+ * Every hash allocates memoryKiB, so the memory used by password hashing is memoryKiB times the number of hashing
+ * threads.  Stored hashes are only verified up to MAX_COST_FACTOR times the configured parameters (or the defaults, if
+ * higher), so that a malformed or tampered row can't make each login for its user allocate gigabytes.
+ */
+public class Argon2PasswordHasher implements PasswordHasher {
+
+    public static final String ARGON2ID = "argon2id";
+
+    // The OWASP recommendation for Argon2id: 19 MiB, two passes, one lane.
+    public static final int DEFAULT_ITERATIONS = 2;
+    public static final int DEFAULT_MEMORY_KIB = 19456;
+    public static final int DEFAULT_PARALLELISM = 1;
+
+    private static final int SALT_SIZE_BYTES = 16;
+    private static final int HASH_SIZE_BYTES = 32;
+
+    // Leaves room to lower the parameters without locking out users whose hashes were created with the old ones.
+    static final int MAX_COST_FACTOR = 4;
+
+    private final int iterations;
+    private final int memoryKiB;
+    private final int parallelism;
+
+    private final long maxIterations;
+    private final long maxMemoryKiB;
+    private final long maxParallelism;
+
+    /**
+     * @param iterations Number of passes over the memory
+     * @param memoryKiB Memory per hash, in KiB
+     * @param parallelism Number of lanes
+     */
+    public Argon2PasswordHasher(int iterations, int memoryKiB, int parallelism) {
+        if (iterations < 1 || parallelism < 1 || memoryKiB < 8 * parallelism) {
+            throw new IllegalArgumentException("Invalid Argon2 parameters: iterations " + iterations
+                    + ", memory " + memoryKiB + " KiB, parallelism " + parallelism);
+        }
+
+        this.iterations = iterations;
+        this.memoryKiB = memoryKiB;
+        this.parallelism = parallelism;
+
+        this.maxIterations = (long) MAX_COST_FACTOR * Math.max(iterations, DEFAULT_ITERATIONS);
+        this.maxMemoryKiB = (long) MAX_COST_FACTOR * Math.max(memoryKiB, DEFAULT_MEMORY_KIB);
+        this.maxParallelism = (long) MAX_COST_FACTOR * Math.max(parallelism, DEFAULT_PARALLELISM);
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ARGON2ID;
+    }
+
+    @Override
+    public String hash(String password) {
+        byte[] salt = Pbkdf2Provider.generateSaltBytes(SALT_SIZE_BYTES);
+        byte[] hash = deriveKey(password, salt, iterations, memoryKiB, parallelism, HASH_SIZE_BYTES);
+        var encoder = Base64.getEncoder();
+
+        return encoder.encodeToString(hash) + "." + encoder.encodeToString(salt) + "."
+                + iterations + "." + memoryKiB + "." + parallelism;
+    }
+
+    @Override
+    public PasswordCredential decode(String encodedHash) {
+        if (encodedHash == null) {
+            return null;
+        }
+
+        var parts = encodedHash.split("\\.", -1);
+
+        if (parts.length != 5) {
+            return null;
+        }
+
+        try {
+            var decoder = Base64.getDecoder();
+            byte[] hash = decoder.decode(parts[0]);
+            byte[] salt = decoder.decode(parts[1]);
+            int iterations = Integer.parseInt(parts[2]);
+            int memoryKiB = Integer.parseInt(parts[3]);
+            int parallelism = Integer.parseInt(parts[4]);
+
+            if (hash.length == 0 || iterations < 1 || parallelism < 1 || memoryKiB < 8 * parallelism) {
+                return null;
+            }
+
+            if (iterations > maxIterations || memoryKiB > maxMemoryKiB || parallelism > maxParallelism) {
+                return null;
+            }
+
+            return new Credential(hash, salt, iterations, memoryKiB, parallelism);
+        } catch (IllegalArgumentException ex) {
+            // Also covers NumberFormatException.
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isCurrent(PasswordCredential credential) {
+        if (!(credential instanceof Credential)) {
+            return false;
+        }
+
+        var argon2Credential = (Credential) credential;
+
+        return argon2Credential.iterations == iterations
+                && argon2Credential.memoryKiB == memoryKiB
+                && argon2Credential.parallelism == parallelism
+                && argon2Credential.hash.length == HASH_SIZE_BYTES;
+    }
+
+    static byte[] deriveKey(String password, byte[] salt, int iterations, int memoryKiB, int parallelism, int hashSizeBytes) {
+        var parameters = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withSalt(salt)
+                .withIterations(iterations)
+                .withMemoryAsKB(memoryKiB)
+                .withParallelism(parallelism)
+                .build();
+
+        var generator = new Argon2BytesGenerator();
+        generator.init(parameters);
+
+        byte[] hash = new byte[hashSizeBytes];
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+
+        try {
+            generator.generateBytes(passwordBytes, hash);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+
+        return hash;
+    }
+
+    /**
+     * A stored Argon2id hash decoded into its binary parts.
+     */
+    static final class Credential implements PasswordCredential {
+        private final byte[] hash;
+        private final byte[] salt;
+        private final int iterations;
+        private final int memoryKiB;
+        private final int parallelism;
+
+        private Credential(byte[] hash, byte[] salt, int iterations, int memoryKiB, int parallelism) {
+            this.hash = hash;
+            this.salt = salt;
+            this.iterations = iterations;
+            this.memoryKiB = memoryKiB;
+            this.parallelism = parallelism;
+        }
+
+        @Override
+        public boolean matches(String password) {
+            byte[] computedHash = deriveKey(password, salt, iterations, memoryKiB, parallelism, hash.length);
+
+            return MessageDigest.isEqual(computedHash, hash);
+        }
+    }
+}
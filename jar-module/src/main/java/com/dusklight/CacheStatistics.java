@@ -0,0 +1,11 @@
+package com.dusklight;
+
+/**
+ * Hit and miss counts of a cache, exposed by DusklightMetricsResourceProvider.
+ */
+public interface CacheStatistics {
+
+    long getHitCount();
+
+    long getMissCount();
+}
@@ -0,0 +1,54 @@
+package com.dusklight;
+
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.RealmModel;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Maps Department values to Keycloak groups, so that group-based policies can use the department without importing
+ * users.  A top-level group stands for a department if its "department" attribute is set to it, or, without that
+ * attribute, if its name is the department.  Departments are matched ignoring case.
+ *
+ * Only used when CONFIG_DEPARTMENT_GROUPS_ENABLED is on.  The groups themselves are created in Keycloak as usual.
+ */
+public final class DepartmentGroups {
+
+    public static final String DEPARTMENT_GROUP_ATTRIBUTE = "department";
+
+    private DepartmentGroups() {}
+
+    /**
+     * Gets the department a group stands for.
+     *
+     * @param group Group
+     * @return The department, or null if the group isn't a top-level group.
+     */
+    public static String departmentOf(GroupModel group) {
+        if (group == null || group.getParentId() != null) {
+            return null;
+        }
+
+        var department = group.getFirstAttribute(DEPARTMENT_GROUP_ATTRIBUTE);
+
+        return department != null ? department : group.getName();
+    }
+
+    /**
+     * Finds the groups that stand for a department.
+     *
+     * @param realm Realm
+     * @param department Department
+     * @return The groups, usually none or one.
+     */
+    public static Set<GroupModel> groupsOf(RealmModel realm, String department) {
+        if (realm == null || department == null) {
+            return Set.of();
+        }
+
+        return realm.getTopLevelGroupsStream()
+                .filter(group -> department.equalsIgnoreCase(departmentOf(group)))
+                .collect(Collectors.toSet());
+    }
+}
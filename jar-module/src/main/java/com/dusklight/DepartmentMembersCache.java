@@ -0,0 +1,145 @@
+package com.dusklight;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Node-wide cache of the UserIds in each Department, so that group membership and attribute searches by department,
+ * which policy evaluation runs repeatedly, don't query the Users table every time.  A miss reads the department's
+ * UserIds with one query that only touches the IX_Users_Department index.
+ *
+ * Departments are matched ignoring case, like SQL Server's default collation.  When UserChangePoller reports changed
+ * users, every cached department that contains one of them, or that one of them now belongs to, is dropped; without
+ * change polling, entries are only as fresh as their time-to-live.
+ */
+public class DepartmentMembersCache implements UserChangeListener {
+    private final DusklightUserRepository repository;
+    private final ExpiringCache<String, Members> cache;
+
+    // Bumped by every invalidation, so that a load that raced with one isn't cached.
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param repository Repository to read the members from
+     * @param cache Cache of members per department
+     */
+    public DepartmentMembersCache(DusklightUserRepository repository, ExpiringCache<String, Members> cache) {
+        this.repository = repository;
+        this.cache = cache;
+    }
+
+    /**
+     * Gets the UserIds of the users in a department.
+     *
+     * @param department Department
+     * @return UserIds, in ascending order.  Empty if the department has no users.
+     * @throws SQLException If the members were not cached and the query failed.
+     */
+    public int[] getMemberIds(String department) throws SQLException {
+        if (department == null) {
+            return new int[0];
+        }
+
+        var key = cacheKey(department);
+        var members = cache.get(key);
+
+        if (members != null) {
+            return members.userIds;
+        }
+
+        var generationBefore = generation.get();
+        var userIds = repository.findUserIdsByDepartment(department);
+
+        if (generation.get() == generationBefore) {
+            cache.put(key, new Members(key, userIds));
+        }
+
+        return userIds;
+    }
+
+    /**
+     * Gets one page of the UserIds in a department.
+     *
+     * @param department Department
+     * @param firstResult Zero-based index of the first UserId to return
+     * @param maxResults Maximum number of UserIds to return
+     * @return UserIds, in ascending order.
+     * @throws SQLException If the members were not cached and the query failed.
+     */
+    public List<Integer> getMemberIdsPage(String department, int firstResult, int maxResults) throws SQLException {
+        var userIds = getMemberIds(department);
+        var from = Math.min(Math.max(0, firstResult), userIds.length);
+        var to = (int) Math.min((long) from + Math.max(0, maxResults), userIds.length);
+
+        return Arrays.stream(userIds, from, to).boxed().collect(Collectors.toList());
+    }
+
+    /**
+     * Drops the departments the changed users were in or are now in.
+     *
+     * @param changedUsers The users as they are now in the database
+     */
+    @Override
+    public void usersChanged(List<DusklightUserEntity> changedUsers) {
+        Set<String> departments = new HashSet<>();
+        int[] changedIds = new int[changedUsers.size()];
+
+        for (int i = 0; i < changedIds.length; i++) {
+            var user = changedUsers.get(i);
+
+            changedIds[i] = user.getUserId();
+
+            if (user.getDepartment() != null) {
+                departments.add(cacheKey(user.getDepartment()));
+            }
+        }
+
+        Arrays.sort(changedIds);
+        generation.incrementAndGet();
+
+        cache.invalidateIf(members -> departments.contains(members.key) || members.containsAny(changedIds));
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    public ExpiringCache<String, Members> getCache() {
+        return cache;
+    }
+
+    static String cacheKey(String department) {
+        return department.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The members of one department.
+     */
+    public static final class Members {
+        final String key;
+        // Sorted ascending.
+        final int[] userIds;
+
+        Members(String key, int[] userIds) {
+            this.key = key;
+            this.userIds = userIds;
+        }
+
+        boolean containsAny(int[] sortedIds) {
+            for (int userId : sortedIds) {
+                if (Arrays.binarySearch(userIds, userId) >= 0) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
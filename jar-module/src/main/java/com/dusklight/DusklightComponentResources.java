@@ -0,0 +1,452 @@
+package com.dusklight;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.jboss.logging.Logger;
+import org.keycloak.common.util.MultivaluedHashMap;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.storage.UserStorageProviderModel;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.dusklight.DusklightUserStorageProviderFactory.*;
+
+/**
+ * Node-wide resources owned by DusklightUserStorageProviderFactory for one configured component (i.e. one
+ * "dusklight-database" entry under User Federation).
+ *
+ * Providers are created per KeycloakSession and are short-lived, so anything that should outlive a single request,
+ * such as the connection pool and the user cache, lives here instead.  A new instance is built whenever the component
+ * configuration changes, and the old one is closed once the requests still using it have had time to finish.
+ */
+public class DusklightComponentResources implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(DusklightComponentResources.class);
+
+    private final String componentId;
+    private final MultivaluedHashMap<String, String> configSnapshot;
+    private final HikariDataSource dataSource;
+    private final ScheduledExecutorService backgroundExecutor;
+    private final DusklightUserRepository repository;
+    private final DusklightUserLookup userLookup;
+    private final DepartmentMembersCache departmentMembersCache;
+    private final UserSearchIndex userSearchIndex;
+    private final KeysetPageCursors keysetPageCursors;
+    private final UserCountCache userCountCache;
+    private final NodeSecretMac nodeSecretMac;
+    private final VerifiedCredentialCache verifiedCredentialCache;
+    private final PasswordHashingExecutor hashingExecutor;
+    private final PasswordHashers passwordHashers;
+    private final RateLimiter rehashRateLimiter;
+    private final UserChangePoller userChangePoller;
+    private final DusklightMetrics metrics;
+
+    public DusklightComponentResources(ComponentModel model, HikariDataSource dataSource) {
+        this(model, dataSource, new DusklightMetrics());
+    }
+
+    /**
+     * @param metrics Metrics for the component; the data source should already report to them
+     */
+    public DusklightComponentResources(ComponentModel model, HikariDataSource dataSource, DusklightMetrics metrics) {
+        this.componentId = model.getId();
+        this.metrics = metrics;
+        this.configSnapshot = configSnapshotOf(model);
+        this.dataSource = dataSource;
+
+        // Nothing else holds these yet, so a failure part-way must not leave the pool and threads running.
+        try {
+            this.backgroundExecutor = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("dusklight-background-" + componentId));
+            var searchMode = model.getConfig().getFirst(CONFIG_SEARCH_MODE);
+
+            this.repository = new DusklightUserRepository(dataSource,
+                    getConfigInt(model, CONFIG_FETCH_SIZE, DusklightUserRepository.DEFAULT_FETCH_SIZE),
+                    SEARCH_MODE_PREFIX.equals(searchMode),
+                    metrics);
+
+            if (SEARCH_MODE_INDEX.equals(searchMode)) {
+                this.userSearchIndex = new UserSearchIndex(repository,
+                        getConfigLong(model, CONFIG_SEARCH_INDEX_REBUILD_INTERVAL_MS, 3600000));
+
+                // The first run builds the index; searches use the database until then.
+                backgroundExecutor.scheduleWithFixedDelay(userSearchIndex::refresh, 0,
+                        getConfigLong(model, CONFIG_SEARCH_INDEX_REFRESH_INTERVAL_MS, 30000), TimeUnit.MILLISECONDS);
+            } else {
+                this.userSearchIndex = null;
+            }
+
+            var userCache = new ExpiringCache<String, DusklightUserEntity>(
+                    getConfigInt(model, CONFIG_USER_CACHE_MAX_ENTRIES, 10000),
+                    getConfigLong(model, CONFIG_USER_CACHE_TTL_MS, 60000),
+                    getConfigLong(model, CONFIG_USER_CACHE_REFRESH_AHEAD_MS, 0),
+                    backgroundExecutor);
+
+            UnknownUsernameFilter unknownUsernameFilter = null;
+
+            if (Boolean.parseBoolean(model.getConfig().getFirst(CONFIG_NEGATIVE_CACHE_ENABLED))) {
+                var refreshInterval = getConfigLong(model, CONFIG_NEGATIVE_CACHE_REFRESH_INTERVAL_MS, 30000);
+
+                unknownUsernameFilter = new UnknownUsernameFilter(repository,
+                        getConfigDouble(model, CONFIG_NEGATIVE_CACHE_FALSE_POSITIVE_RATE, 0.01),
+                        getConfigLong(model, CONFIG_NEGATIVE_CACHE_MAX_BYTES, 16 * 1024 * 1024),
+                        refreshInterval,
+                        getConfigLong(model, CONFIG_NEGATIVE_CACHE_REBUILD_INTERVAL_MS, 3600000),
+                        getConfigLong(model, CONFIG_NEGATIVE_CACHE_MISSING_TTL_MS, 10000));
+
+                // The first run builds the filter; lookups query the database until then.
+                backgroundExecutor.scheduleWithFixedDelay(unknownUsernameFilter::refresh, 0, refreshInterval, TimeUnit.MILLISECONDS);
+            }
+
+            var batchWindow = getConfigLong(model, CONFIG_LOOKUP_BATCH_WINDOW_MS, 0);
+
+            var batcher = batchWindow > 0
+                    ? new UserLookupBatcher(repository, batchWindow, getConfigInt(model, CONFIG_LOOKUP_BATCH_MAX_SIZE, 100))
+                    : null;
+
+            this.userLookup = new DusklightUserLookup(repository, userCache, unknownUsernameFilter, batcher);
+
+            this.departmentMembersCache = new DepartmentMembersCache(repository, new ExpiringCache<>(
+                    getConfigInt(model, CONFIG_DEPARTMENT_CACHE_MAX_ENTRIES, 1000),
+                    getConfigLong(model, CONFIG_DEPARTMENT_CACHE_TTL_MS, 60000)));
+
+            // Small and short-lived: cursors are only useful while an admin is paging through the users.
+            this.keysetPageCursors = PAGING_MODE_KEYSET.equals(model.getConfig().getFirst(CONFIG_PAGING_MODE))
+                    ? new KeysetPageCursors(1000, 300000)
+                    : null;
+
+            this.userCountCache = new UserCountCache(repository,
+                    getConfigLong(model, CONFIG_COUNT_CACHE_TTL_MS, 30000),
+                    COUNT_MODE_APPROXIMATE.equals(model.getConfig().getFirst(CONFIG_COUNT_MODE)));
+
+            this.nodeSecretMac = new NodeSecretMac();
+
+            this.verifiedCredentialCache = Boolean.parseBoolean(model.getConfig().getFirst(CONFIG_CREDENTIAL_CACHE_ENABLED))
+                    ? new VerifiedCredentialCache(
+                            getConfigInt(model, CONFIG_CREDENTIAL_CACHE_MAX_ENTRIES, 10000),
+                            getConfigLong(model, CONFIG_CREDENTIAL_CACHE_TTL_MS, 60000),
+                            nodeSecretMac)
+                    : null;
+
+            var hashingParallelism = getConfigInt(model, CONFIG_HASHING_PARALLELISM, Runtime.getRuntime().availableProcessors());
+
+            this.hashingExecutor = hashingParallelism > 0
+                    ? new PasswordHashingExecutor("dusklight-hashing-" + componentId,
+                            hashingParallelism,
+                            getConfigInt(model, CONFIG_HASHING_QUEUE_DEPTH, 256),
+                            getConfigLong(model, CONFIG_HASHING_MAX_WAIT_MS, 10000),
+                            HASHING_REJECTION_POLICY_CALLER_RUNS.equals(model.getConfig().getFirst(CONFIG_HASHING_REJECTION_POLICY))
+                                    ? PasswordHashingExecutor.RejectionPolicy.CALLER_RUNS
+                                    : PasswordHashingExecutor.RejectionPolicy.REJECT)
+                    : null;
+
+            this.passwordHashers = createPasswordHashers(model);
+
+            this.rehashRateLimiter = Boolean.parseBoolean(model.getConfig().getFirst(CONFIG_REHASH_ENABLED))
+                    ? new RateLimiter(getConfigDouble(model, CONFIG_REHASH_MAX_PER_SECOND, 10))
+                    : null;
+
+            // Last, so that every cache it feeds exists.
+            this.userChangePoller = createUserChangePoller(model);
+        } catch (RuntimeException ex) {
+            shutdown();
+            throw ex;
+        }
+    }
+
+    private static PasswordHashers createPasswordHashers(ComponentModel model) {
+        var algorithm = model.getConfig().getFirst(CONFIG_PASSWORD_HASH_ALGORITHM);
+        PasswordHasher current;
+
+        if (algorithm == null || algorithm.isBlank()) {
+            algorithm = Pbkdf2PasswordHasher.PBKDF2_SHA256;
+        }
+
+        if (Argon2PasswordHasher.ARGON2ID.equals(algorithm)) {
+            current = new Argon2PasswordHasher(
+                    getConfigInt(model, CONFIG_ARGON2_ITERATIONS, Argon2PasswordHasher.DEFAULT_ITERATIONS),
+                    getConfigInt(model, CONFIG_ARGON2_MEMORY_KIB, Argon2PasswordHasher.DEFAULT_MEMORY_KIB),
+                    getConfigInt(model, CONFIG_ARGON2_PARALLELISM, Argon2PasswordHasher.DEFAULT_PARALLELISM));
+        } else if (Pbkdf2PasswordHasher.PBKDF2_SHA256.equals(algorithm) || Pbkdf2PasswordHasher.PBKDF2_SHA512.equals(algorithm)) {
+            var pbkdf2Algorithm = algorithm;
+            var targetMillis = getConfigLong(model, CONFIG_PBKDF2_TARGET_MS, 0);
+
+            var iterations = targetMillis > 0
+                    ? Pbkdf2Calibration.calibrate(Pbkdf2PasswordHasher.pbkdf2AlgorithmOf(pbkdf2Algorithm),
+                            Pbkdf2PasswordHasher.DEFAULT_HASH_SIZE_BYTES,
+                            targetMillis,
+                            getConfigInt(model, CONFIG_PBKDF2_MIN_ITERATIONS, Pbkdf2PasswordHasher.DEFAULT_ITERATIONS),
+                            getConfigInt(model, CONFIG_PBKDF2_MAX_ITERATIONS, 1000000))
+                    : getConfigInt(model, CONFIG_PBKDF2_ITERATIONS, Pbkdf2PasswordHasher.DEFAULT_ITERATIONS);
+
+            current = new Pbkdf2PasswordHasher(pbkdf2Algorithm, iterations);
+        } else {
+            // Rejected by validateConfiguration; falling back would silently hash with something else.
+            throw new IllegalArgumentException("Unknown password hashing algorithm: " + algorithm);
+        }
+
+        // Existing hashes of every algorithm stay verifiable after the algorithm is changed.
+        return new PasswordHashers(current, List.of(
+                new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.PBKDF2_SHA256, Pbkdf2PasswordHasher.DEFAULT_ITERATIONS),
+                new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.PBKDF2_SHA512, Pbkdf2PasswordHasher.DEFAULT_ITERATIONS),
+                new Argon2PasswordHasher(Argon2PasswordHasher.DEFAULT_ITERATIONS, Argon2PasswordHasher.DEFAULT_MEMORY_KIB,
+                        Argon2PasswordHasher.DEFAULT_PARALLELISM)));
+    }
+
+    private UserChangePoller createUserChangePoller(ComponentModel model) {
+        if (!Boolean.parseBoolean(model.getConfig().getFirst(CONFIG_CHANGE_POLLING_ENABLED))) {
+            return null;
+        }
+
+        var poller = new UserChangePoller(repository, getConfigInt(model, CONFIG_CHANGE_POLLING_BATCH_SIZE, 500));
+
+        poller.addListener(userLookup);
+        poller.addListener(departmentMembersCache);
+
+        if (userSearchIndex != null) {
+            poller.addListener(userSearchIndex);
+        }
+
+        if (verifiedCredentialCache != null) {
+            poller.addListener(users -> users.forEach(user -> verifiedCredentialCache.invalidate(user.getUsername())));
+        }
+
+        var interval = getConfigLong(model, CONFIG_CHANGE_POLLING_INTERVAL_MS, 5000);
+        backgroundExecutor.scheduleWithFixedDelay(poller::poll, 0, interval, TimeUnit.MILLISECONDS);
+
+        return poller;
+    }
+
+    public String getComponentId() {
+        return componentId;
+    }
+
+    /**
+     * Pooled connections to the Dusklight database.
+     *
+     * @return DataSource backed by the connection pool.
+     */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public DusklightMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Hit and miss counts of the component's caches.
+     *
+     * @return Statistics by cache name, for the caches that are enabled.
+     */
+    public Map<String, CacheStatistics> getCacheStatistics() {
+        Map<String, CacheStatistics> statistics = new LinkedHashMap<>();
+
+        statistics.put("user", userLookup.getUserCache());
+        statistics.put("department_members", departmentMembersCache.getCache());
+
+        if (verifiedCredentialCache != null) {
+            statistics.put("verified_credential", verifiedCredentialCache);
+        }
+
+        return statistics;
+    }
+
+    public DusklightUserRepository getRepository() {
+        return repository;
+    }
+
+    public DusklightUserLookup getUserLookup() {
+        return userLookup;
+    }
+
+    public DepartmentMembersCache getDepartmentMembersCache() {
+        return departmentMembersCache;
+    }
+
+    /**
+     * In-memory index for username and name searches.
+     *
+     * @return The index, or null if searches always query the database.
+     */
+    public UserSearchIndex getUserSearchIndex() {
+        return userSearchIndex;
+    }
+
+    /**
+     * Cursors for keyset paging.
+     *
+     * @return The cursors, or null if keyset paging is not enabled.
+     */
+    public KeysetPageCursors getKeysetPageCursors() {
+        return keysetPageCursors;
+    }
+
+    public UserCountCache getUserCountCache() {
+        return userCountCache;
+    }
+
+    /**
+     * Cache of recent successful password verifications.
+     *
+     * @return The cache, or null if it is not enabled.
+     */
+    public VerifiedCredentialCache getVerifiedCredentialCache() {
+        return verifiedCredentialCache;
+    }
+
+    public NodeSecretMac getNodeSecretMac() {
+        return nodeSecretMac;
+    }
+
+    /**
+     * Bounded executor for password hashing.
+     *
+     * @return The executor, or null if hashing runs on the request threads.
+     */
+    public PasswordHashingExecutor getHashingExecutor() {
+        return hashingExecutor;
+    }
+
+    /**
+     * Password hashing algorithms: the configured one for new hashes, with the PBKDF2 iteration count configured or
+     * calibrated for this node, and every supported one for verifying existing hashes.
+     */
+    public PasswordHashers getPasswordHashers() {
+        return passwordHashers;
+    }
+
+    /**
+     * Limits how many passwords are rehashed on login per second.
+     *
+     * @return The limiter, or null if rehashing on login is not enabled.
+     */
+    public RateLimiter getRehashRateLimiter() {
+        return rehashRateLimiter;
+    }
+
+    /**
+     * Poller for changes to the Users table.
+     *
+     * @return The poller, or null if change polling is not enabled.
+     */
+    public UserChangePoller getUserChangePoller() {
+        return userChangePoller;
+    }
+
+    /**
+     * Applies changes this node wrote to the Users table to its caches and search index straight away, rather than
+     * waiting for change polling or for the entries to expire.
+     *
+     * @param changedUsers The users as they are now in the database
+     */
+    public void applyLocalChanges(List<DusklightUserEntity> changedUsers) {
+        userLookup.usersChanged(changedUsers);
+        departmentMembersCache.usersChanged(changedUsers);
+
+        if (userSearchIndex != null) {
+            userSearchIndex.usersChanged(changedUsers);
+        }
+    }
+
+    /**
+     * Checks whether these resources were built from the same configuration as the given model.
+     *
+     * @param model Current component model
+     * @return true if the configuration is unchanged, false if the resources need to be rebuilt.
+     */
+    public boolean isBuiltFrom(ComponentModel model) {
+        return configSnapshot.equals(configSnapshotOf(model));
+    }
+
+    /**
+     * The configuration the resources depend on, i.e. without the bookkeeping Keycloak and the import synchronization
+     * write to the component after every sync.
+     */
+    private static MultivaluedHashMap<String, String> configSnapshotOf(ComponentModel model) {
+        var snapshot = new MultivaluedHashMap<>(model.getConfig());
+
+        snapshot.remove(UserStorageProviderModel.LAST_SYNC);
+        snapshot.remove(CONFIG_SYNC_ROW_VERSION);
+
+        return snapshot;
+    }
+
+    @Override
+    public void close() {
+        var userCache = userLookup.getUserCache();
+
+        logger.infof("Closing resources for component %s.  User cache hits: %d, misses: %d, evictions: %d, coalesced lookups: %d",
+                componentId, userCache.getHitCount(), userCache.getMissCount(), userCache.getEvictionCount(),
+                userLookup.getCoalescedLookupCount());
+
+        var departmentCache = departmentMembersCache.getCache();
+
+        logger.infof("Department members cache for component %s.  Hits: %d, misses: %d, evictions: %d",
+                componentId, departmentCache.getHitCount(), departmentCache.getMissCount(), departmentCache.getEvictionCount());
+
+        var batcher = userLookup.getBatcher();
+
+        if (batcher != null) {
+            logger.infof("Batched user lookups for component %s.  Lookups: %d, queries: %d",
+                    componentId, batcher.getLookupCount(), batcher.getBatchCount());
+        }
+
+        var unknownUsernameFilter = userLookup.getUnknownUsernameFilter();
+
+        if (unknownUsernameFilter != null) {
+            logger.infof("Unknown username filter for component %s.  Queries saved: %d (filter: %d, recently missing: %d), rebuilds: %d, refresh failures: %d",
+                    componentId, unknownUsernameFilter.getSavedQueryCount(), unknownUsernameFilter.getFilterRejectionCount(),
+                    unknownUsernameFilter.getKnownMissingHitCount(), unknownUsernameFilter.getRebuildCount(),
+                    unknownUsernameFilter.getRefreshFailureCount());
+        }
+
+        if (userChangePoller != null) {
+            logger.infof("Change polling for component %s.  Polls: %d, changed rows: %d, failures: %d",
+                    componentId, userChangePoller.getPollCount(), userChangePoller.getChangedRowCount(),
+                    userChangePoller.getFailureCount());
+        }
+
+        if (hashingExecutor != null) {
+            logger.infof("Password hashing for component %s.  Submitted: %d, de-duplicated: %d, rejected: %d, timed out: %d, max queue wait: %d ms",
+                    componentId, hashingExecutor.getSubmittedCount(), hashingExecutor.getDeduplicatedCount(),
+                    hashingExecutor.getRejectedCount(), hashingExecutor.getTimedOutCount(),
+                    hashingExecutor.getMaxQueueWaitNanos() / 1_000_000);
+        }
+
+        if (rehashRateLimiter != null) {
+            logger.infof("Rehashing on login for component %s.  Attempted: %d, deferred by the rate limit: %d",
+                    componentId, rehashRateLimiter.getGrantedCount(), rehashRateLimiter.getDeniedCount());
+        }
+
+        shutdown();
+    }
+
+    // Also used by a constructor that failed part-way, so any of the fields may still be null.
+    private void shutdown() {
+        if (hashingExecutor != null) {
+            hashingExecutor.close();
+        }
+
+        if (backgroundExecutor != null) {
+            backgroundExecutor.shutdownNow();
+        }
+
+        dataSource.close();
+    }
+
+    static ThreadFactory daemonThreadFactory(String namePrefix) {
+        var counter = new AtomicInteger();
+
+        return runnable -> {
+            var thread = new Thread(runnable, namePrefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,241 @@
+package com.dusklight;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and counters for one configured component: SPI calls, database queries, connection acquisition, password
+ * hashing and credential checks.  Owned by DusklightComponentResources, exposed by DusklightMetricsResourceProvider.
+ *
+ * Recording happens on the request path, so it only touches LongAdders (see LatencyHistogram): no locks, and no
+ * allocation.  The cache hit and miss counts are not recorded here, since the caches already count them.
+ *
+ * It is also the pool's Hikari metrics tracker, which reports how long getConnection waited for a connection.
+ */
+public class DusklightMetrics implements MetricsTrackerFactory {
+
+    /**
+     * SPI methods with a latency histogram.  Overloads that delegate to one of these are recorded under it.  For the
+     * methods returning a Stream, this is the time until the Stream is returned; the rows read while it is consumed
+     * are recorded under the query.
+     */
+    public enum SpiMethod {
+        GET_USER_BY_USERNAME("getUserByUsername"),
+        GET_USERS_BY_USERNAMES("getUsersByUsernames"),
+        IS_VALID("isValid"),
+        UPDATE_CREDENTIAL("updateCredential"),
+        GET_USERS_COUNT("getUsersCount"),
+        GET_USERS_STREAM("getUsersStream"),
+        SEARCH_FOR_USER_STREAM("searchForUserStream"),
+        GET_GROUP_MEMBERS("getGroupMembers"),
+        SEARCH_FOR_USER_BY_USER_ATTRIBUTE("searchForUserByUserAttribute");
+
+        private final String label;
+
+        SpiMethod(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * Queries of DusklightUserRepository with a latency histogram and a row count.
+     */
+    public enum Query {
+        FIND_BY_USERNAME("find_by_username"),
+        FIND_BY_USERNAMES("find_by_usernames"),
+        FIND_BY_USER_ID("find_by_user_id"),
+        FIND_BY_USER_IDS("find_by_user_ids"),
+        STREAM_USERS_PAGE("stream_users_page"),
+        FIND_USERS_AFTER("find_users_after"),
+        FIND_USER_IDS_BY_DEPARTMENT("find_user_ids_by_department"),
+        FIND_CHANGED_USERS("find_changed_users"),
+        UPDATE_PASSWORD_HASH("update_password_hash"),
+        REPLACE_PASSWORD_HASH("replace_password_hash"),
+        UPDATE_USERS("update_users"),
+        COUNT_USERS("count_users");
+
+        private final String label;
+
+        Query(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * Results of isValid.
+     */
+    public enum CredentialCheckResult {
+        // The password matched.
+        VALID("valid"),
+        // The password didn't match, or the user has no usable password hash.
+        INVALID("invalid"),
+        // The hashing executor was saturated.
+        REJECTED("rejected"),
+        ERROR("error");
+
+        private final String label;
+
+        CredentialCheckResult(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final LatencyHistogram[] spiCalls = newHistograms(SpiMethod.values().length);
+    private final LatencyHistogram[] queries = newHistograms(Query.values().length);
+    private final LongAdder[] queryRows = newAdders(Query.values().length);
+    private final LongAdder[] queryErrors = newAdders(Query.values().length);
+    private final LongAdder[] credentialChecks = newAdders(CredentialCheckResult.values().length);
+    private final LatencyHistogram hashing = new LatencyHistogram();
+    private final LatencyHistogram connectionAcquisition = new LatencyHistogram();
+    private final LatencyHistogram connectionUsage = new LatencyHistogram();
+    private final LongAdder connectionTimeouts = new LongAdder();
+
+    private volatile PoolStats poolStats;
+
+    /**
+     * Records an SPI call.
+     *
+     * @param method Method called
+     * @param startNanos System.nanoTime() when the call started
+     */
+    public void recordCall(SpiMethod method, long startNanos) {
+        spiCalls[method.ordinal()].recordSince(startNanos);
+    }
+
+    /**
+     * Records a query.
+     *
+     * @param query Query run
+     * @param startNanos System.nanoTime() before the connection was acquired
+     * @param rows Number of rows read or written, or -1 if the query failed
+     */
+    public void recordQuery(Query query, long startNanos, long rows) {
+        queries[query.ordinal()].recordSince(startNanos);
+
+        if (rows < 0) {
+            queryErrors[query.ordinal()].increment();
+        } else {
+            queryRows[query.ordinal()].add(rows);
+        }
+    }
+
+    /**
+     * Records one password hash computation, excluding any time spent waiting for the hashing executor.
+     *
+     * @param startNanos System.nanoTime() when hashing started
+     */
+    public void recordHashing(long startNanos) {
+        hashing.recordSince(startNanos);
+    }
+
+    public void recordCredentialCheck(CredentialCheckResult result) {
+        credentialChecks[result.ordinal()].increment();
+    }
+
+    public LatencyHistogram.Snapshot getCallLatency(SpiMethod method) {
+        return spiCalls[method.ordinal()].snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getQueryLatency(Query query) {
+        return queries[query.ordinal()].snapshot();
+    }
+
+    public long getQueryRowCount(Query query) {
+        return queryRows[query.ordinal()].sum();
+    }
+
+    public long getQueryErrorCount(Query query) {
+        return queryErrors[query.ordinal()].sum();
+    }
+
+    public long getCredentialCheckCount(CredentialCheckResult result) {
+        return credentialChecks[result.ordinal()].sum();
+    }
+
+    public LatencyHistogram.Snapshot getHashingLatency() {
+        return hashing.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getConnectionAcquisitionLatency() {
+        return connectionAcquisition.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getConnectionUsage() {
+        return connectionUsage.snapshot();
+    }
+
+    public long getConnectionTimeoutCount() {
+        return connectionTimeouts.sum();
+    }
+
+    /**
+     * Connection counts of the pool.
+     *
+     * @return The pool's statistics, or null if the pool isn't a HikariDataSource built with this tracker.
+     */
+    public PoolStats getPoolStats() {
+        return poolStats;
+    }
+
+    //region MetricsTrackerFactory implementation
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                connectionAcquisition.record(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                connectionUsage.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                connectionTimeouts.increment();
+            }
+        };
+    }
+
+    //endregion
+
+    private static LatencyHistogram[] newHistograms(int count) {
+        var histograms = new LatencyHistogram[count];
+
+        for (int i = 0; i < count; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+
+        return histograms;
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        var adders = new LongAdder[count];
+
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+
+        return adders;
+    }
+}
@@ -0,0 +1,266 @@
+package com.dusklight;
+
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Writes DusklightMetrics in the Prometheus text exposition format (version 0.0.4), one set of samples per component,
+ * labelled with the component's name.  Only runs when the endpoint is scraped, so unlike recording, it may allocate.
+ */
+public final class DusklightMetricsExporter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private DusklightMetricsExporter() {}
+
+    /**
+     * The metrics of one configured component.
+     */
+    public static final class Component {
+        final String name;
+        final DusklightMetrics metrics;
+        final Map<String, CacheStatistics> caches;
+        final PasswordHashingExecutor hashingExecutor;
+
+        /**
+         * @param name Value of the "component" label
+         * @param metrics Metrics of the component
+         * @param caches Statistics of the component's caches, by cache name
+         */
+        public Component(String name, DusklightMetrics metrics, Map<String, CacheStatistics> caches) {
+            this(name, metrics, caches, null);
+        }
+
+        /**
+         * @param name Value of the "component" label
+         * @param metrics Metrics of the component
+         * @param caches Statistics of the component's caches, by cache name
+         * @param hashingExecutor The component's password hashing executor, or null if it hashes on the request threads
+         */
+        public Component(String name, DusklightMetrics metrics, Map<String, CacheStatistics> caches,
+                         PasswordHashingExecutor hashingExecutor) {
+            this.name = name;
+            this.metrics = metrics;
+            this.caches = caches;
+            this.hashingExecutor = hashingExecutor;
+        }
+    }
+
+    /**
+     * Writes the metrics of the components.
+     *
+     * @param components Components to write the metrics of
+     * @return The metrics, in the Prometheus text format.
+     */
+    public static String export(List<Component> components) {
+        var out = new StringBuilder(16 * 1024);
+
+        // SPI calls and credential checks
+        header(out, "dusklight_spi_call_duration_seconds", "histogram", "Duration of the provider's SPI calls.");
+        for (var component : components) {
+            for (var method : DusklightMetrics.SpiMethod.values()) {
+                histogram(out, "dusklight_spi_call_duration_seconds",
+                        labels(component, "method", method.getLabel()), component.metrics.getCallLatency(method));
+            }
+        }
+
+        header(out, "dusklight_credential_checks_total", "counter", "Password checks (isValid calls) by result.");
+        for (var component : components) {
+            for (var result : DusklightMetrics.CredentialCheckResult.values()) {
+                sample(out, "dusklight_credential_checks_total", labels(component, "result", result.getLabel()),
+                        component.metrics.getCredentialCheckCount(result));
+            }
+        }
+
+        header(out, "dusklight_password_hash_duration_seconds", "histogram",
+                "Duration of password hash computations, excluding time waiting for the hashing executor.");
+        for (var component : components) {
+            histogram(out, "dusklight_password_hash_duration_seconds", labels(component),
+                    component.metrics.getHashingLatency());
+        }
+
+        // Password hashing executor, for sizing its threads and queue
+        hashingGauge(out, components, "dusklight_hashing_queue_depth", "Hashing tasks waiting for a thread.",
+                PasswordHashingExecutor::getQueueDepth);
+        hashingGauge(out, components, "dusklight_hashing_active_threads", "Hashing threads running a task.",
+                PasswordHashingExecutor::getActiveCount);
+
+        header(out, "dusklight_hashing_queue_wait_seconds", "histogram",
+                "Time hashing tasks waited in the queue for a thread.");
+        for (var component : components) {
+            if (component.hashingExecutor != null) {
+                histogram(out, "dusklight_hashing_queue_wait_seconds", labels(component),
+                        component.hashingExecutor.getQueueWait());
+            }
+        }
+
+        hashingCounter(out, components, "dusklight_hashing_tasks_submitted_total", "Hashing tasks submitted.",
+                PasswordHashingExecutor::getSubmittedCount);
+        hashingCounter(out, components, "dusklight_hashing_tasks_rejected_total",
+                "Hashing tasks rejected or dropped because the queue was full.", PasswordHashingExecutor::getRejectedCount);
+        hashingCounter(out, components, "dusklight_hashing_tasks_timed_out_total",
+                "Hashing tasks that did not complete within the maximum wait.", PasswordHashingExecutor::getTimedOutCount);
+        hashingCounter(out, components, "dusklight_hashing_tasks_deduplicated_total",
+                "Callers that shared the result of an identical hashing task instead of hashing again.",
+                PasswordHashingExecutor::getDeduplicatedCount);
+
+        // Database
+        header(out, "dusklight_db_query_duration_seconds", "histogram",
+                "Duration of queries to the Dusklight database, including connection acquisition.");
+        for (var component : components) {
+            for (var query : DusklightMetrics.Query.values()) {
+                histogram(out, "dusklight_db_query_duration_seconds", labels(component, "query", query.getLabel()),
+                        component.metrics.getQueryLatency(query));
+            }
+        }
+
+        header(out, "dusklight_db_query_rows_total", "counter", "Rows read or written by queries that succeeded.");
+        for (var component : components) {
+            for (var query : DusklightMetrics.Query.values()) {
+                sample(out, "dusklight_db_query_rows_total", labels(component, "query", query.getLabel()),
+                        component.metrics.getQueryRowCount(query));
+            }
+        }
+
+        header(out, "dusklight_db_query_errors_total", "counter", "Queries that failed.");
+        for (var component : components) {
+            for (var query : DusklightMetrics.Query.values()) {
+                sample(out, "dusklight_db_query_errors_total", labels(component, "query", query.getLabel()),
+                        component.metrics.getQueryErrorCount(query));
+            }
+        }
+
+        header(out, "dusklight_db_connection_acquire_duration_seconds", "histogram",
+                "Time spent waiting for a connection from the pool.");
+        for (var component : components) {
+            histogram(out, "dusklight_db_connection_acquire_duration_seconds", labels(component),
+                    component.metrics.getConnectionAcquisitionLatency());
+        }
+
+        header(out, "dusklight_db_connection_usage_seconds", "histogram",
+                "Time connections were borrowed from the pool for.");
+        for (var component : components) {
+            histogram(out, "dusklight_db_connection_usage_seconds", labels(component),
+                    component.metrics.getConnectionUsage());
+        }
+
+        header(out, "dusklight_db_connection_timeouts_total", "counter",
+                "Connection requests that timed out waiting for the pool.");
+        for (var component : components) {
+            sample(out, "dusklight_db_connection_timeouts_total", labels(component),
+                    component.metrics.getConnectionTimeoutCount());
+        }
+
+        poolGauge(out, components, "dusklight_db_pool_active_connections", "Connections in use.",
+                PoolStats::getActiveConnections);
+        poolGauge(out, components, "dusklight_db_pool_idle_connections", "Idle connections in the pool.",
+                PoolStats::getIdleConnections);
+        poolGauge(out, components, "dusklight_db_pool_max_connections", "Maximum size of the pool.",
+                PoolStats::getMaxConnections);
+        poolGauge(out, components, "dusklight_db_pool_pending_threads", "Threads waiting for a connection.",
+                PoolStats::getPendingThreads);
+
+        // Caches
+        header(out, "dusklight_cache_hits_total", "counter", "Cache hits.");
+        for (var component : components) {
+            for (var cache : component.caches.entrySet()) {
+                sample(out, "dusklight_cache_hits_total", labels(component, "cache", cache.getKey()),
+                        cache.getValue().getHitCount());
+            }
+        }
+
+        header(out, "dusklight_cache_misses_total", "counter", "Cache misses.");
+        for (var component : components) {
+            for (var cache : component.caches.entrySet()) {
+                sample(out, "dusklight_cache_misses_total", labels(component, "cache", cache.getKey()),
+                        cache.getValue().getMissCount());
+            }
+        }
+
+        return out.toString();
+    }
+
+    private static void poolGauge(StringBuilder out, List<Component> components, String name, String help,
+                                  Function<PoolStats, Integer> value) {
+        header(out, name, "gauge", help);
+
+        for (var component : components) {
+            var poolStats = component.metrics.getPoolStats();
+
+            if (poolStats != null) {
+                sample(out, name, labels(component), value.apply(poolStats));
+            }
+        }
+    }
+
+    private static void hashingGauge(StringBuilder out, List<Component> components, String name, String help,
+                                     ToLongFunction<PasswordHashingExecutor> value) {
+        hashingSamples(out, components, name, "gauge", help, value);
+    }
+
+    private static void hashingCounter(StringBuilder out, List<Component> components, String name, String help,
+                                       ToLongFunction<PasswordHashingExecutor> value) {
+        hashingSamples(out, components, name, "counter", help, value);
+    }
+
+    private static void hashingSamples(StringBuilder out, List<Component> components, String name, String type,
+                                       String help, ToLongFunction<PasswordHashingExecutor> value) {
+        header(out, name, type, help);
+
+        for (var component : components) {
+            if (component.hashingExecutor != null) {
+                sample(out, name, labels(component), value.applyAsLong(component.hashingExecutor));
+            }
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram.Snapshot snapshot) {
+        long[] bucketCounts = snapshot.getBucketCounts();
+        long cumulativeCount = 0;
+
+        for (int i = 0; i < LatencyHistogram.BUCKET_BOUNDS_NANOS.length; i++) {
+            cumulativeCount += bucketCounts[i];
+
+            var bound = LatencyHistogram.BUCKET_BOUNDS_NANOS[i] / NANOS_PER_SECOND;
+            sample(out, name + "_bucket", labels + ",le=\"" + bound + "\"", cumulativeCount);
+        }
+
+        cumulativeCount += bucketCounts[bucketCounts.length - 1];
+
+        sample(out, name + "_bucket", labels + ",le=\"+Inf\"", cumulativeCount);
+        out.append(name).append("_sum{").append(labels).append("} ")
+                .append(snapshot.getSumNanos() / NANOS_PER_SECOND).append('\n');
+        sample(out, name + "_count", labels, cumulativeCount);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String labels(Component component) {
+        return "component=\"" + escape(component.name) + "\"";
+    }
+
+    private static String labels(Component component, String name, String value) {
+        return labels(component) + "," + name + "=\"" + escape(value) + "\"";
+    }
+
+    static String escape(String labelValue) {
+        return labelValue
+                .replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n");
+    }
+}
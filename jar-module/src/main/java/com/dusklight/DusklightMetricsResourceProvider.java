@@ -0,0 +1,92 @@
+package com.dusklight;
+
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.AdminRoles;
+import org.keycloak.models.Constants;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.managers.AppAuthManager;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.storage.UserStorageProvider;
+
+import javax.ws.rs.ForbiddenException;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serves the metrics of the realm's Dusklight components at /auth/realms/{realm}/dusklight-metrics, in the Prometheus
+ * text format (see DusklightMetricsExporter).
+ *
+ * Metrics are per node: each Keycloak node only reports the calls it served, so every node should be scraped.
+ * Components that no provider has been created for on this node yet are left out.
+ *
+ * Like the admin REST API, it requires a bearer token issued by the realm to a user or service account with the
+ * realm-management "view-realm" role, since the metrics name the user federations and show how they are used.
+ */
+public class DusklightMetricsResourceProvider implements RealmResourceProvider {
+    private final KeycloakSession session;
+
+    public DusklightMetricsResourceProvider(KeycloakSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public Object getResource() {
+        return this;
+    }
+
+    @GET
+    @Produces(DusklightMetricsExporter.CONTENT_TYPE)
+    public Response getMetrics() {
+        var realm = session.getContext().getRealm();
+
+        checkViewRealmRole(realm);
+        var factory = (DusklightUserStorageProviderFactory) session.getKeycloakSessionFactory()
+                .getProviderFactory(UserStorageProvider.class, DusklightUserStorageProviderFactory.PROVIDER_NAME);
+
+        List<DusklightMetricsExporter.Component> components = new ArrayList<>();
+
+        if (factory != null) {
+            realm.getComponentsStream(realm.getId(), UserStorageProvider.class.getName())
+                    .filter(model -> DusklightUserStorageProviderFactory.PROVIDER_NAME.equals(model.getProviderId()))
+                    .forEach(model -> {
+                        var resources = factory.findComponentResources(model.getId());
+
+                        if (resources != null) {
+                            components.add(new DusklightMetricsExporter.Component(componentName(model),
+                                    resources.getMetrics(), resources.getCacheStatistics(), resources.getHashingExecutor()));
+                        }
+                    });
+        }
+
+        return Response.ok(DusklightMetricsExporter.export(components), DusklightMetricsExporter.CONTENT_TYPE).build();
+    }
+
+    @Override
+    public void close() {}
+
+    private void checkViewRealmRole(RealmModel realm) {
+        var auth = new AppAuthManager.BearerTokenAuthenticator(session).authenticate();
+
+        if (auth == null) {
+            throw new NotAuthorizedException("Bearer");
+        }
+
+        var client = realm.getClientByClientId(auth.getToken().getIssuedFor());
+        var realmManagement = realm.getClientByClientId(Constants.REALM_MANAGEMENT_CLIENT_ID);
+
+        if (client == null || realmManagement == null
+                || !new AdminAuth(realm, auth.getToken(), auth.getUser(), client).hasAppRole(realmManagement, AdminRoles.VIEW_REALM)) {
+            throw new ForbiddenException();
+        }
+    }
+
+    private static String componentName(ComponentModel model) {
+        return model.getName() != null ? model.getName() : model.getId();
+    }
+}
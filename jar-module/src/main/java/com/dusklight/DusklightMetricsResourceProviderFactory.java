@@ -0,0 +1,35 @@
+package com.dusklight;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+public class DusklightMetricsResourceProviderFactory implements RealmResourceProviderFactory {
+
+    // Path of the endpoint under /auth/realms/{realm}/.
+    public static final String PROVIDER_ID = "dusklight-metrics";
+
+    @Override
+    public RealmResourceProvider create(KeycloakSession session) {
+        return new DusklightMetricsResourceProvider(session);
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
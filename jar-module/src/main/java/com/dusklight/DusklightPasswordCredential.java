@@ -0,0 +1,81 @@
+package com.dusklight;
+
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * A stored PBKDF2 PasswordHash ("hash.salt.iterations", hash and salt in Base64) decoded into its binary parts, so
+ * that verifying a password needs no string splitting, parsing or Base64 encoding.  Instances are immutable and are
+ * cached on the DusklightUserEntity they were parsed from.
+ */
+public final class DusklightPasswordCredential implements PasswordCredential {
+    private final byte[] hash;
+    private final byte[] salt;
+    private final int iterations;
+    private final String pbkdf2Algorithm;
+
+    private DusklightPasswordCredential(byte[] hash, byte[] salt, int iterations, String pbkdf2Algorithm) {
+        this.hash = hash;
+        this.salt = salt;
+        this.iterations = iterations;
+        this.pbkdf2Algorithm = pbkdf2Algorithm;
+    }
+
+    /**
+     * Parses a stored PasswordHash.
+     *
+     * @param passwordHash Stored PasswordHash, in the format "hash.salt.iterations"
+     * @param pbkdf2Algorithm JCE algorithm the hash was computed with, e.g. "PBKDF2WithHmacSHA256"
+     * @return The parsed credential, or null if the PasswordHash is missing or malformed.
+     */
+    public static DusklightPasswordCredential parse(String passwordHash, String pbkdf2Algorithm) {
+        if (passwordHash == null) {
+            return null;
+        }
+
+        int firstDot = passwordHash.indexOf('.');
+        int secondDot = firstDot < 0 ? -1 : passwordHash.indexOf('.', firstDot + 1);
+
+        if (secondDot < 0 || passwordHash.indexOf('.', secondDot + 1) >= 0) {
+            return null;
+        }
+
+        try {
+            var decoder = Base64.getDecoder();
+            byte[] hash = decoder.decode(passwordHash.substring(0, firstDot));
+            byte[] salt = decoder.decode(passwordHash.substring(firstDot + 1, secondDot));
+            int iterations = Integer.parseInt(passwordHash, secondDot + 1, passwordHash.length(), 10);
+
+            if (hash.length == 0 || iterations < 1) {
+                return null;
+            }
+
+            return new DusklightPasswordCredential(hash, salt, iterations, pbkdf2Algorithm);
+        } catch (IllegalArgumentException ex) {
+            // Also covers NumberFormatException.
+            return null;
+        }
+    }
+
+    @Override
+    public boolean matches(String password) {
+        byte[] computedHash = Pbkdf2Provider.generateHash(password, salt, iterations, hash.length, pbkdf2Algorithm);
+
+        return MessageDigest.isEqual(computedHash, hash);
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public String getPbkdf2Algorithm() {
+        return pbkdf2Algorithm;
+    }
+
+    /**
+     * @return Length of the stored hash in bytes.
+     */
+    public int getHashSizeBytes() {
+        return hash.length;
+    }
+}
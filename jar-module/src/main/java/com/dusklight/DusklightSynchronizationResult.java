@@ -0,0 +1,50 @@
+package com.dusklight;
+
+import org.keycloak.storage.user.SynchronizationResult;
+
+/**
+ * SynchronizationResult that also reports how many rows were read from the Dusklight database and how fast, so the
+ * throughput of a sync shows in the admin console and the server log.
+ */
+public class DusklightSynchronizationResult extends SynchronizationResult {
+    private int usersRead;
+    private int chunks;
+    private long durationMillis;
+
+    public int getUsersRead() {
+        return usersRead;
+    }
+
+    public void setUsersRead(int usersRead) {
+        this.usersRead = usersRead;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public void setChunks(int chunks) {
+        this.chunks = chunks;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return Users read per second, or 0 if nothing was read.
+     */
+    public long getUsersPerSecond() {
+        return durationMillis <= 0 ? 0 : usersRead * 1000L / durationMillis;
+    }
+
+    @Override
+    public String getStatus() {
+        return super.getStatus() + String.format(", %d users read in %d chunks, %d ms (%d users/s)",
+                usersRead, chunks, durationMillis, getUsersPerSecond());
+    }
+}
@@ -2,33 +2,66 @@ package com.dusklight;
 
 import org.jboss.logging.Logger;
 import org.keycloak.component.ComponentModel;
+import org.keycloak.models.GroupModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.storage.adapter.AbstractUserAdapterFederatedStorage;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Allows access to a Dusklight user's data.
  *
- * For simplicity, most of the setters are omitted or not implemented, such as saving attribute values back to the
- * Dusklight database. For production use, consider implementing them as needed.
+ * First name, last name and department can be changed; the changes are written to the Dusklight database by
+ * DusklightUserUnitOfWork when the Keycloak transaction commits.  Other attributes are kept in Keycloak's storage.
  *
  * Note that this derives from AbstractUserAdapterFederatedStorage, which means it will support full Keycloak feature-set
  * by using Keycloak's storage for any features not specifically implemented/overriden in this class.
  * Refer to documentation: https://www.keycloak.org/docs/15.0/server_development/#augmenting-external-storage
+ *
+ * The entity may have been read with only some of its columns (see DusklightUserProjection); the profile getters and
+ * getPasswordHash load the rest on first access.  Getting the username or the database ID never queries.
  */
 public class DusklightUserAdapterFederatedStorage extends AbstractUserAdapterFederatedStorage {
     private static final Logger logger = Logger.getLogger(DusklightUserAdapterFederatedStorage.class);
 
+    public static final String DEPARTMENT_ATTRIBUTE = "department";
+
     private final DusklightUserEntity dusklightUserEntity;
 
+    // Memoized for this adapter; adapters live for one Keycloak session and are not shared between threads.
+    private Map<String, List<String>> attributes;
+    private List<String> departmentValues;
+    private List<String> firstNameValues;
+    private List<String> lastNameValues;
+    private Set<GroupModel> departmentGroups;
+
+    // Changes made through this adapter; the entity is shared node-wide and only changes once they are saved.
+    private final DusklightUserUnitOfWork unitOfWork;
+    private final Map<DusklightUserColumn, String> changedValues = new EnumMap<>(DusklightUserColumn.class);
+    private final Set<DusklightUserColumn> dirtyColumns = EnumSet.noneOf(DusklightUserColumn.class);
+
     public DusklightUserAdapterFederatedStorage(KeycloakSession session, RealmModel realm, ComponentModel storageProviderModel,
                                                 DusklightUserEntity DusklightUserEntity) {
+        this(session, realm, storageProviderModel, DusklightUserEntity, null);
+    }
+
+    /**
+     * @param unitOfWork Collects the changes made through the setters until the Keycloak transaction commits, or null
+     *                   if the user is read-only.
+     */
+    public DusklightUserAdapterFederatedStorage(KeycloakSession session, RealmModel realm, ComponentModel storageProviderModel,
+                                                DusklightUserEntity DusklightUserEntity, DusklightUserUnitOfWork unitOfWork) {
         super(session, realm, storageProviderModel);
         this.dusklightUserEntity = DusklightUserEntity;
+        this.unitOfWork = unitOfWork;
     }
 
     @Override
@@ -36,6 +69,10 @@ public class DusklightUserAdapterFederatedStorage extends AbstractUserAdapterFed
         return dusklightUserEntity.getUsername();
     }
 
+    /**
+     * Not supported: Keycloak derives the user's ID from the username (see DusklightUserEntity.getUsername), so a
+     * rename would detach the user from everything Keycloak keeps in its federated storage.
+     */
     @Override
     public void setUsername(String username) {
     }
@@ -48,24 +85,47 @@ public class DusklightUserAdapterFederatedStorage extends AbstractUserAdapterFed
         dusklightUserEntity.setPasswordHash(passwordHash);
     }
 
+    public PasswordCredential getPasswordCredential(PasswordHashers passwordHashers) {
+        return dusklightUserEntity.getPasswordCredential(passwordHashers);
+    }
+
     @Override
     public String getFirstName() {
-        return dusklightUserEntity.getFirstName();
+        return changedValues.containsKey(DusklightUserColumn.FIRST_NAME)
+                ? changedValues.get(DusklightUserColumn.FIRST_NAME)
+                : dusklightUserEntity.getFirstName();
     }
 
     @Override
     public void setFirstName(String firstName) {
+        setColumn(DusklightUserColumn.FIRST_NAME, firstName);
     }
 
     @Override
     public String getLastName() {
-        return dusklightUserEntity.getLastName();
+        return changedValues.containsKey(DusklightUserColumn.LAST_NAME)
+                ? changedValues.get(DusklightUserColumn.LAST_NAME)
+                : dusklightUserEntity.getLastName();
     }
 
     @Override
     public void setLastName(String lastName) {
+        setColumn(DusklightUserColumn.LAST_NAME, lastName);
+    }
+
+    public String getDepartment() {
+        return changedValues.containsKey(DusklightUserColumn.DEPARTMENT)
+                ? changedValues.get(DusklightUserColumn.DEPARTMENT)
+                : dusklightUserEntity.getDepartment();
+    }
+
+    public void setDepartment(String department) {
+        setColumn(DusklightUserColumn.DEPARTMENT, department);
     }
 
+    /**
+     * The demo database doesn't have email, so it can't be changed either.
+     */
     @Override
     public String getEmail() {
         return null;
@@ -81,36 +141,266 @@ public class DusklightUserAdapterFederatedStorage extends AbstractUserAdapterFed
      * Demonstrates exposing custom data as attributes in Keycloak.  In this case, the Department value of the user
      * from the database is exposed as an attribute.
      *
-     * @param name
-     * @return List of attributes
+     * Token mappers read attributes many times per token, so the Dusklight-sourced values are kept as immutable lists,
+     * and names are matched ignoring case.  Other attributes come from the memoized attribute map.
+     *
+     * @param name Attribute name
+     * @return List of attribute values
      */
     @Override
     public List<String> getAttribute(String name) {
-        ArrayList<String> attributeValueList = new ArrayList<>();
+        var dusklightValues = getDusklightAttribute(name);
 
-        if (name.toLowerCase() == "department") {
-            attributeValueList.add(dusklightUserEntity.getDepartment());
-        } else {
-            return super.getAttribute(name);
+        if (dusklightValues != null) {
+            return dusklightValues;
         }
 
-        return attributeValueList;
+        var values = getAttributes().get(name);
+
+        return values == null ? Collections.emptyList() : values;
+    }
+
+    @Override
+    public String getFirstAttribute(String name) {
+        var values = getAttribute(name);
+
+        return values.isEmpty() ? null : values.get(0);
     }
 
+    /**
+     * Merges the attributes kept in Keycloak's federated storage with the Dusklight-sourced ones.  The map is built on
+     * first use and kept for the life of this adapter (one Keycloak session), until an attribute is set or removed.
+     *
+     * @return Unmodifiable map of attributes
+     */
     @Override
     public Map<String, List<String>> getAttributes() {
-        var attributes = super.getAttributes();
+        if (attributes == null) {
+            Map<String, List<String>> merged = new HashMap<>(loadFederatedAttributes());
 
-        attributes.put("department", getAttribute("department"));
+            merged.put(DEPARTMENT_ATTRIBUTE, getDepartmentValues());
 
-        // Handle Keycloak's built-in FIRST_NAME and LAST_NAME attribute names, otherwise these values will be empty
-        // in the User Detail screen.
-        var firstName = getFirstName();
-        attributes.put(FIRST_NAME, firstName == null ? null : List.of(firstName));
+            // Handle Keycloak's built-in FIRST_NAME and LAST_NAME attribute names, otherwise these values will be empty
+            // in the User Detail screen.
+            merged.put(FIRST_NAME, getFirstNameValues());
+            merged.put(LAST_NAME, getLastNameValues());
 
-        var lastName = getLastName();
-        attributes.put(LAST_NAME, lastName == null ? null : List.of(lastName));
+            attributes = Collections.unmodifiableMap(merged);
+        }
 
         return attributes;
     }
+
+    @Override
+    public void setSingleAttribute(String name, String value) {
+        var column = getDusklightColumn(name);
+
+        if (column != null) {
+            setColumn(column, value);
+            return;
+        }
+
+        super.setSingleAttribute(name, value);
+        attributes = null;
+    }
+
+    @Override
+    public void setAttribute(String name, List<String> values) {
+        var column = getDusklightColumn(name);
+
+        if (column != null) {
+            setColumn(column, values == null || values.isEmpty() ? null : values.get(0));
+            return;
+        }
+
+        super.setAttribute(name, values);
+        attributes = null;
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        var column = getDusklightColumn(name);
+
+        if (column != null) {
+            setColumn(column, null);
+            return;
+        }
+
+        super.removeAttribute(name);
+        attributes = null;
+    }
+
+    //region Unit of work
+
+    /**
+     * Records a new column value, to be written by the unit of work when the Keycloak transaction commits.
+     */
+    private void setColumn(DusklightUserColumn column, String value) {
+        if (unitOfWork == null) {
+            logger.warnf("Ignoring change to %s of user %s: the user is read-only.", column.getColumnName(), getUsername());
+            return;
+        }
+
+        // The columns are NOT NULL.
+        var newValue = value == null ? "" : value;
+
+        if (newValue.equals(getColumn(column))) {
+            return;
+        }
+
+        changedValues.put(column, newValue);
+        dirtyColumns.add(column);
+        resetMemoizedValues();
+
+        unitOfWork.register(this, column, newValue);
+    }
+
+    private String getColumn(DusklightUserColumn column) {
+        switch (column) {
+            case FIRST_NAME:
+                return getFirstName();
+            case LAST_NAME:
+                return getLastName();
+            default:
+                return getDepartment();
+        }
+    }
+
+    /**
+     * Called by the unit of work once the changes are written.  The new values stay visible through this adapter.
+     */
+    void changesSaved() {
+        dirtyColumns.clear();
+    }
+
+    /**
+     * Called by the unit of work when the Keycloak transaction rolls back, to go back to the stored values.
+     */
+    void discardChanges() {
+        for (var column : dirtyColumns) {
+            changedValues.remove(column);
+        }
+
+        dirtyColumns.clear();
+        resetMemoizedValues();
+    }
+
+    /**
+     * @return The user as it is now, including changes made through this adapter.
+     */
+    DusklightUserEntity toEntity() {
+        var entity = new DusklightUserEntity();
+
+        entity.setUserId(getDatabaseUserId());
+        entity.setUsername(getUsername());
+        entity.setFirstName(getFirstName());
+        entity.setLastName(getLastName());
+        entity.setDepartment(getDepartment());
+
+        return entity;
+    }
+
+    private void resetMemoizedValues() {
+        attributes = null;
+        departmentValues = null;
+        firstNameValues = null;
+        lastNameValues = null;
+        departmentGroups = null;
+    }
+
+    private static DusklightUserColumn getDusklightColumn(String attributeName) {
+        if (DEPARTMENT_ATTRIBUTE.equalsIgnoreCase(attributeName)) {
+            return DusklightUserColumn.DEPARTMENT;
+        } else if (FIRST_NAME.equalsIgnoreCase(attributeName)) {
+            return DusklightUserColumn.FIRST_NAME;
+        } else if (LAST_NAME.equalsIgnoreCase(attributeName)) {
+            return DusklightUserColumn.LAST_NAME;
+        }
+
+        return null;
+    }
+
+    //endregion
+
+    /**
+     * Adds the group of the user's department to the groups kept in Keycloak's federated storage, if department groups
+     * are enabled (see DepartmentGroups).  Keycloak's group checks, such as isMemberOf, go through this.
+     *
+     * @return Groups of the user
+     */
+    @Override
+    protected Set<GroupModel> getGroupsInternal() {
+        var groups = super.getGroupsInternal();
+
+        if (!isDepartmentGroupsEnabled()) {
+            return groups;
+        }
+
+        if (departmentGroups == null) {
+            departmentGroups = DepartmentGroups.groupsOf(realm, getDepartment());
+        }
+
+        if (departmentGroups.isEmpty()) {
+            return groups;
+        }
+
+        Set<GroupModel> merged = new HashSet<>(groups);
+        merged.addAll(departmentGroups);
+
+        return merged;
+    }
+
+    private boolean isDepartmentGroupsEnabled() {
+        return storageProviderModel != null && Boolean.parseBoolean(
+                storageProviderModel.getConfig().getFirst(DusklightUserStorageProviderFactory.CONFIG_DEPARTMENT_GROUPS_ENABLED));
+    }
+
+    /**
+     * Reads the attributes kept in Keycloak's federated storage.
+     *
+     * @return Attributes, with Keycloak's built-in names
+     */
+    protected Map<String, List<String>> loadFederatedAttributes() {
+        return super.getAttributes();
+    }
+
+    private List<String> getDusklightAttribute(String name) {
+        if (DEPARTMENT_ATTRIBUTE.equalsIgnoreCase(name)) {
+            return getDepartmentValues();
+        } else if (FIRST_NAME.equalsIgnoreCase(name)) {
+            return getFirstNameValues();
+        } else if (LAST_NAME.equalsIgnoreCase(name)) {
+            return getLastNameValues();
+        }
+
+        return null;
+    }
+
+    private List<String> getDepartmentValues() {
+        if (departmentValues == null) {
+            departmentValues = valuesOf(getDepartment());
+        }
+
+        return departmentValues;
+    }
+
+    private List<String> getFirstNameValues() {
+        if (firstNameValues == null) {
+            firstNameValues = valuesOf(getFirstName());
+        }
+
+        return firstNameValues;
+    }
+
+    private List<String> getLastNameValues() {
+        if (lastNameValues == null) {
+            lastNameValues = valuesOf(getLastName());
+        }
+
+        return lastNameValues;
+    }
+
+    private static List<String> valuesOf(String value) {
+        return value == null ? Collections.emptyList() : List.of(value);
+    }
 }
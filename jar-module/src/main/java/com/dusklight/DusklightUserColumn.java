@@ -0,0 +1,20 @@
+package com.dusklight;
+
+/**
+ * The Users columns Keycloak can change through DusklightUserAdapterFederatedStorage.  All of them are NOT NULL.
+ */
+public enum DusklightUserColumn {
+    FIRST_NAME("FirstName"),
+    LAST_NAME("LastName"),
+    DEPARTMENT("Department");
+
+    private final String columnName;
+
+    DusklightUserColumn(String columnName) {
+        this.columnName = columnName;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+}
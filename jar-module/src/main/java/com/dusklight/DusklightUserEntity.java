@@ -1,15 +1,74 @@
 package com.dusklight;
 
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+
+/**
+ * A row of the Users table.
+ *
+ * Entities read with a projection (see DusklightUserProjection) load the columns it left out on first access, with one
+ * query by UserId, and keep them.  Since the same entity is shared through the node-wide user cache, the profile
+ * columns are read at most once per cached user.  Entities built by hand have every column loaded.
+ */
 public class DusklightUserEntity {
+    private static final Logger logger = Logger.getLogger(DusklightUserEntity.class);
+
+    /**
+     * Reads the columns of a projection for a single user.
+     */
+    @FunctionalInterface
+    public interface LazyLoader {
+        /**
+         * @param userId Database ID of the user
+         * @param projection Columns to read
+         * @return The user, or null if the user no longer exists.
+         * @throws SQLException If the query failed.
+         */
+        DusklightUserEntity load(int userId, DusklightUserProjection projection) throws SQLException;
+    }
+
     private int userId;
     private String username;
-    private String passwordHash;
-    private String firstName;
-    private String lastName;
-    private String department;
+    private volatile String passwordHash;
+    private volatile String firstName;
+    private volatile String lastName;
+    private volatile String department;
+
+    private volatile PasswordCredential passwordCredential;
+
+    private LazyLoader lazyLoader;
+    private volatile boolean passwordHashLoaded = true;
+    private volatile boolean profileLoaded = true;
 
     public DusklightUserEntity() {}
 
+    /**
+     * Marks the columns the projection left out as not loaded yet, to be read with the loader on first access.
+     *
+     * @param loader Loads the missing columns
+     * @param projection Columns that were read
+     */
+    void setLazyLoader(LazyLoader loader, DusklightUserProjection projection) {
+        this.lazyLoader = loader;
+        this.passwordHashLoaded = projection.includesPasswordHash();
+        this.profileLoaded = projection.includesProfile();
+    }
+
+    /**
+     * @return true if FirstName, LastName and Department have been read.
+     */
+    public boolean isProfileLoaded() {
+        return profileLoaded;
+    }
+
+    /**
+     * @return true if PasswordHash has been read.
+     */
+    public boolean isPasswordHashLoaded() {
+        return passwordHashLoaded;
+    }
+
     /**
      * The unique ID of the user in the database.
      *
@@ -39,14 +98,42 @@ public class DusklightUserEntity {
     }
 
     public String getPasswordHash() {
+        if (!passwordHashLoaded) {
+            loadPasswordHash();
+        }
+
         return passwordHash;
     }
 
     public void setPasswordHash(String passwordHash) {
         this.passwordHash = passwordHash;
+        this.passwordCredential = null;
+        this.passwordHashLoaded = true;
+    }
+
+    /**
+     * The PasswordHash decoded by the hasher of its algorithm.  Decoded on first use and kept with the entity, so a
+     * cached user is only decoded once.
+     *
+     * @param passwordHashers Hashers of the component
+     * @return The decoded credential, or null if the PasswordHash is missing, malformed or of an unknown algorithm.
+     */
+    public PasswordCredential getPasswordCredential(PasswordHashers passwordHashers) {
+        var credential = passwordCredential;
+
+        if (credential == null) {
+            credential = passwordHashers.parse(getPasswordHash());
+            passwordCredential = credential;
+        }
+
+        return credential;
     }
 
     public String getFirstName() {
+        if (!profileLoaded) {
+            loadProfile();
+        }
+
         return firstName;
     }
 
@@ -55,6 +142,10 @@ public class DusklightUserEntity {
     }
 
     public String getLastName() {
+        if (!profileLoaded) {
+            loadProfile();
+        }
+
         return lastName;
     }
 
@@ -63,10 +154,52 @@ public class DusklightUserEntity {
     }
 
     public String getDepartment() {
+        if (!profileLoaded) {
+            loadProfile();
+        }
+
         return department;
     }
 
     public void setDepartment(String department) {
         this.department = department;
     }
+
+    private synchronized void loadPasswordHash() {
+        if (passwordHashLoaded) {
+            return;
+        }
+
+        try {
+            var loaded = lazyLoader.load(userId, DusklightUserProjection.AUTH);
+
+            passwordHash = loaded == null ? null : loaded.getPasswordHash();
+            passwordCredential = null;
+            passwordHashLoaded = true;
+        } catch (SQLException ex) {
+            // Not marked as loaded, so the next access tries again.
+            logger.warn("Loading the password hash of user " + userId + " failed: " + ex.getMessage());
+        }
+    }
+
+    private synchronized void loadProfile() {
+        if (profileLoaded) {
+            return;
+        }
+
+        try {
+            var loaded = lazyLoader.load(userId, DusklightUserProjection.LIST);
+
+            if (loaded != null) {
+                firstName = loaded.getFirstName();
+                lastName = loaded.getLastName();
+                department = loaded.getDepartment();
+            }
+
+            profileLoaded = true;
+        } catch (SQLException ex) {
+            // Not marked as loaded, so the next access tries again.
+            logger.warn("Loading the profile of user " + userId + " failed: " + ex.getMessage());
+        }
+    }
 }
@@ -0,0 +1,288 @@
+package com.dusklight;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.storage.UserStorageProviderModel;
+import org.keycloak.storage.user.SynchronizationResult;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.dusklight.DusklightUserStorageProviderFactory.CONFIG_SYNC_ROW_VERSION;
+
+/**
+ * Imports users from the Dusklight database into Keycloak's local storage, for ImportSynchronization.
+ *
+ * A full sync walks the Users table in UserId order, one chunk at a time, and imports the chunks on a pool of threads,
+ * each chunk in its own Keycloak transaction.  At most twice as many chunks as threads are held in memory.  A delta
+ * sync reads only the rows whose RowVersion is greater than the watermark stored by the previous sync, one chunk at a
+ * time in rowversion order, so that a user changed twice is never imported out of order.
+ *
+ * The watermark is stored in the component's configuration (CONFIG_SYNC_ROW_VERSION), and only when every chunk was
+ * imported, so the next delta sync retries anything that failed.  Users removed from the Dusklight database are not
+ * removed from Keycloak.
+ */
+public class DusklightUserImporter {
+    private static final Logger logger = Logger.getLogger(DusklightUserImporter.class);
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final String realmId;
+    private final UserStorageProviderModel model;
+    private final DusklightUserRepository repository;
+    private final int chunkSize;
+    private final int parallelism;
+
+    /**
+     * @param sessionFactory Creates the sessions the chunks are imported in
+     * @param realmId Realm to import into
+     * @param model The component
+     * @param repository Repository to read the users from
+     * @param chunkSize Number of users read and imported per transaction
+     * @param parallelism Number of chunks imported at the same time in a full sync
+     */
+    public DusklightUserImporter(KeycloakSessionFactory sessionFactory, String realmId, UserStorageProviderModel model,
+                                 DusklightUserRepository repository, int chunkSize, int parallelism) {
+        this.sessionFactory = sessionFactory;
+        this.realmId = realmId;
+        this.model = model;
+        this.repository = repository;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Imports or updates all users.
+     *
+     * @return Counts and throughput of the sync
+     */
+    public DusklightSynchronizationResult importAll() {
+        var result = new DusklightSynchronizationResult();
+        var started = System.currentTimeMillis();
+        var failedChunks = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+                DusklightComponentResources.daemonThreadFactory("dusklight-sync-" + model.getId()));
+
+        try {
+            // Changes committed after this point are picked up by the next delta sync.
+            var watermark = repository.getMinActiveRowVersion() - 1;
+
+            var permits = new Semaphore(parallelism * 2);
+            List<Future<?>> futures = new ArrayList<>();
+            int afterUserId = 0;
+
+            while (true) {
+                var chunk = repository.findUsersAfter(afterUserId, chunkSize);
+
+                if (chunk.isEmpty()) {
+                    break;
+                }
+
+                afterUserId = chunk.get(chunk.size() - 1).getUserId();
+                result.setUsersRead(result.getUsersRead() + chunk.size());
+                result.setChunks(result.getChunks() + 1);
+
+                permits.acquire();
+
+                futures.add(executor.submit(() -> {
+                    try {
+                        importChunk(chunk, result, failedChunks);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            for (var future : futures) {
+                future.get();
+            }
+
+            if (failedChunks.get() == 0) {
+                storeWatermark(watermark);
+            }
+        } catch (SQLException ex) {
+            logger.error("importAll: SQL Exception:", ex);
+            result.increaseFailed();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            logger.warn("importAll: Interrupted.");
+            result.increaseFailed();
+        } catch (Exception ex) {
+            logger.error("importAll: Exception occurred:", ex);
+            result.increaseFailed();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return finish(result, started, "Full");
+    }
+
+    /**
+     * Imports or updates the users changed since the last sync.  Runs a full sync if no previous sync stored a
+     * watermark.
+     *
+     * @return Counts and throughput of the sync
+     */
+    public DusklightSynchronizationResult importChanges() {
+        var storedWatermark = model.getConfig().getFirst(CONFIG_SYNC_ROW_VERSION);
+
+        if (storedWatermark == null || storedWatermark.isBlank()) {
+            logger.infof("No previous sync recorded for component %s, running a full sync.", model.getId());
+            return importAll();
+        }
+
+        var result = new DusklightSynchronizationResult();
+        var started = System.currentTimeMillis();
+        var failedChunks = new AtomicInteger();
+
+        try {
+            var watermark = Long.parseLong(storedWatermark.trim());
+
+            while (true) {
+                List<DusklightUserEntity> chunk = new ArrayList<>();
+                var chunkWatermark = repository.forEachChangedUser(watermark, chunkSize, chunk::add);
+
+                if (chunk.isEmpty()) {
+                    break;
+                }
+
+                result.setUsersRead(result.getUsersRead() + chunk.size());
+                result.setChunks(result.getChunks() + 1);
+
+                importChunk(chunk, result, failedChunks);
+
+                if (failedChunks.get() > 0) {
+                    break;
+                }
+
+                watermark = chunkWatermark;
+            }
+
+            storeWatermark(watermark);
+        } catch (SQLException ex) {
+            logger.error("importChanges: SQL Exception:", ex);
+            result.increaseFailed();
+        } catch (Exception ex) {
+            logger.error("importChanges: Exception occurred:", ex);
+            result.increaseFailed();
+        }
+
+        return finish(result, started, "Delta");
+    }
+
+    private DusklightSynchronizationResult finish(DusklightSynchronizationResult result, long started, String kind) {
+        result.setDurationMillis(System.currentTimeMillis() - started);
+
+        logger.infof("%s sync of component %s: %s", kind, model.getId(), result.getStatus());
+
+        return result;
+    }
+
+    /**
+     * Imports one chunk of users in its own transaction.  If the transaction fails, the whole chunk counts as failed.
+     */
+    private void importChunk(List<DusklightUserEntity> chunk, DusklightSynchronizationResult result, AtomicInteger failedChunks) {
+        var chunkResult = new SynchronizationResult();
+
+        try {
+            runInTransaction(session -> {
+                RealmModel realm = session.realms().getRealm(realmId);
+
+                for (var user : chunk) {
+                    importUser(session, realm, user, chunkResult);
+                }
+            });
+        } catch (RuntimeException ex) {
+            logger.errorf(ex, "Importing users %d to %d failed.",
+                    chunk.get(0).getUserId(), chunk.get(chunk.size() - 1).getUserId());
+
+            failedChunks.incrementAndGet();
+
+            // Nothing in the chunk was committed.
+            chunkResult.setAdded(0);
+            chunkResult.setUpdated(0);
+            chunkResult.setFailed(chunk.size());
+        }
+
+        synchronized (result) {
+            result.add(chunkResult);
+        }
+    }
+
+    private void importUser(KeycloakSession session, RealmModel realm, DusklightUserEntity user, SynchronizationResult result) {
+        var localStorage = session.userLocalStorage();
+        UserModel localUser = localStorage.getUserByUsername(realm, user.getUsername());
+
+        if (localUser == null) {
+            localUser = localStorage.addUser(realm, null, user.getUsername(), true, false);
+            localUser.setFederationLink(model.getId());
+            result.increaseAdded();
+        } else if (model.getId().equals(localUser.getFederationLink())) {
+            result.increaseUpdated();
+        } else {
+            // A Keycloak user, or a user of another provider, already has this username.
+            logger.warnf("Not importing user %s: the username is already used by a user not linked to component %s.",
+                    user.getUsername(), model.getId());
+            result.increaseFailed();
+            return;
+        }
+
+        localUser.setEnabled(true);
+        localUser.setFirstName(user.getFirstName());
+        localUser.setLastName(user.getLastName());
+        localUser.setSingleAttribute(DusklightUserAdapterFederatedStorage.DEPARTMENT_ATTRIBUTE, user.getDepartment());
+    }
+
+    private void storeWatermark(long watermark) {
+        runInTransaction(session -> {
+            RealmModel realm = session.realms().getRealm(realmId);
+            var component = realm.getComponent(model.getId());
+
+            if (component != null) {
+                component.getConfig().putSingle(CONFIG_SYNC_ROW_VERSION, Long.toString(watermark));
+                realm.updateComponent(component);
+            }
+        });
+
+        // Keep the caller's copy in step, in case it is reused for the next sync.
+        model.getConfig().putSingle(CONFIG_SYNC_ROW_VERSION, Long.toString(watermark));
+    }
+
+    /**
+     * Runs the work in a new session and transaction, committing on success and rolling back on failure.
+     */
+    private void runInTransaction(Consumer<KeycloakSession> work) {
+        KeycloakSession session = sessionFactory.create();
+        var transaction = session.getTransactionManager();
+
+        try {
+            transaction.begin();
+            work.accept(session);
+
+            if (transaction.getRollbackOnly()) {
+                transaction.rollback();
+                throw new IllegalStateException("Transaction was marked for rollback.");
+            }
+
+            transaction.commit();
+        } catch (RuntimeException ex) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+
+            throw ex;
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.dusklight;
+
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-wide lookup of single users by username, shared by all providers of a component.
+ *
+ * Looked-up users are kept in a cache across KeycloakSessions, so that e.g. a token refresh doesn't hit the database
+ * again for a user that was just loaded by another request.  Cache keys are lower-cased, matching Keycloak's own
+ * handling of usernames and SQL Server's default case-insensitive collation.
+ *
+ * Concurrent misses for the same username, e.g. a burst of logins for one service account, share a single query.
+ */
+public class DusklightUserLookup implements UserChangeListener {
+    private static final Logger logger = Logger.getLogger(DusklightUserLookup.class);
+
+    private final DusklightUserRepository repository;
+    private final ExpiringCache<String, DusklightUserEntity> userCache;
+    private final UnknownUsernameFilter unknownUsernameFilter;
+    private final UserLookupBatcher batcher;
+    private final SingleFlight<String, DusklightUserEntity> inFlightLookups = new SingleFlight<>();
+
+    // Bumped by every invalidation, so that a load that raced with one doesn't put the old user back.
+    private final AtomicLong generation = new AtomicLong();
+
+    public DusklightUserLookup(DusklightUserRepository repository, ExpiringCache<String, DusklightUserEntity> userCache) {
+        this(repository, userCache, null, null);
+    }
+
+    /**
+     * @param repository Repository to load users from
+     * @param userCache Cache of found users
+     * @param unknownUsernameFilter Negative cache for usernames that don't exist, or null to always query on a miss.
+     * @param batcher Batches concurrent misses into one query, or null to query each miss on its own.
+     */
+    public DusklightUserLookup(DusklightUserRepository repository, ExpiringCache<String, DusklightUserEntity> userCache,
+                               UnknownUsernameFilter unknownUsernameFilter, UserLookupBatcher batcher) {
+        this.repository = repository;
+        this.userCache = userCache;
+        this.unknownUsernameFilter = unknownUsernameFilter;
+        this.batcher = batcher;
+    }
+
+    /**
+     * Finds a user by username, from the cache if possible.
+     *
+     * @param username Username
+     * @return The user, or null if not found.
+     */
+    public DusklightUserEntity findByUsername(String username) {
+        if (username == null) {
+            return null;
+        }
+
+        var key = cacheKey(username);
+        var user = userCache.get(key, this::reload);
+
+        if (user == null) {
+            if (unknownUsernameFilter != null && unknownUsernameFilter.isDefinitelyMissing(key)) {
+                return null;
+            }
+
+            try {
+                user = inFlightLookups.execute(key, () -> load(key, username));
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        return user;
+    }
+
+    /**
+     * Finds several users at once: cached users are taken from the cache, and the rest are loaded with one query.
+     *
+     * @param usernames Usernames
+     * @return Found users, keyed by normalized username.  Usernames that were not found are missing from the map.
+     */
+    public Map<String, DusklightUserEntity> findByUsernames(Collection<String> usernames) {
+        Map<String, DusklightUserEntity> users = new HashMap<>();
+        Set<String> toLoad = new HashSet<>();
+
+        for (var username : usernames) {
+            if (username == null) {
+                continue;
+            }
+
+            var key = cacheKey(username);
+            var user = userCache.get(key);
+
+            if (user != null) {
+                users.put(key, user);
+            } else if (unknownUsernameFilter == null || !unknownUsernameFilter.isDefinitelyMissing(key)) {
+                toLoad.add(key);
+            }
+        }
+
+        if (toLoad.isEmpty()) {
+            return users;
+        }
+
+        try {
+            var generationBefore = generation.get();
+            var loaded = repository.findByUsernames(toLoad);
+            var cacheable = generation.get() == generationBefore;
+
+            for (var key : toLoad) {
+                var user = loaded.get(key);
+
+                if (user != null) {
+                    if (cacheable) {
+                        userCache.put(key, user);
+                    }
+
+                    users.put(key, user);
+                } else if (unknownUsernameFilter != null) {
+                    unknownUsernameFilter.recordMissing(key);
+                }
+            }
+        } catch (SQLException ex) {
+            logger.error("findByUsernames: SQL Exception:", ex);
+        }
+
+        return users;
+    }
+
+    private DusklightUserEntity load(String key, String username) {
+        DusklightUserEntity user;
+        var generationBefore = generation.get();
+
+        try {
+            user = batcher != null ? batcher.findByUsername(key) : repository.findByUsername(username);
+        } catch (SQLException ex) {
+            // Not the same as not found: nothing is cached or recorded as missing, so the next lookup queries again.
+            logger.error("findByUsername: SQL Exception:", ex);
+            return null;
+        }
+
+        if (user != null) {
+            if (generation.get() == generationBefore) {
+                userCache.put(key, user);
+            }
+        } else if (unknownUsernameFilter != null) {
+            unknownUsernameFilter.recordMissing(key);
+        }
+
+        return user;
+    }
+
+    // Refresh-ahead loader.  A failed query keeps the cached user until it expires.
+    private DusklightUserEntity reload(String key) {
+        try {
+            return repository.findByUsername(key);
+        } catch (SQLException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Drops changed users from the cache, including under their old username if they were renamed, and makes sure the
+     * unknown username filter doesn't report their current username as missing.
+     *
+     * @param changedUsers The users as they are now in the database
+     */
+    @Override
+    public void usersChanged(List<DusklightUserEntity> changedUsers) {
+        Set<Integer> userIds = new HashSet<>();
+
+        for (var user : changedUsers) {
+            userIds.add(user.getUserId());
+
+            if (unknownUsernameFilter != null && user.getUsername() != null) {
+                unknownUsernameFilter.recordExisting(cacheKey(user.getUsername()));
+            }
+        }
+
+        generation.incrementAndGet();
+        userCache.invalidateIf(user -> userIds.contains(user.getUserId()));
+    }
+
+    /**
+     * Number of lookups that shared a query already in flight for the same username, instead of running their own.
+     *
+     * @return Count of coalesced lookups
+     */
+    public long getCoalescedLookupCount() {
+        return inFlightLookups.getCoalescedCount();
+    }
+
+    /**
+     * Drops the user from the node-wide cache, e.g. after its password hash changed.
+     *
+     * @param username Username
+     */
+    public void invalidate(String username) {
+        if (username != null) {
+            generation.incrementAndGet();
+            userCache.invalidate(cacheKey(username));
+        }
+    }
+
+    /**
+     * Negative cache for unknown usernames.
+     *
+     * @return The filter, or null if not enabled.
+     */
+    public UnknownUsernameFilter getUnknownUsernameFilter() {
+        return unknownUsernameFilter;
+    }
+
+    /**
+     * Batcher for concurrent lookups.
+     *
+     * @return The batcher, or null if not enabled.
+     */
+    public UserLookupBatcher getBatcher() {
+        return batcher;
+    }
+
+    public ExpiringCache<String, DusklightUserEntity> getUserCache() {
+        return userCache;
+    }
+
+    static String cacheKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,55 @@
+package com.dusklight;
+
+/**
+ * The set of Users columns a query reads.  Columns a projection leaves out are loaded by DusklightUserEntity on first
+ * access, so callers only pay for the NVARCHAR profile columns or the PasswordHash when they actually use them.
+ */
+public enum DusklightUserProjection {
+
+    /**
+     * Username lookups, which mostly end in a credential check: no profile columns.
+     */
+    AUTH("UserId, Username, PasswordHash", true, false),
+
+    /**
+     * Lists and searches for the admin console, and syncs: no PasswordHash.
+     */
+    LIST("UserId, Username, FirstName, LastName, Department", false, true),
+
+    /**
+     * All columns.
+     */
+    FULL(DusklightUserRowMapper.USER_COLUMNS, true, true);
+
+    private final String columns;
+    private final boolean passwordHash;
+    private final boolean profile;
+
+    DusklightUserProjection(String columns, boolean passwordHash, boolean profile) {
+        this.columns = columns;
+        this.passwordHash = passwordHash;
+        this.profile = profile;
+    }
+
+    /**
+     * @return The select list, in the order DusklightUserRowMapper reads it.
+     */
+    public String getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return Number of columns in the select list.
+     */
+    public int getColumnCount() {
+        return (passwordHash ? 1 : 0) + (profile ? 3 : 0) + 2;
+    }
+
+    public boolean includesPasswordHash() {
+        return passwordHash;
+    }
+
+    public boolean includesProfile() {
+        return profile;
+    }
+}
@@ -0,0 +1,785 @@
+package com.dusklight;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.ResultSetHandler;
+import org.apache.commons.dbutils.handlers.ScalarHandler;
+import org.jboss.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Data access to the Users table in the Dusklight database.
+ *
+ * Unlike DusklightUserStorageProvider, this doesn't depend on a KeycloakSession, so it can be shared node-wide and used
+ * by background work such as cache refreshes.
+ */
+public class DusklightUserRepository {
+    private static final Logger logger = Logger.getLogger(DusklightUserRepository.class);
+
+    public static final int DEFAULT_FETCH_SIZE = 100;
+
+    private final DataSource dataSource;
+    private final int fetchSize;
+    private final boolean prefixSearch;
+    private final DusklightMetrics metrics;
+    private final DusklightUserEntity.LazyLoader lazyLoader = this::findByUserId;
+
+    public DusklightUserRepository(DataSource dataSource) {
+        this(dataSource, DEFAULT_FETCH_SIZE, false);
+    }
+
+    /**
+     * @param dataSource Pooled connections to the Dusklight database
+     * @param fetchSize JDBC fetch size used by streaming queries
+     * @param prefixSearch If true, LIKE searches match usernames starting with the search term ("term%"), which can
+     *                     seek on the AK_Username index, instead of usernames containing it ("%term%").
+     */
+    public DusklightUserRepository(DataSource dataSource, int fetchSize, boolean prefixSearch) {
+        this(dataSource, fetchSize, prefixSearch, new DusklightMetrics());
+    }
+
+    /**
+     * @param metrics Metrics to record the latency and row count of each query to
+     */
+    public DusklightUserRepository(DataSource dataSource, int fetchSize, boolean prefixSearch, DusklightMetrics metrics) {
+        this.dataSource = dataSource;
+        this.fetchSize = fetchSize;
+        this.prefixSearch = prefixSearch;
+        this.metrics = metrics;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Looks for a single user in the Dusklight database.  Only the columns needed to check a credential are read; the
+     * profile columns are loaded on first access.
+     *
+     * @param username Username to look for.
+     * @return The user, or null if not found.
+     * @throws SQLException If the query failed.
+     */
+    public DusklightUserEntity findByUsername(String username) throws SQLException {
+        long start = System.nanoTime();
+        int rows = -1;
+
+        try (Connection connection = dataSource.getConnection()) {
+            var users = new QueryRunner().query(connection,
+                    selectUsersSql(DusklightUserProjection.AUTH) + "WHERE Username = ?",
+                    handler(DusklightUserProjection.AUTH), username);
+
+            rows = users.size();
+            return users.isEmpty() ? null : users.get(0);
+        } finally {
+            metrics.recordQuery(DusklightMetrics.Query.FIND_BY_USERNAME, start, rows);
+        }
+    }
+
+    /**
+     * Reads the projection's columns of a single user.  Used to load the columns an entity was read without.
+     *
+     * @param userId Database ID of the user
+     * @param projection Columns to read
+     * @return The user, or null if not found.
+     * @throws SQLException If the query failed.
+     */
+    public DusklightUserEntity findByUserId(int userId, DusklightUserProjection projection) throws SQLException {
+        long start = System.nanoTime();
+        int rows = -1;
+
+        try (Connection connection = dataSource.getConnection()) {
+            var users = new QueryRunner().query(connection,
+                    selectUsersSql(projection) + "WHERE UserId = ?", handler(projection), userId);
+
+            rows = users.size();
+            return users.isEmpty() ? null : users.get(0);
+        } finally {
+            metrics.recordQuery(DusklightMetrics.Query.FIND_BY_USER_ID, start, rows);
+        }
+    }
+
+    // SQL Server allows up to 2100 parameters per statement.
+    static final int MAX_IN_LIST_SIZE = 1000;
+
+    /**
+     * Looks for several users at once, with one "Username IN (...)" query per 1000 usernames.  Reads the same columns
+     * as findByUsername.
+     *
+     * @param usernames Usernames to look for
+     * @return Found users, keyed by their normalized username (see DusklightUserLookup.cacheKey).  Usernames that were
+     *         not found are missing from the map.
+     * @throws SQLException If a query failed.
+     */
+    @NotNull
+    public Map<String, DusklightUserEntity> findByUsernames(Collection<String> usernames) throws SQLException {
+        Map<String, DusklightUserEntity> users = new HashMap<>();
+
+        if (usernames.isEmpty()) {
+            return users;
+        }
+
+        List<String> remaining = new ArrayList<>(usernames);
+        long startNanos = System.nanoTime();
+        int rows = -1;
+
+        try (Connection connection = dataSource.getConnection()) {
+            QueryRunner runner = new QueryRunner();
+
+            for (int start = 0; start < remaining.size(); start += MAX_IN_LIST_SIZE) {
+                var chunk = remaining.subList(start, Math.min(start + MAX_IN_LIST_SIZE, remaining.size()));
+                var sql = selectUsersSql(DusklightUserProjection.AUTH)
+                        + "WHERE Username IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+
+                for (var user : runner.query(connection, sql, handler(DusklightUserProjection.AUTH), chunk.toArray())) {
+                    users.put(DusklightUserLookup.cacheKey(user.getUsername()), user);
+                }
+            }
+
+            rows = users.size();
+        } finally {
+            metrics.recordQuery(DusklightMetrics.Query.FIND_BY_USERNAMES, startNanos, rows);
+        }
+
+        return users;
+    }
+
+    /**
+     * Streams one page of users from the Dusklight database, ordered by UserId.  Rows are mapped as the stream is
+     * consumed, with the configured JDBC fetch size, rather than being buffered into a list first.  PasswordHash is not
+     * read.
+     *
+     * The stream holds a pooled connection until it is exhausted, closed, or an operation on it throws, so callers
+     * should consume it fully or close it (e.g. with try-with-resources).
+     *
+     * @param optionalUsername If not null, only users matching the username will be returned.
+     * @param useLike True if the query should use the LIKE operator, false if it should use the = operator.
+     * @param afterUserId If not null, only users with a greater UserId are returned (keyset paging).
+     * @param firstResult Zero-based index of the first user to return.
+     * @param maxResults Maximum number of users to return.
+     * @return Stream of DusklightUserEntity. If an error occurs when running the query, an empty Stream.
+     */
+    @NotNull
+    public Stream<DusklightUserEntity> streamUsersPage(String optionalUsername, boolean useLike, Integer afterUserId,
+                                                       int firstResult, int maxResults) {
+        if (maxResults <= 0) {
+            return Stream.empty();
+        }
+
+        var query = buildUsersPageQuery(optionalUsername, useLike, afterUserId, firstResult, maxResults);
+        long start = System.nanoTime();
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+
+        try {
+            connection = dataSource.getConnection();
+            statement = connection.prepareStatement(query.sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(Math.min(fetchSize, maxResults));
+            new QueryRunner().fillStatement(statement, query.params);
+            resultSet = statement.executeQuery();
+
+            var spliterator = new ResultSetSpliterator(connection, statement, resultSet, lazyLoader, metrics, start);
+
+            return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+
+        } catch (SQLException ex) {
+            DbUtils.closeQuietly(connection, statement, resultSet);
+            metrics.recordQuery(DusklightMetrics.Query.STREAM_USERS_PAGE, start, -1);
+            logger.error("streamUsersPage: SQL Exception:", ex);
+            return Stream.empty();
+        }
+    }
+
+    PagedQuery buildUsersPageQuery(String optionalUsername, boolean useLike, Integer afterUserId,
+                                           int firstResult, int maxResults) {
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder();
+
+        if (firstResult <= 0) {
+            sql.append("SELECT TOP (?)\n");
+            params.add(maxResults);
+        } else {
+            sql.append("SELECT\n");
+        }
+
+        sql.append("   ").append(DusklightUserProjection.LIST.getColumns()).append("\n");
+        sql.append("FROM\n");
+        sql.append("   Users\n");
+        sql.append("WHERE 1 = 1\n");
+
+        if (afterUserId != null) {
+            sql.append("   AND UserId > ?\n");
+            params.add(afterUserId);
+        }
+
+        if (optionalUsername != null) {
+            sql.append(useLike ? "   AND Username LIKE ?\n" : "   AND Username = ?\n");
+            params.add(useLike ? likePattern(optionalUsername) : optionalUsername);
+        }
+
+        sql.append("ORDER BY UserId");
+
+        if (firstResult > 0) {
+            sql.append("\nOFFSET ? ROWS FETCH NEXT ? ROWS ONLY");
+            params.add(firstResult);
+            params.add(maxResults);
+        }
+
+        return new PagedQuery(sql.toString(), params.toArray());
+    }
+
+    private static String selectUsersSql(DusklightUserProjection projection) {
+        // Text blocks not supported yet in Java 11.
+        return "" +
+                "SELECT\n" +
+                "   " + projection.getColumns() + "\n" +
+                "FROM\n" +
+                "   Users\n";
+    }
+
+    private ResultSetHandler<List<DusklightUserEntity>> handler(DusklightUserProjection projection) {
+        return DusklightUserRowMapper.listHandler(projection, lazyLoader);
+    }
+
+    /**
+     * Builds the LIKE pattern for a username search, with the search term's own LIKE wildcards escaped.
+     *
+     * @param searchTerm Search term
+     * @return "term%" in prefix search mode, otherwise "%term%".
+     */
+    String likePattern(String searchTerm) {
+        var escaped = searchTerm
+                .replace("[", "[[]")
+                .replace("%", "[%]")
+                .replace("_", "[_]");
+
+        return prefixSearch ? escaped + "%" : "%" + escaped + "%";
+    }
+
+    /**
+     * Reads the next chunk of users after a UserId, in UserId order.  Unlike streamUsersPage, errors are thrown rather
+     * than returned as an empty stream, so that a caller walking the whole table can tell a failure from the end.
+     * PasswordHash is not read.
+     *
+     * @param afterUserId Only users with a greater UserId are read.  0 to start from the first user.
+     * @param maxResults Maximum number of users to read
+     * @return Users, in UserId order.  Empty at the end of the table.
+     * @throws SQLException If the query failed.
+     */
+    @NotNull
+    public List<DusklightUserEntity> findUsersAfter(int afterUserId, int maxResults) throws SQLException {
+        var query = buildUsersPageQuery(null, false, afterUserId, 0, maxResults);
+        long start = System.nanoTime();
+        int rows = -1;
+
+        try (Connection connection = dataSource.getConnection()) {
+            var users = new QueryRunner().query(connection, query.sql, handler(DusklightUserProjection.LIST), query.params);
+
+            rows = users.size();
+            return users;
+        } finally {
+            metrics.recordQuery(DusklightMetrics.Query.FIND_USERS_AFTER, start, rows);
+        }
+    }
+
+    /**
+     * Reads users by their UserId, in the order of the given IDs.  PasswordHash is not read.
+     *
+     * @param userIds Database IDs of the users
+     * @return The users that were found, in the order of userIds.
+     * @throws SQLException If a query failed.
+     */
+    @NotNull
+    public List<DusklightUserEntity> findByUserIds(List<Integer> userIds) throws SQLException {
+        Map<Integer, DusklightUserEntity> usersById = new HashMap<>();
+
+        if (userIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        long startNanos = System.nanoTime();
+        int rows = -1;
+
+        try (Connection connection = dataSource.getConnection()) {
+            QueryRunner runner = new QueryRunner();
+
+            for (int start = 0; start < userIds.size(); start += MAX_IN_LIST_SIZE) {
+                var chunk = userIds.subList(start, Math.min(start + MAX_IN_LIST_SIZE, userIds.size()));
+                var sql = selectUsersSql(DusklightUserProjection.LIST)
+                        + "WHERE UserId IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+
+                for (var user : runner.query(connection, sql, handler(DusklightUserProjection.LIST), chunk.toArray())) {
+                    usersById.put(user.getUserId(), user);
+                }
+            }
+
+            rows = usersById.size();
+        } finally {
+            metrics.recordQuery(DusklightMetrics.Query.FIND_BY_USER_IDS, startNanos, rows);
+        }
+
+        List<DusklightUserEntity> users = new ArrayList<>(userIds.size());
+
+        for (var userId : userIds) {
+            var user = usersById.get(userId);
+
+            if (user != null) {
+                users.add(user);
+            }
+        }
+
+        return users;
+    }
+
+    /**
+     * Reads the UserIds of the users in a department.  With the IX_Users_Department index, this seeks to the department
+     * and reads only the index, whose rows carry the UserId as the clustered key.
+     *
+     * @param department Department to look for
+     * @return UserIds, in ascending order.
+     * @throws SQLException If the query failed.
+     */
+    @NotNull
+    public int[] findUserIdsByDepartment(String department) throws SQLException {
+        String sql = "SELECT UserId FROM Users WHERE Department = ? ORDER BY UserId";
+        int[] userIds = new int[16];
+        int count = 0;
+        long start = System.nanoTime();
+        boolean succeeded = false;
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setFetchSize(fetchSize);
+            statement.setString(1, department);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    if (count == userIds.length) {
+                        userIds = Arrays.copyOf(userIds, count * 2);
+                    }
+
+                    userIds[count++] = resultSet.getInt(1);
+                }
+            }
+
+            succeeded = true;
+        } finally {
+            metrics.recordQuery(DusklightMetrics.Query.FIND_USER_IDS_BY_DEPARTMENT, start, succeeded ? count : -1);
+        }
+
+        return Arrays.copyOf(userIds, count);
+    }
+
+    /**
+     * Receives the searchable columns of a user.
+     */
+    public interface SearchFieldsConsumer {
+        void accept(int userId, String username, String firstName, String lastName);
+    }
+
+    /**
+     * Reads the searchable columns of all users with a UserId greater than the given one, in UserId order.
+     *
+     * @param afterUserId Only users with a greater UserId are read.  0 to read all users.
+     * @param consumer Receives each user's columns
+     * @return The greatest UserId read, or afterUserId if there were none.
+     * @throws SQLException If the query failed.
+     */
+    public int forEachUserSearchFields(int afterUserId, SearchFieldsConsumer consumer) throws SQLException {
+        String sql = "SELECT UserId, Username, FirstName, LastName FROM Users WHERE UserId > ? ORDER BY UserId";
+        int maxUserId = afterUserId;
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setFetchSize(fetchSize);
+            statement.setInt(1, afterUserId);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    maxUserId = resultSet.getInt(1);
+                    consumer.accept(maxUserId, resultSet.getString(2), resultSet.getString(3), resultSet.getString(4));
+                }
+            }
+        }
+
+        return maxUserId;
+    }
+
+    /**
+     * Reads the rowversion below which all changes to the database are committed, to start polling for changes from.
+     *
+     * @return MIN_ACTIVE_ROWVERSION() as a number
+     * @throws SQLException If the query failed.
+     */
+    public long getMinActiveRowVersion() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            Number rowVersion = new QueryRunner()
+                    .query(connection, "SELECT CAST(MIN_ACTIVE_ROWVERSION() AS BIGINT)", new ScalarHandler<Number>());
+
+            return rowVersion.longValue();
+        }
+    }
+
+    /**
+     * Reads users inserted or updated after the given rowversion, in rowversion order.  Rows written by transactions
+     * that are still open are left for a later call, so that no change is skipped when they commit.  With the
+     * IX_Users_RowVersion index, the cost depends on the number of changed rows rather than the size of the table.
+     * PasswordHash is not read.
+     *
+     * @param afterRowVersion Only rows with a greater rowversion are read
+     * @param maxRows Maximum number of rows to read
+     * @param consumer Receives each changed user
+     * @return The greatest rowversion read, or afterRowVersion if there were no changes.
+     * @throws SQLException If the query failed.
+     */
+    public long forEachChangedUser(long afterRowVersion, int maxRows, Consumer<DusklightUserEntity> consumer) throws SQLException {
+        // Text blocks not supported yet in Java 11.
+        String sql = "" +
+                "SELECT TOP (?)\n" +
+                "   " + DusklightUserProjection.LIST.getColumns() + ", CAST(RowVersion AS BIGINT)\n" +
+                "FROM\n" +
+                "   Users\n" +
+                "WHERE\n" +
+                "   RowVersion > CAST(? AS BINARY(8)) AND RowVersion < MIN_ACTIVE_ROWVERSION()\n" +
+                "ORDER BY RowVersion";
+
+        long maxRowVersion = afterRowVersion;
+        long start = System.nanoTime();
+        int rows = 0;
+        boolean succeeded = false;
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setFetchSize(fetchSize);
+            statement.setInt(1, maxRows);
+            statement.setLong(2, afterRowVersion);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    consumer.accept(DusklightUserRowMapper.mapRow(resultSet, DusklightUserProjection.LIST, lazyLoader));
+                    maxRowVersion = resultSet.getLong(DusklightUserProjection.LIST.getColumnCount() + 1);
+                    rows++;
+                }
+            }
+
+            succeeded = true;
+        } finally {
+            metrics.recordQuery(DusklightMetrics.Query.FIND_CHANGED_USERS, start, succeeded ? rows : -1);
+        }
+
+        return maxRowVersion;
+    }
+
+    /**
+     * Updates the stored password hash of a user.
+     *
+     * @param userId Database ID of the user
+     * @param passwordHash New password hash, as encoded by PasswordHashers
+     * @return Number of rows updated.
+     * @throws SQLException If the update failed.
+     */
+    public int updatePasswordHash(int userId, String passwordHash) throws SQLException {
+        long start = System.nanoTime();
+        int rows = -1;
+
+        try (Connection connection = dataSource.getConnection()) {
+            rows = new QueryRunner()
+                    .update(connection, "UPDATE Users SET PasswordHash = ? WHERE UserId = ? ", passwordHash, userId);
+
+            return rows;
+        } finally {
+            metrics.recordQuery(DusklightMetrics.Query.UPDATE_PASSWORD_HASH, start, rows);
+        }
+    }
+
+    /**
+     * Updates the stored password hash of a user, only if it is still the expected one, so that a rehash never
+     * overwrites a password changed in the meantime.
+     *
+     * @param userId Database ID of the user
+     * @param expectedPasswordHash Password hash the user had when the password was verified
+     * @param passwordHash New password hash, as encoded by PasswordHashers
+     * @return Number of rows updated: 0 if the password hash had changed.
+     * @throws SQLException If the update failed.
+     */
+    public int replacePasswordHash(int userId, String expectedPasswordHash, String passwordHash) throws SQLException {
+        long start = System.nanoTime();
+        int rows = -1;
+
+        try (Connection connection = dataSource.getConnection()) {
+            rows = new QueryRunner()
+                    .update(connection, "UPDATE Users SET PasswordHash = ? WHERE UserId = ? AND PasswordHash = ? ",
+                            passwordHash, userId, expectedPasswordHash);
+
+            return rows;
+        } finally {
+            metrics.recordQuery(DusklightMetrics.Query.REPLACE_PASSWORD_HASH, start, rows);
+        }
+    }
+
+    /**
+     * Updates columns of several users in one database transaction.  Users with the same set of changed columns share
+     * one "UPDATE ... WHERE UserId = ?" statement, sent as a single JDBC batch, so a single user costs one round-trip
+     * and many users cost one round-trip per distinct set of columns.
+     *
+     * @param changes New column values per UserId
+     * @return Number of rows updated.
+     * @throws SQLException If an update failed.  Nothing is updated in that case.
+     */
+    public int updateUsers(Map<Integer, ? extends Map<DusklightUserColumn, String>> changes) throws SQLException {
+        Map<Set<DusklightUserColumn>, List<Integer>> usersByColumns = new LinkedHashMap<>();
+
+        changes.forEach((userId, values) -> {
+            if (!values.isEmpty()) {
+                usersByColumns.computeIfAbsent(EnumSet.copyOf(values.keySet()), columns -> new ArrayList<>()).add(userId);
+            }
+        });
+
+        if (usersByColumns.isEmpty()) {
+            return 0;
+        }
+
+        int updated = 0;
+        long start = System.nanoTime();
+        boolean succeeded = false;
+
+        try (Connection connection = dataSource.getConnection()) {
+            var autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try {
+                for (var group : usersByColumns.entrySet()) {
+                    var columns = new ArrayList<>(group.getKey());
+                    var sql = "UPDATE Users SET " + columns.stream()
+                            .map(column -> column.getColumnName() + " = ?")
+                            .collect(Collectors.joining(", ")) + " WHERE UserId = ?";
+
+                    try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                        for (var userId : group.getValue()) {
+                            var values = changes.get(userId);
+
+                            for (int i = 0; i < columns.size(); i++) {
+                                statement.setString(i + 1, values.get(columns.get(i)));
+                            }
+
+                            statement.setInt(columns.size() + 1, userId);
+                            statement.addBatch();
+                        }
+
+                        for (var count : statement.executeBatch()) {
+                            updated += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+                        }
+                    }
+                }
+
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+
+            succeeded = true;
+        } finally {
+            metrics.recordQuery(DusklightMetrics.Query.UPDATE_USERS, start, succeeded ? updated : -1);
+        }
+
+        return updated;
+    }
+
+    /**
+     * Reads the usernames of all users with a UserId greater than the given one, in UserId order, without mapping
+     * whole rows.
+     *
+     * @param afterUserId Only users with a greater UserId are read.  0 to read all users.
+     * @param consumer Receives each username
+     * @return The greatest UserId read, or afterUserId if there were none.
+     * @throws SQLException If the query failed.
+     */
+    public int forEachUsername(int afterUserId, Consumer<String> consumer) throws SQLException {
+        String sql = "SELECT UserId, Username FROM Users WHERE UserId > ? ORDER BY UserId";
+        int maxUserId = afterUserId;
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setFetchSize(fetchSize);
+            statement.setInt(1, afterUserId);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    maxUserId = resultSet.getInt(1);
+                    var username = resultSet.getString(2);
+
+                    if (username != null) {
+                        consumer.accept(username);
+                    }
+                }
+            }
+        }
+
+        return maxUserId;
+    }
+
+    /**
+     * Counts all users in the Dusklight database.
+     *
+     * @return Number of users.
+     * @throws SQLException If the query failed.
+     */
+    public int countUsers() throws SQLException {
+        long start = System.nanoTime();
+        int rows = -1;
+
+        try (Connection connection = dataSource.getConnection()) {
+            int count = new QueryRunner()
+                    .query(connection, "SELECT Count(1) FROM Users", new ScalarHandler<>());
+
+            rows = 1;
+            return count;
+        } finally {
+            metrics.recordQuery(DusklightMetrics.Query.COUNT_USERS, start, rows);
+        }
+    }
+
+    /**
+     * Reads the number of users from the row counts SQL Server maintains for the Users table, rather than counting
+     * rows.  Requires the VIEW DATABASE STATE permission.
+     *
+     * @return Approximate number of users.
+     * @throws SQLException If the query failed.
+     */
+    public int countUsersApproximately() throws SQLException {
+        // Text blocks not supported yet in Java 11.
+        String sql = "" +
+                "SELECT\n" +
+                "   SUM(row_count)\n" +
+                "FROM\n" +
+                "   sys.dm_db_partition_stats\n" +
+                "WHERE\n" +
+                "   object_id = OBJECT_ID('dbo.Users') AND index_id IN (0, 1)";
+
+        long start = System.nanoTime();
+        int rows = -1;
+
+        try (Connection connection = dataSource.getConnection()) {
+            Number count = new QueryRunner().query(connection, sql, new ScalarHandler<Number>());
+
+            if (count == null) {
+                throw new SQLException("No partition stats found for the Users table.");
+            }
+
+            rows = 1;
+            return count.intValue();
+        } finally {
+            metrics.recordQuery(DusklightMetrics.Query.COUNT_USERS, start, rows);
+        }
+    }
+
+    static final class PagedQuery {
+        final String sql;
+        final Object[] params;
+
+        PagedQuery(String sql, Object[] params) {
+            this.sql = sql;
+            this.params = params;
+        }
+    }
+
+    /**
+     * Lazily maps rows of an open result set.  The JDBC resources are released as soon as the last row has been read,
+     * or when the stream is closed, whichever comes first.
+     */
+    private static final class ResultSetSpliterator extends Spliterators.AbstractSpliterator<DusklightUserEntity>
+            implements AutoCloseable {
+        private final Connection connection;
+        private final PreparedStatement statement;
+        private final ResultSet resultSet;
+        private final DusklightUserEntity.LazyLoader lazyLoader;
+        private final DusklightMetrics metrics;
+        private final long startNanos;
+        private int rows;
+        private boolean failed;
+        private boolean closed;
+
+        ResultSetSpliterator(Connection connection, PreparedStatement statement, ResultSet resultSet,
+                             DusklightUserEntity.LazyLoader lazyLoader, DusklightMetrics metrics, long startNanos) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.connection = connection;
+            this.statement = statement;
+            this.resultSet = resultSet;
+            this.lazyLoader = lazyLoader;
+            this.metrics = metrics;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super DusklightUserEntity> action) {
+            if (closed) {
+                return false;
+            }
+
+            DusklightUserEntity user;
+
+            try {
+                if (!resultSet.next()) {
+                    close();
+                    return false;
+                }
+
+                user = DusklightUserRowMapper.mapRow(resultSet, DusklightUserProjection.LIST, lazyLoader);
+                rows++;
+            } catch (SQLException ex) {
+                failed = true;
+                close();
+                throw new RuntimeException("Error occurred while reading users", ex);
+            }
+
+            try {
+                action.accept(user);
+            } catch (RuntimeException | Error ex) {
+                // The stream is abandoned, and callers don't always close it, so don't hold the connection until then.
+                close();
+                throw ex;
+            }
+
+            return true;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                DbUtils.closeQuietly(connection, statement, resultSet);
+
+                // Includes the time the caller spent consuming the stream.
+                metrics.recordQuery(DusklightMetrics.Query.STREAM_USERS_PAGE, startNanos, failed ? -1 : rows);
+            }
+        }
+    }
+}
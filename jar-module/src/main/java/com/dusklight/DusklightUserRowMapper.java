@@ -0,0 +1,109 @@
+package com.dusklight;
+
+import org.apache.commons.dbutils.ResultSetHandler;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps rows of the Users table to DusklightUserEntity by column index, instead of BeanListHandler's per-row JavaBeans
+ * reflection.  Queries using this must select the columns in the order of USER_COLUMNS, or of the projection's
+ * columns when mapping a projection.
+ */
+public final class DusklightUserRowMapper {
+
+    public static final String USER_COLUMNS = "UserId, Username, PasswordHash, FirstName, LastName, Department";
+
+    /**
+     * dbutils handler that maps all rows of a result set.
+     */
+    public static final ResultSetHandler<List<DusklightUserEntity>> LIST_HANDLER = resultSet -> {
+        List<DusklightUserEntity> users = new ArrayList<>();
+
+        while (resultSet.next()) {
+            users.add(mapRow(resultSet));
+        }
+
+        return users;
+    };
+
+    private DusklightUserRowMapper() {}
+
+    /**
+     * dbutils handler that maps all rows of a result set selecting the projection's columns.
+     *
+     * @param projection Columns the query selects
+     * @param loader Loads the columns the projection leaves out, on first access
+     * @return The handler
+     */
+    public static ResultSetHandler<List<DusklightUserEntity>> listHandler(DusklightUserProjection projection,
+                                                                         DusklightUserEntity.LazyLoader loader) {
+        return resultSet -> {
+            List<DusklightUserEntity> users = new ArrayList<>();
+
+            while (resultSet.next()) {
+                users.add(mapRow(resultSet, projection, loader));
+            }
+
+            return users;
+        };
+    }
+
+    /**
+     * Maps the current row of the result set.
+     *
+     * @param resultSet Result set positioned on a row
+     * @return The user
+     * @throws SQLException If a column could not be read.
+     */
+    public static DusklightUserEntity mapRow(ResultSet resultSet) throws SQLException {
+        var user = new DusklightUserEntity();
+
+        user.setUserId(resultSet.getInt(1));
+        user.setUsername(resultSet.getString(2));
+        user.setPasswordHash(resultSet.getString(3));
+        user.setFirstName(resultSet.getString(4));
+        user.setLastName(resultSet.getString(5));
+        user.setDepartment(resultSet.getString(6));
+
+        return user;
+    }
+
+    /**
+     * Maps the current row of a result set selecting the projection's columns.
+     *
+     * @param resultSet Result set positioned on a row
+     * @param projection Columns the query selects
+     * @param loader Loads the columns the projection leaves out, on first access
+     * @return The user
+     * @throws SQLException If a column could not be read.
+     */
+    public static DusklightUserEntity mapRow(ResultSet resultSet, DusklightUserProjection projection,
+                                             DusklightUserEntity.LazyLoader loader) throws SQLException {
+        if (projection == DusklightUserProjection.FULL) {
+            return mapRow(resultSet);
+        }
+
+        var user = new DusklightUserEntity();
+        int column = 1;
+
+        user.setUserId(resultSet.getInt(column++));
+        user.setUsername(resultSet.getString(column++));
+
+        if (projection.includesPasswordHash()) {
+            user.setPasswordHash(resultSet.getString(column++));
+        }
+
+        if (projection.includesProfile()) {
+            user.setFirstName(resultSet.getString(column++));
+            user.setLastName(resultSet.getString(column++));
+            user.setDepartment(resultSet.getString(column));
+        }
+
+        user.setLazyLoader(loader, projection);
+
+        return user;
+    }
+}
@@ -1,8 +1,5 @@
 package com.dusklight;
 
-import org.apache.commons.dbutils.QueryRunner;
-import org.apache.commons.dbutils.handlers.BeanListHandler;
-import org.apache.commons.dbutils.handlers.ScalarHandler;
 import org.jboss.logging.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.keycloak.component.ComponentModel;
@@ -18,10 +15,10 @@ import org.keycloak.storage.user.UserLookupProvider;
 import org.keycloak.storage.user.UserQueryProvider;
 
 
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
 
@@ -34,23 +31,49 @@ public class DusklightUserStorageProvider implements
 {
     private static final Logger logger = Logger.getLogger(DusklightUserStorageProvider.class);
 
-    // These values are the same default values used by Keycloak.
-    private final String pbkdf2Algorithm = "PBKDF2WithHmacSHA256";
-    private final int pbkdf2DefaultIterations = 27500;
-    private final int pbkdf2DefaultSaltSizeBytes = 16;
-    private final int pbkdf2DefaultHashSizeBytes = 64;
-
     private final KeycloakSession session;
     private final ComponentModel model;
-    private final String connectionString;
+    private final DusklightUserRepository repository;
+    private final DusklightUserLookup userLookup;
+    private final int maxUnpagedResults;
+    private final KeysetPageCursors keysetPageCursors;
+    private final UserSearchIndex userSearchIndex;
+    private final DepartmentMembersCache departmentMembersCache;
+    private final boolean departmentGroupsEnabled;
+    private final UserCountCache userCountCache;
+    private final VerifiedCredentialCache verifiedCredentialCache;
+    private final PasswordHashingExecutor hashingExecutor;
+    private final NodeSecretMac nodeSecretMac;
+    private final PasswordHashers passwordHashers;
+    private final RateLimiter rehashRateLimiter;
+    private final DusklightMetrics metrics;
+
+    private final UserChangeListener localChangeListener;
+    private DusklightUserUnitOfWork unitOfWork;
 
     // Cached users that were found in a Keycloak transaction (recommended by Keycloak documentation).
     protected Map<String, DusklightUserAdapterFederatedStorage> instanceCachedUsers = new HashMap<>();
 
-    public DusklightUserStorageProvider(KeycloakSession session, ComponentModel model, String connectionString) {
+    public DusklightUserStorageProvider(KeycloakSession session, ComponentModel model, DusklightComponentResources resources) {
         this.session = session;
         this.model = model;
-        this.connectionString = connectionString;
+        this.repository = resources.getRepository();
+        this.userLookup = resources.getUserLookup();
+        this.maxUnpagedResults = DusklightUserStorageProviderFactory.getConfigInt(
+                model, DusklightUserStorageProviderFactory.CONFIG_MAX_UNPAGED_RESULTS, 1000);
+        this.keysetPageCursors = resources.getKeysetPageCursors();
+        this.userSearchIndex = resources.getUserSearchIndex();
+        this.departmentMembersCache = resources.getDepartmentMembersCache();
+        this.departmentGroupsEnabled = Boolean.parseBoolean(
+                model.getConfig().getFirst(DusklightUserStorageProviderFactory.CONFIG_DEPARTMENT_GROUPS_ENABLED));
+        this.userCountCache = resources.getUserCountCache();
+        this.verifiedCredentialCache = resources.getVerifiedCredentialCache();
+        this.hashingExecutor = resources.getHashingExecutor();
+        this.nodeSecretMac = resources.getNodeSecretMac();
+        this.passwordHashers = resources.getPasswordHashers();
+        this.rehashRateLimiter = resources.getRehashRateLimiter();
+        this.metrics = resources.getMetrics();
+        this.localChangeListener = resources::applyLocalChanges;
     }
 
     //region UserStorageProvider implementation
@@ -66,24 +89,30 @@ public class DusklightUserStorageProvider implements
 
     @Override
     public UserModel getUserByUsername(String username, RealmModel realm) {
-        DusklightUserAdapterFederatedStorage cachedUser = instanceCachedUsers.get(username);
+        long start = System.nanoTime();
+
+        try {
+            DusklightUserAdapterFederatedStorage cachedUser = instanceCachedUsers.get(username);
 
-        if (cachedUser == null) {
-            var users = retrieveDusklightUsers(username, false);
+            if (cachedUser == null) {
+                var user = userLookup.findByUsername(username);
 
-            if (users.size() != 0) {
-                cachedUser = new DusklightUserAdapterFederatedStorage(session, realm, model, users.get(0));
-                instanceCachedUsers.put(username, cachedUser);
+                if (user != null) {
+                    cachedUser = newAdapter(realm, user);
+                    instanceCachedUsers.put(username, cachedUser);
 
+                    return cachedUser;
+                }
+                else {
+                    // User was not found in the database.
+                    return null;
+                }
+            } else {
+                // User already in the instanceCache
                 return cachedUser;
             }
-            else {
-                // User was not found in the database.
-                return null;
-            }
-        } else {
-            // User already in the instanceCache
-            return cachedUser;
+        } finally {
+            metrics.recordCall(DusklightMetrics.SpiMethod.GET_USER_BY_USERNAME, start);
         }
     }
 
@@ -94,6 +123,57 @@ public class DusklightUserStorageProvider implements
         return getUserByUsername(username, realm);
     }
 
+    /**
+     * Looks up several users at once, for internal callers that would otherwise call getUserByUsername in a loop.
+     * Users not already found in this session or the node-wide cache are loaded with a single query.
+     *
+     * @param usernames Usernames to look up
+     * @param realm realm
+     * @return Found users, keyed by the usernames as passed in.  Usernames that were not found are missing from the map.
+     */
+    public Map<String, UserModel> getUsersByUsernames(Collection<String> usernames, RealmModel realm) {
+        long start = System.nanoTime();
+
+        try {
+            return findUsersByUsernames(usernames, realm);
+        } finally {
+            metrics.recordCall(DusklightMetrics.SpiMethod.GET_USERS_BY_USERNAMES, start);
+        }
+    }
+
+    private Map<String, UserModel> findUsersByUsernames(Collection<String> usernames, RealmModel realm) {
+        Map<String, UserModel> users = new HashMap<>();
+        List<String> toLookUp = new ArrayList<>();
+
+        for (var username : usernames) {
+            DusklightUserAdapterFederatedStorage cachedUser = instanceCachedUsers.get(username);
+
+            if (cachedUser != null) {
+                users.put(username, cachedUser);
+            } else if (username != null) {
+                toLookUp.add(username);
+            }
+        }
+
+        if (toLookUp.isEmpty()) {
+            return users;
+        }
+
+        var found = userLookup.findByUsernames(toLookUp);
+
+        for (var username : toLookUp) {
+            var user = found.get(DusklightUserLookup.cacheKey(username));
+
+            if (user != null) {
+                var adapter = newAdapter(realm, user);
+                instanceCachedUsers.put(username, adapter);
+                users.put(username, adapter);
+            }
+        }
+
+        return users;
+    }
+
     @Override
     public UserModel getUserByEmail(String s, RealmModel realmModel) {
         return null;
@@ -114,7 +194,7 @@ public class DusklightUserStorageProvider implements
     }
 
     /**
-     * Validates password, stored in the following format in the database: "hash.salt.iterations"
+     * Validates password, stored in the database in the format of its algorithm (see PasswordHashers).
      *
      * @param realm realm
      * @param user user
@@ -123,38 +203,139 @@ public class DusklightUserStorageProvider implements
      */
     @Override
     public boolean isValid(RealmModel realm, UserModel user, CredentialInput input) {
-        if (!supportsCredentialType(input.getType()) || !(input instanceof UserCredentialModel)) return false;
+        long start = System.nanoTime();
+        var result = DusklightMetrics.CredentialCheckResult.ERROR;
+
+        try {
+            result = checkCredential(realm, user, input);
+
+            return result == DusklightMetrics.CredentialCheckResult.VALID;
+        } finally {
+            metrics.recordCredentialCheck(result);
+            metrics.recordCall(DusklightMetrics.SpiMethod.IS_VALID, start);
+        }
+    }
+
+    private DusklightMetrics.CredentialCheckResult checkCredential(RealmModel realm, UserModel user, CredentialInput input) {
+        if (!supportsCredentialType(input.getType()) || !(input instanceof UserCredentialModel)) {
+            return DusklightMetrics.CredentialCheckResult.INVALID;
+        }
 
         if (user == null) {
-            return false;
+            return DusklightMetrics.CredentialCheckResult.INVALID;
         }
 
-        DusklightUserAdapterFederatedStorage dusklightUser = getDusklightUserAdapter(user);
+        DusklightUserAdapterFederatedStorage dusklightUser = getDusklightUserAdapter(user, realm);
+
+        if (dusklightUser == null) {
+            return DusklightMetrics.CredentialCheckResult.INVALID;
+        }
 
         String passwordHash = dusklightUser.getPasswordHash();
-        String[] passwordParts = passwordHash.split("\\.");
+        PasswordCredential credential = dusklightUser.getPasswordCredential(passwordHashers);
 
-        if (passwordParts.length != 3) {
-            return false;
+        if (credential == null) {
+            return DusklightMetrics.CredentialCheckResult.INVALID;
         }
 
         try {
-            String hash = passwordParts[0];
-            String salt = passwordParts[1];
-            int iterations = Integer.parseInt(passwordParts[2]);
-
             UserCredentialModel cred = (UserCredentialModel)input;
             String userPassword = cred.getValue();
 
-            String computedHash = Pbkdf2Provider.generateHashBase64(userPassword,
-                    salt, iterations, pbkdf2DefaultHashSizeBytes, pbkdf2Algorithm);
+            if (verifiedCredentialCache != null
+                    && verifiedCredentialCache.isVerified(dusklightUser.getUsername(), passwordHash, userPassword)) {
+                rehashIfOutdated(dusklightUser, passwordHash, credential, userPassword);
+                return DusklightMetrics.CredentialCheckResult.VALID;
+            }
+
+            Callable<Boolean> verification = () -> credential.matches(userPassword);
+
+            // Identical verifications that are already queued or running share the result, keyed by a MAC rather
+            // than the password itself.
+            String deduplicationKey = DusklightUserLookup.cacheKey(dusklightUser.getUsername()) + ":"
+                    + Base64.getEncoder().encodeToString(nodeSecretMac.mac(passwordHash, userPassword));
+
+            boolean valid = runHashing(deduplicationKey, verification);
+
+            if (valid) {
+                if (verifiedCredentialCache != null) {
+                    verifiedCredentialCache.verified(dusklightUser.getUsername(), passwordHash, userPassword);
+                }
+
+                rehashIfOutdated(dusklightUser, passwordHash, credential, userPassword);
+            }
 
-            return computedHash.equals(hash);
+            return valid ? DusklightMetrics.CredentialCheckResult.VALID : DusklightMetrics.CredentialCheckResult.INVALID;
+        } catch (PasswordHashingExecutor.HashingRejectedException ex) {
+            logger.warn("isValid: Password verification rejected for " + dusklightUser.getId() + ": " + ex.getMessage());
+            return DusklightMetrics.CredentialCheckResult.REJECTED;
         } catch (Exception ex) {
             logger.error("isValid: Error occurred while validating password: " + dusklightUser.getId(), ex);
+            return DusklightMetrics.CredentialCheckResult.ERROR;
         }
+    }
 
-        return false;
+    /**
+     * Rehashes a password that was just verified if its hash was created with a different algorithm or weaker
+     * parameters, such as fewer iterations, so that hashes migrate to the current ones as users log in.  Rehashes are
+     * rate-limited so that a change of settings doesn't turn every login into a database write at once; users over the
+     * limit are rehashed on a later login.
+     *
+     * The rehash is queued on the hashing threads and the login doesn't wait for it; if the queue is full, it's left
+     * for a later login.  Only when hashing runs on the request threads does the rehash run before the login returns.
+     *
+     * @param dusklightUser User who logged in
+     * @param passwordHash PasswordHash the password was verified against
+     * @param credential passwordHash, parsed
+     * @param userPassword The verified password
+     */
+    private void rehashIfOutdated(DusklightUserAdapterFederatedStorage dusklightUser, String passwordHash,
+                                  PasswordCredential credential, String userPassword) {
+        if (rehashRateLimiter == null || !passwordHashers.needsRehash(credential) || !rehashRateLimiter.tryAcquire()) {
+            return;
+        }
+
+        // Copied out of the adapter, which belongs to this request's session.
+        int userId = dusklightUser.getDatabaseUserId();
+        String username = dusklightUser.getUsername();
+        String id = dusklightUser.getId();
+        Runnable rehash = () -> rehash(userId, username, id, passwordHash, userPassword);
+
+        if (hashingExecutor == null) {
+            rehash.run();
+        } else if (!hashingExecutor.trySubmit(rehash)) {
+            logger.debug("isValid: Rehash of " + id + " dropped, the password hashing queue is full");
+        }
+    }
+
+    /**
+     * Stores a new hash of a verified password, unless the password was changed in the meantime.  Only uses node-wide
+     * resources, since it can run after the session has closed.  A failed rehash is logged and doesn't affect the login.
+     */
+    private void rehash(int userId, String username, String id, String passwordHash, String userPassword) {
+        try {
+            long start = System.nanoTime();
+            String newPasswordHash;
+
+            try {
+                newPasswordHash = passwordHashers.hash(userPassword);
+            } finally {
+                metrics.recordHashing(start);
+            }
+
+            // Conditional, so that a password changed since it was verified is kept.
+            if (repository.replacePasswordHash(userId, passwordHash, newPasswordHash) == 1) {
+                userLookup.invalidate(username);
+
+                if (verifiedCredentialCache != null) {
+                    verifiedCredentialCache.invalidate(username);
+                }
+
+                logger.debugf("isValid: Rehashed password of %s with %s", id, passwordHashers.getCurrent().getAlgorithm());
+            }
+        } catch (Exception ex) {
+            logger.warn("isValid: Rehash failed for " + id, ex);
+        }
     }
 
     //endregion
@@ -163,7 +344,7 @@ public class DusklightUserStorageProvider implements
 
     /**
      * Updates the user's password in the database and in the user object.
-     * The password is stored as hash, in the following format: "hash.salt.iterations"
+     * The password is stored as hash, with the component's password hashing algorithm (see PasswordHashers).
      *
      * @param realm realm
      * @param user user
@@ -172,6 +353,16 @@ public class DusklightUserStorageProvider implements
      */
     @Override
     public boolean updateCredential(RealmModel realm, UserModel user, CredentialInput input) {
+        long start = System.nanoTime();
+
+        try {
+            return changePassword(realm, user, input);
+        } finally {
+            metrics.recordCall(DusklightMetrics.SpiMethod.UPDATE_CREDENTIAL, start);
+        }
+    }
+
+    private boolean changePassword(RealmModel realm, UserModel user, CredentialInput input) {
         if (!supportsCredentialType(input.getType()) || !(input instanceof UserCredentialModel)) return false;
 
         if (user == null) {
@@ -181,26 +372,32 @@ public class DusklightUserStorageProvider implements
         UserCredentialModel cred = (UserCredentialModel)input;
         String userPassword = cred.getValue();
 
-        String salt = Pbkdf2Provider.generateSaltBase64(pbkdf2DefaultSaltSizeBytes);
-        String hash = Pbkdf2Provider.generateHashBase64(userPassword,
-                salt, pbkdf2DefaultIterations, pbkdf2DefaultHashSizeBytes, pbkdf2Algorithm);
+        DusklightUserAdapterFederatedStorage dusklightUser = getDusklightUserAdapter(user, realm);
 
-        String passwordHash = hash + "." + salt + "." + pbkdf2DefaultIterations;
+        if (dusklightUser == null) {
+            return false;
+        }
 
-        DusklightUserAdapterFederatedStorage dusklightUser = getDusklightUserAdapter(user);
+        try {
+            String passwordHash = hashPassword(userPassword);
 
-        try (Connection connection = DriverManager.getConnection(connectionString)) {
-            int count = new QueryRunner()
-                    .update(connection, "UPDATE Users SET PasswordHash = ? WHERE UserId = ? ", passwordHash, dusklightUser.getDatabaseUserId());
+            int count = repository.updatePasswordHash(dusklightUser.getDatabaseUserId(), passwordHash);
 
             if (count == 1) {
                 dusklightUser.setPasswordHash(passwordHash);
+                userLookup.invalidate(dusklightUser.getUsername());
+
+                if (verifiedCredentialCache != null) {
+                    verifiedCredentialCache.invalidate(dusklightUser.getUsername());
+                }
 
                 return true;
             } else {
                 logger.error("updateCredential: More than one user found.  Row count: " + count);
                 return false;
             }
+        } catch (PasswordHashingExecutor.HashingRejectedException ex) {
+            logger.warn("updateCredential: Password hashing rejected for " + dusklightUser.getId() + ": " + ex.getMessage());
         } catch (SQLException ex) {
             logger.error("updateCredential: SQL Exception: ", ex);
         } catch (Exception ex) {
@@ -226,43 +423,58 @@ public class DusklightUserStorageProvider implements
 
     @Override
     public int getUsersCount(RealmModel realmModel) {
+        long start = System.nanoTime();
         int count;
 
-        try (Connection connection = DriverManager.getConnection(connectionString)) {
-            count = new QueryRunner()
-                    .query(connection, "SELECT Count(1) FROM Users", new ScalarHandler<>());
-
+        try {
+            count = userCountCache.getUsersCount();
         } catch (SQLException ex) {
             logger.error("getUserCount: SQL Exception:", ex);
             return 0;
+        } finally {
+            metrics.recordCall(DusklightMetrics.SpiMethod.GET_USERS_COUNT, start);
         }
 
         return count;
     }
 
+    /**
+     * Returns users without paging, up to the configured maximum number of unpaged results.
+     *
+     * @param realmModel Realm model
+     * @return List of users
+     */
     @Override
     public List<UserModel> getUsers(RealmModel realmModel) {
-        List<UserModel> userModelList = new ArrayList<>();
-
-        var dusklightUserEntities = retrieveDusklightUsers(null, false);
+        return getUsers(realmModel, 0, maxUnpagedResults);
+    }
 
-        dusklightUserEntities.forEach(
-                userEntity -> userModelList.add(new DusklightUserAdapterFederatedStorage(session, realmModel, model, userEntity)));
+    @Override
+    public List<UserModel> getUsers(RealmModel realmModel, int firstResult, int maxResult) {
+        try (var users = getUsersStream(realmModel, firstResult, maxResult)) {
+            return users.collect(toList());
+        }
+    }
 
-        return userModelList;
+    @Override
+    public Stream<UserModel> getUsersStream(RealmModel realmModel) {
+        return getUsersStream(realmModel, 0, maxUnpagedResults);
     }
 
     @Override
-    public List<UserModel> getUsers(RealmModel realmModel, int firstResult, int maxResult) {
-        var users = getUsers(realmModel);
-        return users.stream()
-                .skip(firstResult)
-                .limit(maxResult)
-                .collect(toList());
+    public Stream<UserModel> getUsersStream(RealmModel realmModel, Integer firstResult, Integer maxResults) {
+        long start = System.nanoTime();
+
+        try {
+            return toUserModels(streamDusklightUsers(null, false, firstResult, maxResults), realmModel);
+        } finally {
+            metrics.recordCall(DusklightMetrics.SpiMethod.GET_USERS_STREAM, start);
+        }
     }
 
     /**
-     * Searches Dusklight database for users matching the username for the search parameter.
+     * Searches Dusklight database for users matching the username for the search parameter, up to the configured
+     * maximum number of unpaged results.
      *
      * Note that according to https://www.keycloak.org/docs/latest/server_development/index.html#implementing-userqueryprovider,
      * the search parameter can be either username or email.  For simplicity, this only searches by username since the demo
@@ -274,68 +486,176 @@ public class DusklightUserStorageProvider implements
      */
     @Override
     public List<UserModel> searchForUser(String search, RealmModel realmModel) {
-        List<UserModel> userModelList = new ArrayList<>();
-
-        var dusklightUserEntities = retrieveDusklightUsers(search, true);
+        return searchForUser(search, realmModel, 0, maxUnpagedResults);
+    }
 
-        dusklightUserEntities.forEach(
-                userEntity -> userModelList.add(new DusklightUserAdapterFederatedStorage(session, realmModel, model, userEntity)));
+    @Override
+    public List<UserModel> searchForUser(String search, RealmModel realmModel, int firstResult, int maxResult) {
+        try (var users = searchForUserStream(realmModel, search, firstResult, maxResult)) {
+            return users.collect(toList());
+        }
+    }
 
-        return userModelList;
+    @Override
+    public Stream<UserModel> searchForUserStream(RealmModel realmModel, String search) {
+        return searchForUserStream(realmModel, search, 0, maxUnpagedResults);
     }
 
     @Override
-    public List<UserModel> searchForUser(String search, RealmModel realmModel, int firstResult, int maxResult) {
-        var users = searchForUser(search, realmModel);
-        return users.stream()
-                .skip(firstResult)
-                .limit(maxResult)
-                .collect(toList());
+    public Stream<UserModel> searchForUserStream(RealmModel realmModel, String search, Integer firstResult, Integer maxResults) {
+        long start = System.nanoTime();
+
+        try {
+            if (userSearchIndex != null && userSearchIndex.isReady()) {
+                return toUserModels(searchIndexedUsers(search, firstResult, maxResults), realmModel);
+            }
+
+            return toUserModels(streamDusklightUsers(search, true, firstResult, maxResults), realmModel);
+        } finally {
+            metrics.recordCall(DusklightMetrics.SpiMethod.SEARCH_FOR_USER_STREAM, start);
+        }
     }
 
     @Override
     public List<UserModel> searchForUser(Map<String, String> params, RealmModel realmModel) {
+        try (var users = searchForUserStream(realmModel, params)) {
+            return users.collect(toList());
+        }
+    }
+
+    @Override
+    public List<UserModel> searchForUser(Map<String, String> params, RealmModel realmModel, int firstResult, int maxResult) {
+        try (var users = searchForUserStream(realmModel, params, firstResult, maxResult)) {
+            return users.collect(toList());
+        }
+    }
+
+    @Override
+    public Stream<UserModel> searchForUserStream(RealmModel realmModel, Map<String, String> params) {
         if (params != null && params.size() == 0) {
-            return getUsers(realmModel);
+            return getUsersStream(realmModel);
         }
 
         var usernameSearchString = (params == null ? null : params.get("username"));
-        if (usernameSearchString == null) return Collections.EMPTY_LIST;
+        if (usernameSearchString == null) return Stream.empty();
 
-        return searchForUser(usernameSearchString, realmModel);
+        return searchForUserStream(realmModel, usernameSearchString);
     }
 
     @Override
-    public List<UserModel> searchForUser(Map<String, String> params, RealmModel realmModel, int firstResult, int maxResult) {
+    public Stream<UserModel> searchForUserStream(RealmModel realmModel, Map<String, String> params, Integer firstResult, Integer maxResults) {
         if (params == null || params.isEmpty()) {
             // It seems Keycloak v15 is not calling getUsers() methods when "View All Users" button is clicked (though in
             // v12, it did), instead, it's calling this method.  See https://issues.redhat.com/browse/KEYCLOAK-12988
-            return getUsers(realmModel, firstResult, maxResult);
+            return getUsersStream(realmModel, firstResult, maxResults);
         }
 
         var usernameSearchString = params.get("username");
-        if (usernameSearchString == null) return Collections.EMPTY_LIST;
+        if (usernameSearchString == null) return Stream.empty();
 
-        return searchForUser(usernameSearchString, realmModel, firstResult, maxResult);
+        return searchForUserStream(realmModel, usernameSearchString, firstResult, maxResults);
     }
 
     @Override
     public List<UserModel> getGroupMembers(RealmModel realmModel, GroupModel groupModel) {
-        return Collections.EMPTY_LIST;
+        return getGroupMembers(realmModel, groupModel, 0, maxUnpagedResults);
     }
 
+    /**
+     * Lists the users of the department the group stands for, if department groups are enabled (see DepartmentGroups).
+     * Users' other group memberships are kept in Keycloak's federated storage, which Keycloak queries itself.
+     *
+     * @param realmModel Realm model
+     * @param groupModel Group
+     * @param firstResult Zero-based index of the first member to return
+     * @param maxResult Maximum number of members to return
+     * @return List of users
+     */
     @Override
     public List<UserModel> getGroupMembers(RealmModel realmModel, GroupModel groupModel, int firstResult, int maxResult) {
-        return Collections.EMPTY_LIST;
+        if (!departmentGroupsEnabled) {
+            return Collections.EMPTY_LIST;
+        }
+
+        var department = DepartmentGroups.departmentOf(groupModel);
+
+        if (department == null) {
+            return Collections.EMPTY_LIST;
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            return toUserModels(findDepartmentMembers(department, firstResult, maxResult), realmModel).collect(toList());
+        } finally {
+            metrics.recordCall(DusklightMetrics.SpiMethod.GET_GROUP_MEMBERS, start);
+        }
     }
 
+    /**
+     * Searches by the Department attribute; other attributes are kept in Keycloak's federated storage, which Keycloak
+     * searches itself.
+     *
+     * @param attributeName Attribute name
+     * @param attributeValue Attribute value
+     * @param realmModel Realm model
+     * @return List of users, up to the configured maximum number of unpaged results.
+     */
     @Override
     public List<UserModel> searchForUserByUserAttribute(String attributeName, String attributeValue, RealmModel realmModel) {
-        return Collections.EMPTY_LIST;
+        if (!DusklightUserAdapterFederatedStorage.DEPARTMENT_ATTRIBUTE.equalsIgnoreCase(attributeName)) {
+            return Collections.EMPTY_LIST;
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            return toUserModels(findDepartmentMembers(attributeValue, 0, maxUnpagedResults), realmModel).collect(toList());
+        } finally {
+            metrics.recordCall(DusklightMetrics.SpiMethod.SEARCH_FOR_USER_BY_USER_ATTRIBUTE, start);
+        }
     }
 
     //endregion
 
+    /**
+     * Hashes a password for storage, with the current algorithm and parameters.
+     *
+     * @param password Password to hash
+     * @return PasswordHash, as encoded by PasswordHashers
+     */
+    private String hashPassword(String password) throws Exception {
+        return runHashing(null, () -> passwordHashers.hash(password));
+    }
+
+    /**
+     * Runs password hashing on the bounded hashing executor, or on the current thread if it is disabled.  The time
+     * spent hashing, without the time spent waiting for the executor, is recorded in the metrics.
+     *
+     * @param deduplicationKey Key identifying identical tasks, or null to never share results
+     * @param task Hashing task
+     * @param <T> Result type
+     * @return The task's result
+     * @throws Exception The exception thrown by the task, or HashingRejectedException if the executor is saturated.
+     */
+    private <T> T runHashing(String deduplicationKey, Callable<T> task) throws Exception {
+        Callable<T> timedTask = () -> {
+            long start = System.nanoTime();
+
+            try {
+                return task.call();
+            } finally {
+                metrics.recordHashing(start);
+            }
+        };
+
+        if (hashingExecutor == null) {
+            return timedTask.call();
+        }
+
+        return hashingExecutor.execute(deduplicationKey, timedTask);
+    }
+
     /**
      * Retrieves the DusklightUserAdapter with the logic to handle cases when Keycloak's cache is enabled for the federation.
      *
@@ -343,64 +663,128 @@ public class DusklightUserStorageProvider implements
      * @return DusklightUserAdapterFederatedStorage from the user parameter.
      */
     public DusklightUserAdapterFederatedStorage getDusklightUserAdapter(UserModel user) {
-        DusklightUserAdapterFederatedStorage dusklightUserAdapter;
+        return getDusklightUserAdapter(user, session.getContext().getRealm());
+    }
+
+    /**
+     * Retrieves the DusklightUserAdapter for the user.  Users imported into Keycloak's local storage by a sync are
+     * local users linked to this component, so their Dusklight counterpart is looked up by username.
+     *
+     * @param user UserModel from this provider, Keycloak's cache, or Keycloak's local storage
+     * @param realm Realm
+     * @return DusklightUserAdapterFederatedStorage for the user, or null if the user isn't in the Dusklight database.
+     */
+    public DusklightUserAdapterFederatedStorage getDusklightUserAdapter(UserModel user, RealmModel realm) {
+        UserModel delegate = user instanceof CachedUserModel ? ((CachedUserModel)user).getDelegateForUpdate() : user;
 
-        if (user instanceof CachedUserModel) {
-            dusklightUserAdapter = (DusklightUserAdapterFederatedStorage)((CachedUserModel)user).getDelegateForUpdate();
-        } else {
-            dusklightUserAdapter = (DusklightUserAdapterFederatedStorage)user;
+        if (delegate instanceof DusklightUserAdapterFederatedStorage) {
+            return (DusklightUserAdapterFederatedStorage)delegate;
         }
 
-        return dusklightUserAdapter;
+        return (DusklightUserAdapterFederatedStorage)getUserByUsername(user.getUsername(), realm);
     }
 
     /**
-     * Looks for users in the Dusklight database.
+     * Streams one page of users from the Dusklight database.  Rows are read and mapped as the stream is consumed, and
+     * the database connection is released when the stream is exhausted or closed.
      *
-     * @param optionalUsername If not null, only the user matching the username will be returned.
-     * @param useLike If Username is passed in, this value must be passed in.  True if the query should use the LIKE
-     *                operator, false if it should use the = operator.
-     * @return List of DusklightUserEntity. If none found, an empty List.
+     * @param optionalUsername If not null, only users matching the username will be returned.
+     * @param useLike True if the query should use the LIKE operator, false if it should use the = operator.
+     * @param firstResult Zero-based index of the first user to return.  Null or negative values are treated as 0.
+     * @param maxResults Maximum number of users to return.  Null or negative values mean the configured maximum number
+     *                   of unpaged results.
+     * @return Stream of DusklightUserEntity. If none found, an empty Stream.
      */
     @NotNull
-    protected List<DusklightUserEntity> retrieveDusklightUsers(String optionalUsername, Boolean useLike) {
-        // TODO: Maybe refactor to two separate methods - one for retrieving all, and one for specific user.
-
-        try (Connection connection = DriverManager.getConnection(connectionString)) {
-            QueryRunner runner = new QueryRunner();
-            List<DusklightUserEntity> users;
-
-            // Text blocks not supported yet in Java 11.
-            String sql = "" +
-                    "SELECT\n" +
-                    "   UserId, Username, PasswordHash, FirstName, LastName, Department\n" +
-                    "FROM\n" +
-                    "   Users\n";
-
-            if (optionalUsername != null) {
-                if (useLike) {
-                    sql += "WHERE Username LIKE ?";
-
-                    users = runner.query(connection, sql,
-                            new BeanListHandler<>(DusklightUserEntity.class),
-                            "%" + optionalUsername + "%");
-                } else {
-                    sql += "WHERE Username = ?";
-
-                    users = runner.query(connection, sql,
-                            new BeanListHandler<>(DusklightUserEntity.class),
-                            optionalUsername);
-                }
-            } else {
-                users = runner.query(connection, sql,
-                        new BeanListHandler<>(DusklightUserEntity.class));
+    protected Stream<DusklightUserEntity> streamDusklightUsers(String optionalUsername, boolean useLike, Integer firstResult, Integer maxResults) {
+        var first = (firstResult == null || firstResult < 0) ? 0 : firstResult;
+        var max = (maxResults == null || maxResults < 0) ? maxUnpagedResults : maxResults;
+
+        if (keysetPageCursors == null) {
+            return repository.streamUsersPage(optionalUsername, useLike, null, first, max);
+        }
+
+        // Keyset paging: seek from where the previous page ended if we served it, otherwise fall back to OFFSET.
+        var seekAfter = first == 0 ? null : keysetPageCursors.getSeekAfter(optionalUsername, useLike, first, max);
+
+        var users = seekAfter == null
+                ? repository.streamUsersPage(optionalUsername, useLike, null, first, max)
+                : repository.streamUsersPage(optionalUsername, useLike, seekAfter, 0, max);
+
+        // Remember where a full page ended, as soon as its last row has been read.
+        var rowCount = new int[1];
+
+        return users.peek(user -> {
+            if (++rowCount[0] == max) {
+                keysetPageCursors.pageServed(optionalUsername, useLike, first, max, user.getUserId());
             }
+        });
+    }
 
-            return users;
+    /**
+     * Finds one page of matching users in the in-memory search index, and reads only those rows, by primary key.
+     *
+     * @param search Search term
+     * @param firstResult Zero-based index of the first user to return.  Null or negative values are treated as 0.
+     * @param maxResults Maximum number of users to return.  Null or negative values mean the configured maximum number
+     *                   of unpaged results.
+     * @return Stream of DusklightUserEntity. If none found, an empty Stream.
+     */
+    @NotNull
+    protected Stream<DusklightUserEntity> searchIndexedUsers(String search, Integer firstResult, Integer maxResults) {
+        var first = (firstResult == null || firstResult < 0) ? 0 : firstResult;
+        var max = (maxResults == null || maxResults < 0) ? maxUnpagedResults : maxResults;
 
+        try {
+            return repository.findByUserIds(userSearchIndex.search(search, first, max)).stream();
         } catch (SQLException ex) {
-            logger.error("retrieveDusklightUsers: SQL Exception:", ex);
-            return new ArrayList<DusklightUserEntity>();
+            logger.error("searchIndexedUsers: SQL Exception:", ex);
+            return Stream.empty();
         }
     }
+
+    /**
+     * Finds one page of the users in a department, from the node-wide department members cache, and reads only those
+     * rows, by primary key.
+     *
+     * @param department Department
+     * @param firstResult Zero-based index of the first user to return.  Negative values are treated as 0.
+     * @param maxResults Maximum number of users to return.  Negative values mean the configured maximum number of
+     *                   unpaged results.
+     * @return Stream of DusklightUserEntity. If none found, an empty Stream.
+     */
+    @NotNull
+    protected Stream<DusklightUserEntity> findDepartmentMembers(String department, int firstResult, int maxResults) {
+        var max = maxResults < 0 ? maxUnpagedResults : maxResults;
+
+        try {
+            return repository.findByUserIds(departmentMembersCache.getMemberIdsPage(department, firstResult, max)).stream();
+        } catch (SQLException ex) {
+            logger.error("findDepartmentMembers: SQL Exception:", ex);
+            return Stream.empty();
+        }
+    }
+
+    private DusklightUserAdapterFederatedStorage newAdapter(RealmModel realm, DusklightUserEntity userEntity) {
+        return new DusklightUserAdapterFederatedStorage(session, realm, model, userEntity, getUnitOfWork());
+    }
+
+    /**
+     * The unit of work that writes this session's profile changes when the Keycloak transaction commits.  Created on
+     * first use; it only joins the Keycloak transaction once a user is changed.
+     *
+     * @return The unit of work
+     */
+    protected DusklightUserUnitOfWork getUnitOfWork() {
+        if (unitOfWork == null) {
+            unitOfWork = new DusklightUserUnitOfWork(session.getTransactionManager(), repository, localChangeListener);
+        }
+
+        return unitOfWork;
+    }
+
+    private Stream<UserModel> toUserModels(Stream<DusklightUserEntity> dusklightUserEntities, RealmModel realmModel) {
+        return dusklightUserEntities.map(
+                userEntity -> newAdapter(realmModel, userEntity));
+    }
 }
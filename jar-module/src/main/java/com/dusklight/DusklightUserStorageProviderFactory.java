@@ -1,18 +1,32 @@
 package com.dusklight;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import org.jboss.logging.Logger;
 import org.keycloak.Config;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.component.ComponentValidationException;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.provider.ProviderConfigurationBuilder;
 import org.keycloak.storage.UserStorageProviderFactory;
+import org.keycloak.storage.UserStorageProviderModel;
+import org.keycloak.storage.user.ImportSynchronization;
+import org.keycloak.storage.user.SynchronizationResult;
 
+import java.util.Date;
 import java.util.List;
-
-public class DusklightUserStorageProviderFactory implements UserStorageProviderFactory<DusklightUserStorageProvider> {
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class DusklightUserStorageProviderFactory implements UserStorageProviderFactory<DusklightUserStorageProvider>, ImportSynchronization {
     private static final Logger logger = Logger.getLogger(DusklightUserStorageProviderFactory.class);
 
     // This is the name used in Keycloak's Federation Provider drop-down list.
@@ -26,6 +40,85 @@ public class DusklightUserStorageProviderFactory implements UserStorageProviderF
     public static final String CONFIG_DB_USERNAME = "dusklight_db_username";
     public static final String CONFIG_DB_PASSWORD = "dusklight_db_password";
 
+    public static final String CONFIG_POOL_MIN_IDLE = "dusklight_pool_min_idle";
+    public static final String CONFIG_POOL_MAX_SIZE = "dusklight_pool_max_size";
+    public static final String CONFIG_POOL_IDLE_TIMEOUT_MS = "dusklight_pool_idle_timeout_ms";
+    public static final String CONFIG_POOL_CONNECTION_TIMEOUT_MS = "dusklight_pool_connection_timeout_ms";
+    public static final String CONFIG_POOL_VALIDATION_TIMEOUT_MS = "dusklight_pool_validation_timeout_ms";
+    public static final String CONFIG_POOL_LEAK_DETECTION_MS = "dusklight_pool_leak_detection_ms";
+
+    public static final String CONFIG_USER_CACHE_MAX_ENTRIES = "dusklight_user_cache_max_entries";
+    public static final String CONFIG_USER_CACHE_TTL_MS = "dusklight_user_cache_ttl_ms";
+    public static final String CONFIG_USER_CACHE_REFRESH_AHEAD_MS = "dusklight_user_cache_refresh_ahead_ms";
+
+    public static final String CONFIG_MAX_UNPAGED_RESULTS = "dusklight_max_unpaged_results";
+    public static final String CONFIG_PAGING_MODE = "dusklight_paging_mode";
+    public static final String CONFIG_FETCH_SIZE = "dusklight_fetch_size";
+
+    public static final String CONFIG_COUNT_CACHE_TTL_MS = "dusklight_count_cache_ttl_ms";
+    public static final String CONFIG_COUNT_MODE = "dusklight_count_mode";
+
+    public static final String COUNT_MODE_EXACT = "exact";
+    public static final String COUNT_MODE_APPROXIMATE = "approximate";
+
+    public static final String CONFIG_CREDENTIAL_CACHE_ENABLED = "dusklight_credential_cache_enabled";
+    public static final String CONFIG_CREDENTIAL_CACHE_MAX_ENTRIES = "dusklight_credential_cache_max_entries";
+    public static final String CONFIG_CREDENTIAL_CACHE_TTL_MS = "dusklight_credential_cache_ttl_ms";
+
+    public static final String CONFIG_LOOKUP_BATCH_WINDOW_MS = "dusklight_lookup_batch_window_ms";
+    public static final String CONFIG_LOOKUP_BATCH_MAX_SIZE = "dusklight_lookup_batch_max_size";
+
+    public static final String CONFIG_NEGATIVE_CACHE_ENABLED = "dusklight_negative_cache_enabled";
+    public static final String CONFIG_NEGATIVE_CACHE_FALSE_POSITIVE_RATE = "dusklight_negative_cache_false_positive_rate";
+    public static final String CONFIG_NEGATIVE_CACHE_MAX_BYTES = "dusklight_negative_cache_max_bytes";
+    public static final String CONFIG_NEGATIVE_CACHE_REFRESH_INTERVAL_MS = "dusklight_negative_cache_refresh_interval_ms";
+    public static final String CONFIG_NEGATIVE_CACHE_REBUILD_INTERVAL_MS = "dusklight_negative_cache_rebuild_interval_ms";
+    public static final String CONFIG_NEGATIVE_CACHE_MISSING_TTL_MS = "dusklight_negative_cache_missing_ttl_ms";
+
+    public static final String CONFIG_CHANGE_POLLING_ENABLED = "dusklight_change_polling_enabled";
+    public static final String CONFIG_CHANGE_POLLING_INTERVAL_MS = "dusklight_change_polling_interval_ms";
+    public static final String CONFIG_CHANGE_POLLING_BATCH_SIZE = "dusklight_change_polling_batch_size";
+
+    public static final String CONFIG_DEPARTMENT_GROUPS_ENABLED = "dusklight_department_groups_enabled";
+    public static final String CONFIG_DEPARTMENT_CACHE_MAX_ENTRIES = "dusklight_department_cache_max_entries";
+    public static final String CONFIG_DEPARTMENT_CACHE_TTL_MS = "dusklight_department_cache_ttl_ms";
+
+    public static final String CONFIG_SYNC_CHUNK_SIZE = "dusklight_sync_chunk_size";
+    public static final String CONFIG_SYNC_PARALLELISM = "dusklight_sync_parallelism";
+
+    // Not shown in the admin console; written by each sync so the next delta sync knows where to start.
+    public static final String CONFIG_SYNC_ROW_VERSION = "dusklight_sync_row_version";
+
+    public static final String CONFIG_HASHING_PARALLELISM = "dusklight_hashing_parallelism";
+    public static final String CONFIG_HASHING_QUEUE_DEPTH = "dusklight_hashing_queue_depth";
+    public static final String CONFIG_HASHING_MAX_WAIT_MS = "dusklight_hashing_max_wait_ms";
+    public static final String CONFIG_HASHING_REJECTION_POLICY = "dusklight_hashing_rejection_policy";
+
+    public static final String HASHING_REJECTION_POLICY_REJECT = "reject";
+    public static final String HASHING_REJECTION_POLICY_CALLER_RUNS = "caller-runs";
+
+    public static final String CONFIG_PASSWORD_HASH_ALGORITHM = "dusklight_password_hash_algorithm";
+    public static final String CONFIG_PBKDF2_ITERATIONS = "dusklight_pbkdf2_iterations";
+    public static final String CONFIG_PBKDF2_TARGET_MS = "dusklight_pbkdf2_target_ms";
+    public static final String CONFIG_PBKDF2_MIN_ITERATIONS = "dusklight_pbkdf2_min_iterations";
+    public static final String CONFIG_PBKDF2_MAX_ITERATIONS = "dusklight_pbkdf2_max_iterations";
+    public static final String CONFIG_ARGON2_ITERATIONS = "dusklight_argon2_iterations";
+    public static final String CONFIG_ARGON2_MEMORY_KIB = "dusklight_argon2_memory_kib";
+    public static final String CONFIG_ARGON2_PARALLELISM = "dusklight_argon2_parallelism";
+    public static final String CONFIG_REHASH_ENABLED = "dusklight_rehash_enabled";
+    public static final String CONFIG_REHASH_MAX_PER_SECOND = "dusklight_rehash_max_per_second";
+
+    public static final String CONFIG_SEARCH_MODE = "dusklight_search_mode";
+    public static final String CONFIG_SEARCH_INDEX_REFRESH_INTERVAL_MS = "dusklight_search_index_refresh_interval_ms";
+    public static final String CONFIG_SEARCH_INDEX_REBUILD_INTERVAL_MS = "dusklight_search_index_rebuild_interval_ms";
+
+    public static final String SEARCH_MODE_CONTAINS = "contains";
+    public static final String SEARCH_MODE_PREFIX = "prefix";
+    public static final String SEARCH_MODE_INDEX = "index";
+
+    public static final String PAGING_MODE_OFFSET = "offset";
+    public static final String PAGING_MODE_KEYSET = "keyset";
+
     protected static final String SQLSERVER_APPLICATION_NAME = "DusklightKeycloakProvider";
 
     protected static final List<ProviderConfigProperty> configMetadata;
@@ -82,14 +175,389 @@ public class DusklightUserStorageProviderFactory implements UserStorageProviderF
                 .helpText("The password to use for the database connection.")
                 .add()
 
+                .property().name(CONFIG_POOL_MIN_IDLE)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Connection Pool Minimum Idle")
+                .defaultValue("2")
+                .helpText("The minimum number of idle connections kept open to the database.")
+                .add()
+
+                .property().name(CONFIG_POOL_MAX_SIZE)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Connection Pool Maximum Size")
+                .defaultValue("10")
+                .helpText("The maximum number of open connections to the database, per Keycloak node.")
+                .add()
+
+                .property().name(CONFIG_POOL_IDLE_TIMEOUT_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Connection Pool Idle Timeout (ms)")
+                .defaultValue("600000")
+                .helpText("How long a connection above the minimum idle count may sit idle before it is closed.")
+                .add()
+
+                .property().name(CONFIG_POOL_CONNECTION_TIMEOUT_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Connection Pool Acquire Timeout (ms)")
+                .defaultValue("30000")
+                .helpText("How long to wait for a connection from the pool before giving up.")
+                .add()
+
+                .property().name(CONFIG_POOL_VALIDATION_TIMEOUT_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Connection Pool Validation Timeout (ms)")
+                .defaultValue("5000")
+                .helpText("How long to wait when validating that a pooled connection is still alive.")
+                .add()
+
+                .property().name(CONFIG_POOL_LEAK_DETECTION_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Connection Pool Leak Detection (ms)")
+                .defaultValue("0")
+                .helpText("Logs a warning if a connection is held longer than this.  Set to 0 to disable.")
+                .add()
+
+                .property().name(CONFIG_USER_CACHE_MAX_ENTRIES)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("User Cache Maximum Entries")
+                .defaultValue("10000")
+                .helpText("The maximum number of users cached on each Keycloak node, across sessions.  Set to 0 to disable the cache.")
+                .add()
+
+                .property().name(CONFIG_USER_CACHE_TTL_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("User Cache Time-To-Live (ms)")
+                .defaultValue("60000")
+                .helpText("How long a cached user is used before it is loaded from the database again.")
+                .add()
+
+                .property().name(CONFIG_USER_CACHE_REFRESH_AHEAD_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("User Cache Refresh-Ahead (ms)")
+                .defaultValue("0")
+                .helpText("If a cached user older than this is used, it is reloaded in the background before it expires.  Set to 0 to disable.")
+                .add()
+
+                .property().name(CONFIG_MAX_UNPAGED_RESULTS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Maximum Unpaged Results")
+                .defaultValue("1000")
+                .helpText("The maximum number of users returned when Keycloak lists or searches users without paging.")
+                .add()
+
+                .property().name(CONFIG_PAGING_MODE)
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .label("Paging Mode")
+                .options(PAGING_MODE_OFFSET, PAGING_MODE_KEYSET)
+                .defaultValue(PAGING_MODE_OFFSET)
+                .helpText("How pages of users are read.  'keyset' remembers where each page ended and seeks from there for the next page, which keeps deep pages fast; other pages fall back to 'offset'.")
+                .add()
+
+                .property().name(CONFIG_FETCH_SIZE)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("JDBC Fetch Size")
+                .defaultValue(String.valueOf(DusklightUserRepository.DEFAULT_FETCH_SIZE))
+                .helpText("The number of rows fetched from the database at a time when streaming lists of users.")
+                .add()
+
+                .property().name(CONFIG_COUNT_CACHE_TTL_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("User Count Cache Time-To-Live (ms)")
+                .defaultValue("30000")
+                .helpText("How long the total number of users is cached on each Keycloak node.  Set to 0 to count on every request.")
+                .add()
+
+                .property().name(CONFIG_COUNT_MODE)
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .label("User Count Mode")
+                .options(COUNT_MODE_EXACT, COUNT_MODE_APPROXIMATE)
+                .defaultValue(COUNT_MODE_EXACT)
+                .helpText("'exact' counts the rows of the Users table.  'approximate' reads SQL Server's partition stats instead, which is much cheaper on large tables, and requires the VIEW DATABASE STATE permission; without it, exact counts are used after the first failure.")
+                .add()
+
+                .property().name(CONFIG_CREDENTIAL_CACHE_ENABLED)
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .label("Cache Verified Passwords")
+                .defaultValue(Boolean.FALSE)
+                .helpText("If set to on, successful password verifications are remembered for a short time, as a keyed MAC rather than the password, so repeated logins skip the PBKDF2 computation.")
+                .add()
+
+                .property().name(CONFIG_CREDENTIAL_CACHE_MAX_ENTRIES)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Verified Password Cache Maximum Entries")
+                .defaultValue("10000")
+                .helpText("The maximum number of users with a remembered password verification on each Keycloak node.")
+                .add()
+
+                .property().name(CONFIG_CREDENTIAL_CACHE_TTL_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Verified Password Cache Time-To-Live (ms)")
+                .defaultValue("60000")
+                .helpText("How long a successful password verification is remembered.")
+                .add()
+
+                .property().name(CONFIG_SEARCH_MODE)
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .label("User Search Mode")
+                .options(SEARCH_MODE_CONTAINS, SEARCH_MODE_PREFIX, SEARCH_MODE_INDEX)
+                .defaultValue(SEARCH_MODE_CONTAINS)
+                .helpText("How user searches are answered.  'contains' queries usernames containing the term, which scans the Users table; 'prefix' only matches usernames starting with the term, which can use the username index; 'index' matches usernames, first and last names containing the term from an in-memory index on each Keycloak node.  'index' requires the RowVersion column and the IX_Users_RowVersion index; without them new users don't appear in searches until the next rebuild.")
+                .add()
+
+                .property().name(CONFIG_SEARCH_INDEX_REFRESH_INTERVAL_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("User Search Index Refresh Interval (ms)")
+                .defaultValue("30000")
+                .helpText("How often users added or changed since the last refresh, by RowVersion, are updated in the in-memory search index.")
+                .add()
+
+                .property().name(CONFIG_SEARCH_INDEX_REBUILD_INTERVAL_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("User Search Index Rebuild Interval (ms)")
+                .defaultValue("3600000")
+                .helpText("How often the in-memory search index is rebuilt from all users, which picks up renamed and deleted users.")
+                .add()
+
+                .property().name(CONFIG_LOOKUP_BATCH_WINDOW_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("User Lookup Batch Window (ms)")
+                .defaultValue("0")
+                .helpText("If more than 0, lookups of users not in the cache that arrive within this window are resolved with a single query.  Each lookup may wait up to this long.  Set to 0 to query each lookup on its own.")
+                .add()
+
+                .property().name(CONFIG_LOOKUP_BATCH_MAX_SIZE)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("User Lookup Maximum Batch Size")
+                .defaultValue("100")
+                .helpText("The number of lookups at which a batch is queried without waiting for the rest of the window.")
+                .add()
+
+                .property().name(CONFIG_NEGATIVE_CACHE_ENABLED)
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .label("Filter Unknown Usernames")
+                .defaultValue(Boolean.FALSE)
+                .helpText("If set to on, each Keycloak node keeps a Bloom filter of all usernames, so lookups of usernames that don't exist are answered without a query.  Users created directly in the database may not be found until the next refresh.  Requires the RowVersion column and the IX_Users_RowVersion index; without them every refresh fails and lookups go to the database until the next rebuild.")
+                .add()
+
+                .property().name(CONFIG_NEGATIVE_CACHE_FALSE_POSITIVE_RATE)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Unknown Username Filter False-Positive Rate")
+                .defaultValue("0.01")
+                .helpText("The fraction of unknown usernames that still cost a query, between 0 and 1.  Lower rates need more memory.")
+                .add()
+
+                .property().name(CONFIG_NEGATIVE_CACHE_MAX_BYTES)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Unknown Username Filter Memory Budget (bytes)")
+                .defaultValue("16777216")
+                .helpText("The maximum memory used by the filter on each Keycloak node.  If too small for the number of users, the false-positive rate is higher than configured.")
+                .add()
+
+                .property().name(CONFIG_NEGATIVE_CACHE_REFRESH_INTERVAL_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Unknown Username Filter Refresh Interval (ms)")
+                .defaultValue("30000")
+                .helpText("How often users added or renamed since the last refresh, by RowVersion, are added to the filter.")
+                .add()
+
+                .property().name(CONFIG_NEGATIVE_CACHE_REBUILD_INTERVAL_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Unknown Username Filter Rebuild Interval (ms)")
+                .defaultValue("3600000")
+                .helpText("How often the filter is rebuilt from all users, which picks up renamed and deleted users.")
+                .add()
+
+                .property().name(CONFIG_NEGATIVE_CACHE_MISSING_TTL_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Unknown Username Time-To-Live (ms)")
+                .defaultValue("10000")
+                .helpText("How long a username that a query didn't find is remembered as missing.")
+                .add()
+
+                .property().name(CONFIG_CHANGE_POLLING_ENABLED)
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .label("Poll For User Changes")
+                .defaultValue(Boolean.FALSE)
+                .helpText("If set to on, each Keycloak node polls the Users table for rows changed outside Keycloak, using its RowVersion column, and updates its caches and search index.  Requires the RowVersion column and the IX_Users_RowVersion index.")
+                .add()
+
+                .property().name(CONFIG_CHANGE_POLLING_INTERVAL_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("User Change Polling Interval (ms)")
+                .defaultValue("5000")
+                .helpText("How often the Users table is polled for changes.")
+                .add()
+
+                .property().name(CONFIG_CHANGE_POLLING_BATCH_SIZE)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("User Change Polling Batch Size")
+                .defaultValue("500")
+                .helpText("The maximum number of changed rows read per query.")
+                .add()
+
+                .property().name(CONFIG_DEPARTMENT_GROUPS_ENABLED)
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .label("Department Groups")
+                .defaultValue(Boolean.FALSE)
+                .helpText("If set to on, users are members of the top-level group whose 'department' attribute, or else name, matches their Department, without being imported.  Recommended with the IX_Users_Department index.")
+                .add()
+
+                .property().name(CONFIG_DEPARTMENT_CACHE_MAX_ENTRIES)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Department Cache Maximum Entries")
+                .defaultValue("1000")
+                .helpText("The maximum number of departments whose members are kept in memory on each Keycloak node.  Set to 0 to disable.")
+                .add()
+
+                .property().name(CONFIG_DEPARTMENT_CACHE_TTL_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Department Cache Time-To-Live (ms)")
+                .defaultValue("60000")
+                .helpText("How long the members of a department are kept in memory.  With change polling on, changed users also drop their departments.")
+                .add()
+
+                .property().name(CONFIG_SYNC_CHUNK_SIZE)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Sync Chunk Size")
+                .defaultValue("500")
+                .helpText("The number of users read and imported per transaction when users are synchronized into Keycloak.")
+                .add()
+
+                .property().name(CONFIG_SYNC_PARALLELISM)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Sync Threads")
+                .defaultValue("4")
+                .helpText("The number of chunks imported at the same time by a full sync.  Changed users sync one chunk at a time.")
+                .add()
+
+                .property().name(CONFIG_HASHING_PARALLELISM)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Password Hashing Threads")
+                .defaultValue("")
+                .helpText("The number of threads that compute password hashes on each Keycloak node.  Leave blank to use the number of CPU cores.  Set to 0 to hash on the request thread.")
+                .add()
+
+                .property().name(CONFIG_HASHING_QUEUE_DEPTH)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Password Hashing Queue Depth")
+                .defaultValue("256")
+                .helpText("The maximum number of password hashes waiting for a hashing thread.")
+                .add()
+
+                .property().name(CONFIG_HASHING_MAX_WAIT_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Password Hashing Maximum Wait (ms)")
+                .defaultValue("10000")
+                .helpText("The maximum time a login waits for its password hash, including time in the queue, before it is rejected.")
+                .add()
+
+                .property().name(CONFIG_HASHING_REJECTION_POLICY)
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .label("Password Hashing Rejection Policy")
+                .options(HASHING_REJECTION_POLICY_REJECT, HASHING_REJECTION_POLICY_CALLER_RUNS)
+                .defaultValue(HASHING_REJECTION_POLICY_REJECT)
+                .helpText("What to do when the hashing queue is full.  'reject' fails the login or password change straight away; 'caller-runs' hashes on the request thread.")
+                .add()
+
+                .property().name(CONFIG_PASSWORD_HASH_ALGORITHM)
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .label("Password Hashing Algorithm")
+                .options(Pbkdf2PasswordHasher.PBKDF2_SHA256, Pbkdf2PasswordHasher.PBKDF2_SHA512, Argon2PasswordHasher.ARGON2ID)
+                .defaultValue(Pbkdf2PasswordHasher.PBKDF2_SHA256)
+                .helpText("The algorithm for new password hashes.  Existing hashes are verified with the algorithm they were created with, whatever this setting.  Hashes other than pbkdf2-sha256 are stored with an algorithm prefix and need a PasswordHash column of at least 256 characters.")
+                .add()
+
+                .property().name(CONFIG_PBKDF2_ITERATIONS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("PBKDF2 Iterations")
+                .defaultValue("27500")
+                .helpText("The number of PBKDF2 iterations for new password hashes, when calibration is off.")
+                .add()
+
+                .property().name(CONFIG_PBKDF2_TARGET_MS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("PBKDF2 Target Verification Time (ms)")
+                .defaultValue("0")
+                .helpText("If set, the number of PBKDF2 iterations for new password hashes is calibrated on startup so that verifying a password takes about this long on each Keycloak node.  Set to 0 to use the fixed number of iterations.")
+                .add()
+
+                .property().name(CONFIG_PBKDF2_MIN_ITERATIONS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("PBKDF2 Minimum Iterations")
+                .defaultValue("27500")
+                .helpText("The lowest number of iterations calibration may choose.")
+                .add()
+
+                .property().name(CONFIG_PBKDF2_MAX_ITERATIONS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("PBKDF2 Maximum Iterations")
+                .defaultValue("1000000")
+                .helpText("The highest number of iterations calibration may choose.")
+                .add()
+
+                .property().name(CONFIG_ARGON2_ITERATIONS)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Argon2 Iterations")
+                .defaultValue(String.valueOf(Argon2PasswordHasher.DEFAULT_ITERATIONS))
+                .helpText("The number of passes over the memory for new argon2id hashes.")
+                .add()
+
+                .property().name(CONFIG_ARGON2_MEMORY_KIB)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Argon2 Memory (KiB)")
+                .defaultValue(String.valueOf(Argon2PasswordHasher.DEFAULT_MEMORY_KIB))
+                .helpText("The memory each argon2id hash uses.  Hashing can use this much memory per password hashing thread.  Stored hashes using more than 4 times this (or the default, if higher), or more than 4 times the iterations or parallelism, are rejected.")
+                .add()
+
+                .property().name(CONFIG_ARGON2_PARALLELISM)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Argon2 Parallelism")
+                .defaultValue(String.valueOf(Argon2PasswordHasher.DEFAULT_PARALLELISM))
+                .helpText("The number of lanes of new argon2id hashes.")
+                .add()
+
+                .property().name(CONFIG_REHASH_ENABLED)
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .label("Rehash Passwords on Login")
+                .defaultValue(Boolean.FALSE)
+                .helpText("Whether passwords stored with another algorithm, other Argon2 parameters or fewer PBKDF2 iterations than the current settings are rehashed with the current settings after the user logs in.")
+                .add()
+
+                .property().name(CONFIG_REHASH_MAX_PER_SECOND)
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .label("Rehash Maximum Per Second")
+                .defaultValue("10")
+                .helpText("The maximum number of rehashed passwords written per second on each Keycloak node.  Users over the limit are rehashed on a later login.")
+                .add()
+
                 .build();
     }
 
+    // How long replaced or removed resources stay open for the requests that are still using them.
+    static final long RETIRED_RESOURCES_CLOSE_DELAY_MS = 60000;
+
+    // Node-wide resources (such as the connection pool) per component ID.
+    private final Map<String, DusklightComponentResources> componentResources = new ConcurrentHashMap<>();
+    // Held while building or removing a component's resources, so that each component is built once at a time.
+    private final Map<String, Object> componentLocks = new ConcurrentHashMap<>();
+    private final Set<DusklightComponentResources> retiredResources = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService retiredResourcesCloser =
+            Executors.newSingleThreadScheduledExecutor(DusklightComponentResources.daemonThreadFactory("dusklight-resources-closer"));
+    private final long retiredResourcesCloseDelayMillis;
+
+    public DusklightUserStorageProviderFactory() {
+        this(RETIRED_RESOURCES_CLOSE_DELAY_MS);
+    }
+
+    DusklightUserStorageProviderFactory(long retiredResourcesCloseDelayMillis) {
+        this.retiredResourcesCloseDelayMillis = retiredResourcesCloseDelayMillis;
+    }
+
     @Override
     public DusklightUserStorageProvider create(KeycloakSession session, ComponentModel model) {
-        var connectionString = buildDatabaseConnectionString(model);
+        var resources = getComponentResources(model);
 
-        return new DusklightUserStorageProvider(session, model, connectionString);
+        return new DusklightUserStorageProvider(session, model, resources);
     }
 
     @Override
@@ -101,6 +569,18 @@ public class DusklightUserStorageProviderFactory implements UserStorageProviderF
     public void init(Config.Scope config) {
     }
 
+    @Override
+    public void close() {
+        retiredResourcesCloser.shutdownNow();
+
+        for (var resources : retiredResources) {
+            closeRetired(resources);
+        }
+
+        componentResources.values().forEach(DusklightComponentResources::close);
+        componentResources.clear();
+    }
+
     @Override
     public List<ProviderConfigProperty> getConfigProperties() {
         return configMetadata;
@@ -110,11 +590,300 @@ public class DusklightUserStorageProviderFactory implements UserStorageProviderF
     public void validateConfiguration(KeycloakSession session, RealmModel realm, ComponentModel config) throws ComponentValidationException {
         UserStorageProviderFactory.super.validateConfiguration(session, realm, config);
 
+        try {
+            var minIdle = getConfigInt(config, CONFIG_POOL_MIN_IDLE, 2);
+            var maxSize = getConfigInt(config, CONFIG_POOL_MAX_SIZE, 10);
+
+            if (maxSize < 1 || minIdle < 0 || minIdle > maxSize) {
+                throw new ComponentValidationException("Connection pool sizes must satisfy 0 <= minimum idle <= maximum size, and maximum size >= 1.");
+            }
+
+            getConfigLong(config, CONFIG_POOL_IDLE_TIMEOUT_MS, 600000);
+            getConfigLong(config, CONFIG_POOL_CONNECTION_TIMEOUT_MS, 30000);
+            getConfigLong(config, CONFIG_POOL_VALIDATION_TIMEOUT_MS, 5000);
+            getConfigLong(config, CONFIG_POOL_LEAK_DETECTION_MS, 0);
+
+            getConfigInt(config, CONFIG_USER_CACHE_MAX_ENTRIES, 10000);
+            getConfigLong(config, CONFIG_USER_CACHE_TTL_MS, 60000);
+            getConfigLong(config, CONFIG_USER_CACHE_REFRESH_AHEAD_MS, 0);
+            getConfigLong(config, CONFIG_COUNT_CACHE_TTL_MS, 30000);
+            getConfigInt(config, CONFIG_CREDENTIAL_CACHE_MAX_ENTRIES, 10000);
+            getConfigLong(config, CONFIG_CREDENTIAL_CACHE_TTL_MS, 60000);
+            getConfigInt(config, CONFIG_DEPARTMENT_CACHE_MAX_ENTRIES, 1000);
+            getConfigLong(config, CONFIG_DEPARTMENT_CACHE_TTL_MS, 60000);
+
+            if (getConfigLong(config, CONFIG_SEARCH_INDEX_REFRESH_INTERVAL_MS, 30000) < 1
+                    || getConfigLong(config, CONFIG_SEARCH_INDEX_REBUILD_INTERVAL_MS, 3600000) < 1) {
+                throw new ComponentValidationException("User search index intervals must be at least 1 ms.");
+            }
+
+            if (getConfigLong(config, CONFIG_LOOKUP_BATCH_WINDOW_MS, 0) < 0
+                    || getConfigInt(config, CONFIG_LOOKUP_BATCH_MAX_SIZE, 100) < 1
+                    || getConfigInt(config, CONFIG_LOOKUP_BATCH_MAX_SIZE, 100) > DusklightUserRepository.MAX_IN_LIST_SIZE) {
+                throw new ComponentValidationException("User lookup batch window must be 0 or more, and the maximum batch size between 1 and " + DusklightUserRepository.MAX_IN_LIST_SIZE + ".");
+            }
+
+            var falsePositiveRate = getConfigDouble(config, CONFIG_NEGATIVE_CACHE_FALSE_POSITIVE_RATE, 0.01);
+
+            if (!(falsePositiveRate > 0 && falsePositiveRate < 1)
+                    || getConfigLong(config, CONFIG_NEGATIVE_CACHE_MAX_BYTES, 16 * 1024 * 1024) < 8
+                    || getConfigLong(config, CONFIG_NEGATIVE_CACHE_REFRESH_INTERVAL_MS, 30000) < 1
+                    || getConfigLong(config, CONFIG_NEGATIVE_CACHE_REBUILD_INTERVAL_MS, 3600000) < 1) {
+                throw new ComponentValidationException("Unknown username filter false-positive rate must be between 0 and 1, the memory budget at least 8 bytes, and the intervals at least 1 ms.");
+            }
+
+            getConfigLong(config, CONFIG_NEGATIVE_CACHE_MISSING_TTL_MS, 10000);
+
+            if (getConfigLong(config, CONFIG_CHANGE_POLLING_INTERVAL_MS, 5000) < 1
+                    || getConfigInt(config, CONFIG_CHANGE_POLLING_BATCH_SIZE, 500) < 1) {
+                throw new ComponentValidationException("User change polling interval and batch size must be at least 1.");
+            }
+
+            if (getConfigInt(config, CONFIG_SYNC_CHUNK_SIZE, 500) < 1
+                    || getConfigInt(config, CONFIG_SYNC_PARALLELISM, 4) < 1) {
+                throw new ComponentValidationException("Sync chunk size and threads must be at least 1.");
+            }
+
+            if (getConfigInt(config, CONFIG_HASHING_PARALLELISM, 0) < 0
+                    || getConfigInt(config, CONFIG_HASHING_QUEUE_DEPTH, 256) < 1
+                    || getConfigLong(config, CONFIG_HASHING_MAX_WAIT_MS, 10000) < 1) {
+                throw new ComponentValidationException("Password hashing threads must be 0 or more, and the queue depth and maximum wait at least 1.");
+            }
+
+            var minIterations = getConfigInt(config, CONFIG_PBKDF2_MIN_ITERATIONS, Pbkdf2PasswordHasher.DEFAULT_ITERATIONS);
+
+            if (getConfigInt(config, CONFIG_PBKDF2_ITERATIONS, Pbkdf2PasswordHasher.DEFAULT_ITERATIONS) < 1
+                    || getConfigLong(config, CONFIG_PBKDF2_TARGET_MS, 0) < 0
+                    || minIterations < 1
+                    || minIterations > getConfigInt(config, CONFIG_PBKDF2_MAX_ITERATIONS, 1000000)) {
+                throw new ComponentValidationException("PBKDF2 iterations must be at least 1, the target verification time 0 or more, and the minimum iterations between 1 and the maximum iterations.");
+            }
+
+            if (!(getConfigDouble(config, CONFIG_REHASH_MAX_PER_SECOND, 10) > 0)) {
+                throw new ComponentValidationException("Rehash maximum per second must be more than 0.");
+            }
+
+            var algorithm = config.getConfig().getFirst(CONFIG_PASSWORD_HASH_ALGORITHM);
+
+            if (algorithm != null && !algorithm.isBlank() && !List.of(Pbkdf2PasswordHasher.PBKDF2_SHA256,
+                    Pbkdf2PasswordHasher.PBKDF2_SHA512, Argon2PasswordHasher.ARGON2ID).contains(algorithm)) {
+                throw new ComponentValidationException("Unknown password hashing algorithm: " + algorithm);
+            }
+
+            var argon2Parallelism = getConfigInt(config, CONFIG_ARGON2_PARALLELISM, Argon2PasswordHasher.DEFAULT_PARALLELISM);
+
+            if (getConfigInt(config, CONFIG_ARGON2_ITERATIONS, Argon2PasswordHasher.DEFAULT_ITERATIONS) < 1
+                    || argon2Parallelism < 1
+                    || getConfigInt(config, CONFIG_ARGON2_MEMORY_KIB, Argon2PasswordHasher.DEFAULT_MEMORY_KIB) < 8L * argon2Parallelism) {
+                throw new ComponentValidationException("Argon2 iterations and parallelism must be at least 1, and the memory at least 8 KiB per lane.");
+            }
+
+            if (getConfigInt(config, CONFIG_FETCH_SIZE, DusklightUserRepository.DEFAULT_FETCH_SIZE) < 1) {
+                throw new ComponentValidationException("JDBC fetch size must be at least 1.");
+            }
+
+            if (getConfigInt(config, CONFIG_MAX_UNPAGED_RESULTS, 1000) < 1) {
+                throw new ComponentValidationException("Maximum unpaged results must be at least 1.");
+            }
+        } catch (NumberFormatException ex) {
+            throw new ComponentValidationException("Connection pool and cache settings must be numbers: " + ex.getMessage());
+        }
+
         // TODO: Consider attempting to connect to the database here and log or throw exception if can't connect,
         //  keeping in mind that the database server might not be up and running yet when Keycloak starts.
         //  See: https://www.keycloak.org/docs/15.0/server_development/index.html#configuration-example
     }
 
+    @Override
+    public void onUpdate(KeycloakSession session, RealmModel realm, ComponentModel oldModel, ComponentModel newModel) {
+        var resources = componentResources.get(oldModel.getId());
+
+        // Each sync stores its watermark in the config; that alone shouldn't tear down the pool and caches.
+        if (resources == null || !resources.isBuiltFrom(newModel)) {
+            closeComponentResources(oldModel.getId());
+        }
+    }
+
+    @Override
+    public SynchronizationResult sync(KeycloakSessionFactory sessionFactory, String realmId, UserStorageProviderModel model) {
+        return buildUserImporter(sessionFactory, realmId, model).importAll();
+    }
+
+    @Override
+    public SynchronizationResult syncSince(Date lastSync, KeycloakSessionFactory sessionFactory, String realmId, UserStorageProviderModel model) {
+        // The stored RowVersion watermark is more precise than lastSync, which is compared against no column here.
+        return buildUserImporter(sessionFactory, realmId, model).importChanges();
+    }
+
+    private DusklightUserImporter buildUserImporter(KeycloakSessionFactory sessionFactory, String realmId, UserStorageProviderModel model) {
+        return new DusklightUserImporter(sessionFactory, realmId, model, getComponentResources(model).getRepository(),
+                getConfigInt(model, CONFIG_SYNC_CHUNK_SIZE, 500),
+                getConfigInt(model, CONFIG_SYNC_PARALLELISM, 4));
+    }
+
+    @Override
+    public void preRemove(KeycloakSession session, RealmModel realm, ComponentModel model) {
+        closeComponentResources(model.getId());
+    }
+
+    /**
+     * Gets the node-wide resources for the component, building them on first use, or rebuilding them if the component
+     * configuration has changed since they were built.  Replaced resources are closed after
+     * RETIRED_RESOURCES_CLOSE_DELAY_MS, since sessions that got them before the swap may still be using them.
+     *
+     * @param model Component model
+     * @return Resources for the component
+     */
+    protected DusklightComponentResources getComponentResources(ComponentModel model) {
+        var resources = componentResources.get(model.getId());
+
+        if (resources != null && resources.isBuiltFrom(model)) {
+            return resources;
+        }
+
+        // Built outside the map, so that a slow build (e.g. calibrating password hashing) doesn't block other
+        // components, and sessions keep using the old resources until the new ones are swapped in.
+        synchronized (componentLock(model.getId())) {
+            var existing = componentResources.get(model.getId());
+
+            if (existing != null && existing.isBuiltFrom(model)) {
+                return existing;
+            }
+
+            var built = buildComponentResources(model);
+
+            componentResources.put(model.getId(), built);
+
+            if (existing != null) {
+                retire(existing);
+            }
+
+            return built;
+        }
+    }
+
+    protected DusklightComponentResources buildComponentResources(ComponentModel model) {
+        logger.infof("Building resources for component %s", model.getId());
+
+        var metrics = new DusklightMetrics();
+
+        return new DusklightComponentResources(model, buildDataSource(model, metrics), metrics);
+    }
+
+    /**
+     * Gets the node-wide resources for the component, without building them.
+     *
+     * @param componentId Component ID
+     * @return Resources for the component, or null if none of its providers has been created on this node yet.
+     */
+    public DusklightComponentResources findComponentResources(String componentId) {
+        return componentResources.get(componentId);
+    }
+
+    private void closeComponentResources(String componentId) {
+        synchronized (componentLock(componentId)) {
+            var resources = componentResources.remove(componentId);
+
+            if (resources != null) {
+                retire(resources);
+            }
+        }
+    }
+
+    private Object componentLock(String componentId) {
+        return componentLocks.computeIfAbsent(componentId, id -> new Object());
+    }
+
+    /**
+     * Closes resources that are no longer handed out once the requests still using them have had time to finish,
+     * rather than closing the connection pool under them.
+     */
+    private void retire(DusklightComponentResources resources) {
+        retiredResources.add(resources);
+
+        try {
+            retiredResourcesCloser.schedule(() -> closeRetired(resources), retiredResourcesCloseDelayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // The factory is closing, so nothing uses them anymore.
+            closeRetired(resources);
+        }
+    }
+
+    private void closeRetired(DusklightComponentResources resources) {
+        if (retiredResources.remove(resources)) {
+            resources.close();
+        }
+    }
+
+    /**
+     * Builds the connection pool for the Dusklight database based on the config.
+     *
+     * @param config config ComponentModel
+     * @param metrics Metrics to report connection acquisition times and pool statistics to
+     * @return Pooled DataSource
+     */
+    protected HikariDataSource buildDataSource(ComponentModel config, DusklightMetrics metrics) {
+        var hikariConfig = new HikariConfig();
+
+        hikariConfig.setPoolName(SQLSERVER_APPLICATION_NAME + "-" + config.getId());
+        hikariConfig.setJdbcUrl(buildDatabaseConnectionString(config));
+        hikariConfig.setMinimumIdle(getConfigInt(config, CONFIG_POOL_MIN_IDLE, 2));
+        hikariConfig.setMaximumPoolSize(getConfigInt(config, CONFIG_POOL_MAX_SIZE, 10));
+        hikariConfig.setIdleTimeout(getConfigLong(config, CONFIG_POOL_IDLE_TIMEOUT_MS, 600000));
+        hikariConfig.setConnectionTimeout(getConfigLong(config, CONFIG_POOL_CONNECTION_TIMEOUT_MS, 30000));
+        hikariConfig.setValidationTimeout(getConfigLong(config, CONFIG_POOL_VALIDATION_TIMEOUT_MS, 5000));
+        hikariConfig.setLeakDetectionThreshold(getConfigLong(config, CONFIG_POOL_LEAK_DETECTION_MS, 0));
+        hikariConfig.setMetricsTrackerFactory(metrics);
+
+        // Don't fail when the pool is built, since the database server might not be up and running yet when Keycloak
+        // starts.  Connection errors will surface on first use instead.
+        hikariConfig.setInitializationFailTimeout(-1);
+
+        return new HikariDataSource(hikariConfig);
+    }
+
+    /**
+     * Reads an optional integer setting from the config.
+     *
+     * @param config config ComponentModel
+     * @param name Name of the setting
+     * @param defaultValue Value to use if the setting is blank or missing
+     * @return Setting value
+     */
+    protected static int getConfigInt(ComponentModel config, String name, int defaultValue) {
+        var value = config.getConfig().getFirst(name);
+
+        return (value == null || value.isBlank()) ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Reads an optional long setting from the config.
+     *
+     * @param config config ComponentModel
+     * @param name Name of the setting
+     * @param defaultValue Value to use if the setting is blank or missing
+     * @return Setting value
+     */
+    protected static long getConfigLong(ComponentModel config, String name, long defaultValue) {
+        var value = config.getConfig().getFirst(name);
+
+        return (value == null || value.isBlank()) ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    /**
+     * Reads an optional decimal setting from the config.
+     *
+     * @param config config ComponentModel
+     * @param name Name of the setting
+     * @param defaultValue Value to use if the setting is blank or missing
+     * @return Setting value
+     */
+    protected static double getConfigDouble(ComponentModel config, String name, double defaultValue) {
+        var value = config.getConfig().getFirst(name);
+
+        return (value == null || value.isBlank()) ? defaultValue : Double.parseDouble(value.trim());
+    }
+
     /**
      * Builds the JDBC MSSQL Server database connection string based on the config.
      *
@@ -0,0 +1,186 @@
+package com.dusklight;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakTransaction;
+import org.keycloak.models.KeycloakTransactionManager;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the profile changes made through the user adapters of one KeycloakSession and writes them to the Dusklight
+ * database when the Keycloak transaction commits, instead of one UPDATE per setter call.  Only the changed columns are
+ * written: one UPDATE per user, batched across users (see DusklightUserRepository.updateUsers).
+ *
+ * It is enlisted as a "prepare" transaction on the first change, so it is written before Keycloak's own transactions
+ * commit, and a failed write rolls them back.  If the Keycloak transaction rolls back instead, the changes are
+ * discarded.  After a successful write, the node's caches are told about the changed users straight away.
+ *
+ * The provider creates a new adapter for each lookup, so one session can change the same user through several adapters
+ * (e.g. one from getUserById and one from getUserByUsername).  Their changes are merged per user, the last change to a
+ * column winning.
+ */
+public class DusklightUserUnitOfWork implements KeycloakTransaction {
+    private static final Logger logger = Logger.getLogger(DusklightUserUnitOfWork.class);
+
+    private final KeycloakTransactionManager transactionManager;
+    private final DusklightUserRepository repository;
+    private final UserChangeListener changeListener;
+
+    // Changed adapters, and the new column values, by UserId in the order the users were first changed.
+    private final Map<Integer, List<DusklightUserAdapterFederatedStorage>> dirtyUsers = new LinkedHashMap<>();
+    private final Map<Integer, Map<DusklightUserColumn, String>> changedValues = new HashMap<>();
+
+    private boolean enlisted;
+    private boolean active;
+    private boolean rollbackOnly;
+
+    /**
+     * @param transactionManager Transaction manager of the session, or null to write each change straight away
+     * @param repository Repository to write the changes to
+     * @param changeListener Told about the changed users after they are written, or null
+     */
+    public DusklightUserUnitOfWork(KeycloakTransactionManager transactionManager, DusklightUserRepository repository,
+                                   UserChangeListener changeListener) {
+        this.transactionManager = transactionManager;
+        this.repository = repository;
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * Records a change made through an adapter.  Called by the adapter's setters.
+     *
+     * @param user Changed user
+     * @param column Changed column
+     * @param value New value
+     */
+    public void register(DusklightUserAdapterFederatedStorage user, DusklightUserColumn column, String value) {
+        changedValues.computeIfAbsent(user.getDatabaseUserId(), userId -> new EnumMap<>(DusklightUserColumn.class))
+                .put(column, value);
+
+        var adapters = dirtyUsers.computeIfAbsent(user.getDatabaseUserId(), userId -> new ArrayList<>(1));
+
+        if (adapters.stream().noneMatch(adapter -> adapter == user)) {
+            adapters.add(user);
+        }
+
+        if (transactionManager == null || !transactionManager.isActive()) {
+            // No Keycloak transaction to join, so there is nothing to wait for.
+            flush();
+            return;
+        }
+
+        if (!enlisted) {
+            enlisted = true;
+            transactionManager.enlistPrepare(this);
+        }
+    }
+
+    /**
+     * @return Number of users with unsaved changes.
+     */
+    public int getPendingUserCount() {
+        return dirtyUsers.size();
+    }
+
+    @Override
+    public void begin() {
+        active = true;
+    }
+
+    @Override
+    public void commit() {
+        try {
+            flush();
+        } finally {
+            active = false;
+        }
+    }
+
+    @Override
+    public void rollback() {
+        for (var adapters : dirtyUsers.values()) {
+            adapters.forEach(DusklightUserAdapterFederatedStorage::discardChanges);
+        }
+
+        dirtyUsers.clear();
+        changedValues.clear();
+        active = false;
+    }
+
+    @Override
+    public void setRollbackOnly() {
+        rollbackOnly = true;
+    }
+
+    @Override
+    public boolean getRollbackOnly() {
+        return rollbackOnly;
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Writes all unsaved changes in one database transaction.
+     *
+     * @throws RuntimeException If the write failed; nothing is written, and the changes are discarded.
+     */
+    void flush() {
+        if (dirtyUsers.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, Map<DusklightUserColumn, String>> changes = new HashMap<>(changedValues);
+
+        try {
+            repository.updateUsers(changes);
+        } catch (SQLException ex) {
+            logger.error("flush: SQL Exception:", ex);
+            rollback();
+            throw new RuntimeException("Error occurred while saving users", ex);
+        }
+
+        List<DusklightUserEntity> changedUsers = new ArrayList<>(dirtyUsers.size());
+
+        for (var entry : dirtyUsers.entrySet()) {
+            var adapters = entry.getValue();
+            adapters.forEach(DusklightUserAdapterFederatedStorage::changesSaved);
+
+            // Any adapter has the columns nobody changed; the merged changes supply the rest.
+            var user = adapters.get(adapters.size() - 1).toEntity();
+            applyChanges(user, changes.get(entry.getKey()));
+            changedUsers.add(user);
+        }
+
+        dirtyUsers.clear();
+        changedValues.clear();
+
+        if (changeListener != null) {
+            changeListener.usersChanged(changedUsers);
+        }
+    }
+
+    private static void applyChanges(DusklightUserEntity user, Map<DusklightUserColumn, String> values) {
+        for (var value : values.entrySet()) {
+            switch (value.getKey()) {
+                case FIRST_NAME:
+                    user.setFirstName(value.getValue());
+                    break;
+                case LAST_NAME:
+                    user.setLastName(value.getValue());
+                    break;
+                default:
+                    user.setDepartment(value.getValue());
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.dusklight;
+
+import org.jboss.logging.Logger;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * A small, thread-safe, node-wide cache with a time-to-live and a bound on the number of entries.
+ *
+ * When the cache grows past its bound, expired entries are dropped first, then arbitrary entries until it's back under
+ * 90% of the bound.  This is cheaper than tracking access order, and good enough for the lookups this provider caches.
+ *
+ * If refresh-ahead is enabled, a hit on an entry older than the refresh-ahead age returns the cached value and reloads
+ * it in the background, so that frequently used entries don't expire and cause a miss on the request path.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class ExpiringCache<K, V> implements CacheStatistics {
+    private static final Logger logger = Logger.getLogger(ExpiringCache.class);
+
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long refreshAheadNanos;
+    private final Executor refreshExecutor;
+    private final LongSupplier nanoClock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries Maximum number of entries.  If 0 or less, the cache is disabled and never stores anything.
+     * @param ttlMillis Time-to-live of an entry, from when it was stored.
+     */
+    public ExpiringCache(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, 0, null, System::nanoTime);
+    }
+
+    /**
+     * @param maxEntries Maximum number of entries.  If 0 or less, the cache is disabled and never stores anything.
+     * @param ttlMillis Time-to-live of an entry, from when it was stored.
+     * @param refreshAheadMillis Age after which a hit triggers a background reload.  0 to disable.
+     * @param refreshExecutor Executor used for the background reloads.
+     */
+    public ExpiringCache(int maxEntries, long ttlMillis, long refreshAheadMillis, Executor refreshExecutor) {
+        this(maxEntries, ttlMillis, refreshAheadMillis, refreshExecutor, System::nanoTime);
+    }
+
+    ExpiringCache(int maxEntries, long ttlMillis, long refreshAheadMillis, Executor refreshExecutor, LongSupplier nanoClock) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.refreshAheadNanos = refreshExecutor == null ? 0 : TimeUnit.MILLISECONDS.toNanos(refreshAheadMillis);
+        this.refreshExecutor = refreshExecutor;
+        this.nanoClock = nanoClock;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0 && ttlNanos > 0;
+    }
+
+    /**
+     * Gets a cached value.
+     *
+     * @param key Key
+     * @return The cached value, or null if not cached or expired.
+     */
+    public V get(K key) {
+        return get(key, null);
+    }
+
+    /**
+     * Gets a cached value, and if refresh-ahead is enabled and the entry is getting old, reloads it in the background
+     * using the loader.  The loader is not called on a miss; the caller is expected to load and put the value.
+     *
+     * @param key Key
+     * @param refreshLoader Loads a fresh value for the key.  If it returns null, the entry is removed.
+     * @return The cached value, or null if not cached or expired.
+     */
+    public V get(K key, Function<? super K, ? extends V> refreshLoader) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        var entry = entries.get(key);
+        var now = nanoClock.getAsLong();
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        var age = now - entry.createdNanos;
+
+        if (age >= ttlNanos) {
+            if (entries.remove(key, entry)) {
+                evictions.increment();
+            }
+
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+
+        if (refreshLoader != null && refreshAheadNanos > 0 && age >= refreshAheadNanos
+                && entry.refreshing.compareAndSet(false, true)) {
+            scheduleRefresh(key, entry, refreshLoader);
+        }
+
+        return entry.value;
+    }
+
+    public void put(K key, V value) {
+        if (!isEnabled() || value == null) {
+            return;
+        }
+
+        entries.put(key, new Entry<>(value, nanoClock.getAsLong()));
+
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+    }
+
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Drops every entry whose value matches the predicate.  Walks the whole cache, so meant for occasional use, such
+     * as applying a batch of changes made outside Keycloak.
+     *
+     * @param predicate Selects the values to drop
+     */
+    public void invalidateIf(Predicate<? super V> predicate) {
+        entries.values().removeIf(entry -> predicate.test(entry.value));
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private void scheduleRefresh(K key, Entry<V> entry, Function<? super K, ? extends V> refreshLoader) {
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    V value = refreshLoader.apply(key);
+
+                    if (value == null) {
+                        entries.remove(key, entry);
+                    } else {
+                        // Only replace the entry we refreshed, so that an invalidation in the meantime wins.
+                        entries.replace(key, entry, new Entry<>(value, nanoClock.getAsLong()));
+                    }
+                } catch (Exception ex) {
+                    logger.warn("Refresh-ahead failed for cache key: " + key, ex);
+                } finally {
+                    entry.refreshing.set(false);
+                }
+            });
+        } catch (Exception ex) {
+            // E.g. the executor is shutting down or is saturated; the entry will simply expire.
+            entry.refreshing.set(false);
+        }
+    }
+
+    private void evict() {
+        // Only one thread needs to evict at a time; others can carry on.
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+
+        try {
+            var now = nanoClock.getAsLong();
+            var target = maxEntries - maxEntries / 10;
+
+            entries.entrySet().removeIf(e -> {
+                boolean expired = now - e.getValue().createdNanos >= ttlNanos;
+
+                if (expired) {
+                    evictions.increment();
+                }
+
+                return expired;
+            });
+
+            Iterator<K> iterator = entries.keySet().iterator();
+
+            while (entries.size() > target && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                evictions.increment();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long createdNanos;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(V value, long createdNanos) {
+            this.value = value;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.dusklight;
+
+import java.util.Objects;
+
+/**
+ * Remembers where each served page of users ended, so that the next sequential page can be read with a keyset (seek)
+ * query, "WHERE UserId > ? ORDER BY UserId", instead of OFFSET/FETCH, which gets slower the deeper the page since SQL
+ * Server still reads and discards all the skipped rows.
+ *
+ * Pages are identified by search term, page size and first result.  Only sequential paging benefits; a jump to an
+ * arbitrary page has no cursor and falls back to OFFSET.  Note that a seek continues after the last user actually
+ * served, so if users were added or removed in between, it returns what the admin would expect as "the next page"
+ * rather than exactly what OFFSET would have returned.
+ */
+public class KeysetPageCursors {
+    private final ExpiringCache<PageKey, Integer> cursors;
+
+    public KeysetPageCursors(int maxEntries, long ttlMillis) {
+        this.cursors = new ExpiringCache<>(maxEntries, ttlMillis);
+    }
+
+    /**
+     * Gets the UserId to seek after for a page.
+     *
+     * @param search Search term, or null when listing all users
+     * @param useLike Whether the search uses LIKE
+     * @param firstResult Zero-based index of the first user of the page
+     * @param pageSize Page size
+     * @return The last UserId of the previous page, or null if unknown.
+     */
+    public Integer getSeekAfter(String search, boolean useLike, int firstResult, int pageSize) {
+        return cursors.get(new PageKey(search, useLike, firstResult, pageSize));
+    }
+
+    /**
+     * Records where a served page ended, so the following page can seek from there.
+     *
+     * @param search Search term, or null when listing all users
+     * @param useLike Whether the search uses LIKE
+     * @param firstResult Zero-based index of the first user of the served page
+     * @param pageSize Page size
+     * @param lastUserId UserId of the last user of the served page
+     */
+    public void pageServed(String search, boolean useLike, int firstResult, int pageSize, int lastUserId) {
+        cursors.put(new PageKey(search, useLike, firstResult + pageSize, pageSize), lastUserId);
+    }
+
+    private static final class PageKey {
+        private final String search;
+        private final boolean useLike;
+        private final int firstResult;
+        private final int pageSize;
+
+        PageKey(String search, boolean useLike, int firstResult, int pageSize) {
+            this.search = search;
+            this.useLike = useLike;
+            this.firstResult = firstResult;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PageKey)) return false;
+
+            PageKey other = (PageKey) o;
+            return useLike == other.useLike && firstResult == other.firstResult && pageSize == other.pageSize
+                    && Objects.equals(search, other.search);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(search, useLike, firstResult, pageSize);
+        }
+    }
+}
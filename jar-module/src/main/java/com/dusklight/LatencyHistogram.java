@@ -0,0 +1,121 @@
+package com.dusklight;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets, from 100 microseconds to 10 seconds, matching what Prometheus expects of a
+ * histogram.  Recording finds the bucket with a scan of a small array and increments two LongAdders, so it takes no
+ * locks and, once the adders have their cells, allocates nothing; contended threads increment different cells instead
+ * of retrying on one shared counter.
+ *
+ * Reads are not atomic across buckets: a snapshot taken while durations are being recorded may miss some of them,
+ * but it is always consistent with itself (its count is the sum of its buckets).
+ */
+public class LatencyHistogram {
+
+    // Upper bounds of the buckets, in nanoseconds.  The last bucket, for longer durations, has no bound.
+    static final long[] BUCKET_BOUNDS_NANOS = {
+            TimeUnit.MICROSECONDS.toNanos(100),
+            TimeUnit.MICROSECONDS.toNanos(250),
+            TimeUnit.MICROSECONDS.toNanos(500),
+            TimeUnit.MILLISECONDS.toNanos(1),
+            TimeUnit.MICROSECONDS.toNanos(2500),
+            TimeUnit.MILLISECONDS.toNanos(5),
+            TimeUnit.MILLISECONDS.toNanos(10),
+            TimeUnit.MILLISECONDS.toNanos(25),
+            TimeUnit.MILLISECONDS.toNanos(50),
+            TimeUnit.MILLISECONDS.toNanos(100),
+            TimeUnit.MILLISECONDS.toNanos(250),
+            TimeUnit.MILLISECONDS.toNanos(500),
+            TimeUnit.SECONDS.toNanos(1),
+            TimeUnit.MILLISECONDS.toNanos(2500),
+            TimeUnit.SECONDS.toNanos(5),
+            TimeUnit.SECONDS.toNanos(10)
+    };
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param durationNanos Duration in nanoseconds.  Negative durations are recorded as 0.
+     */
+    public void record(long durationNanos) {
+        var duration = Math.max(0, durationNanos);
+        int bucket = 0;
+
+        while (bucket < BUCKET_BOUNDS_NANOS.length && duration > BUCKET_BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+
+        buckets[bucket].increment();
+        sumNanos.add(duration);
+    }
+
+    /**
+     * Records the time elapsed since startNanos.
+     *
+     * @param startNanos Start time, from System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Reads the histogram.
+     *
+     * @return The number of durations recorded so far in each bucket, and their sum.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[buckets.length];
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+
+        return new Snapshot(counts, sumNanos.sum());
+    }
+
+    /**
+     * A read of a LatencyHistogram.
+     */
+    public static final class Snapshot {
+        private final long[] bucketCounts;
+        private final long sumNanos;
+
+        Snapshot(long[] bucketCounts, long sumNanos) {
+            this.bucketCounts = bucketCounts;
+            this.sumNanos = sumNanos;
+        }
+
+        /**
+         * @return Number of durations in each bucket, in the order of BUCKET_BOUNDS_NANOS, followed by the number of
+         *         longer durations.
+         */
+        public long[] getBucketCounts() {
+            return bucketCounts.clone();
+        }
+
+        public long getCount() {
+            long count = 0;
+
+            for (long bucketCount : bucketCounts) {
+                count += bucketCount;
+            }
+
+            return count;
+        }
+
+        public long getSumNanos() {
+            return sumNanos;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.dusklight;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * HMAC-SHA256 keyed with a random secret generated when the instance is created, i.e. per node at startup.
+ *
+ * Used to derive fingerprints of submitted passwords that can be compared or used as map keys in memory, without
+ * keeping the passwords themselves, and which are useless outside this process.
+ */
+public class NodeSecretMac {
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final ThreadLocal<Mac> macs;
+
+    public NodeSecretMac() {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        var key = new SecretKeySpec(secret, MAC_ALGORITHM);
+
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("MAC algorithm not available: " + MAC_ALGORITHM, e);
+            }
+        });
+    }
+
+    /**
+     * Computes the MAC of a password together with the PasswordHash it is checked against.
+     *
+     * @param storedPasswordHash Stored PasswordHash
+     * @param password Submitted password
+     * @return 32-byte MAC
+     */
+    public byte[] mac(String storedPasswordHash, String password) {
+        Mac mac = macs.get();
+
+        mac.update(storedPasswordHash.getBytes(StandardCharsets.UTF_8));
+        // The stored hash never contains a NUL character, so this separator keeps the two inputs unambiguous.
+        mac.update((byte) 0);
+        return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+}
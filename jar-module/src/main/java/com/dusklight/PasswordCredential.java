@@ -0,0 +1,16 @@
+package com.dusklight;
+
+/**
+ * A stored PasswordHash decoded by the PasswordHasher of its algorithm, ready to check passwords against.  Instances
+ * are immutable and are cached on the DusklightUserEntity they were decoded from.
+ */
+public interface PasswordCredential {
+
+    /**
+     * Checks a password against this credential.  The derived hash is compared to the stored one in constant time.
+     *
+     * @param password Password to check
+     * @return true if the password matches.
+     */
+    boolean matches(String password);
+}
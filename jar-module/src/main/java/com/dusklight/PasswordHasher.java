@@ -0,0 +1,37 @@
+package com.dusklight;
+
+/**
+ * A password hashing algorithm.  Stored PasswordHashes record the algorithm that created them (see PasswordHashers),
+ * so each is verified with its own algorithm and parameters, whichever algorithm the component uses for new hashes.
+ */
+public interface PasswordHasher {
+
+    /**
+     * @return Name of the algorithm, recorded as the prefix of stored PasswordHashes, e.g. "pbkdf2-sha512".
+     */
+    String getAlgorithm();
+
+    /**
+     * Hashes a password with a new salt and this hasher's parameters.
+     *
+     * @param password Password to hash
+     * @return The hash and its parameters, without the algorithm prefix.
+     */
+    String hash(String password);
+
+    /**
+     * Decodes a hash created with this algorithm, whatever its parameters.
+     *
+     * @param encodedHash The hash and its parameters, without the algorithm prefix
+     * @return The credential, or null if the hash is malformed.
+     */
+    PasswordCredential decode(String encodedHash);
+
+    /**
+     * Checks whether a credential was created with this algorithm and parameters at least as strong as the current ones.
+     *
+     * @param credential Decoded credential, of any algorithm
+     * @return true if the credential is up to date, false if it should be rehashed.
+     */
+    boolean isCurrent(PasswordCredential credential);
+}
@@ -0,0 +1,83 @@
+package com.dusklight;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The password hashing algorithms a component can verify, and the one it uses for new hashes.
+ *
+ * A stored PasswordHash is "{algorithm}:{hash}", where the hash after the prefix is in the algorithm's own format,
+ * e.g. "pbkdf2-sha512:hash.salt.iterations".  A PasswordHash without a prefix is in the original "hash.salt.iterations"
+ * format, i.e. PBKDF2-HMAC-SHA256.  PBKDF2-HMAC-SHA256 hashes are still written that way, so that they fit the
+ * original PasswordHash column and older versions of the provider can read them.
+ */
+public class PasswordHashers {
+
+    static final char PREFIX_SEPARATOR = ':';
+
+    // Algorithm of PasswordHashes without a prefix.
+    static final String UNPREFIXED_ALGORITHM = Pbkdf2PasswordHasher.PBKDF2_SHA256;
+
+    private final PasswordHasher current;
+    private final Map<String, PasswordHasher> hashersByAlgorithm = new HashMap<>();
+
+    /**
+     * @param current Hasher for new hashes
+     * @param verifiers Hashers for verifying existing hashes of other algorithms; their parameters don't matter, as
+     *                  stored hashes record their own
+     */
+    public PasswordHashers(PasswordHasher current, Collection<? extends PasswordHasher> verifiers) {
+        this.current = current;
+
+        verifiers.forEach(hasher -> hashersByAlgorithm.put(hasher.getAlgorithm(), hasher));
+        hashersByAlgorithm.put(current.getAlgorithm(), current);
+    }
+
+    public PasswordHasher getCurrent() {
+        return current;
+    }
+
+    /**
+     * Hashes a password with the current algorithm.
+     *
+     * @param password Password to hash
+     * @return PasswordHash to store.
+     */
+    public String hash(String password) {
+        String hash = current.hash(password);
+
+        return UNPREFIXED_ALGORITHM.equals(current.getAlgorithm())
+                ? hash
+                : current.getAlgorithm() + PREFIX_SEPARATOR + hash;
+    }
+
+    /**
+     * Decodes a stored PasswordHash with the hasher of the algorithm it records.
+     *
+     * @param passwordHash Stored PasswordHash
+     * @return The credential, or null if the PasswordHash is missing, malformed or of an unknown algorithm.
+     */
+    public PasswordCredential parse(String passwordHash) {
+        if (passwordHash == null) {
+            return null;
+        }
+
+        int separator = passwordHash.indexOf(PREFIX_SEPARATOR);
+        var algorithm = separator < 0 ? UNPREFIXED_ALGORITHM : passwordHash.substring(0, separator);
+        var hasher = hashersByAlgorithm.get(algorithm);
+
+        return hasher == null ? null : hasher.decode(passwordHash.substring(separator + 1));
+    }
+
+    /**
+     * Checks whether a credential should be rehashed, because it was created with another algorithm or with other
+     * parameters than the current ones.
+     *
+     * @param credential Decoded credential
+     * @return true if the credential is outdated.
+     */
+    public boolean needsRehash(PasswordCredential credential) {
+        return !current.isCurrent(credential);
+    }
+}
@@ -0,0 +1,213 @@
+package com.dusklight;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs password hashing on a dedicated, bounded pool of threads, so that a burst of logins (e.g. credential stuffing)
+ * can only use as many cores as configured, instead of every Keycloak request thread computing PBKDF2 at once and
+ * starving token refreshes and admin traffic.
+ *
+ * When the queue is full, a task is either rejected straight away, or run on the caller's thread, depending on the
+ * rejection policy.  A caller never waits longer than the configured maximum wait.  Identical tasks submitted with the
+ * same de-duplication key while one is already queued or running share its result.
+ */
+public class PasswordHashingExecutor implements AutoCloseable {
+
+    public enum RejectionPolicy {
+        /** Fail fast with a HashingRejectedException. */
+        REJECT,
+        /** Hash on the caller's thread, i.e. the behavior without this executor. */
+        CALLER_RUNS
+    }
+
+    /**
+     * Thrown when a hashing task could not be run, because the queue was full or the maximum wait was exceeded.
+     */
+    public static class HashingRejectedException extends RuntimeException {
+        public HashingRejectedException(String message) {
+            super(message);
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final long maxWaitNanos;
+    private final RejectionPolicy rejectionPolicy;
+    private final SingleFlight<String, Object> inFlight = new SingleFlight<>();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LongAccumulator maxQueueWaitNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param name Name used for the threads
+     * @param parallelism Number of hashing threads
+     * @param queueDepth Maximum number of tasks waiting for a thread
+     * @param maxWaitMillis Maximum time a caller waits for its result, including time in the queue
+     * @param rejectionPolicy What to do when the queue is full
+     */
+    public PasswordHashingExecutor(String name, int parallelism, int queueDepth, long maxWaitMillis, RejectionPolicy rejectionPolicy) {
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueDepth),
+                DusklightComponentResources.daemonThreadFactory(name),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    /**
+     * Runs a hashing task on the hashing threads and waits for its result.
+     *
+     * @param deduplicationKey If not null, concurrent tasks with the same key share one execution.  Must identify the
+     *                         task's inputs completely, e.g. the user and a keyed MAC of the password and stored hash.
+     * @param task The hashing task
+     * @param <T> Result type
+     * @return The task's result
+     * @throws HashingRejectedException If the task was rejected or took longer than the maximum wait.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String deduplicationKey, Callable<T> task) {
+        try {
+            if (deduplicationKey == null) {
+                return runOnPool(task);
+            }
+
+            return (T) inFlight.execute(deduplicationKey, () -> runOnPool(task));
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Queues a task without waiting for it, for optional work such as rehashing a password after a login.  Whatever
+     * the rejection policy, the task never runs on the caller's thread, and it is dropped if the queue is full.
+     *
+     * @param task The task; it must handle its own errors
+     * @return true if the task was queued, false if it was dropped.
+     */
+    public boolean trySubmit(Runnable task) {
+        submitted.increment();
+        long submittedNanos = System.nanoTime();
+
+        try {
+            executor.execute(() -> {
+                recordQueueWait(System.nanoTime() - submittedNanos);
+                task.run();
+            });
+
+            return true;
+        } catch (RejectedExecutionException ex) {
+            rejected.increment();
+            return false;
+        }
+    }
+
+    private <T> T runOnPool(Callable<T> task) throws Exception {
+        submitted.increment();
+        long submittedNanos = System.nanoTime();
+
+        Future<T> future;
+
+        try {
+            future = executor.submit(() -> {
+                recordQueueWait(System.nanoTime() - submittedNanos);
+                return task.call();
+            });
+        } catch (RejectedExecutionException ex) {
+            if (rejectionPolicy == RejectionPolicy.CALLER_RUNS && !executor.isShutdown()) {
+                return task.call();
+            }
+
+            rejected.increment();
+            throw new HashingRejectedException("Password hashing queue is full (" + executor.getQueue().size() + " waiting).");
+        }
+
+        try {
+            return future.get(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            future.cancel(true);
+            timedOut.increment();
+            throw new HashingRejectedException("Password hashing did not complete within the maximum wait.");
+        } catch (ExecutionException ex) {
+            var cause = ex.getCause();
+
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+
+            throw (Error) cause;
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw ex;
+        }
+    }
+
+    private void recordQueueWait(long waitNanos) {
+        queueWait.record(waitNanos);
+        maxQueueWaitNanos.accumulate(waitNanos);
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    /**
+     * Number of callers that shared the result of an identical task instead of hashing again.
+     *
+     * @return Count of de-duplicated tasks
+     */
+    public long getDeduplicatedCount() {
+        return inFlight.getCoalescedCount();
+    }
+
+    public long getTotalQueueWaitNanos() {
+        return queueWait.snapshot().getSumNanos();
+    }
+
+    /**
+     * Time tasks spent in the queue before a hashing thread picked them up, for sizing the pool and the queue.
+     *
+     * @return Histogram of the queue waits so far
+     */
+    public LatencyHistogram.Snapshot getQueueWait() {
+        return queueWait.snapshot();
+    }
+
+    public long getMaxQueueWaitNanos() {
+        return maxQueueWaitNanos.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
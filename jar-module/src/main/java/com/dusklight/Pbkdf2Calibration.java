@@ -0,0 +1,78 @@
+package com.dusklight;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Picks the PBKDF2 iteration count for new password hashes from how fast this node hashes, so that verifying a
+ * password takes about the target time on whatever hardware Keycloak runs on, rather than a fixed count that is cheap
+ * on fast machines and slow on small ones.
+ */
+public final class Pbkdf2Calibration {
+    private static final Logger logger = Logger.getLogger(Pbkdf2Calibration.class);
+
+    // Iterations per timed run: long enough to time reliably, short enough to keep startup fast.
+    static final int PROBE_ITERATIONS = 10000;
+    private static final int WARMUP_RUNS = 3;
+    private static final int PROBE_RUNS = 5;
+
+    // Calibrated counts are rounded down to a multiple of this, so that they read well in the database and the logs.
+    static final int ROUNDING = 1000;
+
+    private Pbkdf2Calibration() {}
+
+    /**
+     * Times a few hashes and scales the iteration count to the target verification time.
+     *
+     * @param pbkdf2Algorithm JCE algorithm name, e.g. "PBKDF2WithHmacSHA256"
+     * @param hashSizeBytes Hash size in bytes, which the cost is proportional to beyond the digest size
+     * @param targetMillis Time a verification should take on this node, without contention
+     * @param minIterations Lowest count to return, whatever the hardware
+     * @param maxIterations Highest count to return, whatever the hardware
+     * @return Iteration count for new hashes.
+     */
+    public static int calibrate(String pbkdf2Algorithm, int hashSizeBytes, long targetMillis, int minIterations, int maxIterations) {
+        byte[] salt = new byte[16];
+
+        // Lets the JIT compile the hashing code before it is timed.
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            Pbkdf2Provider.generateHash("calibration", salt, PROBE_ITERATIONS, hashSizeBytes, pbkdf2Algorithm);
+        }
+
+        // The fastest run is the closest to the real cost; slower runs only add noise such as GC pauses.
+        long fastestNanos = Long.MAX_VALUE;
+
+        for (int i = 0; i < PROBE_RUNS; i++) {
+            long start = System.nanoTime();
+            Pbkdf2Provider.generateHash("calibration", salt, PROBE_ITERATIONS, hashSizeBytes, pbkdf2Algorithm);
+            fastestNanos = Math.min(fastestNanos, System.nanoTime() - start);
+        }
+
+        int iterations = iterationsFor(fastestNanos, PROBE_ITERATIONS, targetMillis * 1_000_000, minIterations, maxIterations);
+
+        logger.infof("Calibrated %s to %d iterations for a %d ms verification (%d iterations took %d us)",
+                pbkdf2Algorithm, iterations, targetMillis, PROBE_ITERATIONS, fastestNanos / 1000);
+
+        return iterations;
+    }
+
+    /**
+     * Scales a timed run to the target time.
+     *
+     * @param probeNanos Time the run took
+     * @param probeIterations Iterations of the run
+     * @param targetNanos Time a verification should take
+     * @param minIterations Lowest count to return
+     * @param maxIterations Highest count to return
+     * @return Iteration count, rounded down to a multiple of ROUNDING and within the bounds.
+     */
+    static int iterationsFor(long probeNanos, int probeIterations, long targetNanos, int minIterations, int maxIterations) {
+        if (probeNanos <= 0) {
+            return maxIterations;
+        }
+
+        long iterations = (long) ((double) targetNanos * probeIterations / probeNanos);
+        iterations = iterations / ROUNDING * ROUNDING;
+
+        return (int) Math.max(minIterations, Math.min(maxIterations, iterations));
+    }
+}
@@ -0,0 +1,94 @@
+package com.dusklight;
+
+/**
+ * PBKDF2, stored as "hash.salt.iterations" with the hash and salt in Base64.
+ *
+ * PBKDF2-HMAC-SHA512 computes 64 bytes per block, so a 64-byte hash costs one block per iteration, where
+ * PBKDF2-HMAC-SHA256 needs two; on 64-bit hosts it gets more iterations out of the same CPU time.
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+
+    public static final String PBKDF2_SHA256 = "pbkdf2-sha256";
+    public static final String PBKDF2_SHA512 = "pbkdf2-sha512";
+
+    // These values are the same default values used by Keycloak.
+    public static final int DEFAULT_ITERATIONS = 27500;
+    public static final int DEFAULT_SALT_SIZE_BYTES = 16;
+    public static final int DEFAULT_HASH_SIZE_BYTES = 64;
+
+    private final String algorithm;
+    private final String pbkdf2Algorithm;
+    private final int iterations;
+    private final int saltSizeBytes;
+    private final int hashSizeBytes;
+
+    /**
+     * @param algorithm PBKDF2_SHA256 or PBKDF2_SHA512
+     * @param iterations Iteration count for new hashes
+     */
+    public Pbkdf2PasswordHasher(String algorithm, int iterations) {
+        this(algorithm, iterations, DEFAULT_SALT_SIZE_BYTES, DEFAULT_HASH_SIZE_BYTES);
+    }
+
+    public Pbkdf2PasswordHasher(String algorithm, int iterations, int saltSizeBytes, int hashSizeBytes) {
+        this.algorithm = algorithm;
+        this.pbkdf2Algorithm = pbkdf2AlgorithmOf(algorithm);
+        this.iterations = iterations;
+        this.saltSizeBytes = saltSizeBytes;
+        this.hashSizeBytes = hashSizeBytes;
+    }
+
+    /**
+     * @param algorithm PBKDF2_SHA256 or PBKDF2_SHA512
+     * @return The JCE algorithm name, e.g. "PBKDF2WithHmacSHA256".
+     */
+    public static String pbkdf2AlgorithmOf(String algorithm) {
+        switch (algorithm) {
+            case PBKDF2_SHA256:
+                return "PBKDF2WithHmacSHA256";
+            case PBKDF2_SHA512:
+                return "PBKDF2WithHmacSHA512";
+            default:
+                throw new IllegalArgumentException("Not a PBKDF2 algorithm: " + algorithm);
+        }
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public String hash(String password) {
+        String salt = Pbkdf2Provider.generateSaltBase64(saltSizeBytes);
+        String hash = Pbkdf2Provider.generateHashBase64(password, salt, iterations, hashSizeBytes, pbkdf2Algorithm);
+
+        return hash + "." + salt + "." + iterations;
+    }
+
+    @Override
+    public PasswordCredential decode(String encodedHash) {
+        return DusklightPasswordCredential.parse(encodedHash, pbkdf2Algorithm);
+    }
+
+    /**
+     * Hashes with more iterations than this node uses are current too.  Nodes calibrated to different counts would
+     * otherwise keep rehashing the same users back and forth; this way hashes only move up to the highest count.
+     */
+    @Override
+    public boolean isCurrent(PasswordCredential credential) {
+        if (!(credential instanceof DusklightPasswordCredential)) {
+            return false;
+        }
+
+        var pbkdf2Credential = (DusklightPasswordCredential) credential;
+
+        return pbkdf2Credential.getPbkdf2Algorithm().equals(pbkdf2Algorithm)
+                && pbkdf2Credential.getIterations() >= iterations
+                && pbkdf2Credential.getHashSizeBytes() == hashSizeBytes;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+}
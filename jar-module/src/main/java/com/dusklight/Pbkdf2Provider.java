@@ -15,14 +15,35 @@ public final class Pbkdf2Provider {
     public static String generateHashBase64(String textToHash, String saltBase64, int iterations, int hashSizeBytes, String pbkdf2Algorithm) {
         byte[] saltBytes = Base64.getDecoder().decode(saltBase64);
 
+        return Base64.getEncoder().encodeToString(
+                generateHash(textToHash, saltBytes, iterations, hashSizeBytes, pbkdf2Algorithm));
+    }
+
+    /**
+     * Computes the PBKDF2 hash of the text.  Uses Pbkdf2Engine for the algorithms it supports, which gives the same
+     * result as the JCE SecretKeyFactory with less work, and the JCE otherwise.
+     *
+     * @param textToHash Text to hash, e.g. a password
+     * @param saltBytes Salt
+     * @param iterations Iteration count
+     * @param hashSizeBytes Hash size in bytes
+     * @param pbkdf2Algorithm JCE algorithm name, e.g. "PBKDF2WithHmacSHA256"
+     * @return Hash bytes
+     */
+    public static byte[] generateHash(String textToHash, byte[] saltBytes, int iterations, int hashSizeBytes, String pbkdf2Algorithm) {
+        if (Pbkdf2Engine.supports(pbkdf2Algorithm)) {
+            return Pbkdf2Engine.deriveKey(textToHash, saltBytes, iterations, hashSizeBytes, pbkdf2Algorithm);
+        }
+
+        return generateHashJce(textToHash, saltBytes, iterations, hashSizeBytes, pbkdf2Algorithm);
+    }
+
+    static byte[] generateHashJce(String textToHash, byte[] saltBytes, int iterations, int hashSizeBytes, String pbkdf2Algorithm) {
         KeySpec spec = new PBEKeySpec(textToHash.toCharArray(), saltBytes, iterations, hashSizeBytes * 8);
         SecretKeyFactory factory = getSecretKeyFactory(pbkdf2Algorithm);
 
         try {
-            byte[] hashBytes = factory.generateSecret(spec).getEncoded();
-            String hashBase64 = Base64.getEncoder().encodeToString(hashBytes);
-
-            return hashBase64;
+            return factory.generateSecret(spec).getEncoded();
         } catch (InvalidKeySpecException e) {
             throw new RuntimeException("Credential could not be encoded", e);
         } catch (Exception e) {
@@ -36,7 +57,7 @@ public final class Pbkdf2Provider {
         return saltBase64;
     }
 
-    private static byte[] generateSaltBytes(int saltSizeBytes) {
+    static byte[] generateSaltBytes(int saltSizeBytes) {
         byte[] buffer = new byte[saltSizeBytes];
         SecureRandom secureRandom = new SecureRandom();
         secureRandom.nextBytes(buffer);
@@ -0,0 +1,74 @@
+package com.dusklight;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket allowing a number of operations per second on average, with bursts of up to one second's worth.
+ * Callers that don't get a permit are expected to skip the operation rather than wait, which suits optional work such
+ * as rehashing passwords on login.
+ */
+public class RateLimiter {
+
+    private final double permitsPerNano;
+    private final double maxPermits;
+    private final LongSupplier nanoClock;
+
+    private double permits;
+    private long lastRefillNanos;
+
+    private final LongAdder grantedCount = new LongAdder();
+    private final LongAdder deniedCount = new LongAdder();
+
+    /**
+     * @param permitsPerSecond Average number of operations allowed per second
+     */
+    public RateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, System::nanoTime);
+    }
+
+    RateLimiter(double permitsPerSecond, LongSupplier nanoClock) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Permits per second must be positive.");
+        }
+
+        this.permitsPerNano = permitsPerSecond / 1e9;
+        this.maxPermits = Math.max(1, permitsPerSecond);
+        this.nanoClock = nanoClock;
+        this.permits = maxPermits;
+        this.lastRefillNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Takes a permit if one is available.
+     *
+     * @return true if the operation may run, false if the rate was exceeded.
+     */
+    public boolean tryAcquire() {
+        boolean granted;
+
+        synchronized (this) {
+            long now = nanoClock.getAsLong();
+
+            permits = Math.min(maxPermits, permits + (now - lastRefillNanos) * permitsPerNano);
+            lastRefillNanos = now;
+            granted = permits >= 1;
+
+            if (granted) {
+                permits -= 1;
+            }
+        }
+
+        (granted ? grantedCount : deniedCount).increment();
+
+        return granted;
+    }
+
+    public long getGrantedCount() {
+        return grantedCount.sum();
+    }
+
+    public long getDeniedCount() {
+        return deniedCount.sum();
+    }
+}
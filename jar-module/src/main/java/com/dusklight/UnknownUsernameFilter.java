@@ -0,0 +1,214 @@
+package com.dusklight;
+
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Node-wide negative cache for usernames, so that lookups of usernames that don't exist (the bulk of credential-stuffing
+ * traffic) don't each cost a query.
+ *
+ * It combines a Bloom filter of all usernames in the Users table, which answers "definitely absent" for most unknown
+ * usernames, with a short-lived set of usernames a query recently found missing, which catches the filter's false
+ * positives.  The filter is built in the background, then extended with users added or renamed since (by RowVersion,
+ * so that rows committed late by a long transaction aren't skipped), and rebuilt from scratch periodically to drop
+ * deleted users and old usernames.
+ *
+ * Until the filter is first built, or if refreshing has failed for longer than three refresh intervals, the filter is
+ * not trusted and every lookup goes to the database.  Usernames are expected to be normalized by the caller, see
+ * DusklightUserLookup.cacheKey.
+ */
+public class UnknownUsernameFilter {
+    private static final Logger logger = Logger.getLogger(UnknownUsernameFilter.class);
+
+    // Changed rows read per query by an incremental refresh.
+    static final int CHANGE_BATCH_SIZE = 1000;
+
+    private final DusklightUserRepository repository;
+    private final double falsePositiveRate;
+    private final long maxBytes;
+    private final long refreshIntervalNanos;
+    private final long rebuildIntervalNanos;
+    private final ExpiringCache<String, Boolean> knownMissing;
+    private final LongSupplier nanoClock;
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    private volatile BloomFilter filter;
+    private volatile long lastRebuildNanos;
+    private volatile long lastRefreshNanos;
+    private long rowVersionWatermark;
+
+    private final LongAdder filterRejections = new LongAdder();
+    private final LongAdder knownMissingHits = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+
+    /**
+     * @param repository Repository to read the usernames from
+     * @param falsePositiveRate Wanted false-positive rate of the Bloom filter
+     * @param maxBytes Memory budget for the Bloom filter
+     * @param refreshIntervalMillis How often users added since the last refresh are added to the filter
+     * @param rebuildIntervalMillis How often the filter is rebuilt from all users
+     * @param knownMissingTtlMillis How long a username found missing by a query is remembered
+     */
+    public UnknownUsernameFilter(DusklightUserRepository repository, double falsePositiveRate, long maxBytes,
+                                 long refreshIntervalMillis, long rebuildIntervalMillis, long knownMissingTtlMillis) {
+        this(repository, falsePositiveRate, maxBytes, refreshIntervalMillis, rebuildIntervalMillis,
+                knownMissingTtlMillis, System::nanoTime);
+    }
+
+    UnknownUsernameFilter(DusklightUserRepository repository, double falsePositiveRate, long maxBytes,
+                          long refreshIntervalMillis, long rebuildIntervalMillis, long knownMissingTtlMillis,
+                          LongSupplier nanoClock) {
+        this.repository = repository;
+        this.falsePositiveRate = falsePositiveRate;
+        this.maxBytes = maxBytes;
+        this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMillis);
+        this.rebuildIntervalNanos = TimeUnit.MILLISECONDS.toNanos(rebuildIntervalMillis);
+        this.knownMissing = new ExpiringCache<>(10000, knownMissingTtlMillis, 0, null, nanoClock);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Checks whether a username is known not to exist, without querying the database.
+     *
+     * @param key Normalized username
+     * @return true if the user definitely doesn't exist (or was found missing very recently), false if it may exist.
+     */
+    public boolean isDefinitelyMissing(String key) {
+        if (knownMissing.get(key) != null) {
+            knownMissingHits.increment();
+            return true;
+        }
+
+        var currentFilter = filter;
+
+        if (currentFilter != null && isFresh() && !currentFilter.mightContain(key)) {
+            filterRejections.increment();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Remembers for a short time that a query didn't find the username.
+     *
+     * @param key Normalized username
+     */
+    public void recordMissing(String key) {
+        knownMissing.put(key, Boolean.TRUE);
+    }
+
+    /**
+     * Records that a username exists, e.g. because a user was just created or renamed, so it's not reported missing
+     * before the next refresh.
+     *
+     * @param key Normalized username
+     */
+    public void recordExisting(String key) {
+        knownMissing.invalidate(key);
+
+        var currentFilter = filter;
+
+        if (currentFilter != null) {
+            currentFilter.add(key);
+        }
+    }
+
+    /**
+     * Brings the filter up to date: rebuilds it if it was never built or the rebuild interval has passed, otherwise
+     * adds the users created or renamed since the last refresh.  Meant to be scheduled at the refresh interval; errors are logged
+     * rather than thrown.
+     */
+    public void refresh() {
+        if (!refreshLock.tryLock()) {
+            return;
+        }
+
+        try {
+            if (filter == null || nanoClock.getAsLong() - lastRebuildNanos >= rebuildIntervalNanos) {
+                rebuild();
+            } else {
+                var currentFilter = filter;
+                int read;
+
+                do {
+                    var rowCount = new int[1];
+
+                    rowVersionWatermark = repository.forEachChangedUser(rowVersionWatermark, CHANGE_BATCH_SIZE, user -> {
+                        rowCount[0]++;
+
+                        if (user.getUsername() != null) {
+                            var key = DusklightUserLookup.cacheKey(user.getUsername());
+                            currentFilter.add(key);
+                            knownMissing.invalidate(key);
+                        }
+                    });
+
+                    read = rowCount[0];
+                } while (read == CHANGE_BATCH_SIZE);
+            }
+
+            lastRefreshNanos = nanoClock.getAsLong();
+        } catch (SQLException | RuntimeException ex) {
+            refreshFailures.increment();
+            logger.warn("Refreshing the unknown username filter failed: " + ex.getMessage());
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void rebuild() throws SQLException {
+        // Read before the scan: rows committed after this point may be missed by the scan, so the next refresh reads
+        // them again.  Everything below MIN_ACTIVE_ROWVERSION() is committed, so start just below it.
+        var newWatermark = repository.getMinActiveRowVersion() - 1;
+        var userCount = repository.countUsers();
+
+        // Leave room for the users added until the next rebuild, so the false-positive rate holds until then.
+        var newFilter = BloomFilter.create(userCount + userCount / 2 + 1000L, falsePositiveRate, maxBytes);
+
+        repository.forEachUsername(0, username -> newFilter.add(DusklightUserLookup.cacheKey(username)));
+
+        rowVersionWatermark = newWatermark;
+        filter = newFilter;
+        lastRebuildNanos = nanoClock.getAsLong();
+        rebuilds.increment();
+
+        logger.infof("Built unknown username filter for %d users: %d KiB, %d hash functions.",
+                userCount, newFilter.getBitCount() / 8 / 1024, newFilter.getHashCount());
+    }
+
+    private boolean isFresh() {
+        return nanoClock.getAsLong() - lastRefreshNanos < 3 * refreshIntervalNanos;
+    }
+
+    /**
+     * Number of database lookups avoided, by either the Bloom filter or the set of recently missing usernames.
+     *
+     * @return Count of lookups answered without a query
+     */
+    public long getSavedQueryCount() {
+        return filterRejections.sum() + knownMissingHits.sum();
+    }
+
+    public long getFilterRejectionCount() {
+        return filterRejections.sum();
+    }
+
+    public long getKnownMissingHitCount() {
+        return knownMissingHits.sum();
+    }
+
+    public long getRebuildCount() {
+        return rebuilds.sum();
+    }
+
+    public long getRefreshFailureCount() {
+        return refreshFailures.sum();
+    }
+}
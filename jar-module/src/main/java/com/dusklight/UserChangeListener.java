@@ -0,0 +1,18 @@
+package com.dusklight;
+
+import java.util.List;
+
+/**
+ * Notified by UserChangePoller of users that were inserted or updated in the Dusklight database, including changes
+ * made outside Keycloak.
+ */
+@FunctionalInterface
+public interface UserChangeListener {
+
+    /**
+     * Called on the poller's background thread with each batch of changed users.  Must not block for long.
+     *
+     * @param changedUsers The users as they are now in the database
+     */
+    void usersChanged(List<DusklightUserEntity> changedUsers);
+}
@@ -0,0 +1,98 @@
+package com.dusklight;
+
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Polls the Users table for rows inserted or updated since the last poll, using its RowVersion column, and passes
+ * them to the registered listeners so that node-wide caches and indexes learn about changes made outside Keycloak
+ * (e.g. HR updates or password resets by the legacy application).
+ *
+ * Rows are read in batches of at most the configured size, in rowversion order, and the watermark only moves past a
+ * batch once every listener has seen it.  Deleted rows leave no rowversion behind, so they are not reported; caches
+ * still drop them when their entries expire.
+ */
+public class UserChangePoller {
+    private static final Logger logger = Logger.getLogger(UserChangePoller.class);
+
+    private final DusklightUserRepository repository;
+    private final int batchSize;
+    private final List<UserChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Only used from the polling thread.
+    private long watermark = -1;
+
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder changedRows = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param repository Repository to read changes from
+     * @param batchSize Maximum number of changed rows read per query
+     */
+    public UserChangePoller(DusklightUserRepository repository, int batchSize) {
+        this.repository = repository;
+        this.batchSize = batchSize;
+    }
+
+    public void addListener(UserChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Reads all changes since the last poll and passes them to the listeners.  The first poll only records the
+     * starting point, since nothing is cached yet.  Meant to be scheduled at the polling interval; errors are logged
+     * rather than thrown, and the same changes are read again by the next poll.
+     */
+    public void poll() {
+        polls.increment();
+
+        try {
+            if (watermark < 0) {
+                // Everything below MIN_ACTIVE_ROWVERSION() is committed, so start just below it.
+                watermark = repository.getMinActiveRowVersion() - 1;
+                return;
+            }
+
+            int read;
+
+            do {
+                List<DusklightUserEntity> batch = new ArrayList<>();
+                long batchWatermark = repository.forEachChangedUser(watermark, batchSize, batch::add);
+
+                read = batch.size();
+
+                if (read > 0) {
+                    for (var listener : listeners) {
+                        listener.usersChanged(batch);
+                    }
+
+                    changedRows.add(read);
+                }
+
+                watermark = batchWatermark;
+            } while (read == batchSize);
+
+        } catch (SQLException | RuntimeException ex) {
+            failures.increment();
+            logger.warn("Polling the Users table for changes failed: " + ex.getMessage());
+        }
+    }
+
+    public long getPollCount() {
+        return polls.sum();
+    }
+
+    public long getChangedRowCount() {
+        return changedRows.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+}
@@ -0,0 +1,108 @@
+package com.dusklight;
+
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the number of users in the Dusklight database, which the admin console asks for every time it renders the
+ * users tab.
+ *
+ * In exact mode the count comes from "SELECT Count(1) FROM Users", which scans an index.  In approximate mode it comes
+ * from the row counts SQL Server keeps in sys.dm_db_partition_stats, which is effectively free but may lag behind
+ * in-flight transactions.  If the approximate count fails once, usually because the login lacks the VIEW DATABASE
+ * STATE permission, exact counts are used from then on, until the component is reconfigured.  Either way, concurrent
+ * callers that find the cached count expired share a single refresh.
+ */
+public class UserCountCache {
+    private static final Logger logger = Logger.getLogger(UserCountCache.class);
+
+    private final DusklightUserRepository repository;
+    private final long ttlNanos;
+    private final boolean approximate;
+    private final LongSupplier nanoClock;
+    private final SingleFlight<String, Integer> refreshes = new SingleFlight<>();
+
+    private volatile CachedCount cachedCount;
+    private volatile boolean approximateCountFailed;
+
+    /**
+     * @param repository Repository to count users with
+     * @param ttlMillis How long a count is used before it is refreshed.  0 to refresh on every call.
+     * @param approximate True to read the count from sys.dm_db_partition_stats instead of counting rows.
+     */
+    public UserCountCache(DusklightUserRepository repository, long ttlMillis, boolean approximate) {
+        this(repository, ttlMillis, approximate, System::nanoTime);
+    }
+
+    UserCountCache(DusklightUserRepository repository, long ttlMillis, boolean approximate, LongSupplier nanoClock) {
+        this.repository = repository;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.approximate = approximate;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Gets the number of users, from the cache if it hasn't expired.
+     *
+     * @return Number of users
+     * @throws SQLException If the count had to be refreshed and the query failed.
+     */
+    public int getUsersCount() throws SQLException {
+        var current = cachedCount;
+
+        if (current != null && nanoClock.getAsLong() - current.loadedNanos < ttlNanos) {
+            return current.count;
+        }
+
+        try {
+            return refreshes.execute("count", this::refresh);
+        } catch (SQLException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new SQLException("Could not count users", ex);
+        }
+    }
+
+    public void invalidate() {
+        cachedCount = null;
+    }
+
+    public long getRefreshCount() {
+        return refreshes.getExecutionCount();
+    }
+
+    private int refresh() throws SQLException {
+        int count;
+
+        if (approximate && !approximateCountFailed) {
+            try {
+                count = repository.countUsersApproximately();
+            } catch (SQLException ex) {
+                // Most likely the login is missing the VIEW DATABASE STATE permission, which won't change by retrying.
+                approximateCountFailed = true;
+                logger.warn("Approximate user count failed, using exact counts until the component is reconfigured: "
+                        + ex.getMessage());
+                count = repository.countUsers();
+            }
+        } else {
+            count = repository.countUsers();
+        }
+
+        cachedCount = new CachedCount(count, nanoClock.getAsLong());
+
+        return count;
+    }
+
+    private static final class CachedCount {
+        final int count;
+        final long loadedNanos;
+
+        CachedCount(int count, long loadedNanos) {
+            this.count = count;
+            this.loadedNanos = loadedNanos;
+        }
+    }
+}
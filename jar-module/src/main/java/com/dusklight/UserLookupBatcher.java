@@ -0,0 +1,162 @@
+package com.dusklight;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects single-user lookups arriving on different threads within a short window, and resolves them with one
+ * "Username IN (...)" query instead of one query (and one pooled connection) each.
+ *
+ * No extra threads are used: the first lookup of a batch waits out the window on its own thread and then runs the
+ * query for everyone, unless the batch reaches its maximum size first, in which case the lookup that filled it runs
+ * the query straight away.  Each lookup therefore costs at most the window in added latency.
+ */
+public class UserLookupBatcher {
+    private final DusklightUserRepository repository;
+    private final long windowNanos;
+    private final int maxBatchSize;
+
+    private final Object lock = new Object();
+    private Map<String, CompletableFuture<DusklightUserEntity>> pending = new HashMap<>();
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+
+    /**
+     * @param repository Repository to load users from
+     * @param windowMillis How long the first lookup of a batch waits for others to join
+     * @param maxBatchSize Number of usernames at which a batch is queried without waiting out the window
+     */
+    public UserLookupBatcher(DusklightUserRepository repository, long windowMillis, int maxBatchSize) {
+        this.repository = repository;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Looks up a user as part of the current batch, and waits for the batch's query.
+     *
+     * @param key Normalized username, see DusklightUserLookup.cacheKey
+     * @return The user, or null if not found.
+     * @throws SQLException If the batch's query failed.
+     */
+    public DusklightUserEntity findByUsername(String key) throws SQLException {
+        CompletableFuture<DusklightUserEntity> future;
+        Map<String, CompletableFuture<DusklightUserEntity>> fullBatch = null;
+        boolean leader = false;
+
+        synchronized (lock) {
+            future = pending.get(key);
+
+            if (future == null) {
+                future = new CompletableFuture<>();
+                pending.put(key, future);
+                leader = pending.size() == 1;
+
+                if (pending.size() >= maxBatchSize) {
+                    fullBatch = takePending();
+                }
+            }
+        }
+
+        if (fullBatch != null) {
+            run(fullBatch);
+        } else if (leader) {
+            var batch = awaitWindow(key, future);
+
+            if (batch != null) {
+                run(batch);
+            }
+        }
+
+        return await(future);
+    }
+
+    /**
+     * Waits until the window has passed, or the batch was taken by a lookup that filled it.
+     *
+     * @return The batch to run, or null if another thread is running it.
+     */
+    private Map<String, CompletableFuture<DusklightUserEntity>> awaitWindow(String key, CompletableFuture<DusklightUserEntity> future) {
+        long deadline = System.nanoTime() + windowNanos;
+
+        synchronized (lock) {
+            try {
+                long remaining;
+
+                while (pending.get(key) == future && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                }
+            } catch (InterruptedException ex) {
+                // Run the batch now rather than leave the other lookups waiting.
+                Thread.currentThread().interrupt();
+            }
+
+            return pending.get(key) == future ? takePending() : null;
+        }
+    }
+
+    private Map<String, CompletableFuture<DusklightUserEntity>> takePending() {
+        var batch = pending;
+        pending = new HashMap<>();
+        lock.notifyAll();
+        return batch;
+    }
+
+    private void run(Map<String, CompletableFuture<DusklightUserEntity>> batch) {
+        batches.increment();
+        lookups.add(batch.size());
+
+        Map<String, DusklightUserEntity> users;
+
+        try {
+            users = repository.findByUsernames(batch.keySet());
+        } catch (SQLException | RuntimeException ex) {
+            // Every lookup of the batch fails, rather than reporting its user as not found.
+            for (var future : batch.values()) {
+                future.completeExceptionally(ex);
+            }
+
+            return;
+        }
+
+        for (var entry : batch.entrySet()) {
+            entry.getValue().complete(users.get(entry.getKey()));
+        }
+    }
+
+    private static DusklightUserEntity await(CompletableFuture<DusklightUserEntity> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                // A new exception, so that each waiting thread's stack trace shows where it waited.
+                throw new SQLException(ex.getCause().getMessage(), ex.getCause());
+            }
+
+            throw new RuntimeException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * @return Number of batch queries run.
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * @return Number of lookups resolved by batch queries.
+     */
+    public long getLookupCount() {
+        return lookups.sum();
+    }
+}
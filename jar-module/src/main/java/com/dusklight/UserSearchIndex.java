@@ -0,0 +1,329 @@
+package com.dusklight;
+
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory trigram index over Username, FirstName and LastName, so that "contains" searches from the admin console
+ * are answered from memory instead of a "LIKE '%term%'" scan of the Users table.  A search returns the matching UserIds
+ * in UserId order, and only the requested page of rows is then read from the database by primary key.
+ *
+ * The index is an immutable snapshot, built in the background and replaced by a new one every rebuild interval.  Users
+ * added or changed in between (by RowVersion, so that rows committed late by a long transaction aren't skipped), and
+ * users reported changed by UserChangePoller, are kept in a small map that overrides
+ * the snapshot and is scanned on each search, until the next snapshot includes them.  Deleted users are only dropped
+ * by a rebuild; a deleted user's row simply isn't found when the page is read.
+ *
+ * Memory use is roughly 4 bytes per distinct trigram per user, plus the lower-cased names.
+ */
+public class UserSearchIndex implements UserChangeListener {
+    private static final Logger logger = Logger.getLogger(UserSearchIndex.class);
+
+    // Changed rows read per query by an incremental refresh.
+    static final int CHANGE_BATCH_SIZE = 1000;
+
+    private final DusklightUserRepository repository;
+    private final long rebuildIntervalNanos;
+    private final LongSupplier nanoClock;
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    private volatile Snapshot snapshot;
+    // Users added or changed since the snapshot was built, by UserId.
+    private final Map<Integer, Document> changes = new ConcurrentHashMap<>();
+    private volatile long lastRebuildNanos;
+    private long rowVersionWatermark;
+
+    /**
+     * @param repository Repository to read the users from
+     * @param rebuildIntervalMillis How often the index is rebuilt from all users
+     */
+    public UserSearchIndex(DusklightUserRepository repository, long rebuildIntervalMillis) {
+        this(repository, rebuildIntervalMillis, System::nanoTime);
+    }
+
+    UserSearchIndex(DusklightUserRepository repository, long rebuildIntervalMillis, LongSupplier nanoClock) {
+        this.repository = repository;
+        this.rebuildIntervalNanos = TimeUnit.MILLISECONDS.toNanos(rebuildIntervalMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return true once the index has been built, false while searches must still go to the database.
+     */
+    public boolean isReady() {
+        return snapshot != null;
+    }
+
+    /**
+     * Finds users whose username, first name or last name contains the search term, ignoring case.
+     *
+     * @param searchTerm Search term
+     * @param firstResult Zero-based index of the first match to return
+     * @param maxResults Maximum number of matches to return
+     * @return UserIds of one page of matches, in UserId order.
+     */
+    public List<Integer> search(String searchTerm, int firstResult, int maxResults) {
+        var currentSnapshot = snapshot;
+        List<Integer> page = new ArrayList<>();
+
+        if (currentSnapshot == null || maxResults <= 0) {
+            return page;
+        }
+
+        var term = normalize(searchTerm);
+        var matches = currentSnapshot.search(term);
+
+        if (!changes.isEmpty()) {
+            matches.removeIf(changes::containsKey);
+
+            for (var document : changes.values()) {
+                if (document.text.contains(term)) {
+                    matches.add(document.userId);
+                }
+            }
+
+            Collections.sort(matches);
+        }
+
+        for (int i = Math.max(0, firstResult); i < matches.size() && page.size() < maxResults; i++) {
+            page.add(matches.get(i));
+        }
+
+        return page;
+    }
+
+    /**
+     * Brings the index up to date: rebuilds it if it was never built or the rebuild interval has passed, otherwise
+     * adds the users created or changed since the last refresh.  Meant to be scheduled; errors are logged rather than thrown.
+     */
+    public void refresh() {
+        if (!refreshLock.tryLock()) {
+            return;
+        }
+
+        try {
+            if (snapshot == null || nanoClock.getAsLong() - lastRebuildNanos >= rebuildIntervalNanos) {
+                rebuild();
+            } else {
+                int read;
+
+                do {
+                    List<DusklightUserEntity> batch = new ArrayList<>();
+                    rowVersionWatermark = repository.forEachChangedUser(rowVersionWatermark, CHANGE_BATCH_SIZE, batch::add);
+                    usersChanged(batch);
+                    read = batch.size();
+                } while (read == CHANGE_BATCH_SIZE);
+            }
+        } catch (SQLException | RuntimeException ex) {
+            logger.warn("Refreshing the user search index failed: " + ex.getMessage());
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Applies users changed outside Keycloak, so searches see their current names before the next rebuild.
+     *
+     * @param changedUsers The users as they are now in the database
+     */
+    @Override
+    public void usersChanged(List<DusklightUserEntity> changedUsers) {
+        for (var user : changedUsers) {
+            changes.put(user.getUserId(),
+                    new Document(user.getUserId(), user.getUsername(), user.getFirstName(), user.getLastName()));
+        }
+    }
+
+    private void rebuild() throws SQLException {
+        // Changes recorded up to now are read again by the rebuild; later ones must survive it.
+        Map<Integer, Document> changesBefore = new HashMap<>(changes);
+        // Read before the scan: rows committed after this point may be missed by the scan, so the next refresh reads
+        // them again.  Everything below MIN_ACTIVE_ROWVERSION() is committed, so start just below it.
+        var newWatermark = repository.getMinActiveRowVersion() - 1;
+        var builder = new SnapshotBuilder();
+        var newMaxUserId = repository.forEachUserSearchFields(0, (userId, username, firstName, lastName) ->
+                builder.add(new Document(userId, username, firstName, lastName)));
+
+        var newSnapshot = builder.build(newMaxUserId);
+
+        rowVersionWatermark = newWatermark;
+        snapshot = newSnapshot;
+        changes.entrySet().removeIf(change -> changesBefore.get(change.getKey()) == change.getValue());
+        lastRebuildNanos = nanoClock.getAsLong();
+
+        logger.infof("Built user search index for %d users, %d trigrams.", newSnapshot.userIds.length, newSnapshot.postings.size());
+    }
+
+    public int getIndexedUserCount() {
+        var currentSnapshot = snapshot;
+
+        if (currentSnapshot == null) {
+            return 0;
+        }
+
+        return currentSnapshot.userIds.length
+                + (int) changes.keySet().stream().filter(userId -> userId > currentSnapshot.maxUserId).count();
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+
+    private static long trigram(String text, int index) {
+        return ((long) text.charAt(index) << 32) | ((long) text.charAt(index + 1) << 16) | text.charAt(index + 2);
+    }
+
+    private static final class Document {
+        final int userId;
+        // The searchable fields, lower-cased and separated so that no match spans two fields.
+        final String text;
+
+        Document(int userId, String username, String firstName, String lastName) {
+            this.userId = userId;
+            this.text = normalize(username) + '\u0000' + normalize(firstName) + '\u0000' + normalize(lastName);
+        }
+    }
+
+    private static final class Snapshot {
+        final int maxUserId;
+        // Sorted by UserId; postings hold positions in these arrays, so they are in UserId order too.
+        final int[] userIds;
+        final String[] texts;
+        final Map<Long, int[]> postings;
+
+        Snapshot(int maxUserId, int[] userIds, String[] texts, Map<Long, int[]> postings) {
+            this.maxUserId = maxUserId;
+            this.userIds = userIds;
+            this.texts = texts;
+            this.postings = postings;
+        }
+
+        List<Integer> search(String term) {
+            List<Integer> matches = new ArrayList<>();
+
+            if (term.length() < 3) {
+                // Too short for trigrams; a scan of the in-memory names is still far cheaper than a table scan.
+                for (int i = 0; i < texts.length; i++) {
+                    if (texts[i].contains(term)) {
+                        matches.add(userIds[i]);
+                    }
+                }
+
+                return matches;
+            }
+
+            int[] candidates = null;
+
+            for (int i = 0; i + 3 <= term.length(); i++) {
+                var posting = postings.get(trigram(term, i));
+
+                if (posting == null) {
+                    return matches;
+                }
+
+                candidates = candidates == null ? posting : intersect(candidates, posting);
+
+                if (candidates.length == 0) {
+                    return matches;
+                }
+            }
+
+            // Trigrams only narrow down the candidates; check that the whole term occurs.
+            for (int position : candidates) {
+                if (texts[position].contains(term)) {
+                    matches.add(userIds[position]);
+                }
+            }
+
+            return matches;
+        }
+
+        private static int[] intersect(int[] a, int[] b) {
+            int[] result = new int[Math.min(a.length, b.length)];
+            int i = 0;
+            int j = 0;
+            int count = 0;
+
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    result[count++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+
+            return Arrays.copyOf(result, count);
+        }
+    }
+
+    private static final class SnapshotBuilder {
+        private final List<Document> documents = new ArrayList<>();
+        private final Map<Long, IntList> postings = new HashMap<>();
+
+        void add(Document document) {
+            int position = documents.size();
+            documents.add(document);
+
+            Set<Long> trigrams = new HashSet<>();
+            var text = document.text;
+
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                trigrams.add(trigram(text, i));
+            }
+
+            for (var trigram : trigrams) {
+                postings.computeIfAbsent(trigram, key -> new IntList()).add(position);
+            }
+        }
+
+        Snapshot build(int maxUserId) {
+            int[] userIds = new int[documents.size()];
+            String[] texts = new String[documents.size()];
+
+            for (int i = 0; i < documents.size(); i++) {
+                userIds[i] = documents.get(i).userId;
+                texts[i] = documents.get(i).text;
+            }
+
+            Map<Long, int[]> frozenPostings = new HashMap<>(postings.size() * 4 / 3 + 1);
+            postings.forEach((trigram, list) -> frozenPostings.put(trigram, list.toArray()));
+
+            return new Snapshot(maxUserId, userIds, texts, frozenPostings);
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
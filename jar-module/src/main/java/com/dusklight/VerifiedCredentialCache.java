@@ -0,0 +1,75 @@
+package com.dusklight;
+
+import java.security.MessageDigest;
+import java.util.Locale;
+
+/**
+ * Remembers recent successful password verifications, so that clients repeatedly using the resource-owner password
+ * flow don't cost a full PBKDF2 computation on every call.
+ *
+ * Neither the password nor a plain hash of it is kept: each entry is an HMAC-SHA256, keyed with a random secret
+ * generated per node at startup, over the stored PasswordHash and the submitted password.  Because the stored hash is
+ * part of the MAC, a changed password hash never matches an old entry, even before the entry is invalidated.  Only
+ * positive results are cached, and MACs are compared in constant time.
+ */
+public class VerifiedCredentialCache implements CacheStatistics {
+    private final ExpiringCache<String, byte[]> verified;
+    private final NodeSecretMac nodeSecretMac;
+
+    /**
+     * @param maxEntries Maximum number of users with a remembered verification.
+     * @param ttlMillis How long a successful verification is remembered.
+     * @param nodeSecretMac MAC keyed with the node's secret
+     */
+    public VerifiedCredentialCache(int maxEntries, long ttlMillis, NodeSecretMac nodeSecretMac) {
+        this.verified = new ExpiringCache<>(maxEntries, ttlMillis);
+        this.nodeSecretMac = nodeSecretMac;
+    }
+
+    /**
+     * Checks whether the password was recently verified against the same stored hash.
+     *
+     * @param username Username
+     * @param storedPasswordHash PasswordHash currently stored for the user
+     * @param password Submitted password
+     * @return true if a matching successful verification is remembered.
+     */
+    public boolean isVerified(String username, String storedPasswordHash, String password) {
+        var remembered = verified.get(cacheKey(username));
+
+        return remembered != null && MessageDigest.isEqual(remembered, mac(storedPasswordHash, password));
+    }
+
+    /**
+     * Remembers a successful verification.  Must only be called after the password was verified.
+     *
+     * @param username Username
+     * @param storedPasswordHash PasswordHash the password was verified against
+     * @param password Submitted password
+     */
+    public void verified(String username, String storedPasswordHash, String password) {
+        verified.put(cacheKey(username), mac(storedPasswordHash, password));
+    }
+
+    public void invalidate(String username) {
+        verified.invalidate(cacheKey(username));
+    }
+
+    @Override
+    public long getHitCount() {
+        return verified.getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return verified.getMissCount();
+    }
+
+    private byte[] mac(String storedPasswordHash, String password) {
+        return nodeSecretMac.mac(storedPasswordHash, password);
+    }
+
+    private static String cacheKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
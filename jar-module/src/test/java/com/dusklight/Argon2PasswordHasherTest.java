@@ -0,0 +1,107 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class Argon2PasswordHasherTest {
+
+    @Test
+    void hash_RecordsParameters_AndMatchesOnlyCorrectPassword() {
+
+        // Arrange
+        var hasher = new Argon2PasswordHasher(2, 128, 2);
+
+        // Act
+        var encodedHash = hasher.hash("foobar");
+        var credential = hasher.decode(encodedHash);
+
+        // Assert
+        assertThat(encodedHash).endsWith(".2.128.2");
+        assertThat(credential.matches("foobar")).isTrue();
+        assertThat(credential.matches("foobaz")).isFalse();
+        assertThat(hasher.isCurrent(credential)).isTrue();
+    }
+
+    @Test
+    void hash_SamePasswordTwice_DifferentSalts() {
+
+        // Arrange
+        var hasher = new Argon2PasswordHasher(1, 64, 1);
+
+        // Act
+        var first = hasher.hash("foobar");
+        var second = hasher.hash("foobar");
+
+        // Assert
+        assertThat(first).isNotEqualTo(second);
+    }
+
+    @Test
+    void isCurrent_OtherParameters_ReturnsFalse() {
+
+        // Arrange
+        var credential = new Argon2PasswordHasher(1, 64, 1).decode(new Argon2PasswordHasher(1, 64, 1).hash("foobar"));
+
+        // Act & Assert
+        assertThat(new Argon2PasswordHasher(2, 64, 1).isCurrent(credential)).isFalse();
+        assertThat(new Argon2PasswordHasher(1, 128, 1).isCurrent(credential)).isFalse();
+        assertThat(credential.matches("foobar")).isTrue();
+    }
+
+    @Test
+    void decode_MalformedHash_ReturnsNull() {
+
+        // Arrange
+        var hasher = new Argon2PasswordHasher(1, 64, 1);
+
+        // Act & Assert
+        assertThat(hasher.decode(null)).isNull();
+        assertThat(hasher.decode("aGFzaA==.c2FsdA==.1.64")).isNull();
+        assertThat(hasher.decode("aGFzaA==.c2FsdA==.1.64.1.1")).isNull();
+        assertThat(hasher.decode("aGFzaA==.c2FsdA==.0.64.1")).isNull();
+        assertThat(hasher.decode("aGFzaA==.c2FsdA==.1.4.1")).isNull();
+        assertThat(hasher.decode("not base64!.c2FsdA==.1.64.1")).isNull();
+    }
+
+    @Test
+    void decode_CostAboveLimit_ReturnsNull() {
+
+        // Arrange
+        var hasher = new Argon2PasswordHasher(Argon2PasswordHasher.DEFAULT_ITERATIONS, Argon2PasswordHasher.DEFAULT_MEMORY_KIB,
+                Argon2PasswordHasher.DEFAULT_PARALLELISM);
+        var maxMemoryKiB = Argon2PasswordHasher.MAX_COST_FACTOR * Argon2PasswordHasher.DEFAULT_MEMORY_KIB;
+        var maxIterations = Argon2PasswordHasher.MAX_COST_FACTOR * Argon2PasswordHasher.DEFAULT_ITERATIONS;
+
+        // Act & Assert
+        assertThat(hasher.decode("aGFzaA==.c2FsdA==.2." + maxMemoryKiB + ".1")).isNotNull();
+        assertThat(hasher.decode("aGFzaA==.c2FsdA==.2." + (maxMemoryKiB + 1) + ".1")).isNull();
+        assertThat(hasher.decode("aGFzaA==.c2FsdA==.2.1073741824.1")).isNull();
+        assertThat(hasher.decode("aGFzaA==.c2FsdA==." + (maxIterations + 1) + ".19456.1")).isNull();
+        assertThat(hasher.decode("aGFzaA==.c2FsdA==.2.19456.5")).isNull();
+    }
+
+    @Test
+    void decode_CheaperConfigurationThanStoredHash_StillVerifies() {
+
+        // Arrange
+        var encodedHash = new Argon2PasswordHasher(2, 256, 1).hash("foobar");
+        var cheaperHasher = new Argon2PasswordHasher(1, 64, 1);
+
+        // Act
+        var credential = cheaperHasher.decode(encodedHash);
+
+        // Assert
+        assertThat(credential.matches("foobar")).isTrue();
+        assertThat(cheaperHasher.isCurrent(credential)).isFalse();
+    }
+
+    @Test
+    void constructor_InvalidParameters_Throws() {
+
+        // Act & Assert
+        assertThatThrownBy(() -> new Argon2PasswordHasher(0, 64, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new Argon2PasswordHasher(1, 8, 2)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,57 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BloomFilterTest {
+
+    @Test
+    void mightContain_AddedValues_NoFalseNegatives() {
+
+        // Arrange
+        var filter = BloomFilter.create(10000, 0.01, 1024 * 1024);
+
+        for (int i = 0; i < 10000; i++) {
+            filter.add("user" + i);
+        }
+
+        // Act & Assert
+        for (int i = 0; i < 10000; i++) {
+            assertThat(filter.mightContain("user" + i)).isTrue();
+        }
+    }
+
+    @Test
+    void mightContain_UnknownValues_FalsePositiveRateNearConfigured() {
+
+        // Arrange
+        var filter = BloomFilter.create(10000, 0.01, 1024 * 1024);
+
+        for (int i = 0; i < 10000; i++) {
+            filter.add("user" + i);
+        }
+
+        // Act
+        int falsePositives = 0;
+
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain("stranger" + i)) {
+                falsePositives++;
+            }
+        }
+
+        // Assert
+        assertThat(falsePositives).isLessThan(2000);
+    }
+
+    @Test
+    void create_SmallMemoryBudget_CapsBitCount() {
+
+        // Act
+        var filter = BloomFilter.create(1_000_000, 0.001, 1024);
+
+        // Assert
+        assertThat(filter.getBitCount()).isEqualTo(1024 * 8);
+    }
+}
@@ -0,0 +1,88 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DepartmentMembersCacheTest {
+
+    @Test
+    void getMemberIds_SameDepartmentInAnyCase_QueriesOnce() throws Exception {
+
+        // Arrange
+        var repository = new FakeRepository(Map.of("sales", new int[] {1, 4, 9}));
+        var cache = new DepartmentMembersCache(repository, new ExpiringCache<>(100, 60000));
+
+        // Act
+        var first = cache.getMemberIds("Sales");
+        var second = cache.getMemberIds("SALES");
+
+        // Assert
+        assertThat(first).isEqualTo(new int[] {1, 4, 9});
+        assertThat(second).isSameAs(first);
+        assertThat(repository.queries).containsExactly("Sales");
+    }
+
+    @Test
+    void getMemberIdsPage_SecondPage_ReturnsSlice() throws Exception {
+
+        // Arrange
+        var repository = new FakeRepository(Map.of("sales", new int[] {1, 4, 9, 12, 15}));
+        var cache = new DepartmentMembersCache(repository, new ExpiringCache<>(100, 60000));
+
+        // Act
+        var page = cache.getMemberIdsPage("sales", 2, 2);
+        var pastEnd = cache.getMemberIdsPage("sales", 10, 2);
+
+        // Assert
+        assertThat(page).containsExactly(9, 12);
+        assertThat(pastEnd).isEmpty();
+    }
+
+    @Test
+    void usersChanged_UserMovedDepartment_DropsOldAndNewDepartments() throws Exception {
+
+        // Arrange
+        var repository = new FakeRepository(Map.of("sales", new int[] {1, 4}, "hr", new int[] {2}, "it", new int[] {3}));
+        var cache = new DepartmentMembersCache(repository, new ExpiringCache<>(100, 60000));
+
+        cache.getMemberIds("sales");
+        cache.getMemberIds("hr");
+        cache.getMemberIds("it");
+        repository.queries.clear();
+
+        var moved = new DusklightUserEntity();
+        moved.setUserId(4);
+        moved.setDepartment("HR");
+
+        // Act
+        cache.usersChanged(List.of(moved));
+
+        cache.getMemberIds("sales");
+        cache.getMemberIds("hr");
+        cache.getMemberIds("it");
+
+        // Assert
+        assertThat(repository.queries).containsExactly("sales", "hr");
+    }
+
+    private static final class FakeRepository extends DusklightUserRepository {
+        private final Map<String, int[]> departments;
+        final List<String> queries = new ArrayList<>();
+
+        FakeRepository(Map<String, int[]> departments) {
+            super(null);
+            this.departments = departments;
+        }
+
+        @Override
+        public int[] findUserIdsByDepartment(String department) {
+            queries.add(department);
+            return departments.getOrDefault(department.toLowerCase(), new int[0]);
+        }
+    }
+}
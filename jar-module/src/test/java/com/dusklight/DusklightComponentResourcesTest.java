@@ -0,0 +1,44 @@
+package com.dusklight;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.keycloak.common.util.MultivaluedHashMap;
+import org.keycloak.component.ComponentModel;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.dusklight.DusklightUserStorageProviderFactory.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DusklightComponentResourcesTest {
+
+    @Test
+    void constructor_FailsPartWay_ClosesDataSource() {
+
+        // Arrange
+        ComponentModel componentModel = new ComponentModel();
+        MultivaluedHashMap<String, String> config = new MultivaluedHashMap<>();
+
+        config.add(CONFIG_HASHING_PARALLELISM, "2");
+        config.add(CONFIG_REHASH_ENABLED, "true");
+        // Not accepted by validateConfiguration, but the constructor must still clean up after it.
+        config.add(CONFIG_REHASH_MAX_PER_SECOND, "0");
+
+        componentModel.setId("component1");
+        componentModel.setConfig(config);
+
+        var closed = new AtomicBoolean();
+        var dataSource = new HikariDataSource() {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+
+        // Act & Assert
+        assertThatThrownBy(() -> new DusklightComponentResources(componentModel, dataSource))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(closed.get()).isTrue();
+    }
+}
@@ -0,0 +1,113 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DusklightMetricsExporterTest {
+
+    @Test
+    void export_RecordedCall_WritesCumulativeHistogram() {
+
+        // Arrange
+        var metrics = new DusklightMetrics();
+        metrics.recordCall(DusklightMetrics.SpiMethod.IS_VALID, System.nanoTime() - TimeUnit.SECONDS.toNanos(20));
+
+        // Act
+        var text = DusklightMetricsExporter.export(List.of(new DusklightMetricsExporter.Component("dusklight", metrics, Map.of())));
+
+        // Assert
+        assertThat(text).contains("# TYPE dusklight_spi_call_duration_seconds histogram\n");
+        assertThat(text).contains("dusklight_spi_call_duration_seconds_bucket{component=\"dusklight\",method=\"isValid\",le=\"10.0\"} 0\n");
+        assertThat(text).contains("dusklight_spi_call_duration_seconds_bucket{component=\"dusklight\",method=\"isValid\",le=\"+Inf\"} 1\n");
+        assertThat(text).contains("dusklight_spi_call_duration_seconds_count{component=\"dusklight\",method=\"isValid\"} 1\n");
+        assertThat(text).contains("dusklight_spi_call_duration_seconds_count{component=\"dusklight\",method=\"getUserByUsername\"} 0\n");
+    }
+
+    @Test
+    void export_QueriesAndCredentialChecks_WritesCounters() {
+
+        // Arrange
+        var metrics = new DusklightMetrics();
+        metrics.recordQuery(DusklightMetrics.Query.STREAM_USERS_PAGE, System.nanoTime(), 25);
+        metrics.recordQuery(DusklightMetrics.Query.STREAM_USERS_PAGE, System.nanoTime(), -1);
+        metrics.recordCredentialCheck(DusklightMetrics.CredentialCheckResult.VALID);
+        metrics.recordCredentialCheck(DusklightMetrics.CredentialCheckResult.INVALID);
+        metrics.recordCredentialCheck(DusklightMetrics.CredentialCheckResult.INVALID);
+
+        // Act
+        var text = DusklightMetricsExporter.export(List.of(new DusklightMetricsExporter.Component("dusklight", metrics, Map.of())));
+
+        // Assert
+        assertThat(text).contains("dusklight_db_query_rows_total{component=\"dusklight\",query=\"stream_users_page\"} 25\n");
+        assertThat(text).contains("dusklight_db_query_errors_total{component=\"dusklight\",query=\"stream_users_page\"} 1\n");
+        assertThat(text).contains("dusklight_db_query_duration_seconds_count{component=\"dusklight\",query=\"stream_users_page\"} 2\n");
+        assertThat(text).contains("dusklight_credential_checks_total{component=\"dusklight\",result=\"valid\"} 1\n");
+        assertThat(text).contains("dusklight_credential_checks_total{component=\"dusklight\",result=\"invalid\"} 2\n");
+    }
+
+    @Test
+    void export_Caches_WritesHitsAndMissesPerCache() {
+
+        // Arrange
+        var cache = new ExpiringCache<String, String>(10, 60000);
+        cache.put("alice", "Alice");
+        cache.get("alice");
+        cache.get("bob");
+
+        // Act
+        var text = DusklightMetricsExporter.export(List.of(
+                new DusklightMetricsExporter.Component("dusklight", new DusklightMetrics(), Map.of("user", cache))));
+
+        // Assert
+        assertThat(text).contains("dusklight_cache_hits_total{component=\"dusklight\",cache=\"user\"} 1\n");
+        assertThat(text).contains("dusklight_cache_misses_total{component=\"dusklight\",cache=\"user\"} 1\n");
+    }
+
+    @Test
+    void export_HashingExecutor_WritesQueueGaugesAndCounters() {
+
+        // Arrange
+        try (var executor = new PasswordHashingExecutor("test-hashing", 1, 4, 5000,
+                PasswordHashingExecutor.RejectionPolicy.REJECT)) {
+            executor.execute(null, () -> "hash");
+
+            // Act
+            var text = DusklightMetricsExporter.export(List.of(new DusklightMetricsExporter.Component(
+                    "dusklight", new DusklightMetrics(), Map.of(), executor)));
+
+            // Assert
+            assertThat(text).contains("# TYPE dusklight_hashing_queue_depth gauge\n");
+            assertThat(text).contains("dusklight_hashing_queue_depth{component=\"dusklight\"} 0\n");
+            assertThat(text).contains("dusklight_hashing_queue_wait_seconds_count{component=\"dusklight\"} 1\n");
+            assertThat(text).contains("dusklight_hashing_tasks_submitted_total{component=\"dusklight\"} 1\n");
+            assertThat(text).contains("dusklight_hashing_tasks_rejected_total{component=\"dusklight\"} 0\n");
+            assertThat(text).contains("dusklight_hashing_tasks_timed_out_total{component=\"dusklight\"} 0\n");
+            assertThat(text).contains("dusklight_hashing_tasks_deduplicated_total{component=\"dusklight\"} 0\n");
+        }
+    }
+
+    @Test
+    void export_NoHashingExecutor_WritesNoHashingSamples() {
+
+        // Act
+        var text = DusklightMetricsExporter.export(List.of(new DusklightMetricsExporter.Component("dusklight", new DusklightMetrics(), Map.of())));
+
+        // Assert
+        assertThat(text).doesNotContain("dusklight_hashing_queue_depth{");
+    }
+
+    @Test
+    void escape_QuotesBackslashesAndNewlines_AreEscaped() {
+
+        // Act
+        var escaped = DusklightMetricsExporter.escape("a\"b\\c\nd");
+
+        // Assert
+        assertThat(escaped).isEqualTo("a\\\"b\\\\c\\nd");
+    }
+}
@@ -0,0 +1,64 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DusklightPasswordCredentialTest {
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String FOOBAR_PASSWORD_HASH =
+            "kcBJWHhEpQT1PSo4J8ZOkh1r6PLens1OLZw+k09stYL+oaQAzuKIgnK74O5N89BhMWIKZ1t19FJD891pjwHIzg=="
+            + ".LiMWfPVrAvYKELcoYFMGBw==.27500";
+
+    @Test
+    void parse_ValidPasswordHash_MatchesOnlyCorrectPassword() {
+
+        // Act
+        var credential = DusklightPasswordCredential.parse(FOOBAR_PASSWORD_HASH, ALGORITHM);
+
+        // Assert
+        assertThat(credential).isNotNull();
+        assertThat(credential.getIterations()).isEqualTo(27500);
+        assertThat(credential.getHashSizeBytes()).isEqualTo(64);
+        assertThat(credential.matches("foobar")).isTrue();
+        assertThat(credential.matches("foobaz")).isFalse();
+    }
+
+    @Test
+    void parse_MalformedPasswordHash_ReturnsNull() {
+
+        // Act & Assert
+        assertThat(DusklightPasswordCredential.parse(null, ALGORITHM)).isNull();
+        assertThat(DusklightPasswordCredential.parse("", ALGORITHM)).isNull();
+        assertThat(DusklightPasswordCredential.parse("aGFzaA==.c2FsdA==", ALGORITHM)).isNull();
+        assertThat(DusklightPasswordCredential.parse("aGFzaA==.c2FsdA==.1000.1", ALGORITHM)).isNull();
+        assertThat(DusklightPasswordCredential.parse("aGFzaA==.c2FsdA==.many", ALGORITHM)).isNull();
+        assertThat(DusklightPasswordCredential.parse("not base64!.c2FsdA==.1000", ALGORITHM)).isNull();
+        assertThat(DusklightPasswordCredential.parse(".c2FsdA==.1000", ALGORITHM)).isNull();
+        assertThat(DusklightPasswordCredential.parse("aGFzaA==.c2FsdA==.0", ALGORITHM)).isNull();
+    }
+
+    @Test
+    void getPasswordCredential_ParsedOnceAndResetBySetPasswordHash() {
+
+        // Arrange
+        var passwordHashers = new PasswordHashers(
+                new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.PBKDF2_SHA256, 27500), List.of());
+        var user = new DusklightUserEntity();
+        user.setPasswordHash(FOOBAR_PASSWORD_HASH);
+
+        // Act
+        var first = user.getPasswordCredential(passwordHashers);
+        var second = user.getPasswordCredential(passwordHashers);
+        user.setPasswordHash("aGFzaA==.c2FsdA==.1000");
+        var afterUpdate = user.getPasswordCredential(passwordHashers);
+
+        // Assert
+        assertThat(second).isSameAs(first);
+        assertThat(afterUpdate).isNotSameAs(first);
+        assertThat(((DusklightPasswordCredential) afterUpdate).getIterations()).isEqualTo(1000);
+    }
+}
@@ -0,0 +1,42 @@
+package com.dusklight;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+
+class DusklightSynchronizationResultTest {
+
+    @Test
+    void getStatus_AfterSync_AppendsThroughput() {
+
+        // Arrange
+        DusklightSynchronizationResult result = new DusklightSynchronizationResult();
+
+        result.setAdded(1200);
+        result.setUpdated(300);
+        result.setUsersRead(1500);
+        result.setChunks(3);
+        result.setDurationMillis(500);
+
+        // Act
+        String status = result.getStatus();
+
+        // Assert
+        assertThat(result.getUsersPerSecond()).isEqualTo(3000);
+        assertThat(status).endsWith(", 1500 users read in 3 chunks, 500 ms (3000 users/s)");
+    }
+
+    @Test
+    void getUsersPerSecond_NoDuration_ReturnsZero() {
+
+        // Arrange
+        DusklightSynchronizationResult result = new DusklightSynchronizationResult();
+
+        result.setUsersRead(10);
+
+        // Act
+        long usersPerSecond = result.getUsersPerSecond();
+
+        // Assert
+        assertThat(usersPerSecond).isEqualTo(0);
+    }
+}
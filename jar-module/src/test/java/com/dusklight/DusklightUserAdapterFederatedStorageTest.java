@@ -0,0 +1,94 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.UserModel;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DusklightUserAdapterFederatedStorageTest {
+
+    @Test
+    void getAttribute_DepartmentInAnyCase_ReturnsDusklightValue() {
+
+        // Arrange
+        var adapter = new CountingAdapter(newUser());
+
+        // Act
+        var lowerCase = adapter.getAttribute("department");
+        var mixedCase = adapter.getAttribute("Department");
+
+        // Assert
+        assertThat(lowerCase).containsExactly("Sales");
+        assertThat(mixedCase).isSameAs(lowerCase);
+        assertThat(adapter.getFirstAttribute("DEPARTMENT")).isEqualTo("Sales");
+        assertThat(adapter.federatedLoads).isEqualTo(0);
+    }
+
+    @Test
+    void getAttributes_CalledRepeatedly_ReadsFederatedStorageOnce() {
+
+        // Arrange
+        var adapter = new CountingAdapter(newUser());
+
+        // Act
+        var first = adapter.getAttributes();
+        var second = adapter.getAttributes();
+        var locale = adapter.getFirstAttribute("locale");
+
+        // Assert
+        assertThat(second).isSameAs(first);
+        assertThat(adapter.federatedLoads).isEqualTo(1);
+        assertThat(locale).isEqualTo("fr");
+        assertThat(first.get(UserModel.FIRST_NAME)).containsExactly("Alice");
+        assertThat(first.get(UserModel.LAST_NAME)).containsExactly("Smith");
+        assertThat(first.get(DusklightUserAdapterFederatedStorage.DEPARTMENT_ATTRIBUTE)).containsExactly("Sales");
+    }
+
+    @Test
+    void getAttribute_UnknownAttribute_ReturnsEmptyList() {
+
+        // Arrange
+        var adapter = new CountingAdapter(newUser());
+
+        // Act
+        var values = adapter.getAttribute("nickname");
+
+        // Assert
+        assertThat(values).isEmpty();
+        assertThat(adapter.getFirstAttribute("nickname")).isNull();
+    }
+
+    private static DusklightUserEntity newUser() {
+        var user = new DusklightUserEntity();
+
+        user.setUserId(1);
+        user.setUsername("alice");
+        user.setFirstName("Alice");
+        user.setLastName("Smith");
+        user.setDepartment("Sales");
+
+        return user;
+    }
+
+    private static final class CountingAdapter extends DusklightUserAdapterFederatedStorage {
+        int federatedLoads;
+
+        CountingAdapter(DusklightUserEntity user) {
+            super(null, null, null, user);
+        }
+
+        @Override
+        protected Map<String, List<String>> loadFederatedAttributes() {
+            federatedLoads++;
+
+            Map<String, List<String>> attributes = new HashMap<>();
+            attributes.put("locale", List.of("fr"));
+            attributes.put(UserModel.USERNAME, List.of("alice"));
+            return attributes;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DusklightUserEntityTest {
+
+    @Test
+    void getFirstName_AuthProjection_LoadsProfileOnceAndKeepsIt() {
+
+        // Arrange
+        List<DusklightUserProjection> loads = new ArrayList<>();
+        var user = newUser(DusklightUserProjection.AUTH, (userId, projection) -> {
+            loads.add(projection);
+
+            var loaded = new DusklightUserEntity();
+            loaded.setUserId(userId);
+            loaded.setFirstName("Alice");
+            loaded.setLastName("Smith");
+            loaded.setDepartment("Sales");
+            return loaded;
+        });
+
+        // Act
+        var loadedBefore = user.isProfileLoaded();
+        var firstName = user.getFirstName();
+        var lastName = user.getLastName();
+        var department = user.getDepartment();
+
+        // Assert
+        assertThat(loadedBefore).isFalse();
+        assertThat(firstName).isEqualTo("Alice");
+        assertThat(lastName).isEqualTo("Smith");
+        assertThat(department).isEqualTo("Sales");
+        assertThat(loads).containsExactly(DusklightUserProjection.LIST);
+        assertThat(user.getPasswordHash()).isEqualTo("hash.salt.1000");
+    }
+
+    @Test
+    void getPasswordHash_ListProjection_LoadsHashOnce() {
+
+        // Arrange
+        List<DusklightUserProjection> loads = new ArrayList<>();
+        var user = newUser(DusklightUserProjection.LIST, (userId, projection) -> {
+            loads.add(projection);
+
+            var loaded = new DusklightUserEntity();
+            loaded.setUserId(userId);
+            loaded.setPasswordHash("loaded.salt.1000");
+            return loaded;
+        });
+
+        // Act
+        var passwordHash = user.getPasswordHash();
+        user.getPasswordHash();
+
+        // Assert
+        assertThat(passwordHash).isEqualTo("loaded.salt.1000");
+        assertThat(loads).containsExactly(DusklightUserProjection.AUTH);
+        assertThat(user.getFirstName()).isEqualTo("First");
+    }
+
+    @Test
+    void getFirstName_LoadFails_TriesAgainOnNextAccess() {
+
+        // Arrange
+        var attempts = new int[1];
+        var user = newUser(DusklightUserProjection.AUTH, (userId, projection) -> {
+            if (++attempts[0] == 1) {
+                throw new SQLException("Connection reset");
+            }
+
+            var loaded = new DusklightUserEntity();
+            loaded.setFirstName("Alice");
+            return loaded;
+        });
+
+        // Act
+        var first = user.getFirstName();
+        var second = user.getFirstName();
+
+        // Assert
+        assertThat(first).isNull();
+        assertThat(second).isEqualTo("Alice");
+        assertThat(attempts[0]).isEqualTo(2);
+    }
+
+    @Test
+    void getFirstName_UserDeleted_NotLoadedAgain() {
+
+        // Arrange
+        var attempts = new int[1];
+        var user = newUser(DusklightUserProjection.AUTH, (userId, projection) -> {
+            attempts[0]++;
+            return null;
+        });
+
+        // Act
+        user.getFirstName();
+        user.getLastName();
+
+        // Assert
+        assertThat(user.isProfileLoaded()).isTrue();
+        assertThat(attempts[0]).isEqualTo(1);
+    }
+
+    private static DusklightUserEntity newUser(DusklightUserProjection projection, DusklightUserEntity.LazyLoader loader) {
+        var user = new DusklightUserEntity();
+
+        user.setUserId(7);
+        user.setUsername("alice");
+
+        if (projection.includesPasswordHash()) {
+            user.setPasswordHash("hash.salt.1000");
+        }
+
+        if (projection.includesProfile()) {
+            user.setFirstName("First");
+            user.setLastName("Last");
+            user.setDepartment("Dept");
+        }
+
+        user.setLazyLoader(loader, projection);
+
+        return user;
+    }
+}
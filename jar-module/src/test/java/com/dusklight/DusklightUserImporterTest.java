@@ -0,0 +1,376 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.keycloak.storage.UserStorageProviderModel;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static com.dusklight.DusklightUserStorageProviderFactory.CONFIG_SYNC_ROW_VERSION;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DusklightUserImporterTest {
+
+    private static final String COMPONENT_ID = "dusklight";
+    private static final String REALM_ID = "realm";
+
+    private final FakeRepository repository = new FakeRepository();
+    private final FakeKeycloak keycloak = new FakeKeycloak();
+    private final UserStorageProviderModel model = newModel();
+
+    @Test
+    void importAll_ChunkFails_OtherChunksImportedAndWatermarkNotStored() {
+
+        // Arrange
+        repository.addUsers("alice", "bob", "carol", "dave", "erin");
+        keycloak.failingUsernames.add("carol");
+        var importer = new DusklightUserImporter(keycloak.sessionFactory(), REALM_ID, model, repository, 2, 2);
+
+        // Act
+        var result = importer.importAll();
+
+        // Assert
+        assertThat(result.getChunks()).isEqualTo(3);
+        assertThat(result.getUsersRead()).isEqualTo(5);
+        assertThat(result.getAdded()).isEqualTo(3);
+        assertThat(result.getFailed()).isEqualTo(2);
+        assertThat(keycloak.users.keySet()).containsExactlyInAnyOrder("alice", "bob", "erin");
+        assertThat(keycloak.rollbacks).isEqualTo(1);
+        assertThat(model.getConfig().getFirst(CONFIG_SYNC_ROW_VERSION)).isNull();
+        assertThat(keycloak.component.getConfig().getFirst(CONFIG_SYNC_ROW_VERSION)).isNull();
+    }
+
+    @Test
+    void importAll_AllChunksImported_StoresWatermarkBeforeScan() {
+
+        // Arrange
+        repository.addUsers("alice", "bob", "carol");
+        var importer = new DusklightUserImporter(keycloak.sessionFactory(), REALM_ID, model, repository, 2, 2);
+
+        // Act
+        var result = importer.importAll();
+
+        // Assert
+        assertThat(result.getAdded()).isEqualTo(3);
+        assertThat(result.getFailed()).isEqualTo(0);
+        assertThat(model.getConfig().getFirst(CONFIG_SYNC_ROW_VERSION)).isEqualTo("3");
+        assertThat(keycloak.component.getConfig().getFirst(CONFIG_SYNC_ROW_VERSION)).isEqualTo("3");
+    }
+
+    @Test
+    void importChanges_ChunkFails_WatermarkStopsBeforeFailedChunk() {
+
+        // Arrange
+        repository.addUsers("alice", "bob", "carol", "dave", "erin");
+        model.getConfig().putSingle(CONFIG_SYNC_ROW_VERSION, "0");
+        keycloak.failingUsernames.add("carol");
+        var importer = new DusklightUserImporter(keycloak.sessionFactory(), REALM_ID, model, repository, 2, 1);
+
+        // Act
+        var result = importer.importChanges();
+
+        // Assert
+        assertThat(result.getChunks()).isEqualTo(2);
+        assertThat(result.getAdded()).isEqualTo(2);
+        assertThat(result.getFailed()).isEqualTo(2);
+        assertThat(keycloak.users.keySet()).containsExactlyInAnyOrder("alice", "bob");
+        assertThat(model.getConfig().getFirst(CONFIG_SYNC_ROW_VERSION)).isEqualTo("2");
+        assertThat(keycloak.component.getConfig().getFirst(CONFIG_SYNC_ROW_VERSION)).isEqualTo("2");
+    }
+
+    @Test
+    void importChanges_AfterFailedChunk_RetriesFromStoredWatermark() {
+
+        // Arrange
+        repository.addUsers("alice", "bob", "carol", "dave", "erin");
+        model.getConfig().putSingle(CONFIG_SYNC_ROW_VERSION, "0");
+        keycloak.failingUsernames.add("carol");
+        var importer = new DusklightUserImporter(keycloak.sessionFactory(), REALM_ID, model, repository, 2, 1);
+        importer.importChanges();
+        keycloak.failingUsernames.clear();
+
+        // Act
+        var result = importer.importChanges();
+
+        // Assert
+        assertThat(result.getUsersRead()).isEqualTo(3);
+        assertThat(result.getAdded()).isEqualTo(3);
+        assertThat(result.getFailed()).isEqualTo(0);
+        assertThat(keycloak.users.keySet()).containsExactlyInAnyOrder("alice", "bob", "carol", "dave", "erin");
+        assertThat(model.getConfig().getFirst(CONFIG_SYNC_ROW_VERSION)).isEqualTo("5");
+    }
+
+    @Test
+    void importAll_UsernameOwnedByAnotherComponent_SkippedAndCountedAsFailed() {
+
+        // Arrange
+        repository.addUsers("alice", "bob", "carol");
+        keycloak.addLocalUser("alice", "other-component");
+        keycloak.addLocalUser("bob", COMPONENT_ID);
+        var importer = new DusklightUserImporter(keycloak.sessionFactory(), REALM_ID, model, repository, 10, 1);
+
+        // Act
+        var result = importer.importAll();
+
+        // Assert
+        assertThat(result.getAdded()).isEqualTo(1);
+        assertThat(result.getUpdated()).isEqualTo(1);
+        assertThat(result.getFailed()).isEqualTo(1);
+        assertThat(keycloak.users.get("alice").federationLink).isEqualTo("other-component");
+        assertThat(keycloak.users.get("alice").firstName).isNull();
+        assertThat(keycloak.users.get("bob").firstName).isEqualTo("Bob");
+        assertThat(keycloak.users.get("carol").federationLink).isEqualTo(COMPONENT_ID);
+        // Only a failed transaction holds the watermark back, not a skipped user.
+        assertThat(model.getConfig().getFirst(CONFIG_SYNC_ROW_VERSION)).isEqualTo("3");
+    }
+
+    private static UserStorageProviderModel newModel() {
+        var model = new UserStorageProviderModel();
+        model.setId(COMPONENT_ID);
+        return model;
+    }
+
+    /**
+     * Users table where each user's RowVersion equals its UserId.
+     */
+    private static final class FakeRepository extends DusklightUserRepository {
+        final TreeMap<Integer, DusklightUserEntity> users = new TreeMap<>();
+
+        FakeRepository() {
+            super(null);
+        }
+
+        void addUsers(String... usernames) {
+            for (var username : usernames) {
+                var user = new DusklightUserEntity();
+                user.setUserId(users.size() + 1);
+                user.setUsername(username);
+                user.setFirstName(username.substring(0, 1).toUpperCase() + username.substring(1));
+                user.setLastName("Smith");
+                user.setDepartment("Engineering");
+                users.put(user.getUserId(), user);
+            }
+        }
+
+        @Override
+        public List<DusklightUserEntity> findUsersAfter(int afterUserId, int maxResults) {
+            return users.tailMap(afterUserId, false).values().stream().limit(maxResults).collect(Collectors.toList());
+        }
+
+        @Override
+        public long getMinActiveRowVersion() {
+            return users.size() + 1;
+        }
+
+        @Override
+        public long forEachChangedUser(long afterRowVersion, int maxRows, Consumer<DusklightUserEntity> consumer) {
+            var changed = findUsersAfter((int) afterRowVersion, maxRows);
+            changed.forEach(consumer);
+            return changed.isEmpty() ? afterRowVersion : changed.get(changed.size() - 1).getUserId();
+        }
+    }
+
+    /**
+     * Keycloak local storage holding users by username.  Users added in a transaction that rolls back are removed
+     * again, and adding a username in failingUsernames throws.
+     */
+    private static final class FakeKeycloak {
+        final Map<String, LocalUser> users = new HashMap<>();
+        final Set<String> failingUsernames = new HashSet<>();
+        final ComponentModel component = new ComponentModel();
+        int rollbacks;
+
+        FakeKeycloak() {
+            component.setId(COMPONENT_ID);
+        }
+
+        void addLocalUser(String username, String federationLink) {
+            var user = new LocalUser();
+            user.federationLink = federationLink;
+            users.put(username, user);
+        }
+
+        KeycloakSessionFactory sessionFactory() {
+            return fake(KeycloakSessionFactory.class, new Object() {
+                public KeycloakSession create() {
+                    return newSession();
+                }
+            });
+        }
+
+        private KeycloakSession newSession() {
+            Set<String> added = new HashSet<>();
+            boolean[] active = new boolean[1];
+
+            var realm = fake(RealmModel.class, new Object() {
+                public ComponentModel getComponent(String id) {
+                    return COMPONENT_ID.equals(id) ? new ComponentModel(component) : null;
+                }
+
+                public void updateComponent(ComponentModel updated) {
+                    synchronized (FakeKeycloak.this) {
+                        component.setConfig(updated.getConfig());
+                    }
+                }
+            });
+
+            var realms = fake(RealmProvider.class, new Object() {
+                public RealmModel getRealm(String id) {
+                    return REALM_ID.equals(id) ? realm : null;
+                }
+            });
+
+            var userProvider = fake(UserProvider.class, new Object() {
+                public UserModel getUserByUsername(RealmModel realmModel, String username) {
+                    synchronized (FakeKeycloak.this) {
+                        var user = users.get(username);
+                        return user == null ? null : fake(UserModel.class, user);
+                    }
+                }
+
+                public UserModel addUser(RealmModel realmModel, String id, String username,
+                                         boolean addDefaultRoles, boolean addDefaultRequiredActions) {
+                    if (failingUsernames.contains(username)) {
+                        throw new IllegalStateException("Could not add " + username);
+                    }
+
+                    synchronized (FakeKeycloak.this) {
+                        var user = new LocalUser();
+                        users.put(username, user);
+                        added.add(username);
+                        return fake(UserModel.class, user);
+                    }
+                }
+            });
+
+            var transactionManager = fake(KeycloakTransactionManager.class, new Object() {
+                public void begin() {
+                    active[0] = true;
+                }
+
+                public void commit() {
+                    active[0] = false;
+                }
+
+                public void rollback() {
+                    active[0] = false;
+
+                    synchronized (FakeKeycloak.this) {
+                        rollbacks++;
+                        added.forEach(users::remove);
+                    }
+                }
+
+                public boolean isActive() {
+                    return active[0];
+                }
+
+                public boolean getRollbackOnly() {
+                    return false;
+                }
+            });
+
+            return fake(KeycloakSession.class, new Object() {
+                public KeycloakTransactionManager getTransactionManager() {
+                    return transactionManager;
+                }
+
+                public RealmProvider realms() {
+                    return realms;
+                }
+
+                public UserProvider userLocalStorage() {
+                    return userProvider;
+                }
+
+                public void close() {
+                }
+            });
+        }
+    }
+
+    /**
+     * The parts of a Keycloak user the importer sets.
+     */
+    public static final class LocalUser {
+        String federationLink;
+        String firstName;
+        String lastName;
+        boolean enabled;
+        final Map<String, String> attributes = new HashMap<>();
+
+        public String getFederationLink() {
+            return federationLink;
+        }
+
+        public void setFederationLink(String federationLink) {
+            this.federationLink = federationLink;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public void setFirstName(String firstName) {
+            this.firstName = firstName;
+        }
+
+        public void setLastName(String lastName) {
+            this.lastName = lastName;
+        }
+
+        public void setSingleAttribute(String name, String value) {
+            attributes.put(name, value);
+        }
+    }
+
+    /**
+     * Implements a Keycloak interface with the public methods of the handler that have the same name and number of
+     * parameters.  Any other method throws, so that a test notices when the importer starts using something new.
+     */
+    private static <T> T fake(Class<T> type, Object handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            var parameterCount = method.getParameterCount();
+
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName() + " fake";
+                }
+            }
+
+            var target = Arrays.stream(handler.getClass().getMethods())
+                    .filter(m -> m.getName().equals(method.getName()) && m.getParameterCount() == parameterCount)
+                    .findFirst()
+                    .orElseThrow(() -> new UnsupportedOperationException(type.getSimpleName() + "." + method.getName()));
+
+            try {
+                target.setAccessible(true);
+                return target.invoke(handler, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }));
+    }
+}
@@ -0,0 +1,114 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DusklightUserLookupTest {
+
+    private static final int THREADS = 16;
+
+    private final AtomicInteger queries = new AtomicInteger();
+    private DusklightUserLookup lookup;
+
+    private final DusklightUserRepository repository = new DusklightUserRepository(null) {
+        @Override
+        public DusklightUserEntity findByUsername(String username) {
+            queries.incrementAndGet();
+            awaitOtherLookups();
+
+            var user = new DusklightUserEntity();
+            user.setUsername("service-account");
+            return user;
+        }
+    };
+
+    @Test
+    void findByUsername_ParallelLookupsForSameUser_OneQuery() throws Exception {
+
+        // Arrange
+        // Caching disabled, so only coalescing can prevent the extra queries.
+        lookup = new DusklightUserLookup(repository, new ExpiringCache<>(0, 60000));
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        var start = new CountDownLatch(1);
+        List<Future<DusklightUserEntity>> results = new ArrayList<>();
+
+        // Act
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                var username = i % 2 == 0 ? "service-account" : "Service-Account";
+
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return lookup.findByUsername(username);
+                }));
+            }
+
+            start.countDown();
+
+            // Assert
+            var first = results.get(0).get(10, TimeUnit.SECONDS);
+
+            for (var result : results) {
+                assertThat(result.get(10, TimeUnit.SECONDS)).isSameAs(first);
+            }
+
+            assertThat(queries.get()).isEqualTo(1);
+            assertThat(lookup.getCoalescedLookupCount()).isEqualTo(THREADS - 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void findByUsername_InvalidatedDuringQuery_StaleUserNotCached() {
+
+        // Arrange
+        var reads = new AtomicInteger();
+        var racingRepository = new DusklightUserRepository(null) {
+            @Override
+            public DusklightUserEntity findByUsername(String username) {
+                var user = new DusklightUserEntity();
+                user.setUsername("alice");
+                user.setPasswordHash(reads.getAndIncrement() == 0 ? "old-hash" : "new-hash");
+
+                if (user.getPasswordHash().equals("old-hash")) {
+                    // The password changes after the row was read but before the lookup caches it.
+                    lookup.invalidate("alice");
+                }
+
+                return user;
+            }
+        };
+        lookup = new DusklightUserLookup(racingRepository, new ExpiringCache<>(100, 60000));
+
+        // Act
+        var duringChange = lookup.findByUsername("alice");
+        var afterChange = lookup.findByUsername("alice");
+
+        // Assert
+        assertThat(duringChange.getPasswordHash()).isEqualTo("old-hash");
+        assertThat(afterChange.getPasswordHash()).isEqualTo("new-hash");
+        assertThat(reads.get()).isEqualTo(2);
+    }
+
+    /**
+     * Holds the query open until every other thread is waiting for it, so the test doesn't depend on timing.
+     */
+    private void awaitOtherLookups() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (lookup.getCoalescedLookupCount() < THREADS - 1 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.dusklight;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DusklightUserRepositoryTest {
+
+    private HikariDataSource dataSource;
+    private DusklightMetrics metrics;
+    private DusklightUserRepository repository;
+
+    @BeforeEach
+    void createDatabase() throws SQLException {
+        var config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MSSQLServer;DB_CLOSE_DELAY=-1");
+        config.setMaximumPoolSize(2);
+        dataSource = new HikariDataSource(config);
+
+        try (var connection = dataSource.getConnection(); var statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE Users (UserId INT PRIMARY KEY, Username NVARCHAR(100) NOT NULL, "
+                    + "PasswordHash NVARCHAR(256) NOT NULL, FirstName NVARCHAR(100) NOT NULL, LastName NVARCHAR(100) NOT NULL, "
+                    + "Department NVARCHAR(100) NOT NULL)");
+            statement.execute("INSERT INTO Users VALUES "
+                    + "(1, 'alice', 'hash', 'Alice', 'Foo', 'Marketing'), "
+                    + "(2, 'bob', 'hash', 'Bob', 'Bar', 'Accounting'), "
+                    + "(3, 'carol', 'hash', 'Carol', 'Baz', 'Marketing'), "
+                    + "(4, 'dave', 'hash', 'Dave', 'Qux', 'Sales'), "
+                    + "(5, 'erin', 'hash', 'Erin', 'Quux', 'Sales')");
+        }
+
+        metrics = new DusklightMetrics();
+        repository = new DusklightUserRepository(dataSource, DusklightUserRepository.DEFAULT_FETCH_SIZE, false, metrics);
+    }
+
+    @AfterEach
+    void closeDatabase() {
+        dataSource.close();
+    }
+
+    @Test
+    void likePattern_ContainsSearch_WrapsAndEscapesWildcards() {
+
+        // Arrange
+        var repository = new DusklightUserRepository(null, DusklightUserRepository.DEFAULT_FETCH_SIZE, false);
+
+        // Act
+        var pattern = repository.likePattern("50%_off[1]");
+
+        // Assert
+        assertThat(pattern).isEqualTo("%50[%][_]off[[]1]%");
+    }
+
+    @Test
+    void likePattern_PrefixSearch_OnlyTrailingWildcard() {
+
+        // Arrange
+        var repository = new DusklightUserRepository(null, DusklightUserRepository.DEFAULT_FETCH_SIZE, true);
+
+        // Act
+        var pattern = repository.likePattern("ali");
+
+        // Assert
+        assertThat(pattern).isEqualTo("ali%");
+    }
+
+    @Test
+    void buildUsersPageQuery_FirstPage_UsesTop() {
+
+        // Act
+        var query = repository.buildUsersPageQuery(null, false, null, 0, 2);
+
+        // Assert
+        assertThat(query.sql).startsWith("SELECT TOP (?)").doesNotContain("OFFSET");
+        assertThat(query.params).containsExactly(2);
+    }
+
+    @Test
+    void buildUsersPageQuery_LaterPage_UsesOffsetFetch() {
+
+        // Act
+        var query = repository.buildUsersPageQuery("al", true, null, 4, 2);
+
+        // Assert
+        assertThat(query.sql).doesNotContain("TOP").endsWith("ORDER BY UserId\nOFFSET ? ROWS FETCH NEXT ? ROWS ONLY");
+        assertThat(query.params).containsExactly("%al%", 4, 2);
+    }
+
+    @Test
+    void buildUsersPageQuery_Keyset_SeeksWithTop() {
+
+        // Act
+        var query = repository.buildUsersPageQuery(null, false, 3, 0, 2);
+
+        // Assert
+        assertThat(query.sql).startsWith("SELECT TOP (?)").contains("AND UserId > ?").doesNotContain("OFFSET");
+        assertThat(query.params).containsExactly(2, 3);
+    }
+
+    @Test
+    void streamUsersPage_FirstAndLaterPages_ReturnRequestedUsers() {
+
+        // Act
+        var firstPage = page(null, false, null, 0, 2);
+        var secondPage = page(null, false, null, 2, 2);
+        var lastPage = page(null, false, null, 4, 2);
+        var pastTheEnd = page(null, false, null, 6, 2);
+
+        // Assert
+        assertThat(firstPage).containsExactly("alice", "bob");
+        assertThat(secondPage).containsExactly("carol", "dave");
+        assertThat(lastPage).containsExactly("erin");
+        assertThat(pastTheEnd).isEmpty();
+    }
+
+    @Test
+    void streamUsersPage_AfterUserId_SeeksPastPreviousPage() {
+
+        // Act
+        var secondPage = page(null, false, 2, 0, 2);
+        var lastPage = page(null, false, 4, 0, 2);
+        var pastTheEnd = page(null, false, 5, 0, 2);
+
+        // Assert
+        assertThat(secondPage).containsExactly("carol", "dave");
+        assertThat(lastPage).containsExactly("erin");
+        assertThat(pastTheEnd).isEmpty();
+        assertThat(activeConnections()).isZero();
+    }
+
+    @Test
+    void streamUsersPage_ContainsSearchAfterUserId_ReturnsMatchesAfterUserId() {
+
+        // Act
+        var users = page("a", true, 1, 0, 10);
+
+        // Assert
+        assertThat(users).containsExactly("carol", "dave");
+    }
+
+    @Test
+    void streamUsersPage_Exhausted_ReleasesConnection() {
+
+        // Arrange
+        var stream = repository.streamUsersPage(null, false, null, 1, 3);
+
+        // Act
+        var users = stream.collect(Collectors.toList());
+
+        // Assert
+        assertThat(usernames(users)).containsExactly("bob", "carol", "dave");
+        assertThat(activeConnections()).isZero();
+        assertThat(metrics.getQueryRowCount(DusklightMetrics.Query.STREAM_USERS_PAGE)).isEqualTo(3);
+    }
+
+    @Test
+    void streamUsersPage_ClosedEarly_ReleasesConnection() {
+
+        // Arrange
+        var stream = repository.streamUsersPage(null, false, null, 0, 5);
+
+        // Act
+        var first = stream.findFirst();
+        var activeBeforeClose = activeConnections();
+        stream.close();
+
+        // Assert
+        assertThat(first.get().getUsername()).isEqualTo("alice");
+        assertThat(activeBeforeClose).isEqualTo(1);
+        assertThat(activeConnections()).isZero();
+        assertThat(metrics.getQueryRowCount(DusklightMetrics.Query.STREAM_USERS_PAGE)).isEqualTo(1);
+    }
+
+    @Test
+    void streamUsersPage_ConsumerThrows_ReleasesConnectionWithoutClose() {
+
+        // Arrange
+        var stream = repository.streamUsersPage(null, false, null, 0, 5);
+
+        // Act & Assert
+        assertThat(activeConnections()).isEqualTo(1);
+        assertThatThrownBy(() -> stream.forEach(user -> {
+            throw new IllegalStateException("Consumer failed");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(activeConnections()).isZero();
+    }
+
+    @Test
+    void streamUsersPage_QueryFails_ReturnsEmptyStreamAndReleasesConnection() throws SQLException {
+
+        // Arrange
+        try (var connection = dataSource.getConnection(); var statement = connection.createStatement()) {
+            statement.execute("DROP TABLE Users");
+        }
+
+        // Act
+        var users = repository.streamUsersPage(null, false, null, 0, 5).collect(Collectors.toList());
+
+        // Assert
+        assertThat(users).isEmpty();
+        assertThat(activeConnections()).isZero();
+        assertThat(metrics.getQueryErrorCount(DusklightMetrics.Query.STREAM_USERS_PAGE)).isEqualTo(1);
+    }
+
+    private int activeConnections() {
+        return dataSource.getHikariPoolMXBean().getActiveConnections();
+    }
+
+    private List<String> page(String username, boolean useLike, Integer afterUserId, int firstResult, int maxResults) {
+        try (var users = repository.streamUsersPage(username, useLike, afterUserId, firstResult, maxResults)) {
+            return users.map(DusklightUserEntity::getUsername).collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> usernames(List<DusklightUserEntity> users) {
+        return users.stream().map(DusklightUserEntity::getUsername).collect(Collectors.toList());
+    }
+}
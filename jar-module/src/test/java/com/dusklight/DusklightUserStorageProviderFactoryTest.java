@@ -2,9 +2,17 @@ package com.dusklight;
 
 import static com.dusklight.DusklightUserStorageProviderFactory.*;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.zaxxer.hikari.HikariDataSource;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
 import org.junit.jupiter.api.Test;
 import org.keycloak.common.util.MultivaluedHashMap;
 import org.keycloak.component.ComponentModel;
+import org.keycloak.component.ComponentValidationException;
 
 class DusklightUserStorageProviderFactoryTest {
 
@@ -85,4 +93,209 @@ class DusklightUserStorageProviderFactoryTest {
         // Assert
         assertThat(connectionString).isEqualTo("jdbc:sqlserver://localhost:1433;instanceName=instance1;databaseName=dbname1;user=user1;password=password1;applicationName=DusklightKeycloakProvider");
     }
+
+    @Test
+    void getConfigInt_MissingOrBlankSetting_ReturnsDefault() {
+
+        // Arrange
+        ComponentModel componentModel = new ComponentModel();
+        MultivaluedHashMap<String, String> config = new MultivaluedHashMap<>();
+
+        config.add(CONFIG_POOL_MIN_IDLE, " ");
+
+        componentModel.setConfig(config);
+
+        // Act
+        int minIdle = getConfigInt(componentModel, CONFIG_POOL_MIN_IDLE, 2);
+        int maxSize = getConfigInt(componentModel, CONFIG_POOL_MAX_SIZE, 10);
+
+        // Assert
+        assertThat(minIdle).isEqualTo(2);
+        assertThat(maxSize).isEqualTo(10);
+    }
+
+    @Test
+    void getConfigLong_WithSetting_ReturnsParsedValue() {
+
+        // Arrange
+        ComponentModel componentModel = new ComponentModel();
+        MultivaluedHashMap<String, String> config = new MultivaluedHashMap<>();
+
+        config.add(CONFIG_POOL_LEAK_DETECTION_MS, "60000");
+
+        componentModel.setConfig(config);
+
+        // Act
+        long leakDetection = getConfigLong(componentModel, CONFIG_POOL_LEAK_DETECTION_MS, 0);
+
+        // Assert
+        assertThat(leakDetection).isEqualTo(60000);
+    }
+
+    @Test
+    void getConfigDouble_WithSetting_ReturnsParsedValue() {
+
+        // Arrange
+        ComponentModel componentModel = new ComponentModel();
+        MultivaluedHashMap<String, String> config = new MultivaluedHashMap<>();
+
+        config.add(CONFIG_NEGATIVE_CACHE_FALSE_POSITIVE_RATE, " 0.001 ");
+
+        componentModel.setConfig(config);
+
+        // Act
+        double falsePositiveRate = getConfigDouble(componentModel, CONFIG_NEGATIVE_CACHE_FALSE_POSITIVE_RATE, 0.01);
+
+        // Assert
+        assertThat(falsePositiveRate).isEqualTo(0.001);
+    }
+
+    @Test
+    void validateConfiguration_Pbkdf2MinimumAboveMaximum_Rejected() {
+
+        // Arrange
+        ComponentModel componentModel = new ComponentModel();
+        MultivaluedHashMap<String, String> config = new MultivaluedHashMap<>();
+
+        config.add(CONFIG_PBKDF2_MIN_ITERATIONS, "200000");
+        config.add(CONFIG_PBKDF2_MAX_ITERATIONS, "100000");
+
+        componentModel.setConfig(config);
+
+        DusklightUserStorageProviderFactory factory = new DusklightUserStorageProviderFactory();
+
+        // Act & Assert
+        assertThatThrownBy(() -> factory.validateConfiguration(null, null, componentModel))
+                .isInstanceOf(ComponentValidationException.class)
+                .hasMessageContaining("PBKDF2");
+    }
+
+    @Test
+    void validateConfiguration_RehashRateNotPositive_Rejected() {
+
+        // Arrange
+        ComponentModel componentModel = new ComponentModel();
+        MultivaluedHashMap<String, String> config = new MultivaluedHashMap<>();
+
+        config.add(CONFIG_REHASH_MAX_PER_SECOND, "0");
+
+        componentModel.setConfig(config);
+
+        DusklightUserStorageProviderFactory factory = new DusklightUserStorageProviderFactory();
+
+        // Act & Assert
+        assertThatThrownBy(() -> factory.validateConfiguration(null, null, componentModel))
+                .isInstanceOf(ComponentValidationException.class)
+                .hasMessageContaining("Rehash");
+    }
+
+    @Test
+    void validateConfiguration_UnknownPasswordHashAlgorithm_Rejected() {
+
+        // Arrange
+        ComponentModel componentModel = new ComponentModel();
+        MultivaluedHashMap<String, String> config = new MultivaluedHashMap<>();
+
+        config.add(CONFIG_PASSWORD_HASH_ALGORITHM, "argon2i");
+
+        componentModel.setConfig(config);
+
+        DusklightUserStorageProviderFactory factory = new DusklightUserStorageProviderFactory();
+
+        // Act & Assert
+        assertThatThrownBy(() -> factory.validateConfiguration(null, null, componentModel))
+                .isInstanceOf(ComponentValidationException.class)
+                .hasMessageContaining("argon2i");
+    }
+
+    @Test
+    void validateConfiguration_Argon2MemoryBelowMinimumForLanes_Rejected() {
+
+        // Arrange
+        ComponentModel componentModel = new ComponentModel();
+        MultivaluedHashMap<String, String> config = new MultivaluedHashMap<>();
+
+        config.add(CONFIG_PASSWORD_HASH_ALGORITHM, Argon2PasswordHasher.ARGON2ID);
+        config.add(CONFIG_ARGON2_MEMORY_KIB, "16");
+        config.add(CONFIG_ARGON2_PARALLELISM, "4");
+
+        componentModel.setConfig(config);
+
+        DusklightUserStorageProviderFactory factory = new DusklightUserStorageProviderFactory();
+
+        // Act & Assert
+        assertThatThrownBy(() -> factory.validateConfiguration(null, null, componentModel))
+                .isInstanceOf(ComponentValidationException.class)
+                .hasMessageContaining("Argon2");
+    }
+
+    @Test
+    void getComponentResources_ConfigChanged_OldResourcesClosedAfterDelay() throws Exception {
+
+        // Arrange
+        ComponentModel componentModel = new ComponentModel();
+        MultivaluedHashMap<String, String> config = new MultivaluedHashMap<>();
+
+        config.add(CONFIG_USER_CACHE_TTL_MS, "60000");
+
+        componentModel.setId("component1");
+        componentModel.setConfig(config);
+
+        Set<DataSource> closedDataSources = ConcurrentHashMap.newKeySet();
+        DusklightUserStorageProviderFactory factory = factoryRecordingClosedDataSources(200, closedDataSources);
+        var oldResources = factory.getComponentResources(componentModel);
+
+        // Act
+        config.putSingle(CONFIG_USER_CACHE_TTL_MS, "30000");
+        var newResources = factory.getComponentResources(componentModel);
+        var closedRightAway = closedDataSources.contains(oldResources.getDataSource());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (!closedDataSources.contains(oldResources.getDataSource()) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Assert
+        assertThat(newResources).isNotSameAs(oldResources);
+        assertThat(factory.getComponentResources(componentModel)).isSameAs(newResources);
+        assertThat(closedRightAway).isFalse();
+        assertThat(closedDataSources).containsExactly(oldResources.getDataSource());
+
+        factory.close();
+    }
+
+    @Test
+    void close_ResourcesWaitingToBeClosed_ClosedRightAway() {
+
+        // Arrange
+        ComponentModel componentModel = new ComponentModel();
+        componentModel.setId("component1");
+        componentModel.setConfig(new MultivaluedHashMap<>());
+
+        Set<DataSource> closedDataSources = ConcurrentHashMap.newKeySet();
+        DusklightUserStorageProviderFactory factory = factoryRecordingClosedDataSources(60000, closedDataSources);
+        var resources = factory.getComponentResources(componentModel);
+        factory.preRemove(null, null, componentModel);
+
+        // Act
+        factory.close();
+
+        // Assert
+        assertThat(closedDataSources).containsExactly(resources.getDataSource());
+    }
+
+    private static DusklightUserStorageProviderFactory factoryRecordingClosedDataSources(long closeDelayMillis, Set<DataSource> closedDataSources) {
+        return new DusklightUserStorageProviderFactory(closeDelayMillis) {
+            @Override
+            protected DusklightComponentResources buildComponentResources(ComponentModel model) {
+                return new DusklightComponentResources(model, new HikariDataSource() {
+                    @Override
+                    public void close() {
+                        closedDataSources.add(this);
+                    }
+                });
+            }
+        };
+    }
 }
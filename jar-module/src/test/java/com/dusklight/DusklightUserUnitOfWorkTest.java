@@ -0,0 +1,245 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakTransaction;
+import org.keycloak.models.KeycloakTransactionManager;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DusklightUserUnitOfWorkTest {
+
+    @Test
+    void commit_SeveralSettersOnTwoUsers_WritesOnceWithChangedColumnsOnly() {
+
+        // Arrange
+        var repository = new FakeRepository();
+        var transactionManager = new FakeTransactionManager();
+        List<DusklightUserEntity> notified = new ArrayList<>();
+        var unitOfWork = new DusklightUserUnitOfWork(transactionManager, repository, notified::addAll);
+
+        var alice = new DusklightUserAdapterFederatedStorage(null, null, null, newUser(1, "alice"), unitOfWork);
+        var bob = new DusklightUserAdapterFederatedStorage(null, null, null, newUser(2, "bob"), unitOfWork);
+
+        // Act
+        alice.setFirstName("Alicia");
+        alice.setSingleAttribute("Department", "Sales");
+        bob.setLastName("Baker");
+
+        var writesBeforeCommit = repository.writes.size();
+        transactionManager.prepared.forEach(KeycloakTransaction::commit);
+
+        // Assert
+        assertThat(writesBeforeCommit).isEqualTo(0);
+        assertThat(transactionManager.prepared).hasSize(1);
+        assertThat(repository.writes).hasSize(1);
+        assertThat(repository.writes.get(0)).isEqualTo(Map.of(
+                1, Map.of(DusklightUserColumn.FIRST_NAME, "Alicia", DusklightUserColumn.DEPARTMENT, "Sales"),
+                2, Map.of(DusklightUserColumn.LAST_NAME, "Baker")));
+        assertThat(notified).extracting(DusklightUserEntity::getFirstName).containsExactly("Alicia", "Bob");
+        assertThat(alice.getFirstName()).isEqualTo("Alicia");
+        assertThat(unitOfWork.getPendingUserCount()).isEqualTo(0);
+    }
+
+    @Test
+    void commit_TwoAdaptersForSameUser_WritesChangesOfBoth() {
+
+        // Arrange
+        var repository = new FakeRepository();
+        var transactionManager = new FakeTransactionManager();
+        List<DusklightUserEntity> notified = new ArrayList<>();
+        var unitOfWork = new DusklightUserUnitOfWork(transactionManager, repository, notified::addAll);
+
+        // As from getUserById and getUserByUsername in the same session.
+        var byId = new DusklightUserAdapterFederatedStorage(null, null, null, newUser(1, "alice"), unitOfWork);
+        var byUsername = new DusklightUserAdapterFederatedStorage(null, null, null, newUser(1, "alice"), unitOfWork);
+
+        // Act
+        byId.setFirstName("Alicia");
+        byUsername.setLastName("Baker");
+        byUsername.setFirstName("Ali");
+        transactionManager.prepared.forEach(KeycloakTransaction::commit);
+
+        // Assert
+        assertThat(repository.writes).hasSize(1);
+        assertThat(repository.writes.get(0)).isEqualTo(Map.of(
+                1, Map.of(DusklightUserColumn.FIRST_NAME, "Ali", DusklightUserColumn.LAST_NAME, "Baker")));
+        assertThat(notified).hasSize(1);
+        assertThat(notified.get(0).getFirstName()).isEqualTo("Ali");
+        assertThat(notified.get(0).getLastName()).isEqualTo("Baker");
+        assertThat(unitOfWork.getPendingUserCount()).isEqualTo(0);
+    }
+
+    @Test
+    void rollback_TwoAdaptersForSameUser_DiscardsChangesOfBoth() {
+
+        // Arrange
+        var transactionManager = new FakeTransactionManager();
+        var unitOfWork = new DusklightUserUnitOfWork(transactionManager, new FakeRepository(), null);
+        var byId = new DusklightUserAdapterFederatedStorage(null, null, null, newUser(1, "alice"), unitOfWork);
+        var byUsername = new DusklightUserAdapterFederatedStorage(null, null, null, newUser(1, "alice"), unitOfWork);
+
+        byId.setFirstName("Alicia");
+        byUsername.setLastName("Baker");
+
+        // Act
+        transactionManager.prepared.forEach(KeycloakTransaction::rollback);
+
+        // Assert
+        assertThat(byId.getFirstName()).isEqualTo("Alice");
+        assertThat(byUsername.getLastName()).isEqualTo("Smith");
+        assertThat(unitOfWork.getPendingUserCount()).isEqualTo(0);
+    }
+
+    @Test
+    void rollback_AfterSetters_DiscardsChanges() {
+
+        // Arrange
+        var repository = new FakeRepository();
+        var transactionManager = new FakeTransactionManager();
+        var unitOfWork = new DusklightUserUnitOfWork(transactionManager, repository, null);
+        var alice = new DusklightUserAdapterFederatedStorage(null, null, null, newUser(1, "alice"), unitOfWork);
+
+        alice.setFirstName("Alicia");
+
+        // Act
+        transactionManager.prepared.forEach(KeycloakTransaction::rollback);
+
+        // Assert
+        assertThat(repository.writes).isEmpty();
+        assertThat(alice.getFirstName()).isEqualTo("Alice");
+        assertThat(alice.getAttribute("firstName")).containsExactly("Alice");
+    }
+
+    @Test
+    void commit_WriteFails_ThrowsAndDiscardsChanges() {
+
+        // Arrange
+        var repository = new FakeRepository();
+        repository.failure = new SQLException("String or binary data would be truncated");
+
+        var transactionManager = new FakeTransactionManager();
+        var unitOfWork = new DusklightUserUnitOfWork(transactionManager, repository, null);
+        var alice = new DusklightUserAdapterFederatedStorage(null, null, null, newUser(1, "alice"), unitOfWork);
+
+        alice.setDepartment("Sales");
+
+        // Act
+        RuntimeException thrown = null;
+
+        try {
+            unitOfWork.commit();
+        } catch (RuntimeException ex) {
+            thrown = ex;
+        }
+
+        // Assert
+        assertThat(thrown).isNotNull();
+        assertThat(alice.getDepartment()).isEqualTo("Engineering");
+        assertThat(unitOfWork.getPendingUserCount()).isEqualTo(0);
+    }
+
+    @Test
+    void setFirstName_SameValue_DoesNotJoinTransaction() {
+
+        // Arrange
+        var transactionManager = new FakeTransactionManager();
+        var unitOfWork = new DusklightUserUnitOfWork(transactionManager, new FakeRepository(), null);
+        var alice = new DusklightUserAdapterFederatedStorage(null, null, null, newUser(1, "alice"), unitOfWork);
+
+        // Act
+        alice.setFirstName("Alice");
+
+        // Assert
+        assertThat(transactionManager.prepared).isEmpty();
+        assertThat(unitOfWork.getPendingUserCount()).isEqualTo(0);
+    }
+
+    private static DusklightUserEntity newUser(int userId, String username) {
+        var user = new DusklightUserEntity();
+
+        user.setUserId(userId);
+        user.setUsername(username);
+        user.setFirstName(username.substring(0, 1).toUpperCase() + username.substring(1));
+        user.setLastName("Smith");
+        user.setDepartment("Engineering");
+
+        return user;
+    }
+
+    private static final class FakeRepository extends DusklightUserRepository {
+        final List<Map<Integer, Map<DusklightUserColumn, String>>> writes = new ArrayList<>();
+        SQLException failure;
+
+        FakeRepository() {
+            super(null);
+        }
+
+        @Override
+        public int updateUsers(Map<Integer, ? extends Map<DusklightUserColumn, String>> changes) throws SQLException {
+            if (failure != null) {
+                throw failure;
+            }
+
+            writes.add(Map.copyOf(changes));
+            return changes.size();
+        }
+    }
+
+    private static final class FakeTransactionManager implements KeycloakTransactionManager {
+        final List<KeycloakTransaction> prepared = new ArrayList<>();
+
+        @Override
+        public void enlistPrepare(KeycloakTransaction transaction) {
+            prepared.add(transaction);
+            transaction.begin();
+        }
+
+        @Override
+        public boolean isActive() {
+            return true;
+        }
+
+        @Override
+        public JTAPolicy getJTAPolicy() {
+            return JTAPolicy.REQUIRES_NEW;
+        }
+
+        @Override
+        public void setJTAPolicy(JTAPolicy policy) {
+        }
+
+        @Override
+        public void enlist(KeycloakTransaction transaction) {
+        }
+
+        @Override
+        public void enlistAfterCompletion(KeycloakTransaction transaction) {
+        }
+
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void rollback() {
+        }
+
+        @Override
+        public void setRollbackOnly() {
+        }
+
+        @Override
+        public boolean getRollbackOnly() {
+            return false;
+        }
+    }
+}
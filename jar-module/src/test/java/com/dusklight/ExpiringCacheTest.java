@@ -0,0 +1,110 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExpiringCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void get_BeforeTtl_ReturnsValueAndCountsHit() {
+
+        // Arrange
+        var cache = new ExpiringCache<String, String>(10, 1000, 0, null, clock::get);
+        cache.put("alice", "Alice");
+
+        // Act
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        var value = cache.get("alice");
+
+        // Assert
+        assertThat(value).isEqualTo("Alice");
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isZero();
+    }
+
+    @Test
+    void get_AfterTtl_ReturnsNullAndCountsMissAndEviction() {
+
+        // Arrange
+        var cache = new ExpiringCache<String, String>(10, 1000, 0, null, clock::get);
+        cache.put("alice", "Alice");
+
+        // Act
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        var value = cache.get("alice");
+
+        // Assert
+        assertThat(value).isNull();
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void put_MoreThanMaxEntries_StaysWithinBound() {
+
+        // Arrange
+        var cache = new ExpiringCache<Integer, String>(100, 60000, 0, null, clock::get);
+
+        // Act
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, "user" + i);
+        }
+
+        // Assert
+        assertThat(cache.size()).isLessThanOrEqualTo(100);
+        assertThat(cache.getEvictionCount()).isGreaterThanOrEqualTo(900);
+    }
+
+    @Test
+    void get_OlderThanRefreshAhead_ReturnsCachedValueAndReloads() {
+
+        // Arrange
+        var cache = new ExpiringCache<String, String>(10, 1000, 500, Runnable::run, clock::get);
+        cache.put("alice", "Alice");
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+
+        // Act
+        var first = cache.get("alice", key -> "Alice (reloaded)");
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        var second = cache.get("alice");
+
+        // Assert
+        assertThat(first).isEqualTo("Alice");
+        assertThat(second).isEqualTo("Alice (reloaded)");
+    }
+
+    @Test
+    void invalidate_RemovesEntry() {
+
+        // Arrange
+        var cache = new ExpiringCache<String, String>(10, 1000, 0, null, clock::get);
+        cache.put("alice", "Alice");
+
+        // Act
+        cache.invalidate("alice");
+
+        // Assert
+        assertThat(cache.get("alice")).isNull();
+    }
+
+    @Test
+    void put_DisabledCache_StoresNothing() {
+
+        // Arrange
+        var cache = new ExpiringCache<String, String>(0, 1000, 0, null, clock::get);
+
+        // Act
+        cache.put("alice", "Alice");
+
+        // Assert
+        assertThat(cache.get("alice")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+}
@@ -0,0 +1,36 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeysetPageCursorsTest {
+
+    @Test
+    void getSeekAfter_NextSequentialPage_ReturnsLastUserIdOfServedPage() {
+
+        // Arrange
+        var cursors = new KeysetPageCursors(100, 60000);
+        cursors.pageServed("ali", true, 20, 10, 1234);
+
+        // Act
+        var seekAfter = cursors.getSeekAfter("ali", true, 30, 10);
+
+        // Assert
+        assertThat(seekAfter).isEqualTo(1234);
+    }
+
+    @Test
+    void getSeekAfter_NonSequentialPageOrDifferentSearch_ReturnsNull() {
+
+        // Arrange
+        var cursors = new KeysetPageCursors(100, 60000);
+        cursors.pageServed("ali", true, 20, 10, 1234);
+
+        // Act & Assert
+        assertThat(cursors.getSeekAfter("ali", true, 40, 10)).isNull();
+        assertThat(cursors.getSeekAfter("ali", true, 30, 20)).isNull();
+        assertThat(cursors.getSeekAfter("bob", true, 30, 10)).isNull();
+        assertThat(cursors.getSeekAfter(null, false, 30, 10)).isNull();
+    }
+}
@@ -0,0 +1,59 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LatencyHistogramTest {
+
+    @Test
+    void record_DurationOnBound_CountsInThatBucket() {
+
+        // Arrange
+        var histogram = new LatencyHistogram();
+
+        // Act
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+
+        // Assert
+        var counts = histogram.snapshot().getBucketCounts();
+        assertThat(LatencyHistogram.BUCKET_BOUNDS_NANOS[3]).isEqualTo(TimeUnit.MILLISECONDS.toNanos(1));
+        assertThat(counts[3]).isEqualTo(1);
+        assertThat(counts[4]).isZero();
+    }
+
+    @Test
+    void record_LongerThanLastBound_CountsInOverflowBucket() {
+
+        // Arrange
+        var histogram = new LatencyHistogram();
+
+        // Act
+        histogram.record(TimeUnit.SECONDS.toNanos(30));
+
+        // Assert
+        var counts = histogram.snapshot().getBucketCounts();
+        assertThat(counts[counts.length - 1]).isEqualTo(1);
+        assertThat(counts.length).isEqualTo(LatencyHistogram.BUCKET_BOUNDS_NANOS.length + 1);
+    }
+
+    @Test
+    void snapshot_AfterSeveralDurations_ReturnsCountAndSum() {
+
+        // Arrange
+        var histogram = new LatencyHistogram();
+
+        // Act
+        histogram.record(50_000);
+        histogram.record(2_000_000);
+        histogram.record(-5);
+
+        // Assert
+        var snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount()).isEqualTo(3);
+        assertThat(snapshot.getSumNanos()).isEqualTo(2_050_000);
+        assertThat(snapshot.getBucketCounts()[0]).isEqualTo(2);
+    }
+}
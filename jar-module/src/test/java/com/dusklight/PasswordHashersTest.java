@@ -0,0 +1,115 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PasswordHashersTest {
+
+    // "foobar", in the original format.
+    private static final String FOOBAR_PASSWORD_HASH =
+            "kcBJWHhEpQT1PSo4J8ZOkh1r6PLens1OLZw+k09stYL+oaQAzuKIgnK74O5N89BhMWIKZ1t19FJD891pjwHIzg=="
+            + ".LiMWfPVrAvYKELcoYFMGBw==.27500";
+
+    private static final Pbkdf2PasswordHasher PBKDF2_SHA256 = new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.PBKDF2_SHA256, 1000);
+    private static final Pbkdf2PasswordHasher PBKDF2_SHA512 = new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.PBKDF2_SHA512, 1000);
+    private static final Argon2PasswordHasher ARGON2ID = new Argon2PasswordHasher(1, 64, 1);
+
+    private static PasswordHashers hashers(PasswordHasher current) {
+        return new PasswordHashers(current, List.of(PBKDF2_SHA256, PBKDF2_SHA512, ARGON2ID));
+    }
+
+    @Test
+    void parse_UnprefixedHash_VerifiedAsPbkdf2Sha256() {
+
+        // Arrange
+        var passwordHashers = hashers(ARGON2ID);
+
+        // Act
+        var credential = passwordHashers.parse(FOOBAR_PASSWORD_HASH);
+
+        // Assert
+        assertThat(credential).isInstanceOf(DusklightPasswordCredential.class);
+        assertThat(credential.matches("foobar")).isTrue();
+        assertThat(credential.matches("foobaz")).isFalse();
+    }
+
+    @Test
+    void hash_Pbkdf2Sha256_WrittenWithoutPrefix() {
+
+        // Arrange
+        var passwordHashers = hashers(PBKDF2_SHA256);
+
+        // Act
+        var passwordHash = passwordHashers.hash("foobar");
+
+        // Assert
+        assertThat(passwordHash).doesNotContain(":").endsWith(".1000");
+        assertThat(DusklightPasswordCredential.parse(passwordHash, "PBKDF2WithHmacSHA256").matches("foobar")).isTrue();
+    }
+
+    @Test
+    void hash_Pbkdf2Sha512_PrefixedAndVerifiable() {
+
+        // Arrange
+        var passwordHashers = hashers(PBKDF2_SHA512);
+
+        // Act
+        var passwordHash = passwordHashers.hash("foobar");
+        var credential = passwordHashers.parse(passwordHash);
+
+        // Assert
+        assertThat(passwordHash).startsWith("pbkdf2-sha512:").endsWith(".1000");
+        assertThat(((DusklightPasswordCredential) credential).getPbkdf2Algorithm()).isEqualTo("PBKDF2WithHmacSHA512");
+        assertThat(credential.matches("foobar")).isTrue();
+        assertThat(credential.matches("foobaz")).isFalse();
+    }
+
+    @Test
+    void parse_HashOfOtherAlgorithm_VerifiedWithItsOwnAlgorithm() {
+
+        // Arrange
+        var argon2Hash = hashers(ARGON2ID).hash("foobar");
+        var passwordHashers = hashers(PBKDF2_SHA512);
+
+        // Act
+        var credential = passwordHashers.parse(argon2Hash);
+
+        // Assert
+        assertThat(argon2Hash).startsWith("argon2id:");
+        assertThat(credential.matches("foobar")).isTrue();
+        assertThat(passwordHashers.needsRehash(credential)).isTrue();
+    }
+
+    @Test
+    void parse_UnknownAlgorithmOrMalformed_ReturnsNull() {
+
+        // Arrange
+        var passwordHashers = hashers(PBKDF2_SHA256);
+
+        // Act & Assert
+        assertThat(passwordHashers.parse(null)).isNull();
+        assertThat(passwordHashers.parse("bcrypt:aGFzaA==.c2FsdA==.1000")).isNull();
+        assertThat(passwordHashers.parse("pbkdf2-sha512:aGFzaA==.c2FsdA==")).isNull();
+        assertThat(passwordHashers.parse("argon2id:aGFzaA==.c2FsdA==.1.64")).isNull();
+    }
+
+    @Test
+    void needsRehash_DependsOnAlgorithmAndParameters() {
+
+        // Arrange
+        var passwordHashers = hashers(PBKDF2_SHA256);
+        var current = passwordHashers.parse(passwordHashers.hash("foobar"));
+        var fewerIterations = passwordHashers.parse(FOOBAR_PASSWORD_HASH.replace(".27500", ".500"));
+        var moreIterations = passwordHashers.parse(FOOBAR_PASSWORD_HASH.replace(".27500", ".50000"));
+        var otherDigest = passwordHashers.parse(hashers(PBKDF2_SHA512).hash("foobar"));
+
+        // Act & Assert
+        assertThat(passwordHashers.needsRehash(current)).isFalse();
+        assertThat(passwordHashers.needsRehash(fewerIterations)).isTrue();
+        assertThat(passwordHashers.needsRehash(moreIterations)).isFalse();
+        assertThat(passwordHashers.needsRehash(otherDigest)).isTrue();
+    }
+}
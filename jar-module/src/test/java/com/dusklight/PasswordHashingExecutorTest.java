@@ -0,0 +1,136 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.dusklight.PasswordHashingExecutor.HashingRejectedException;
+import static com.dusklight.PasswordHashingExecutor.RejectionPolicy;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PasswordHashingExecutorTest {
+
+    @Test
+    void execute_QueueFullWithRejectPolicy_FailsFast() throws Exception {
+
+        // Arrange
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        var caller = Executors.newFixedThreadPool(2);
+
+        try (var executor = new PasswordHashingExecutor("test", 1, 1, 10000, RejectionPolicy.REJECT)) {
+            // One task running, one waiting in the queue.
+            caller.submit(() -> executor.execute(null, () -> { started.countDown(); release.await(); return "running"; }));
+            started.await(5, TimeUnit.SECONDS);
+            caller.submit(() -> executor.execute(null, () -> "queued"));
+
+            while (executor.getQueueDepth() < 1) {
+                Thread.sleep(1);
+            }
+
+            // Act & Assert
+            assertThatThrownBy(() -> executor.execute(null, () -> "rejected"))
+                    .isInstanceOf(HashingRejectedException.class);
+            assertThat(executor.getRejectedCount()).isEqualTo(1);
+        } finally {
+            release.countDown();
+            caller.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_QueueFullWithCallerRunsPolicy_RunsOnCallerThread() throws Exception {
+
+        // Arrange
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        var caller = Executors.newFixedThreadPool(2);
+
+        try (var executor = new PasswordHashingExecutor("test", 1, 1, 10000, RejectionPolicy.CALLER_RUNS)) {
+            caller.submit(() -> executor.execute(null, () -> { started.countDown(); release.await(); return "running"; }));
+            started.await(5, TimeUnit.SECONDS);
+            caller.submit(() -> executor.execute(null, () -> "queued"));
+
+            while (executor.getQueueDepth() < 1) {
+                Thread.sleep(1);
+            }
+
+            // Act
+            var thread = executor.execute(null, () -> Thread.currentThread().getName());
+
+            // Assert
+            assertThat(thread).isEqualTo(Thread.currentThread().getName());
+        } finally {
+            release.countDown();
+            caller.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_TakesLongerThanMaxWait_IsRejected() {
+
+        // Arrange
+        try (var executor = new PasswordHashingExecutor("test", 1, 1, 50, RejectionPolicy.REJECT)) {
+
+            // Act & Assert
+            assertThatThrownBy(() -> executor.execute(null, () -> { Thread.sleep(5000); return "slow"; }))
+                    .isInstanceOf(HashingRejectedException.class);
+            assertThat(executor.getTimedOutCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void execute_OnHashingThread_ReturnsResult() {
+
+        // Arrange
+        try (var executor = new PasswordHashingExecutor("test-hashing", 2, 10, 10000, RejectionPolicy.REJECT)) {
+
+            // Act
+            var thread = executor.execute("alice:mac", () -> Thread.currentThread().getName());
+
+            // Assert
+            assertThat(thread).startsWith("test-hashing");
+        }
+    }
+
+    @Test
+    void trySubmit_QueueFullWithCallerRunsPolicy_DroppedWithoutRunning() throws Exception {
+
+        // Arrange
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        var ranOnCaller = new AtomicBoolean();
+
+        try (var executor = new PasswordHashingExecutor("test", 1, 1, 10000, RejectionPolicy.CALLER_RUNS)) {
+            executor.trySubmit(() -> {
+                started.countDown();
+                awaitQuietly(release);
+            });
+            started.await(5, TimeUnit.SECONDS);
+            var queued = executor.trySubmit(() -> {});
+
+            // Act
+            var dropped = !executor.trySubmit(() -> ranOnCaller.set(true));
+
+            // Assert
+            assertThat(queued).isTrue();
+            assertThat(dropped).isTrue();
+            assertThat(ranOnCaller.get()).isFalse();
+            assertThat(executor.getRejectedCount()).isEqualTo(1);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Pbkdf2CalibrationTest {
+
+    @Test
+    void iterationsFor_ScalesProbeToTarget_RoundedDown() {
+
+        // Arrange
+        // 10000 iterations in 4 ms: 100 ms allows 250000 iterations.
+        long probeNanos = 4_000_000;
+
+        // Act
+        var iterations = Pbkdf2Calibration.iterationsFor(probeNanos, 10000, 100_000_000, 1000, 10_000_000);
+
+        // Assert
+        assertThat(iterations).isEqualTo(250000);
+    }
+
+    @Test
+    void iterationsFor_NotAMultiple_RoundsDownToMultiple() {
+
+        // Act
+        var iterations = Pbkdf2Calibration.iterationsFor(3_000_000, 10000, 100_000_000, 1000, 10_000_000);
+
+        // Assert
+        assertThat(iterations).isEqualTo(333000);
+    }
+
+    @Test
+    void iterationsFor_SlowHardware_ClampedToMinimum() {
+
+        // Act
+        var iterations = Pbkdf2Calibration.iterationsFor(500_000_000, 10000, 100_000_000, 27500, 1_000_000);
+
+        // Assert
+        assertThat(iterations).isEqualTo(27500);
+    }
+
+    @Test
+    void iterationsFor_FastHardware_ClampedToMaximum() {
+
+        // Act
+        var iterations = Pbkdf2Calibration.iterationsFor(1000, 10000, 100_000_000, 27500, 1_000_000);
+
+        // Assert
+        assertThat(iterations).isEqualTo(1_000_000);
+    }
+
+    @Test
+    void calibrate_ReturnsCountWithinBounds() {
+
+        // Act
+        var iterations = Pbkdf2Calibration.calibrate("PBKDF2WithHmacSHA256", 64, 50, 1000, 500_000);
+
+        // Assert
+        assertThat(iterations).isBetween(1000, 500_000);
+        assertThat(iterations % Pbkdf2Calibration.ROUNDING).isZero();
+    }
+}
@@ -0,0 +1,91 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Pbkdf2EngineTest {
+
+    @Test
+    void deriveKey_Sha256_MatchesRfc7914TestVectors() {
+
+        // Act
+        byte[] dk1 = Pbkdf2Engine.deriveKey("passwd", bytes("salt"), 1, 64, "PBKDF2WithHmacSHA256");
+        byte[] dk2 = Pbkdf2Engine.deriveKey("Password", bytes("NaCl"), 80000, 64, "PBKDF2WithHmacSHA256");
+
+        // Assert
+        assertThat(hex(dk1)).isEqualTo("55ac046e56e3089fec1691c22544b605f94185216dde0465e68b9d57c20dacbc"
+                + "49ca9cccf179b645991664b39d77ef317c71b845b1e30bd509112041d3a19783");
+        assertThat(hex(dk2)).isEqualTo("4ddcd8f60b98be21830cee5ef22701f9641a4418d04c0414aeff08876b34ab56"
+                + "a1d425a1225833549adb841b51c9b3176a272bdebba1d078478f62b397f33c8d");
+    }
+
+    @Test
+    void deriveKey_Sha1_MatchesRfc6070TestVectors() {
+
+        // Act
+        byte[] dk1 = Pbkdf2Engine.deriveKey("password", bytes("salt"), 1, 20, "PBKDF2WithHmacSHA1");
+        byte[] dk2 = Pbkdf2Engine.deriveKey("password", bytes("salt"), 4096, 20, "PBKDF2WithHmacSHA1");
+
+        // Assert
+        assertThat(hex(dk1)).isEqualTo("0c60c80f961f0e71f3a9b524af6012062fe037a6");
+        assertThat(hex(dk2)).isEqualTo("4b007901b765489abead49d926f721d065a429c1");
+    }
+
+    @Test
+    void deriveKey_ExistingUserHashConfiguration_MatchesJce() {
+
+        // Arrange
+        byte[] salt = Base64.getDecoder().decode("LiMWfPVrAvYKELcoYFMGBw==");
+
+        // Act
+        byte[] fast = Pbkdf2Engine.deriveKey("foobar", salt, 27500, 64, "PBKDF2WithHmacSHA256");
+        byte[] jce = Pbkdf2Provider.generateHashJce("foobar", salt, 27500, 64, "PBKDF2WithHmacSHA256");
+
+        // Assert
+        assertThat(Base64.getEncoder().encodeToString(fast))
+                .isEqualTo("kcBJWHhEpQT1PSo4J8ZOkh1r6PLens1OLZw+k09stYL+oaQAzuKIgnK74O5N89BhMWIKZ1t19FJD891pjwHIzg==");
+        assertThat(hex(fast)).isEqualTo(hex(jce));
+    }
+
+    @Test
+    void deriveKey_Sha512LongNonAsciiPasswordAndMultipleBlocks_MatchesJce() {
+
+        // Arrange
+        // Longer than the SHA-512 block size, so the key is hashed first, and non-ASCII to check the UTF-8 encoding.
+        String password = "p\u00e4ssw\u00f6rd-".repeat(20);
+        byte[] salt = bytes("0123456789abcdef");
+
+        // Act
+        byte[] fast = Pbkdf2Engine.deriveKey(password, salt, 1000, 150, "PBKDF2WithHmacSHA512");
+        byte[] jce = Pbkdf2Provider.generateHashJce(password, salt, 1000, 150, "PBKDF2WithHmacSHA512");
+
+        // Assert
+        assertThat(hex(fast)).isEqualTo(hex(jce));
+    }
+
+    @Test
+    void supports_UnknownAlgorithm_ReturnsFalse() {
+
+        // Act & Assert
+        assertThat(Pbkdf2Engine.supports("PBKDF2WithHmacSHA256")).isTrue();
+        assertThat(Pbkdf2Engine.supports("PBKDF2WithHmacMD5")).isFalse();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String hex(byte[] bytes) {
+        var builder = new StringBuilder();
+
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void tryAcquire_BurstOfOneSecond_GrantsUpToRateThenDenies() {
+
+        // Arrange
+        var limiter = new RateLimiter(5, clock::get);
+
+        // Act
+        int granted = 0;
+
+        for (int i = 0; i < 10; i++) {
+            if (limiter.tryAcquire()) {
+                granted++;
+            }
+        }
+
+        // Assert
+        assertThat(granted).isEqualTo(5);
+        assertThat(limiter.getGrantedCount()).isEqualTo(5);
+        assertThat(limiter.getDeniedCount()).isEqualTo(5);
+    }
+
+    @Test
+    void tryAcquire_AfterTimePasses_RefillsAtRate() {
+
+        // Arrange
+        var limiter = new RateLimiter(5, clock::get);
+
+        while (limiter.tryAcquire()) {
+            // Empties the bucket.
+        }
+
+        // Act
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+        var first = limiter.tryAcquire();
+        var second = limiter.tryAcquire();
+
+        // Assert
+        assertThat(first).isTrue();
+        assertThat(second).isFalse();
+    }
+
+    @Test
+    void tryAcquire_LongIdle_BurstCappedAtOneSecond() {
+
+        // Arrange
+        var limiter = new RateLimiter(2, clock::get);
+
+        // Act
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(10));
+        int granted = 0;
+
+        while (limiter.tryAcquire()) {
+            granted++;
+        }
+
+        // Assert
+        assertThat(granted).isEqualTo(2);
+    }
+
+    @Test
+    void tryAcquire_RateBelowOnePerSecond_GrantsOneThenWaits() {
+
+        // Arrange
+        var limiter = new RateLimiter(0.5, clock::get);
+
+        // Act
+        var first = limiter.tryAcquire();
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        var afterOneSecond = limiter.tryAcquire();
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        var afterTwoSeconds = limiter.tryAcquire();
+
+        // Assert
+        assertThat(first).isTrue();
+        assertThat(afterOneSecond).isFalse();
+        assertThat(afterTwoSeconds).isTrue();
+    }
+}
@@ -0,0 +1,72 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    @Test
+    void execute_ConcurrentCallsForSameKey_RunLoaderOnce() throws Exception {
+
+        // Arrange
+        int threads = 8;
+        var singleFlight = new SingleFlight<String, String>();
+        var loaderCalls = new AtomicInteger();
+        var releaseLoader = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            var results = new ArrayList<Future<String>>();
+
+            // Act
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> singleFlight.execute("alice", () -> {
+                    loaderCalls.incrementAndGet();
+                    releaseLoader.await();
+                    return "Alice";
+                })));
+            }
+
+            // Wait until all but the first caller are waiting on the first caller's result.
+            while (singleFlight.getCoalescedCount() < threads - 1) {
+                Thread.sleep(1);
+            }
+
+            releaseLoader.countDown();
+
+            // Assert
+            for (var result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("Alice");
+            }
+
+            assertThat(loaderCalls.get()).isEqualTo(1);
+            assertThat(singleFlight.getExecutionCount()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_LoaderThrows_PropagatesExceptionAndAllowsRetry() throws Exception {
+
+        // Arrange
+        var singleFlight = new SingleFlight<String, String>();
+
+        // Act & Assert
+        assertThatThrownBy(() -> singleFlight.execute("alice", () -> { throw new SQLException("down"); }))
+                .isInstanceOf(SQLException.class);
+
+        assertThat(singleFlight.execute("alice", () -> "Alice")).isEqualTo("Alice");
+    }
+}
@@ -0,0 +1,278 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UnknownUsernameFilterTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger findQueries = new AtomicInteger();
+    private final AtomicBoolean databaseDown = new AtomicBoolean();
+    private final Map<Integer, String> users = new ConcurrentSkipListMap<>(Map.of(1, "Alice", 2, "bob", 3, "carol"));
+    // Rowversion of each user's last write; users without one were written before the tests.
+    private final Map<Integer, Long> rowVersions = new ConcurrentSkipListMap<>();
+    // Users written by transactions that haven't committed yet.
+    private final Set<Integer> uncommitted = new ConcurrentSkipListSet<>();
+    private final AtomicLong nextRowVersion = new AtomicLong(100);
+
+    private final DusklightUserRepository repository = new DusklightUserRepository(null) {
+        @Override
+        public int countUsers() {
+            return users.size();
+        }
+
+        @Override
+        public int forEachUsername(int afterUserId, Consumer<String> consumer) {
+            int maxUserId = afterUserId;
+
+            for (var user : new TreeMap<>(users).tailMap(afterUserId, false).entrySet()) {
+                if (!uncommitted.contains(user.getKey())) {
+                    consumer.accept(user.getValue());
+                    maxUserId = user.getKey();
+                }
+            }
+
+            return maxUserId;
+        }
+
+        @Override
+        public long getMinActiveRowVersion() {
+            return uncommitted.stream().mapToLong(rowVersions::get).min().orElse(nextRowVersion.get());
+        }
+
+        @Override
+        public long forEachChangedUser(long afterRowVersion, int maxRows, Consumer<DusklightUserEntity> consumer) {
+            var minActiveRowVersion = getMinActiveRowVersion();
+            long maxRowVersion = afterRowVersion;
+
+            var changesInRowVersionOrder = rowVersions.entrySet().stream()
+                    .sorted(Map.Entry.comparingByValue())
+                    .collect(Collectors.toList());
+
+            for (var change : changesInRowVersionOrder) {
+                if (maxRows == 0 || change.getValue() >= minActiveRowVersion) {
+                    break;
+                }
+
+                if (change.getValue() > afterRowVersion) {
+                    var user = new DusklightUserEntity();
+                    user.setUserId(change.getKey());
+                    user.setUsername(users.get(change.getKey()));
+                    consumer.accept(user);
+                    maxRowVersion = change.getValue();
+                    maxRows--;
+                }
+            }
+
+            return maxRowVersion;
+        }
+
+        @Override
+        public DusklightUserEntity findByUsername(String username) throws SQLException {
+            findQueries.incrementAndGet();
+
+            if (databaseDown.get()) {
+                throw new SQLException("Connection reset");
+            }
+
+            return users.values().stream()
+                    .filter(name -> name.equalsIgnoreCase(username))
+                    .map(name -> {
+                        var user = new DusklightUserEntity();
+                        user.setUsername(name);
+                        return user;
+                    })
+                    .findFirst()
+                    .orElse(null);
+        }
+    };
+
+    private void write(int userId, String username, boolean committed) {
+        users.put(userId, username);
+        rowVersions.put(userId, nextRowVersion.getAndIncrement());
+
+        if (!committed) {
+            uncommitted.add(userId);
+        }
+    }
+
+    private UnknownUsernameFilter createFilter() {
+        return new UnknownUsernameFilter(repository, 0.001, 1024 * 1024, 1000, 60000, 500, clock::get);
+    }
+
+    @Test
+    void isDefinitelyMissing_BeforeFirstRefresh_ReturnsFalse() {
+
+        // Arrange
+        var filter = createFilter();
+
+        // Act & Assert
+        assertThat(filter.isDefinitelyMissing("mallory")).isFalse();
+    }
+
+    @Test
+    void isDefinitelyMissing_AfterRefresh_RejectsOnlyUnknownUsernames() {
+
+        // Arrange
+        var filter = createFilter();
+
+        // Act
+        filter.refresh();
+
+        // Assert
+        assertThat(filter.isDefinitelyMissing("alice")).isFalse();
+        assertThat(filter.isDefinitelyMissing("bob")).isFalse();
+        assertThat(filter.isDefinitelyMissing("mallory")).isTrue();
+        assertThat(filter.getFilterRejectionCount()).isEqualTo(1);
+        assertThat(filter.getRebuildCount()).isEqualTo(1);
+    }
+
+    @Test
+    void refresh_NewUser_AddedIncrementallyAndNoLongerMissing() {
+
+        // Arrange
+        var filter = createFilter();
+        filter.refresh();
+        filter.recordMissing("dave");
+
+        // Act
+        write(4, "Dave", true);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        filter.refresh();
+
+        // Assert
+        assertThat(filter.isDefinitelyMissing("dave")).isFalse();
+        assertThat(filter.getRebuildCount()).isEqualTo(1);
+    }
+
+    @Test
+    void refresh_UserCommittedAfterHigherUserId_StillAdded() {
+
+        // Arrange
+        var filter = createFilter();
+        filter.refresh();
+
+        // Act
+        write(4, "dave", false);
+        write(5, "erin", true);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        filter.refresh();
+        var missingBeforeCommit = filter.isDefinitelyMissing("dave");
+
+        uncommitted.remove(4);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        filter.refresh();
+
+        // Assert
+        assertThat(missingBeforeCommit).isTrue();
+        assertThat(filter.isDefinitelyMissing("dave")).isFalse();
+        assertThat(filter.isDefinitelyMissing("erin")).isFalse();
+        assertThat(filter.getRebuildCount()).isEqualTo(1);
+    }
+
+    @Test
+    void refresh_UserCommittedDuringRebuild_AddedByNextRefresh() {
+
+        // Arrange
+        write(4, "dave", false);
+        var filter = createFilter();
+        filter.refresh();
+
+        // Act
+        uncommitted.remove(4);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        filter.refresh();
+
+        // Assert
+        assertThat(filter.isDefinitelyMissing("dave")).isFalse();
+        assertThat(filter.getRebuildCount()).isEqualTo(1);
+    }
+
+    @Test
+    void refresh_RenamedUser_NewUsernameAdded() {
+
+        // Arrange
+        var filter = createFilter();
+        filter.refresh();
+
+        // Act
+        write(2, "Robert", true);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        filter.refresh();
+
+        // Assert
+        assertThat(filter.isDefinitelyMissing("robert")).isFalse();
+    }
+
+    @Test
+    void isDefinitelyMissing_RefreshStale_FilterNotTrusted() {
+
+        // Arrange
+        var filter = createFilter();
+        filter.refresh();
+
+        // Act
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(3000));
+
+        // Assert
+        assertThat(filter.isDefinitelyMissing("mallory")).isFalse();
+    }
+
+    @Test
+    void findByUsername_UnknownUsernames_QueriedAtMostOnce() {
+
+        // Arrange
+        var filter = createFilter();
+        var lookup = new DusklightUserLookup(repository, new ExpiringCache<>(100, 60000), filter, null);
+
+        // Act
+        var beforeFilterBuilt = lookup.findByUsername("Mallory");
+        var recentlyMissing = lookup.findByUsername("mallory");
+        filter.refresh();
+        var filtered = lookup.findByUsername("trudy");
+        var existing = lookup.findByUsername("ALICE");
+
+        // Assert
+        assertThat(beforeFilterBuilt).isNull();
+        assertThat(recentlyMissing).isNull();
+        assertThat(filtered).isNull();
+        assertThat(existing.getUsername()).isEqualTo("Alice");
+        assertThat(findQueries.get()).isEqualTo(2);
+        assertThat(filter.getSavedQueryCount()).isEqualTo(2);
+    }
+
+    @Test
+    void findByUsername_QueryFails_UserNotRecordedAsMissing() {
+
+        // Arrange
+        var filter = createFilter();
+        var lookup = new DusklightUserLookup(repository, new ExpiringCache<>(100, 60000), filter, null);
+
+        // Act
+        databaseDown.set(true);
+        var duringOutage = lookup.findByUsername("bob");
+        databaseDown.set(false);
+        var missingAfterOutage = filter.isDefinitelyMissing("bob");
+        var afterOutage = lookup.findByUsername("bob");
+
+        // Assert
+        assertThat(duringOutage).isNull();
+        assertThat(missingAfterOutage).isFalse();
+        assertThat(afterOutage.getUsername()).isEqualTo("bob");
+        assertThat(findQueries.get()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,136 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserChangePollerTest {
+
+    // Changed users by rowversion.
+    private final TreeMap<Long, DusklightUserEntity> changes = new TreeMap<>();
+    private final List<Long> queriedWatermarks = new ArrayList<>();
+    private boolean failNextQuery;
+
+    private final DusklightUserRepository repository = new DusklightUserRepository(null) {
+        @Override
+        public long getMinActiveRowVersion() {
+            return 100;
+        }
+
+        @Override
+        public long forEachChangedUser(long afterRowVersion, int maxRows, Consumer<DusklightUserEntity> consumer) throws SQLException {
+            queriedWatermarks.add(afterRowVersion);
+
+            if (failNextQuery) {
+                failNextQuery = false;
+                throw new SQLException("Connection reset");
+            }
+
+            long maxRowVersion = afterRowVersion;
+
+            for (var change : changes.tailMap(afterRowVersion, false).entrySet()) {
+                if (maxRows-- == 0) {
+                    break;
+                }
+
+                consumer.accept(change.getValue());
+                maxRowVersion = change.getKey();
+            }
+
+            return maxRowVersion;
+        }
+    };
+
+    @Test
+    void poll_FirstPoll_OnlyRecordsWatermark() {
+
+        // Arrange
+        var poller = new UserChangePoller(repository, 2);
+        List<DusklightUserEntity> received = new ArrayList<>();
+        poller.addListener(received::addAll);
+        changes.put(50L, user(1, "alice"));
+
+        // Act
+        poller.poll();
+        poller.poll();
+
+        // Assert
+        assertThat(received).isEmpty();
+        assertThat(queriedWatermarks).containsExactly(99L);
+    }
+
+    @Test
+    void poll_ChangesSinceWatermark_DeliveredInBatches() {
+
+        // Arrange
+        var poller = new UserChangePoller(repository, 2);
+        List<List<DusklightUserEntity>> batches = new ArrayList<>();
+        poller.addListener(batches::add);
+        poller.poll();
+
+        changes.put(100L, user(1, "alice"));
+        changes.put(101L, user(2, "bob"));
+        changes.put(102L, user(3, "carol"));
+
+        // Act
+        poller.poll();
+        poller.poll();
+
+        // Assert
+        assertThat(batches).hasSize(2);
+        assertThat(batches.get(0)).extracting(DusklightUserEntity::getUsername).containsExactly("alice", "bob");
+        assertThat(batches.get(1)).extracting(DusklightUserEntity::getUsername).containsExactly("carol");
+        assertThat(queriedWatermarks).containsExactly(99L, 101L, 102L);
+        assertThat(poller.getChangedRowCount()).isEqualTo(3);
+    }
+
+    @Test
+    void poll_QueryFails_SameChangesReadAgain() {
+
+        // Arrange
+        var poller = new UserChangePoller(repository, 10);
+        List<DusklightUserEntity> received = new ArrayList<>();
+        poller.addListener(received::addAll);
+        poller.poll();
+        changes.put(100L, user(1, "alice"));
+
+        // Act
+        failNextQuery = true;
+        poller.poll();
+        poller.poll();
+
+        // Assert
+        assertThat(received).extracting(DusklightUserEntity::getUsername).containsExactly("alice");
+        assertThat(poller.getFailureCount()).isEqualTo(1);
+    }
+
+    @Test
+    void usersChanged_RenamedUser_DroppedFromLookupCacheUnderOldUsername() {
+
+        // Arrange
+        var userCache = new ExpiringCache<String, DusklightUserEntity>(100, 60000);
+        var lookup = new DusklightUserLookup(new DusklightUserRepository(null), userCache);
+        userCache.put("alice", user(1, "alice"));
+        userCache.put("bob", user(2, "bob"));
+
+        // Act
+        lookup.usersChanged(List.of(user(1, "alice.smith")));
+
+        // Assert
+        assertThat(userCache.get("alice")).isNull();
+        assertThat(userCache.get("bob")).isNotNull();
+    }
+
+    private static DusklightUserEntity user(int userId, String username) {
+        var user = new DusklightUserEntity();
+        user.setUserId(userId);
+        user.setUsername(username);
+        return user;
+    }
+}
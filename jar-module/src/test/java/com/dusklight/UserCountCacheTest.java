@@ -0,0 +1,95 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserCountCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger exactCounts = new AtomicInteger();
+    private final AtomicInteger approximateCounts = new AtomicInteger();
+
+    private final DusklightUserRepository repository = new DusklightUserRepository(null) {
+        @Override
+        public int countUsers() {
+            exactCounts.incrementAndGet();
+            return 42;
+        }
+
+        @Override
+        public int countUsersApproximately() throws SQLException {
+            approximateCounts.incrementAndGet();
+            throw new SQLException("VIEW DATABASE STATE permission denied");
+        }
+    };
+
+    @Test
+    void getUsersCount_WithinTtl_CountsOnce() throws Exception {
+
+        // Arrange
+        var cache = new UserCountCache(repository, 1000, false, clock::get);
+
+        // Act
+        var first = cache.getUsersCount();
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        var second = cache.getUsersCount();
+
+        // Assert
+        assertThat(first).isEqualTo(42);
+        assertThat(second).isEqualTo(42);
+        assertThat(exactCounts.get()).isEqualTo(1);
+    }
+
+    @Test
+    void getUsersCount_AfterTtl_CountsAgain() throws Exception {
+
+        // Arrange
+        var cache = new UserCountCache(repository, 1000, false, clock::get);
+
+        // Act
+        cache.getUsersCount();
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        cache.getUsersCount();
+
+        // Assert
+        assertThat(exactCounts.get()).isEqualTo(2);
+    }
+
+    @Test
+    void getUsersCount_ApproximateCountFails_FallsBackToExactCount() throws Exception {
+
+        // Arrange
+        var cache = new UserCountCache(repository, 1000, true, clock::get);
+
+        // Act
+        var count = cache.getUsersCount();
+
+        // Assert
+        assertThat(count).isEqualTo(42);
+        assertThat(approximateCounts.get()).isEqualTo(1);
+        assertThat(exactCounts.get()).isEqualTo(1);
+    }
+
+    @Test
+    void getUsersCount_ApproximateCountFailedBefore_CountsExactlyWithoutRetrying() throws Exception {
+
+        // Arrange
+        var cache = new UserCountCache(repository, 1000, true, clock::get);
+        cache.getUsersCount();
+
+        // Act
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        var count = cache.getUsersCount();
+
+        // Assert
+        assertThat(count).isEqualTo(42);
+        assertThat(approximateCounts.get()).isEqualTo(1);
+        assertThat(exactCounts.get()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,189 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UserLookupBatcherTest {
+
+    private final AtomicInteger queries = new AtomicInteger();
+    private final AtomicBoolean databaseDown = new AtomicBoolean();
+    private final List<Collection<String>> queriedBatches = new ArrayList<>();
+
+    private final DusklightUserRepository repository = new DusklightUserRepository(null) {
+        @Override
+        public Map<String, DusklightUserEntity> findByUsernames(Collection<String> usernames) throws SQLException {
+            queries.incrementAndGet();
+
+            if (databaseDown.get()) {
+                throw new SQLException("Connection reset");
+            }
+
+            synchronized (queriedBatches) {
+                queriedBatches.add(new ArrayList<>(usernames));
+            }
+
+            Map<String, DusklightUserEntity> users = new HashMap<>();
+
+            for (var username : usernames) {
+                if (username.startsWith("user")) {
+                    var user = new DusklightUserEntity();
+                    user.setUsername(username);
+                    users.put(username, user);
+                }
+            }
+
+            return users;
+        }
+    };
+
+    @Test
+    void findByUsername_LookupsWithinWindow_OneQuery() throws Exception {
+
+        // Arrange
+        // A long window, so every lookup joins the batch; the maximum size then triggers the query.
+        var batcher = new UserLookupBatcher(repository, 10000, 8);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        var start = new CountDownLatch(1);
+        List<Future<DusklightUserEntity>> results = new ArrayList<>();
+
+        // Act
+        try {
+            for (int i = 0; i < 8; i++) {
+                var username = i < 6 ? "user" + i : "stranger" + i;
+
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return batcher.findByUsername(username);
+                }));
+            }
+
+            start.countDown();
+
+            // Assert
+            for (int i = 0; i < 8; i++) {
+                var user = results.get(i).get(5, TimeUnit.SECONDS);
+
+                if (i < 6) {
+                    assertThat(user.getUsername()).isEqualTo("user" + i);
+                } else {
+                    assertThat(user).isNull();
+                }
+            }
+
+            assertThat(queries.get()).isEqualTo(1);
+            assertThat(batcher.getLookupCount()).isEqualTo(8);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void findByUsername_SingleLookup_QueriedAfterWindow() throws Exception {
+
+        // Arrange
+        var batcher = new UserLookupBatcher(repository, 5, 100);
+
+        // Act
+        var user = batcher.findByUsername("user1");
+
+        // Assert
+        assertThat(user.getUsername()).isEqualTo("user1");
+        assertThat(queries.get()).isEqualTo(1);
+        assertThat(batcher.getBatchCount()).isEqualTo(1);
+    }
+
+    @Test
+    void findByUsernames_SomeCached_QueriesOnlyUncachedUsers() {
+
+        // Arrange
+        var userCache = new ExpiringCache<String, DusklightUserEntity>(100, 60000);
+        var cachedUser = new DusklightUserEntity();
+        cachedUser.setUsername("User1");
+        userCache.put("user1", cachedUser);
+
+        var lookup = new DusklightUserLookup(repository, userCache);
+
+        // Act
+        var users = lookup.findByUsernames(List.of("User1", "USER2", "stranger"));
+
+        // Assert
+        assertThat(users).hasSize(2);
+        assertThat(users.get("user1")).isSameAs(cachedUser);
+        assertThat(users.get("user2").getUsername()).isEqualTo("user2");
+        assertThat(queries.get()).isEqualTo(1);
+        assertThat(queriedBatches.get(0)).containsExactlyInAnyOrder("user2", "stranger");
+    }
+
+    @Test
+    void findByUsername_QueryFails_EveryLookupOfBatchFails() throws Exception {
+
+        // Arrange
+        var batcher = new UserLookupBatcher(repository, 10000, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        var start = new CountDownLatch(1);
+        List<Future<DusklightUserEntity>> results = new ArrayList<>();
+        databaseDown.set(true);
+
+        // Act
+        try {
+            for (int i = 0; i < 4; i++) {
+                var username = "user" + i;
+
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return batcher.findByUsername(username);
+                }));
+            }
+
+            start.countDown();
+
+            // Assert
+            for (var result : results) {
+                assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                        .isInstanceOf(ExecutionException.class)
+                        .hasCauseInstanceOf(SQLException.class);
+            }
+
+            assertThat(queries.get()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void findByUsername_BatchQueryFails_UserNotRecordedAsMissing() {
+
+        // Arrange
+        var filter = new UnknownUsernameFilter(repository, 0.01, 1024, 1000, 60000, 10000);
+        var lookup = new DusklightUserLookup(repository, new ExpiringCache<>(100, 60000), filter,
+                new UserLookupBatcher(repository, 1, 100));
+
+        // Act
+        databaseDown.set(true);
+        var duringOutage = lookup.findByUsername("user1");
+        databaseDown.set(false);
+        var afterOutage = lookup.findByUsername("user1");
+
+        // Assert
+        assertThat(duringOutage).isNull();
+        assertThat(afterOutage.getUsername()).isEqualTo("user1");
+        assertThat(queries.get()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,207 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserSearchIndexTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final Map<Integer, String[]> users = new ConcurrentSkipListMap<>(Map.of(
+            1, new String[] { "alice", "Alice", "Foo" },
+            2, new String[] { "bob", "Bob", "Bar" },
+            3, new String[] { "malice", "Mal", "Icebar" },
+            4, new String[] { "carol", "Carol", "Barker" }));
+    // Rowversion of each user's last write; users without one were written before the tests.
+    private final Map<Integer, Long> rowVersions = new ConcurrentSkipListMap<>();
+    // Users written by transactions that haven't committed yet.
+    private final Set<Integer> uncommitted = new ConcurrentSkipListSet<>();
+    private final AtomicLong nextRowVersion = new AtomicLong(100);
+
+    private final DusklightUserRepository repository = new DusklightUserRepository(null) {
+        @Override
+        public int forEachUserSearchFields(int afterUserId, SearchFieldsConsumer consumer) {
+            int maxUserId = afterUserId;
+
+            for (var user : users.entrySet()) {
+                if (user.getKey() > afterUserId && !uncommitted.contains(user.getKey())) {
+                    consumer.accept(user.getKey(), user.getValue()[0], user.getValue()[1], user.getValue()[2]);
+                    maxUserId = user.getKey();
+                }
+            }
+
+            return maxUserId;
+        }
+
+        @Override
+        public long getMinActiveRowVersion() {
+            return uncommitted.stream().mapToLong(rowVersions::get).min().orElse(nextRowVersion.get());
+        }
+
+        @Override
+        public long forEachChangedUser(long afterRowVersion, int maxRows, Consumer<DusklightUserEntity> consumer) {
+            var minActiveRowVersion = getMinActiveRowVersion();
+            long maxRowVersion = afterRowVersion;
+
+            var changesInRowVersionOrder = rowVersions.entrySet().stream()
+                    .sorted(Map.Entry.comparingByValue())
+                    .collect(Collectors.toList());
+
+            for (var change : changesInRowVersionOrder) {
+                if (maxRows == 0 || change.getValue() >= minActiveRowVersion) {
+                    break;
+                }
+
+                if (change.getValue() > afterRowVersion) {
+                    var fields = users.get(change.getKey());
+                    var user = new DusklightUserEntity();
+                    user.setUserId(change.getKey());
+                    user.setUsername(fields[0]);
+                    user.setFirstName(fields[1]);
+                    user.setLastName(fields[2]);
+                    consumer.accept(user);
+                    maxRowVersion = change.getValue();
+                    maxRows--;
+                }
+            }
+
+            return maxRowVersion;
+        }
+    };
+
+    private void write(int userId, String[] fields, boolean committed) {
+        users.put(userId, fields);
+        rowVersions.put(userId, nextRowVersion.getAndIncrement());
+
+        if (!committed) {
+            uncommitted.add(userId);
+        }
+    }
+
+    @Test
+    void search_BeforeRefresh_NotReady() {
+
+        // Arrange
+        var index = new UserSearchIndex(repository, 60000, clock::get);
+
+        // Act & Assert
+        assertThat(index.isReady()).isFalse();
+        assertThat(index.search("alice", 0, 10)).isEmpty();
+    }
+
+    @Test
+    void search_Substring_MatchesUsernameAndNamesInUserIdOrder() {
+
+        // Arrange
+        var index = new UserSearchIndex(repository, 60000, clock::get);
+        index.refresh();
+
+        // Act & Assert
+        assertThat(index.search("LICE", 0, 10)).containsExactly(1, 3);
+        assertThat(index.search("bar", 0, 10)).containsExactly(2, 3, 4);
+        assertThat(index.search("ar", 0, 10)).containsExactly(2, 3, 4);
+        assertThat(index.search("zzz", 0, 10)).isEmpty();
+    }
+
+    @Test
+    void search_TermSpanningTwoFields_DoesNotMatch() {
+
+        // Arrange
+        var index = new UserSearchIndex(repository, 60000, clock::get);
+        index.refresh();
+
+        // Act & Assert
+        assertThat(index.search("bobbob", 0, 10)).isEmpty();
+        assertThat(index.search("bobb", 0, 10)).isEmpty();
+    }
+
+    @Test
+    void search_Paged_ReturnsRequestedPage() {
+
+        // Arrange
+        var index = new UserSearchIndex(repository, 60000, clock::get);
+        index.refresh();
+
+        // Act & Assert
+        assertThat(index.search("bar", 1, 1)).containsExactly(3);
+        assertThat(index.search("bar", 3, 10)).isEmpty();
+    }
+
+    @Test
+    void refresh_NewUserAndLaterRebuild_IncludedInResults() {
+
+        // Arrange
+        var index = new UserSearchIndex(repository, 60000, clock::get);
+        index.refresh();
+
+        // Act
+        write(5, new String[] { "barbara", "Barbara", "Smith" }, true);
+        index.refresh();
+        var afterRefresh = index.search("bar", 0, 10);
+
+        users.remove(2);
+        rowVersions.remove(2);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(60000));
+        index.refresh();
+        var afterRebuild = index.search("bar", 0, 10);
+
+        // Assert
+        assertThat(afterRefresh).containsExactly(2, 3, 4, 5);
+        assertThat(afterRebuild).containsExactly(3, 4, 5);
+        assertThat(index.getIndexedUserCount()).isEqualTo(4);
+    }
+
+    @Test
+    void refresh_UserCommittedAfterHigherUserId_IncludedInResults() {
+
+        // Arrange
+        var index = new UserSearchIndex(repository, 60000, clock::get);
+        index.refresh();
+
+        // Act
+        write(5, new String[] { "barbara", "Barbara", "Smith" }, false);
+        write(6, new String[] { "barney", "Barney", "Rubble" }, true);
+        index.refresh();
+        var beforeCommit = index.search("bar", 0, 10);
+
+        uncommitted.remove(5);
+        index.refresh();
+        var afterCommit = index.search("bar", 0, 10);
+
+        // Assert
+        assertThat(beforeCommit).containsExactly(2, 3, 4);
+        assertThat(afterCommit).containsExactly(2, 3, 4, 5, 6);
+    }
+
+    @Test
+    void usersChanged_RenamedUser_FoundUnderNewNameOnly() {
+
+        // Arrange
+        var index = new UserSearchIndex(repository, 60000, clock::get);
+        index.refresh();
+
+        var renamed = new DusklightUserEntity();
+        renamed.setUserId(1);
+        renamed.setUsername("alicia");
+        renamed.setFirstName("Alicia");
+        renamed.setLastName("Foo");
+
+        // Act
+        index.usersChanged(List.of(renamed));
+
+        // Assert
+        assertThat(index.search("alice", 0, 10)).containsExactly(3);
+        assertThat(index.search("lici", 0, 10)).containsExactly(1);
+        assertThat(index.search("LICE", 0, 10)).containsExactly(3);
+    }
+}
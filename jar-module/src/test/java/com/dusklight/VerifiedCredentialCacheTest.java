@@ -0,0 +1,51 @@
+package com.dusklight;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VerifiedCredentialCacheTest {
+
+    private static final String STORED_HASH = "rhQPY84Iq//VX/uvKTFkBct+h+sLyKT9xU3Na4UY8MP1Qnqc+mxFKTmG+/7WvPzK94az6apHR2avgVbHxpfFuw==.kqUeLzJf4HUMSlS3B42Y0Q==.27500";
+
+    @Test
+    void isVerified_AfterSuccessfulVerification_ReturnsTrue() {
+
+        // Arrange
+        var cache = new VerifiedCredentialCache(100, 60000, new NodeSecretMac());
+        cache.verified("alice", STORED_HASH, "password");
+
+        // Act
+        var verified = cache.isVerified("Alice", STORED_HASH, "password");
+
+        // Assert
+        assertThat(verified).isTrue();
+    }
+
+    @Test
+    void isVerified_DifferentPasswordOrStoredHash_ReturnsFalse() {
+
+        // Arrange
+        var cache = new VerifiedCredentialCache(100, 60000, new NodeSecretMac());
+        cache.verified("alice", STORED_HASH, "password");
+
+        // Act & Assert
+        assertThat(cache.isVerified("alice", STORED_HASH, "wrong")).isFalse();
+        assertThat(cache.isVerified("alice", "changed" + STORED_HASH, "password")).isFalse();
+        assertThat(cache.isVerified("bob", STORED_HASH, "password")).isFalse();
+    }
+
+    @Test
+    void isVerified_AfterInvalidate_ReturnsFalse() {
+
+        // Arrange
+        var cache = new VerifiedCredentialCache(100, 60000, new NodeSecretMac());
+        cache.verified("alice", STORED_HASH, "password");
+
+        // Act
+        cache.invalidate("alice");
+
+        // Assert
+        assertThat(cache.isVerified("alice", STORED_HASH, "password")).isFalse();
+    }
+}